@@ -18,10 +18,16 @@ package assembling;
 import data.export.AbstractBitmapExporter;
 import data.image.AbstractBitmap;
 import data.image.BitmapSource;
+import data.image.ConcurrentBitmapSource;
+import data.image.PrefetchingBitmapSource;
+import data.image.SizeClassBitmapSource;
+import data.image.TintingBitmapSource;
 import data.storage.MosaicTile;
+import matching.MatcherIndexRegistry;
+import matching.MatcherSelector;
 import matching.TileMatcher;
-import matching.workers.FastMatcher;
-import matching.workers.SimpleLinearTileMatcher;
+import matching.workers.DescriptorMatcher;
+import matching.workers.SharedIndexMatcher;
 import reconstruction.ReconstructionParameters;
 import reconstruction.workers.*;
 import util.MultiStepProgressCallback;
@@ -30,49 +36,241 @@ import util.image.ColorSpace;
 
 import java.util.Collection;
 import java.util.Objects;
+import java.util.concurrent.ExecutorService;
 
 
-public class MosaicMaker<S> {
+/**
+ * Makes the projects of the different mosaic types from the same tiles. The maker keeps the threads that load the
+ * tiles' bitmaps ahead for all its projects, {@link #close()} stops them.
+ */
+public class MosaicMaker<S> implements AutoCloseable {
+    // the layer reconstructors request one fragment per layer, their amount is only known when reconstructing
+    private static final int EXPECTED_AUTO_LAYER_FRAGMENTS = 32;
 	private final BitmapSource<S> bitmapSource;
     private final AbstractBitmapExporter exporter;
-    private TileMatcher<S> matcher;
+    private final MatcherIndexRegistry<S> indexRegistry;
+    private TileMatcher<S> matcher; // chosen for the first project if not set
+    private boolean matcherSelected; // chosen by the MatcherSelector, not set
+    private DescriptorMatcher<S> descriptorMatcher; // made for the first rect project with descriptors
+    private int descriptorGridSize;
+    private int reuseLimit = TileMatcher.REUSE_UNLIMITED;
+    private int prefetchDepth = PrefetchingBitmapSource.DEFAULT_PREFETCH_DEPTH;
+    private ExecutorService prefetchLoaders; // shared by the projects, made for the first one that loads ahead
+    private double tintStrength;
+    private boolean sizeClasses;
 	private ColorSpace space;
 	private Collection<MosaicTile<S>> tiles;
 
 
     public MosaicMaker(BitmapSource<S> bitmapSource, ColorSpace space, Collection<MosaicTile<S>> tiles,
                        AbstractBitmapExporter exporter) {
+        this(bitmapSource, space, tiles, exporter, null);
+    }
+
+    /**
+     * Creates a new MosaicMaker. If a registry is given, makers for the same tiles collection share the color index
+     * instead of building their own, then {@link #releaseMatcher()} has to be invoked when the maker is not needed
+     * anymore.
+     * @param bitmapSource The source of the tiles' bitmaps, thread safe. Wrapped by a {@link ConcurrentBitmapSource},
+     *                     which only caches the bitmaps if the source does not, see {@link BitmapSource#isCaching()}.
+     * @param space The color space to use.
+     * @param tiles The tiles to use.
+     * @param exporter The exporter for the results.
+     * @param indexRegistry The registry of shared indices, can be null.
+     */
+    public MosaicMaker(BitmapSource<S> bitmapSource, ColorSpace space, Collection<MosaicTile<S>> tiles,
+                       AbstractBitmapExporter exporter, MatcherIndexRegistry<S> indexRegistry) {
 		Objects.requireNonNull(bitmapSource);
 		Objects.requireNonNull(exporter);
+		Objects.requireNonNull(space);
 		this.tiles = tiles;
-        setMatcherAutomatically();
+		this.indexRegistry = indexRegistry;
 		setColorSpace(space);
-		this.bitmapSource = bitmapSource;
+		// shared by the prefetching threads, so popular tiles are loaded once
+		this.bitmapSource = bitmapSource instanceof ConcurrentBitmapSource ? bitmapSource
+				: new ConcurrentBitmapSource<>(bitmapSource, bitmapSource.isCaching() ? 0L
+						: ConcurrentBitmapSource.DEFAULT_CACHE_BYTES);
 		this.exporter = exporter;
 	}
 
-    private void setMatcherAutomatically() {
-        if (tiles.size() > 5000) {
-            matcher = new FastMatcher<>(tiles, space);
-        } else {
-            matcher = new SimpleLinearTileMatcher<>(tiles, space);
+    private TileMatcher<S> getMatcher(int expectedFragments) {
+        if (matcher == null) {
+            matcher = MatcherSelector.select(tiles, space, expectedFragments, reuseLimit, indexRegistry);
+            matcherSelected = true;
         }
+        return matcher;
     }
 
+    /**
+     * Sets the matcher for the following projects instead of choosing one. It is kept when the color space changes,
+     * see {@link #setColorSpace(ColorSpace)}.
+     * @param matcher The matcher to use.
+     */
     public void setMatcher(TileMatcher<S> matcher) {
         Objects.requireNonNull(matcher);
+        matcher.setColorSpace(space);
+        if (matcher != this.matcher) {
+            releaseMatcher();
+        }
         this.matcher = matcher;
-        this.matcher.setColorSpace(space);
+        matcherSelected = false;
+        this.matcher.setTileReuseLimit(reuseLimit);
     }
 
+    /**
+     * Sets how often a tile can be used, see {@link TileMatcher#setTileReuseLimit(int)}. Also influences
+     * the matcher that is chosen automatically.
+     * @param limit The reuse limit.
+     */
+    public void setTileReuseLimit(int limit) {
+        reuseLimit = limit;
+        if (matcher != null) {
+            matcher.setTileReuseLimit(limit);
+        }
+        if (descriptorMatcher != null) {
+            descriptorMatcher.setTileReuseLimit(limit);
+        }
+    }
+
+    /**
+     * Sets how many tile bitmaps are loaded in the background ahead of the fragment that is assembled,
+     * see {@link PrefetchingBitmapSource}. Only reconstructors that know their next fragments load ahead.
+     * @param depth The maximum amount of bitmaps loaded ahead, zero to load each bitmap when it is needed.
+     */
+    public void setPrefetchDepth(int depth) {
+        if (depth < 0) {
+            throw new IllegalArgumentException("Prefetch depth must not be negative: " + depth);
+        }
+        prefetchDepth = depth;
+    }
+
+    /**
+     * Sets if the tiles' bitmaps are only resized to a small set of size classes and then cropped to their
+     * fragments' sizes, see {@link SizeClassBitmapSource}. This shares the resized bitmaps between fragments of
+     * about the same size, which pays off for reconstructors with many distinct fragment sizes like multi rect.
+     * @param useSizeClasses If the bitmaps are resized to size classes.
+     */
+    public void setSizeClasses(boolean useSizeClasses) {
+        sizeClasses = useSizeClasses;
+    }
+
+    /**
+     * Sets how much the tiles are blended toward the average colors of their fragments, which hides color
+     * mismatches, see {@link TintingBitmapSource}.
+     * @param strength The blending strength from 0 (tiles are not tinted) to 1 (only the fragments' colors are left).
+     */
+    public void setTintStrength(double strength) {
+        if (strength < 0. || strength > 1. || Double.isNaN(strength)) {
+            throw new IllegalArgumentException("Tint strength not between 0 and 1: " + strength);
+        }
+        tintStrength = strength;
+    }
+
+    /**
+     * Sets the grid size of the descriptors that rect projects match by, see {@link DescriptorMatcher}.
+     * The descriptors of all tiles are read from the bitmap source by the first rect project that uses them.
+     * @param gridSize The amount of cells per row and column, zero to match by the average color only.
+     */
+    public void setDescriptorGridSize(int gridSize) {
+        if (gridSize < 0) {
+            throw new IllegalArgumentException("Grid size must not be negative: " + gridSize);
+        }
+        if (gridSize != descriptorGridSize) {
+            descriptorGridSize = gridSize;
+            descriptorMatcher = null;
+        }
+    }
+
+    private TileMatcher<S> getDescriptorMatcher() {
+        if (descriptorMatcher == null) {
+            descriptorMatcher = new DescriptorMatcher<>(tiles, space, descriptorGridSize,
+                                                        DescriptorMatcher.makeDescriber(bitmapSource,
+                                                                                        descriptorGridSize));
+            descriptorMatcher.setTileReuseLimit(reuseLimit);
+        }
+        return descriptorMatcher;
+    }
+
+    /**
+     * Releases the matcher's shared index if the matcher uses one.
+     */
+    public void releaseMatcher() {
+        if (matcher instanceof SharedIndexMatcher) {
+            ((SharedIndexMatcher<S>) matcher).release();
+            // released matchers cannot match anymore, the next project acquires a new one
+            matcher = null;
+        }
+    }
+
+    /**
+     * Empties the caches of the bitmap source and its decorators and releases the bitmaps stored off the heap,
+     * see {@link BitmapSource#releaseCache()}. No project of this maker must be running.
+     */
+    public void releaseBitmapCache() {
+        bitmapSource.releaseCache();
+    }
+
+    /**
+     * Sets the color space to match in. A matcher that was chosen automatically is chosen again for the next project
+     * if the dimension of the space changes, a matcher that was set is kept and has to support the new space.
+     * @param space The color space to use.
+     * @throws IllegalArgumentException If the matcher that was set does not support the space, then the space is
+     * not changed.
+     */
     public void setColorSpace(ColorSpace space) {
         Objects.requireNonNull(space);
+        if (matcherSelected && this.space.getDimension() != space.getDimension()) {
+            // the chosen matcher may only support the old dimension, choose again for the next project
+            releaseMatcher();
+            matcher = null;
+        }
+        if (matcher != null) {
+            matcher.setColorSpace(space);
+        }
         this.space = space;
-        matcher.setColorSpace(space);
+        if (descriptorMatcher != null) {
+            descriptorMatcher.setColorSpace(space);
+        }
     }
 
-    private BitmapProject makeReconstructorProject(ReconstructionParameters parameters, ProgressCallback callback) {
-        return new BitmapProject(ReconstructorAssemblor.makeEffect(matcher, bitmapSource, parameters, callback), exporter);
+    private synchronized ExecutorService getPrefetchLoaders() {
+        if (prefetchLoaders == null || prefetchLoaders.isShutdown()) {
+            prefetchLoaders = PrefetchingBitmapSource.makeLoaders(Runtime.getRuntime().availableProcessors());
+        }
+        return prefetchLoaders;
+    }
+
+    /**
+     * Stops the threads that load the tiles' bitmaps ahead and releases the matcher's shared index, see
+     * {@link #releaseMatcher()}. Projects that are still running load the remaining bitmaps when they need them,
+     * projects made afterwards start new threads.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (prefetchLoaders != null) {
+                prefetchLoaders.shutdownNow();
+                prefetchLoaders = null;
+            }
+        }
+        releaseMatcher();
+    }
+
+    private BitmapProject makeReconstructorProject(ReconstructionParameters parameters, int expectedFragments,
+                                                   ProgressCallback callback) {
+        return makeReconstructorProject(parameters, getMatcher(expectedFragments), callback);
+    }
+
+    private BitmapProject makeReconstructorProject(ReconstructionParameters parameters, TileMatcher<S> matcher,
+                                                   ProgressCallback callback) {
+        BitmapSource<S> source = sizeClasses ? new SizeClassBitmapSource<>(bitmapSource) : bitmapSource;
+        if (prefetchDepth > 0) {
+            source = new PrefetchingBitmapSource<>(source, prefetchDepth, getPrefetchLoaders(), callback);
+        }
+        if (tintStrength > 0.) {
+            source = new TintingBitmapSource<>(source, tintStrength);
+        }
+        return new BitmapProject(ReconstructorAssemblor.makeEffect(matcher, source, parameters, callback), exporter);
     }
 
     public BitmapProject makeMultiRectProject(AbstractBitmap source, int wantedRows, int wantedColumns, double mergeFactor, ProgressCallback progress) {
@@ -82,7 +280,7 @@ public class MosaicMaker<S> {
         params.wantedRows = wantedRows;
         params.similarityFactor = mergeFactor;
         params.space = space;
-        return makeReconstructorProject(params, progress);
+        return makeReconstructorProject(params, wantedRows * wantedColumns, progress);
     }
 
     public BitmapProject makeRectProject(AbstractBitmap source, int wantedRows, int wantedColumns, ProgressCallback progress) {
@@ -90,7 +288,11 @@ public class MosaicMaker<S> {
         params.source = source;
         params.wantedColumns = wantedColumns;
         params.wantedRows = wantedRows;
-        return makeReconstructorProject(params, progress);
+        if (descriptorGridSize > 0) {
+            params.descriptorGridSize = descriptorGridSize;
+            return makeReconstructorProject(params, getDescriptorMatcher(), progress);
+        }
+        return makeReconstructorProject(params, wantedRows * wantedColumns, progress);
     }
 
     public BitmapProject makePuzzleProject(AbstractBitmap source, int wantedRows, int wantedColumns, ProgressCallback progress) {
@@ -98,7 +300,7 @@ public class MosaicMaker<S> {
         params.source = source;
         params.wantedColumns = wantedColumns;
         params.wantedRows = wantedRows;
-        return makeReconstructorProject(params, progress);
+        return makeReconstructorProject(params, wantedRows * wantedColumns, progress);
     }
 
     public BitmapProject makeAutoLayerProject(AbstractBitmap source, double mergeFactor, ProgressCallback progress) {
@@ -108,7 +310,7 @@ public class MosaicMaker<S> {
         params.space = space;
         params.factor = mergeFactor;
         params.progress = multiProgress;
-        return makeReconstructorProject(params, progress);
+        return makeReconstructorProject(params, EXPECTED_AUTO_LAYER_FRAGMENTS, progress);
     }
 
     public BitmapProject makeFixedLayerProject(AbstractBitmap source, int clusterCount, ProgressCallback progress) {
@@ -118,7 +320,7 @@ public class MosaicMaker<S> {
         params.space = space;
         params.layersCount = clusterCount;
         params.progress = multiProgress;
-        return makeReconstructorProject(params, progress);
+        return makeReconstructorProject(params, clusterCount, progress);
     }
 
     public BitmapProject makeSVD(AbstractBitmap source, double mergeFactor, ProgressCallback progress) {
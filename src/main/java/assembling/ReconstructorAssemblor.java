@@ -52,18 +52,26 @@ public class ReconstructorAssemblor {
         Objects.requireNonNull(reconstructor);
         Objects.requireNonNull(source);
 
+        // matches of the upcoming fragments in order, their bitmaps are prefetched by the source
+        List<MatchAhead<S>> matchesAhead = new LinkedList<>();
         while (!reconstructor.hasAll() && !safeIsCancelled(progress)) {
             MosaicFragment nextFrag = reconstructor.nextFragment();
+            matchAhead(matcher, source, reconstructor, matchesAhead);
+            MatchAhead<S> matchAhead = takeMatchAhead(matchesAhead, nextFrag);
             AbstractBitmap nextImage;
             do {
-                Optional<? extends MosaicTile<S>> tileCandidate = matcher.getBestMatch(nextFrag);
+                // only the first try uses the match made ahead, retries have to match again
+                Optional<? extends MosaicTile<S>> tileCandidate = matchAhead != null ? matchAhead.tile
+                        : matcher.getBestMatch(nextFrag);
+                matchAhead = null;
                 if (!tileCandidate.isPresent()) {
                     // matcher has no more tiles!
                     Logger.error("ReconstructorAssemblor. Matcher out of tiles! Did not find candidate for fragment {}. Aborting.", nextFrag);
                     return Optional.empty();
                 }
                 MosaicTile<S> tile = tileCandidate.get();
-                nextImage = source.getBitmap(tile, nextFrag.getWidth(), nextFrag.getHeight());
+                nextImage = source.getBitmap(tile, nextFrag.getWidth(), nextFrag.getHeight(),
+                                             nextFrag.getAverageRGB());
 
                 if (nextImage == null) {
                     // no image?! maybe the image (file) got invalid (image deleted, damaged,...)
@@ -90,9 +98,61 @@ public class ReconstructorAssemblor {
         if (progress != null) {
             progress.onProgressUpdate(PercentProgressListener.PROGRESS_COMPLETE);
         }
+        Logger.info("Match cache after reconstruction: {}", matcher.getCacheStatistics());
         return Optional.of(reconstructor.getReconstructed());
     }
 
+    private static class MatchAhead<S> {
+        private final MosaicFragment fragment;
+        private final Optional<? extends MosaicTile<S>> tile;
+
+        private MatchAhead(MosaicFragment fragment, Optional<? extends MosaicTile<S>> tile) {
+            this.fragment = fragment;
+            this.tile = tile;
+        }
+    }
+
+    /**
+     * Matches the next fragment and the fragments the reconstructor knows in advance up to the source's prefetch
+     * depth and announces the matched tiles to the source. The fragments are matched in the same order as without
+     * matching ahead, so the reuse limit has the same effect. Fragments that already have a match made ahead are not
+     * matched again, also if the reconstructor peeked them in another order before.
+     */
+    private static <S> void matchAhead(TileMatcher<S> matcher, BitmapSource<S> source, Reconstructor reconstructor,
+                                       List<MatchAhead<S>> matchesAhead) {
+        int depth = source.getPrefetchDepth();
+        if (depth <= 0) {
+            return;
+        }
+        List<MosaicFragment> upcoming = new ArrayList<>(depth);
+        upcoming.add(reconstructor.nextFragment());
+        upcoming.addAll(reconstructor.peekFragments(depth - 1));
+        List<MatchAhead<S>> unclaimed = new LinkedList<>(matchesAhead);
+        for (MosaicFragment fragment : upcoming) {
+            if (takeMatchAhead(unclaimed, fragment) == null) {
+                Optional<? extends MosaicTile<S>> tile = matcher.getBestMatch(fragment);
+                tile.ifPresent(match -> source.prefetch(match, fragment.getWidth(), fragment.getHeight()));
+                matchesAhead.add(new MatchAhead<>(fragment, tile));
+            }
+        }
+    }
+
+    /**
+     * Removes and returns the first match made ahead for a fragment equal to the given one. The matches are kept
+     * until their fragment comes up, as the matcher already counted their tiles' uses for the reuse limit.
+     */
+    private static <S> MatchAhead<S> takeMatchAhead(List<MatchAhead<S>> matchesAhead, MosaicFragment fragment) {
+        Iterator<MatchAhead<S>> matches = matchesAhead.iterator();
+        while (matches.hasNext()) {
+            MatchAhead<S> match = matches.next();
+            if (match.fragment.equals(fragment)) {
+                matches.remove();
+                return match;
+            }
+        }
+        return null;
+    }
+
     private static class MosaicEffect<S> implements BitmapEffect {
         private TileMatcher<S> matcher;
         private BitmapSource<S> source;
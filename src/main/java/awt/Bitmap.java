@@ -3,10 +3,13 @@ package awt;
 import data.image.AbstractBitmap;
 import net.coobird.thumbnailator.Thumbnails;
 import org.pmw.tinylog.Logger;
+import util.image.Resampler;
 
 import javax.imageio.ImageIO;
 import java.awt.*;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferInt;
 import java.awt.image.IndexColorModel;
 import java.io.File;
 import java.io.IOException;
@@ -33,11 +36,21 @@ public class Bitmap implements AbstractBitmap {
 
     @Override
     public AbstractBitmap getCopy() {
-        BufferedImage copy = new BufferedImage(image.getWidth(), image.getHeight(), image.getType());
+        return new Bitmap(makeCopy(image));
+    }
+
+    @Override
+    public AbstractBitmap obtainCropped(int x, int y, int width, int height) {
+        return new Bitmap(makeCopy(image.getSubimage(x, y, width, height)));
+    }
+
+    private static BufferedImage makeCopy(BufferedImage image) {
+        int type = image.getType() == BufferedImage.TYPE_CUSTOM ? BufferedImage.TYPE_INT_ARGB : image.getType();
+        BufferedImage copy = new BufferedImage(image.getWidth(), image.getHeight(), type);
         Graphics graphics = copy.getGraphics();
         graphics.drawImage(image, 0, 0, image.getWidth(), image.getHeight(), null);
         graphics.dispose();
-        return new Bitmap(copy);
+        return copy;
     }
 
     @Override
@@ -75,7 +88,60 @@ public class Bitmap implements AbstractBitmap {
         if (width == image.getWidth() && height == image.getHeight()) {
             return;
         }
-        image = makeResizedImage(width, height);
+        BufferedImage resized = makeResizedImage(width, height);
+        if (isOffHeap()) {
+            BufferedImage offHeap = DirectDataBuffer.makeImage(width, height);
+            copyPixels(resized, offHeap);
+            release();
+            resized = offHeap;
+        }
+        image = resized;
+    }
+
+    @Override
+    public AbstractBitmap obtainRecolored(int[] redTable, int[] greenTable, int[] blueTable) {
+        int[] pixels = getPixels();
+        BufferedImage recolored = new BufferedImage(image.getWidth(), image.getHeight(),
+                                                    BufferedImage.TYPE_INT_ARGB);
+        int[] target = ((DataBufferInt) recolored.getRaster().getDataBuffer()).getData();
+        for (int i = 0; i < pixels.length; i++) {
+            int argb = pixels[i];
+            target[i] = (argb & 0xFF000000) | redTable[(argb >> 16) & 0xFF] << 16
+                    | greenTable[(argb >> 8) & 0xFF] << 8 | blueTable[argb & 0xFF];
+        }
+        return new Bitmap(recolored);
+    }
+
+    boolean isOffHeap() {
+        return image.getRaster().getDataBuffer() instanceof DirectDataBuffer;
+    }
+
+    @Override
+    public AbstractBitmap obtainOffHeapCopy() {
+        return makeOffHeapCopy(image);
+    }
+
+    @Override
+    public void release() {
+        if (isOffHeap()) {
+            ((DirectDataBuffer) image.getRaster().getDataBuffer()).release();
+        }
+    }
+
+    private static Bitmap makeOffHeapCopy(BufferedImage image) {
+        BufferedImage offHeap = DirectDataBuffer.makeImage(image.getWidth(), image.getHeight());
+        copyPixels(image, offHeap);
+        return new Bitmap(offHeap);
+    }
+
+    private static void copyPixels(BufferedImage from, BufferedImage to) {
+        // row by row, so only a row of pixels is on the heap at a time
+        int width = from.getWidth();
+        int[] row = new int[width];
+        for (int y = 0; y < from.getHeight(); y++) {
+            from.getRGB(0, y, width, 1, row, 0, width);
+            to.setRGB(0, y, width, 1, row, 0, width);
+        }
     }
 
     @Override
@@ -106,6 +172,24 @@ public class Bitmap implements AbstractBitmap {
     }
 
     private BufferedImage makeResizedImage(int width, int height) {
+        if (width >= image.getWidth() && height >= image.getHeight()) {
+            return makeEnlargedImage(width, height);
+        }
+        int[] pixels = Resampler.resample(getPixels(), image.getWidth(), image.getHeight(), width, height);
+        BufferedImage dimg;
+        if (image.getType() == BufferedImage.TYPE_BYTE_INDEXED) {
+            dimg = new BufferedImage(width, height, image.getType(), (IndexColorModel) image.getColorModel());
+            dimg.setRGB(0, 0, width, height, pixels, 0, width);
+        } else {
+            dimg = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+            System.arraycopy(pixels, 0, ((DataBufferInt) dimg.getRaster().getDataBuffer()).getData(), 0,
+                             pixels.length);
+        }
+        return dimg;
+    }
+
+    // the resampler is slower when enlarging, there Java2D only has to interpolate between neighbors
+    private BufferedImage makeEnlargedImage(int width, int height) {
         Image tmp = image.getScaledInstance(width, height, Image.SCALE_SMOOTH);
 
         BufferedImage dimg;
@@ -119,4 +203,55 @@ public class Bitmap implements AbstractBitmap {
         g2d.dispose();
         return dimg;
     }
+
+    @Override
+    public void getPixels(int[] target) {
+        int[] stored = getStoredPixels();
+        if (stored != null) {
+            System.arraycopy(stored, 0, target, 0, stored.length);
+        } else if (image.getRaster().getDataBuffer() instanceof DirectDataBuffer) {
+            ((DirectDataBuffer) image.getRaster().getDataBuffer()).copyTo(target);
+        } else {
+            image.getRGB(0, 0, image.getWidth(), image.getHeight(), target, 0, image.getWidth());
+        }
+    }
+
+    @Override
+    public void setPixels(int[] pixels) {
+        int[] stored = getStoredPixels();
+        if (stored != null) {
+            System.arraycopy(pixels, 0, stored, 0, stored.length);
+        } else {
+            image.setRGB(0, 0, image.getWidth(), image.getHeight(), pixels, 0, image.getWidth());
+        }
+    }
+
+    private int[] getStoredPixels() {
+        return getStoredPixels(image);
+    }
+
+    /**
+     * Returns the array the image stores its pixels in if it stores them as ARGB values row by row, else null.
+     */
+    static int[] getStoredPixels(BufferedImage image) {
+        DataBuffer buffer = image.getRaster().getDataBuffer();
+        if (image.getType() == BufferedImage.TYPE_INT_ARGB && buffer instanceof DataBufferInt
+                && buffer.getNumBanks() == 1 && image.getRaster().getParent() == null) {
+            return ((DataBufferInt) buffer).getData();
+        }
+        return null;
+    }
+
+    /**
+     * Returns the ARGB pixels row by row, without copying them if the image already stores them like this.
+     */
+    private int[] getPixels() {
+        int[] stored = getStoredPixels();
+        if (stored != null) {
+            return stored;
+        }
+        int[] pixels = new int[image.getWidth() * image.getHeight()];
+        getPixels(pixels);
+        return pixels;
+    }
 }
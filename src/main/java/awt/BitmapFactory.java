@@ -2,13 +2,31 @@ package awt;
 
 import data.image.AbstractBitmap;
 import data.image.AbstractBitmapFactory;
+import data.image.ImageResolution;
 import net.coobird.thumbnailator.Thumbnails;
 import net.coobird.thumbnailator.tasks.UnsupportedFormatException;
 import org.pmw.tinylog.Logger;
 
+import org.w3c.dom.Node;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.metadata.IIOMetadataNode;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.PixelInterleavedSampleModel;
+import java.awt.image.Raster;
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Iterator;
 
 
 /**
@@ -16,6 +34,8 @@ import java.io.IOException;
  */
 public class BitmapFactory extends AbstractBitmapFactory {
     private static final int DEFAULT_IMAGE_TYPE = BufferedImage.TYPE_INT_ARGB;
+    private static final String JPEG_METADATA_FORMAT = "javax_imageio_jpeg_image_1.0";
+    private static final int EXIF_ORIENTATION_TAG = 0x0112;
     private int type;
 
     public BitmapFactory(int width, int height) {
@@ -54,9 +74,250 @@ public class BitmapFactory extends AbstractBitmapFactory {
         throw new IllegalStateException("Cannot create bitmap from given data:" + file + "width/height=" + width + "/" + height);
     }
 
+    /**
+     * Decodes only every n-th pixel of each n by n block, with the greatest n that keeps the image at least
+     * the given size. The image's exif orientation is applied like by {@link #createBitmap()}.
+     * Falls back to decoding the whole image if no image reader supports the file.
+     */
+    @Override
+    public AbstractBitmap createBitmap(int minWidth, int minHeight) {
+        if (file == null) {
+            return createBitmap();
+        }
+        return decodeSubsampled(minWidth, minHeight, false);
+    }
 
+    /**
+     * Decodes only the centered region of the image and only every n-th pixel of it like
+     * {@link #createBitmap(int, int)}, so the cut off borders are not decoded at all.
+     * Falls back to decoding the whole image and cropping it if no image reader supports the file.
+     */
+    @Override
+    public AbstractBitmap createCroppedBitmap(int minWidth, int minHeight) {
+        if (file == null) {
+            return super.createCroppedBitmap(minWidth, minHeight);
+        }
+        return decodeSubsampled(minWidth, minHeight, true);
+    }
 
+    private AbstractBitmap decodeSubsampled(int minWidth, int minHeight, boolean crop) {
+        try (ImageInputStream input = ImageIO.createImageInputStream(file)) {
+            Iterator<ImageReader> readers = input == null ? null : ImageIO.getImageReaders(input);
+            if (readers == null || !readers.hasNext()) {
+                return decodeAll(minWidth, minHeight, crop);
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, false);
+                int orientation = readExifOrientation(reader);
+                boolean transposed = orientation >= 5;
+                // in the coordinates of the stored image, which is rotated back after decoding
+                int wantedWidth = transposed ? minHeight : minWidth;
+                int wantedHeight = transposed ? minWidth : minHeight;
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+                ImageReadParam param = reader.getDefaultReadParam();
+                if (crop) {
+                    ImageResolution resolution = new ImageResolution(wantedWidth, wantedHeight);
+                    int regionWidth = resolution.getFittingWidth(width, height);
+                    int regionHeight = resolution.getFittingHeight(width, height);
+                    // centered, so mirroring by the orientation keeps it the same region
+                    param.setSourceRegion(new Rectangle((width - regionWidth) / 2, (height - regionHeight) / 2,
+                                                        regionWidth, regionHeight));
+                    width = regionWidth;
+                    height = regionHeight;
+                }
+                int subsampling = Math.max(1, Math.min(width / wantedWidth, height / wantedHeight));
+                param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                BufferedImage image = reader.read(0, param);
+                Logger.trace("Loaded image {} {}subsampled by {} to {}x{}.", file, crop ? "cropped and " : "",
+                             subsampling, image.getWidth(), image.getHeight());
+                return new Bitmap(orient(image, orientation, type));
+            } finally {
+                reader.dispose();
+            }
+        } catch (IOException | RuntimeException e) {
+            Logger.trace("Could not decode {} subsampled, decoding all of it: {}", file, e);
+            return decodeAll(minWidth, minHeight, crop);
+        }
+    }
+
+    private AbstractBitmap decodeAll(int minWidth, int minHeight, boolean crop) {
+        AbstractBitmap bitmap = createBitmap();
+        if (bitmap == null || !crop) {
+            return bitmap;
+        }
+        return bitmap.obtainCroppedToFit(new ImageResolution(minWidth, minHeight));
+    }
+
+    /**
+     * Returns the orientation of the exif metadata of a jpeg image, 1 if there is none.
+     */
+    private static int readExifOrientation(ImageReader reader) throws IOException {
+        if (!"jpeg".equalsIgnoreCase(reader.getFormatName())) {
+            return 1;
+        }
+        IIOMetadata metadata = reader.getImageMetadata(0);
+        if (metadata == null || !Arrays.asList(metadata.getMetadataFormatNames()).contains(JPEG_METADATA_FORMAT)) {
+            return 1;
+        }
+        Node markers = metadata.getAsTree(JPEG_METADATA_FORMAT).getFirstChild();
+        for (; markers != null; markers = markers.getNextSibling()) {
+            if (!"markerSequence".equals(markers.getNodeName())) {
+                continue;
+            }
+            for (Node marker = markers.getFirstChild(); marker != null; marker = marker.getNextSibling()) {
+                if (marker instanceof IIOMetadataNode && "unknown".equals(marker.getNodeName())
+                        && "225".equals(((IIOMetadataNode) marker).getAttribute("MarkerTag"))) { // APP1
+                    Object data = ((IIOMetadataNode) marker).getUserObject();
+                    if (data instanceof byte[]) {
+                        int orientation = parseExifOrientation((byte[]) data);
+                        if (orientation > 0) {
+                            return orientation;
+                        }
+                    }
+                }
+            }
+        }
+        return 1;
+    }
 
+    /**
+     * Reads the orientation tag of the first image file directory of the exif data, -1 if there is none.
+     */
+    static int parseExifOrientation(byte[] data) {
+        final int tiff = 6; // after "Exif\0\0"
+        if (data.length < tiff + 8 || data[0] != 'E' || data[1] != 'x' || data[2] != 'i' || data[3] != 'f') {
+            return -1;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        buffer.order(data[tiff] == 'I' ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN);
+        int directory = tiff + buffer.getInt(tiff + 4);
+        if (directory < tiff || directory + 2 > data.length) {
+            return -1;
+        }
+        int entries = buffer.getShort(directory) & 0xFFFF;
+        for (int i = 0; i < entries; i++) {
+            int entry = directory + 2 + i * 12;
+            if (entry + 12 > data.length) {
+                break;
+            }
+            if ((buffer.getShort(entry) & 0xFFFF) == EXIF_ORIENTATION_TAG) {
+                int orientation = buffer.getShort(entry + 8) & 0xFFFF;
+                return orientation >= 1 && orientation <= 8 ? orientation : -1;
+            }
+        }
+        return -1;
+    }
 
+    /**
+     * Converts the image to the given type and rotates or mirrors it as the exif orientation requires.
+     */
+    static BufferedImage orient(BufferedImage image, int orientation, int type) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        if (orientation <= 1) {
+            if (image.getType() == type) {
+                return image;
+            }
+            BufferedImage converted = new BufferedImage(width, height, type);
+            Graphics2D graphics = converted.createGraphics();
+            graphics.drawImage(image, 0, 0, null);
+            graphics.dispose();
+            return converted;
+        }
+        boolean transposed = orientation >= 5;
+        BufferedImage oriented = new BufferedImage(transposed ? height : width, transposed ? width : height, type);
+        int[] pixels = readPixels(image);
+        // the index of the source pixel of the oriented image's top left corner and how far it moves per step
+        // to the right and per step down in the oriented image
+        int start;
+        int stepX;
+        int stepY;
+        switch (orientation) {
+            case 2: // mirrored horizontally
+                start = width - 1;
+                stepX = -1;
+                stepY = width;
+                break;
+            case 3: // rotated by 180 degrees
+                start = width * height - 1;
+                stepX = -1;
+                stepY = -width;
+                break;
+            case 4: // mirrored vertically
+                start = (height - 1) * width;
+                stepX = 1;
+                stepY = -width;
+                break;
+            case 5: // transposed
+                start = 0;
+                stepX = width;
+                stepY = 1;
+                break;
+            case 6: // rotated clockwise
+                start = (height - 1) * width;
+                stepX = -width;
+                stepY = 1;
+                break;
+            case 7: // transposed along the other diagonal
+                start = width * height - 1;
+                stepX = -width;
+                stepY = -1;
+                break;
+            default: // 8, rotated counterclockwise
+                start = width - 1;
+                stepX = width;
+                stepY = -1;
+        }
+        int[] stored = Bitmap.getStoredPixels(oriented);
+        int[] target = stored != null ? stored : new int[pixels.length];
+        int orientedWidth = oriented.getWidth();
+        for (int y = 0; y < oriented.getHeight(); y++) {
+            int source = start + y * stepY;
+            int offset = y * orientedWidth;
+            for (int x = 0; x < orientedWidth; x++) {
+                target[offset + x] = pixels[source];
+                source += stepX;
+            }
+        }
+        if (stored == null) {
+            oriented.setRGB(0, 0, orientedWidth, oriented.getHeight(), target, 0, orientedWidth);
+        }
+        return oriented;
+    }
 
+    /**
+     * Returns the ARGB pixels of the image row by row. The blue, green and red bytes the jpeg reader decodes to are
+     * read directly, converting them through the color model takes most of the time of orienting.
+     */
+    private static int[] readPixels(BufferedImage image) {
+        int[] stored = Bitmap.getStoredPixels(image);
+        if (stored != null) {
+            return stored;
+        }
+        int width = image.getWidth();
+        int height = image.getHeight();
+        Raster raster = image.getRaster();
+        if (image.getType() == BufferedImage.TYPE_3BYTE_BGR && raster.getParent() == null
+                && raster.getSampleModel() instanceof PixelInterleavedSampleModel
+                && raster.getDataBuffer() instanceof DataBufferByte) {
+            PixelInterleavedSampleModel model = (PixelInterleavedSampleModel) raster.getSampleModel();
+            int[] offsets = model.getBandOffsets();
+            if (model.getPixelStride() == 3 && model.getScanlineStride() == 3 * width
+                    && Arrays.equals(offsets, new int[] {2, 1, 0})
+                    && raster.getSampleModelTranslateX() == 0 && raster.getSampleModelTranslateY() == 0) {
+                byte[] bytes = ((DataBufferByte) raster.getDataBuffer()).getData();
+                int offset = raster.getDataBuffer().getOffset();
+                int[] pixels = new int[width * height];
+                for (int i = 0; i < pixels.length; i++) {
+                    int index = offset + 3 * i;
+                    pixels[i] = 0xFF000000 | (bytes[index + 2] & 0xFF) << 16 | (bytes[index + 1] & 0xFF) << 8
+                            | (bytes[index] & 0xFF);
+                }
+                return pixels;
+            }
+        }
+        return image.getRGB(0, 0, width, height, null, 0, width);
+    }
 }
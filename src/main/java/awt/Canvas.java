@@ -37,15 +37,47 @@ public class Canvas implements AbstractCanvas {
     @Override
     public void drawBitmap(AbstractBitmap bitmap, int x, int y) {
         ensureGraphics();
-        graphics.drawImage(obtainImage(bitmap), x, y, null);
+        BufferedImage image = obtainImage(bitmap);
+        if (!drawDirect(image, x, y, 0, 0, image.getWidth(), image.getHeight())) {
+            graphics.drawImage(image, x, y, null);
+        }
     }
 
     @Override
     public void drawBitmap(AbstractBitmap bitmap, int x, int y, int fromBitmapX, int fromBitmapY, int toBitmapX, int toBitmapY) {
         ensureGraphics();
         BufferedImage image = obtainImage(bitmap);
-        image = image.getSubimage(fromBitmapX, fromBitmapY, toBitmapX - fromBitmapX, toBitmapY - fromBitmapY);
-        graphics.drawImage(image, x, y, null);
+        if (!drawDirect(image, x, y, fromBitmapX, fromBitmapY, toBitmapX - fromBitmapX, toBitmapY - fromBitmapY)) {
+            image = image.getSubimage(fromBitmapX, fromBitmapY, toBitmapX - fromBitmapX, toBitmapY - fromBitmapY);
+            graphics.drawImage(image, x, y, null);
+        }
+    }
+
+    /**
+     * Draws the region of an image whose pixels are off the heap straight into the pixels of the base image,
+     * blending like the default source over composite. Java2d would read a custom data buffer pixel by pixel.
+     * @return False if the image is not off the heap or the base image does not store its pixels as argb values,
+     * then nothing is drawn.
+     */
+    private boolean drawDirect(BufferedImage image, int x, int y, int fromX, int fromY, int width, int height) {
+        if (!(image.getRaster().getDataBuffer() instanceof DirectDataBuffer) || image.getRaster().getParent() != null) {
+            return false;
+        }
+        int[] target = Bitmap.getStoredPixels(base);
+        if (target == null) {
+            return false;
+        }
+        // clip to the base image
+        int left = Math.max(0, -x);
+        int top = Math.max(0, -y);
+        int right = Math.min(width, base.getWidth() - x);
+        int bottom = Math.min(height, base.getHeight() - y);
+        if (left < right && top < bottom) {
+            ((DirectDataBuffer) image.getRaster().getDataBuffer())
+                    .drawTo(image.getWidth(), fromX + left, fromY + top, right - left, bottom - top,
+                            target, base.getWidth(), x + left, y + top);
+        }
+        return true;
     }
 
     public BufferedImage stopEditing() {
@@ -0,0 +1,184 @@
+package awt;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A data buffer of ARGB pixels in direct memory outside of the Java heap, so that many big images can be held
+ * without the garbage collector copying or scanning their pixels. Released buffers are pooled by their size and
+ * reused for new images of the same size, which are common for tiles, up to {@link #MAX_POOLED_BYTES}.
+ */
+class DirectDataBuffer extends DataBuffer {
+    static final long MAX_POOLED_BYTES = 64L * 1024L * 1024L;
+    private static final int BYTES_PER_PIXEL = 4;
+    private static final Map<Integer, Deque<ByteBuffer>> POOL = new HashMap<>(); // by the pixels count
+    private static long pooledBytes;
+    private ByteBuffer bytes;
+    private IntBuffer pixels;
+
+    private DirectDataBuffer(int size) {
+        super(TYPE_INT, size);
+        bytes = obtainBuffer(size);
+        pixels = bytes.asIntBuffer();
+    }
+
+    private static ByteBuffer obtainBuffer(int size) {
+        ByteBuffer pooled = null;
+        synchronized (POOL) {
+            Deque<ByteBuffer> buffers = POOL.get(size);
+            if (buffers != null) {
+                pooled = buffers.poll();
+                if (buffers.isEmpty()) {
+                    POOL.remove(size);
+                }
+                pooledBytes -= (long) BYTES_PER_PIXEL * size;
+            }
+        }
+        if (pooled == null) {
+            return ByteBuffer.allocateDirect(BYTES_PER_PIXEL * size).order(ByteOrder.nativeOrder());
+        }
+        // a new image is transparent
+        IntBuffer pixels = pooled.asIntBuffer();
+        for (int i = 0; i < size; i++) {
+            pixels.put(i, 0);
+        }
+        return pooled;
+    }
+
+    private static void recycleBuffer(ByteBuffer buffer, int size) {
+        synchronized (POOL) {
+            if (pooledBytes + buffer.capacity() <= MAX_POOLED_BYTES) {
+                POOL.computeIfAbsent(size, key -> new ArrayDeque<>()).add(buffer);
+                pooledBytes += buffer.capacity();
+            } // else its memory is freed once the garbage collector collects it
+        }
+    }
+
+    /**
+     * Creates an ARGB image whose pixels are stored in a new direct data buffer.
+     * @param width The image's width.
+     * @param height The image's height.
+     * @return The new transparent image.
+     */
+    static BufferedImage makeImage(int width, int height) {
+        ColorModel model = ColorModel.getRGBdefault();
+        WritableRaster raster = Raster.createWritableRaster(model.createCompatibleSampleModel(width, height),
+                                                            new DirectDataBuffer(width * height), null);
+        return new BufferedImage(model, raster, false, null);
+    }
+
+    private IntBuffer getPixels() {
+        if (pixels == null) {
+            throw new IllegalStateException("Pixels already released.");
+        }
+        return pixels;
+    }
+
+    @Override
+    public int getElem(int bank, int i) {
+        return getPixels().get(i);
+    }
+
+    @Override
+    public void setElem(int bank, int i, int val) {
+        getPixels().put(i, val);
+    }
+
+    /**
+     * Copies all pixels in bulk, which is much faster than reading them one by one.
+     * @param target The array to copy to, at least as long as this buffer's size.
+     */
+    void copyTo(int[] target) {
+        IntBuffer source = getPixels().duplicate();
+        source.rewind();
+        source.get(target, 0, getSize());
+    }
+
+    /**
+     * Draws a region of the pixels onto an image whose pixels are ARGB values row by row, blending like the source
+     * over composite. Runs of opaque pixels are copied in bulk straight into the target, only translucent pixels
+     * are blended one by one. Nothing is copied to the heap besides the target.
+     * @param width The width of the image of this buffer.
+     * @param fromX The left of the region.
+     * @param fromY The top of the region.
+     * @param regionWidth The width of the region.
+     * @param regionHeight The height of the region.
+     * @param target The pixels of the target image.
+     * @param targetWidth The width of the target image.
+     * @param x The left of the region in the target image, the region must fit into it.
+     * @param y The top of the region in the target image.
+     */
+    void drawTo(int width, int fromX, int fromY, int regionWidth, int regionHeight, int[] target, int targetWidth,
+                int x, int y) {
+        IntBuffer source = getPixels().duplicate();
+        for (int row = 0; row < regionHeight; row++) {
+            int sourceStart = (fromY + row) * width + fromX;
+            int targetStart = (y + row) * targetWidth + x;
+            int i = 0;
+            while (i < regionWidth) {
+                int runStart = i;
+                while (i < regionWidth && source.get(sourceStart + i) >>> 24 == 0xFF) {
+                    i++;
+                }
+                if (i > runStart) {
+                    source.position(sourceStart + runStart);
+                    source.get(target, targetStart + runStart, i - runStart);
+                }
+                if (i < regionWidth) {
+                    int index = targetStart + i;
+                    target[index] = blend(source.get(sourceStart + i), target[index]);
+                    i++;
+                }
+            }
+        }
+    }
+
+    private static int blend(int sourceArgb, int targetArgb) {
+        int sourceAlpha = sourceArgb >>> 24;
+        if (sourceAlpha == 0) {
+            return targetArgb;
+        }
+        // the weights are in 1/(255*255), so only the result is rounded
+        int sourceWeight = sourceAlpha * 0xFF;
+        int targetWeight = (targetArgb >>> 24) * (0xFF - sourceAlpha);
+        int weight = sourceWeight + targetWeight;
+        int result = ((weight + 0x7F) / 0xFF) << 24;
+        for (int shift = 0; shift <= 16; shift += 8) {
+            long channel = (long) ((sourceArgb >> shift) & 0xFF) * sourceWeight
+                    + (long) ((targetArgb >> shift) & 0xFF) * targetWeight;
+            result |= (int) ((channel + weight / 2) / weight) << shift;
+        }
+        return result;
+    }
+
+    /**
+     * Returns the bytes of the released buffers that are kept for reuse.
+     * @return The pooled bytes, at most {@link #MAX_POOLED_BYTES}.
+     */
+    static long getPooledBytes() {
+        synchronized (POOL) {
+            return pooledBytes;
+        }
+    }
+
+    /**
+     * Gives the pixels back to the pool, the buffer must not be used afterwards.
+     */
+    synchronized void release() {
+        if (bytes != null) {
+            recycleBuffer(bytes, getSize());
+            bytes = null;
+            pixels = null;
+        }
+    }
+}
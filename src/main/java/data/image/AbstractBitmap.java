@@ -17,6 +17,30 @@ public interface AbstractBitmap {
 
     void resize(int width, int height);
 
+    /**
+     * Copies all pixels as ARGB values row by row into the given array, much faster than reading them one by one.
+     * @param target The array to copy to, at least width times height long.
+     */
+    default void getPixels(int[] target) {
+        for (int y = 0; y < getHeight(); y++) {
+            for (int x = 0; x < getWidth(); x++) {
+                target[y * getWidth() + x] = getPixel(x, y);
+            }
+        }
+    }
+
+    /**
+     * Sets all pixels to the given ARGB values row by row, much faster than setting them one by one.
+     * @param pixels The new pixels, at least width times height many.
+     */
+    default void setPixels(int[] pixels) {
+        for (int y = 0; y < getHeight(); y++) {
+            for (int x = 0; x < getWidth(); x++) {
+                setPixel(x, y, pixels[y * getWidth() + x]);
+            }
+        }
+    }
+
     boolean saveToFile(File file) throws IOException;
 
     AbstractBitmap obtainResized(int width, int height);
@@ -25,4 +49,65 @@ public interface AbstractBitmap {
         return new ImageResolution(getWidth(), getHeight());
     }
     AbstractBitmap obtainRotated(double degree);
+
+    /**
+     * Creates a copy of the given region.
+     * @param x The region's left column.
+     * @param y The region's top row.
+     * @param width The region's width, positive.
+     * @param height The region's height, positive.
+     * @return The copy of the region, of exactly its size.
+     */
+    AbstractBitmap obtainCropped(int x, int y, int width, int height);
+
+    /**
+     * Cuts off the borders of the wider or the higher dimension so that the centered rest has the given resolution,
+     * then the rest is not distorted when it is resized to a size of that resolution.
+     * @param resolution The resolution to crop to.
+     * @return The centered region or this bitmap if it already has the resolution.
+     */
+    default AbstractBitmap obtainCroppedToFit(ImageResolution resolution) {
+        int width = resolution.getFittingWidth(getWidth(), getHeight());
+        int height = resolution.getFittingHeight(getWidth(), getHeight());
+        if (width == getWidth() && height == getHeight()) {
+            return this;
+        }
+        return obtainCropped((getWidth() - width) / 2, (getHeight() - height) / 2, width, height);
+    }
+
+    /**
+     * Creates a copy whose red, green and blue values are replaced by their entries in the given tables, the alpha
+     * is kept. A table lookup per channel is much cheaper than calculating the new colors per pixel.
+     * @param redTable The new red values, 256 entries from 0 to 255.
+     * @param greenTable The new green values, 256 entries from 0 to 255.
+     * @param blueTable The new blue values, 256 entries from 0 to 255.
+     * @return The recolored copy.
+     */
+    default AbstractBitmap obtainRecolored(int[] redTable, int[] greenTable, int[] blueTable) {
+        AbstractBitmap copy = AbstractBitmapFactory.makeInstance(getWidth(), getHeight()).createBitmap();
+        for (int y = 0; y < getHeight(); y++) {
+            for (int x = 0; x < getWidth(); x++) {
+                int argb = getPixel(x, y);
+                copy.setPixel(x, y, (argb & 0xFF000000) | redTable[(argb >> 16) & 0xFF] << 16
+                        | greenTable[(argb >> 8) & 0xFF] << 8 | blueTable[argb & 0xFF]);
+            }
+        }
+        return copy;
+    }
+
+    /**
+     * Creates a copy whose pixels are stored off the Java heap, so that many big bitmaps can be held without long
+     * garbage collection pauses. The copy should be released by {@link #release()} once it is not used anymore.
+     * By default the copy is on the heap.
+     * @return The copy.
+     */
+    default AbstractBitmap obtainOffHeapCopy() {
+        return getCopy();
+    }
+
+    /**
+     * Releases the pixels if they are stored off the heap, the bitmap must not be used afterwards.
+     * Does nothing for bitmaps on the heap.
+     */
+    default void release() {}
 }
@@ -33,6 +33,32 @@ public abstract class AbstractBitmapFactory {
 
     public abstract AbstractBitmap createBitmap();
 
+    /**
+     * Creates the bitmap of the file at a size that is at least the given size, or the whole image if it is smaller.
+     * Big images can be decoded by skipping pixels, which is much faster than decoding all of them and scaling down
+     * afterwards. By default the whole image is decoded.
+     * @param minWidth The minimum width, positive.
+     * @param minHeight The minimum height, positive.
+     * @return The bitmap or null if the file is not an image. Its aspect ratio is about the image's ratio.
+     */
+    public AbstractBitmap createBitmap(int minWidth, int minHeight) {
+        return createBitmap();
+    }
+
+    /**
+     * Creates the bitmap of the biggest centered region of the file's image that has the given resolution, at a size
+     * that is at least the given size, or the whole region if it is smaller. Decoders that support it decode only
+     * the region, skipping pixels like {@link #createBitmap(int, int)}. By default the image is decoded and then
+     * cropped.
+     * @param minWidth The minimum width, positive.
+     * @param minHeight The minimum height, positive.
+     * @return The bitmap or null if the file is not an image. Its resolution is about the given size's resolution.
+     */
+    public AbstractBitmap createCroppedBitmap(int minWidth, int minHeight) {
+        AbstractBitmap bitmap = createBitmap(minWidth, minHeight);
+        return bitmap == null ? null : bitmap.obtainCroppedToFit(new ImageResolution(minWidth, minHeight));
+    }
+
     private static void checkFile(File file) {
         if (file == null || !file.exists() || file.isDirectory()) {
             throw new IllegalArgumentException("Not a valid image file:" + (file == null ? "NULL" : file.getAbsolutePath()));
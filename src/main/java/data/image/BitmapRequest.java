@@ -0,0 +1,42 @@
+package data.image;
+
+import data.storage.MosaicTile;
+
+import java.util.Objects;
+
+/**
+ * The request of a tile's bitmap in a certain size, usable as a key of maps.
+ */
+class BitmapRequest<S> {
+    final MosaicTile<S> tile;
+    final int width;
+    final int height;
+
+    BitmapRequest(MosaicTile<S> tile, int width, int height) {
+        this.tile = tile;
+        this.width = width;
+        this.height = height;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        BitmapRequest<?> other = (BitmapRequest<?>) o;
+        return width == other.width && height == other.height && tile.equals(other.tile);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(tile, width, height);
+    }
+
+    @Override
+    public String toString() {
+        return tile + " in " + width + "x" + height;
+    }
+}
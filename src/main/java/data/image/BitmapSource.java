@@ -29,6 +29,8 @@ public interface BitmapSource<S> {
     /**
      * Retrieves the bitmap associated with the given MosaicTile in the given width
      * and height. The result bitmap's dimensions must exactly match the given dimensions.
+     * If the source is {@link #isCroppingToFit() cropping to fit} the image's borders are cut off where its
+     * aspect ratio differs from the required one, else the whole image is stretched to the required dimensions.
      * If the bitmap is no longer accessible the result can be null.
      * @param forTile The tile to retrieve the image for.
      * @param requiredWidth The returned bitmap's width.
@@ -36,4 +38,60 @@ public interface BitmapSource<S> {
      * @return A bitmap of exactly the given dimensions or null if not found for any reasons.
      */
     AbstractBitmap getBitmap(MosaicTile<S> forTile, int requiredWidth, int requiredHeight);
+
+    /**
+     * Retrieves the bitmap like {@link #getBitmap(MosaicTile, int, int)} for a fragment of the given average color.
+     * Sources can adjust the bitmap to the color, see {@link TintingBitmapSource}. By default the color is ignored.
+     * @param forTile The tile to retrieve the image for.
+     * @param requiredWidth The returned bitmap's width.
+     * @param requiredHeight The returned bitmap's height.
+     * @param fragmentRGB The average color of the fragment the bitmap is placed on.
+     * @return A bitmap of exactly the given dimensions or null if not found for any reasons.
+     */
+    default AbstractBitmap getBitmap(MosaicTile<S> forTile, int requiredWidth, int requiredHeight, int fragmentRGB) {
+        return getBitmap(forTile, requiredWidth, requiredHeight);
+    }
+
+    /**
+     * Returns if the bitmaps are cropped to the centered region of the required aspect ratio instead of stretching
+     * the whole image, see {@link AbstractBitmap#obtainCroppedToFit(ImageResolution)}.
+     * @return If the bitmaps are cropped, false by default.
+     */
+    default boolean isCroppingToFit() {
+        return false;
+    }
+
+    /**
+     * Returns if the source keeps the bitmaps it returned in a cache, so decorators do not need to cache them again.
+     * @return If the bitmaps are cached, false by default.
+     */
+    default boolean isCaching() {
+        return false;
+    }
+
+    /**
+     * Empties the caches of the source and of the sources it decorates and releases the cached bitmaps that are
+     * stored off the heap, see {@link AbstractBitmap#release()}. Decorators clear their own caches before the
+     * decorated source releases the bitmaps, so it has to be invoked on the outermost decorator. No bitmap that the
+     * source returned must be used afterwards. Does nothing by default.
+     */
+    default void releaseCache() {}
+
+    /**
+     * Announces that the bitmap of the given tile will be requested soon in the given size, so the source can start
+     * loading it. Does nothing by default.
+     * @param forTile The tile whose image will be requested.
+     * @param requiredWidth The width it will be requested in.
+     * @param requiredHeight The height it will be requested in.
+     */
+    default void prefetch(MosaicTile<S> forTile, int requiredWidth, int requiredHeight) {}
+
+    /**
+     * Returns how many upcoming requests the source wants to be announced by
+     * {@link #prefetch(MosaicTile, int, int)}.
+     * @return The amount of requests, zero by default.
+     */
+    default int getPrefetchDepth() {
+        return 0;
+    }
 }
@@ -0,0 +1,216 @@
+package data.image;
+
+import data.storage.MosaicTile;
+import org.pmw.tinylog.Logger;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decorates a bitmap source so that several threads can request bitmaps at the same time without loading the same
+ * bitmap twice: the first request for a tile in a size loads it, later requests for it wait for that load and
+ * share its result. Loaded bitmaps are kept in a cache whose reads do not lock, bounded by the bytes of the bitmaps.
+ * When it is full the entries not read since the last sweep are evicted first (second chance), which is about
+ * least recently used without reordering the entries on each read.<br>
+ * A tile whose bitmap fails to load, the decorated source returned null or threw a runtime exception, is reported once
+ * and then remembered, requesting it again in any size returns null without loading it again. Errors like running out
+ * of memory are not the tile's fault, they are thrown to the requests waiting for the load and the tile is loaded
+ * again by the next request. The decorated source must be thread safe.
+ */
+public class ConcurrentBitmapSource<S> implements BitmapSource<S> {
+    public static final long DEFAULT_CACHE_BYTES = 32L * 1024L * 1024L;
+    private static final long BYTES_PER_PIXEL = 4L;
+    private final BitmapSource<S> source;
+    private final long cacheBytes;
+    private final Map<BitmapRequest<S>, Entry> entries = new ConcurrentHashMap<>();
+    private final Set<MosaicTile<S>> failedTiles = ConcurrentHashMap.newKeySet();
+    private final AtomicLong weight = new AtomicLong();
+    private final AtomicLong loadsCount = new AtomicLong();
+    private final AtomicLong sharedCount = new AtomicLong();
+    private final Object sweepLock = new Object();
+
+    private static class Entry {
+        private final CompletableFuture<AbstractBitmap> bitmap = new CompletableFuture<>();
+        private volatile boolean used = true;
+        private long weight; // written before the bitmap is completed
+    }
+
+    public ConcurrentBitmapSource(BitmapSource<S> source) {
+        this(source, DEFAULT_CACHE_BYTES);
+    }
+
+    /**
+     * Creates a new concurrent source.
+     * @param source The source that loads the bitmaps, thread safe.
+     * @param cacheBytes The maximum bytes of the pixels of the cached bitmaps, zero to only share running loads.
+     */
+    public ConcurrentBitmapSource(BitmapSource<S> source, long cacheBytes) {
+        if (cacheBytes < 0L) {
+            throw new IllegalArgumentException("Cache bytes must not be negative: " + cacheBytes);
+        }
+        this.source = Objects.requireNonNull(source);
+        this.cacheBytes = cacheBytes;
+    }
+
+    @Override
+    public AbstractBitmap getBitmap(MosaicTile<S> forTile, int requiredWidth, int requiredHeight) {
+        if (failedTiles.contains(forTile)) {
+            return null;
+        }
+        BitmapRequest<S> request = new BitmapRequest<>(forTile, requiredWidth, requiredHeight);
+        Entry entry = entries.get(request);
+        if (entry == null) {
+            Entry created = new Entry();
+            entry = entries.putIfAbsent(request, created);
+            if (entry == null) {
+                return load(request, created);
+            }
+        }
+        entry.used = true;
+        sharedCount.incrementAndGet();
+        return await(entry);
+    }
+
+    private AbstractBitmap load(BitmapRequest<S> request, Entry entry) {
+        loadsCount.incrementAndGet();
+        AbstractBitmap bitmap;
+        try {
+            bitmap = source.getBitmap(request.tile, request.width, request.height);
+            if (bitmap == null) {
+                Logger.error("Could not load bitmap of tile {}, not trying again.", request.tile);
+            }
+        } catch (RuntimeException e) {
+            Logger.error("Error loading bitmap of tile {}, not trying again: {}", request.tile, e);
+            bitmap = null;
+        } catch (Error e) {
+            entries.remove(request, entry);
+            entry.bitmap.completeExceptionally(e);
+            throw e;
+        }
+        if (bitmap == null) {
+            failedTiles.add(request.tile);
+            entries.remove(request, entry);
+        } else {
+            entry.weight = BYTES_PER_PIXEL * bitmap.getWidth() * bitmap.getHeight();
+            weight.addAndGet(entry.weight);
+        }
+        // also wakes up the waiting threads if the load failed
+        entry.bitmap.complete(bitmap);
+        if (weight.get() > cacheBytes) {
+            sweep(entry);
+        }
+        return bitmap;
+    }
+
+    private AbstractBitmap await(Entry entry) {
+        try {
+            return entry.bitmap.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw new IllegalStateException("Entries are only completed exceptionally by errors.", e);
+        }
+    }
+
+    private void sweep(Entry loaded) {
+        synchronized (sweepLock) {
+            // twice: the first pass may only take away the second chances, the bitmap just loaded is kept
+            for (int pass = 0; pass < 2 && weight.get() > cacheBytes; pass++) {
+                Iterator<Map.Entry<BitmapRequest<S>, Entry>> iterator = entries.entrySet().iterator();
+                while (weight.get() > cacheBytes && iterator.hasNext()) {
+                    Map.Entry<BitmapRequest<S>, Entry> next = iterator.next();
+                    Entry entry = next.getValue();
+                    if (entry == loaded || !entry.bitmap.isDone()) {
+                        continue;
+                    }
+                    if (entry.used) {
+                        entry.used = false;
+                    } else if (entries.remove(next.getKey(), entry)) {
+                        weight.addAndGet(-entry.weight);
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public void releaseCache() {
+        synchronized (sweepLock) {
+            // running loads stay, their bitmaps are not cached by the decorated source yet
+            entries.forEach((request, entry) -> {
+                if (entry.bitmap.isDone() && entries.remove(request, entry)) {
+                    weight.addAndGet(-entry.weight);
+                }
+            });
+        }
+        source.releaseCache();
+    }
+
+    /**
+     * Forgets the tiles whose bitmaps failed to load, so they are tried again.
+     */
+    public void clearFailures() {
+        failedTiles.clear();
+    }
+
+    /**
+     * Returns the bytes of all cached bitmaps.
+     * @return The resident bytes, about at most the cache's size.
+     */
+    public long getResidentBytes() {
+        return weight.get();
+    }
+
+    /**
+     * Returns how many requests started a load of the decorated source.
+     * @return The loads count.
+     */
+    public long getLoadsCount() {
+        return loadsCount.get();
+    }
+
+    /**
+     * Returns how many requests were served by a cached bitmap or waited for the load of another request.
+     * @return The shared count.
+     */
+    public long getSharedCount() {
+        return sharedCount.get();
+    }
+
+    @Override
+    public boolean isCroppingToFit() {
+        return source.isCroppingToFit();
+    }
+
+    @Override
+    public boolean isCaching() {
+        return cacheBytes > 0L || source.isCaching();
+    }
+
+    @Override
+    public void prefetch(MosaicTile<S> forTile, int requiredWidth, int requiredHeight) {
+        source.prefetch(forTile, requiredWidth, requiredHeight);
+    }
+
+    @Override
+    public int getPrefetchDepth() {
+        return source.getPrefetchDepth();
+    }
+
+    @Override
+    public String toString() {
+        return "ConcurrentBitmapSource(" + entries.size() + " entries, " + weight.get() + "/" + cacheBytes
+                + " bytes, " + loadsCount.get() + " loads, " + sharedCount.get() + " shared, "
+                + failedTiles.size() + " failed tiles)";
+    }
+}
@@ -32,6 +32,34 @@ public class ImageResolution {
         return height;
     }
 
+    /**
+     * Returns the width of the biggest region with this resolution that fits into an image of the given size.
+     * @param imageWidth The image's width, positive.
+     * @param imageHeight The image's height, positive.
+     * @return The region's width, at most the image's width.
+     */
+    public int getFittingWidth(int imageWidth, int imageHeight) {
+        if ((long) imageWidth * height > (long) imageHeight * width) {
+            // image is wider, cut off left and right
+            return Math.max(1, (int) Math.round(imageHeight * (double) width / height));
+        }
+        return imageWidth;
+    }
+
+    /**
+     * Returns the height of the biggest region with this resolution that fits into an image of the given size.
+     * @param imageWidth The image's width, positive.
+     * @param imageHeight The image's height, positive.
+     * @return The region's height, at most the image's height.
+     */
+    public int getFittingHeight(int imageWidth, int imageHeight) {
+        if ((long) imageHeight * width > (long) imageWidth * height) {
+            // image is higher, cut off top and bottom
+            return Math.max(1, (int) Math.round(imageWidth * (double) height / width));
+        }
+        return imageHeight;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -0,0 +1,182 @@
+package data.image;
+
+import data.storage.MosaicTile;
+import org.pmw.tinylog.Logger;
+import util.ProgressCallback;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Decorates a bitmap source to load bitmaps in the background before they are requested. The user announces the
+ * upcoming requests by {@link #prefetch(MosaicTile, int, int)}, then {@link #getBitmap(MosaicTile, int, int)} hands
+ * out the loaded bitmap or waits for it, requests that were not announced are loaded directly.<br>
+ * At most {@link #getPrefetchDepth()} bitmaps are loading or loaded but not requested yet, announcing more drops the
+ * eldest announcement. So the memory is bounded by that many bitmaps of the requested sizes.
+ * Once the given callback is cancelled announcements are ignored and the pending loads are cancelled.
+ * The decorated source is used by several threads and must be thread safe. The loading threads stop when idle,
+ * several sources can share them, see {@link #makeLoaders(int)}.
+ */
+public class PrefetchingBitmapSource<S> implements BitmapSource<S> {
+    public static final int DEFAULT_PREFETCH_DEPTH = 16;
+    private static final long IDLE_THREAD_SECONDS = 10L;
+    private static final AtomicInteger THREADS_COUNT = new AtomicInteger();
+    private final BitmapSource<S> source;
+    private final int prefetchDepth;
+    private final ProgressCallback callback;
+    private final ExecutorService loaders;
+    private final Map<BitmapRequest<S>, Future<AbstractBitmap>> pending = new LinkedHashMap<>(); // eldest first
+
+    public PrefetchingBitmapSource(BitmapSource<S> source, ProgressCallback callback) {
+        this(source, DEFAULT_PREFETCH_DEPTH, Runtime.getRuntime().availableProcessors(), callback);
+    }
+
+    /**
+     * Creates a new prefetching source.
+     * @param source The source that loads the bitmaps, thread safe.
+     * @param prefetchDepth The maximum amount of bitmaps loaded ahead, positive.
+     * @param threadsCount The amount of threads loading at the same time, positive.
+     * @param callback The callback whose cancellation stops the prefetching. Can be null.
+     */
+    public PrefetchingBitmapSource(BitmapSource<S> source, int prefetchDepth, int threadsCount,
+                                   ProgressCallback callback) {
+        this(source, prefetchDepth, makeLoaders(threadsCount), callback);
+    }
+
+    /**
+     * Creates a new prefetching source that loads with the given threads. Once they are shut down the bitmaps are
+     * loaded when requested.
+     * @param source The source that loads the bitmaps, thread safe.
+     * @param prefetchDepth The maximum amount of bitmaps loaded ahead, positive.
+     * @param loaders The threads that load the bitmaps, not shut down by this source.
+     * @param callback The callback whose cancellation stops the prefetching. Can be null.
+     */
+    public PrefetchingBitmapSource(BitmapSource<S> source, int prefetchDepth, ExecutorService loaders,
+                                   ProgressCallback callback) {
+        if (prefetchDepth <= 0) {
+            throw new IllegalArgumentException("Illegal prefetch depth: " + prefetchDepth);
+        }
+        this.source = Objects.requireNonNull(source);
+        this.prefetchDepth = prefetchDepth;
+        this.loaders = Objects.requireNonNull(loaders);
+        this.callback = callback;
+    }
+
+    /**
+     * Makes the daemon threads that load the bitmaps for prefetching sources. They stop when idle for a while, so
+     * they do not have to be shut down, but shutting them down stops them right away.
+     * @param threadsCount The amount of threads loading at the same time, positive.
+     * @return The new threads.
+     */
+    public static ExecutorService makeLoaders(int threadsCount) {
+        if (threadsCount <= 0) {
+            throw new IllegalArgumentException("Illegal threads count: " + threadsCount);
+        }
+        ThreadPoolExecutor loaders = new ThreadPoolExecutor(threadsCount, threadsCount, IDLE_THREAD_SECONDS,
+                                                            TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                                                            runnable -> {
+            Thread thread = new Thread(runnable, "BitmapPrefetcher-" + THREADS_COUNT.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        loaders.allowCoreThreadTimeOut(true);
+        return loaders;
+    }
+
+    private boolean isCancelled() {
+        return callback != null && callback.isCancelled();
+    }
+
+    @Override
+    public void prefetch(MosaicTile<S> forTile, int requiredWidth, int requiredHeight) {
+        if (isCancelled()) {
+            cancelPending();
+            return;
+        }
+        BitmapRequest<S> request = new BitmapRequest<>(forTile, requiredWidth, requiredHeight);
+        synchronized (pending) {
+            if (pending.containsKey(request)) {
+                return;
+            }
+            Iterator<Future<AbstractBitmap>> eldestFirst = pending.values().iterator();
+            while (pending.size() >= prefetchDepth && eldestFirst.hasNext()) {
+                eldestFirst.next().cancel(false);
+                eldestFirst.remove();
+            }
+            try {
+                pending.put(request, loaders.submit(() -> {
+                    if (isCancelled()) {
+                        throw new CancellationException();
+                    }
+                    return source.getBitmap(forTile, requiredWidth, requiredHeight);
+                }));
+            } catch (RejectedExecutionException e) {
+                // the loaders were shut down, the bitmap is loaded when requested
+            }
+        }
+    }
+
+    @Override
+    public int getPrefetchDepth() {
+        return prefetchDepth;
+    }
+
+    /**
+     * Cancels the loading of all announced bitmaps.
+     */
+    public void cancelPending() {
+        synchronized (pending) {
+            pending.values().forEach(future -> future.cancel(false));
+            pending.clear();
+        }
+    }
+
+    @Override
+    public void releaseCache() {
+        cancelPending();
+        source.releaseCache();
+    }
+
+    @Override
+    public boolean isCroppingToFit() {
+        return source.isCroppingToFit();
+    }
+
+    @Override
+    public boolean isCaching() {
+        return source.isCaching();
+    }
+
+    @Override
+    public AbstractBitmap getBitmap(MosaicTile<S> forTile, int requiredWidth, int requiredHeight) {
+        Future<AbstractBitmap> loading;
+        synchronized (pending) {
+            loading = pending.remove(new BitmapRequest<>(forTile, requiredWidth, requiredHeight));
+        }
+        if (loading != null) {
+            try {
+                return loading.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (CancellationException e) {
+                // load it now
+            } catch (ExecutionException e) {
+                if (!(e.getCause() instanceof CancellationException)) {
+                    Logger.error("Error prefetching bitmap for tile {}: {}", forTile, e.getCause());
+                }
+            }
+        }
+        return source.getBitmap(forTile, requiredWidth, requiredHeight);
+    }
+}
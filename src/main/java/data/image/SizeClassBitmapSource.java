@@ -0,0 +1,69 @@
+package data.image;
+
+import data.storage.MosaicTile;
+
+import java.util.Objects;
+
+/**
+ * Decorates a bitmap source to request the bitmaps only in a small set of sizes, the size classes. A requested width
+ * and height are each rounded up to their class, the decorated source gives the bitmap in that size and its centered
+ * region of the requested size is cut out, which is a cheap copy of rows. So the many distinct fragment sizes of
+ * for example the multi rect reconstructor share the resized variants that the decorated source caches, instead of
+ * each size resizing and caching a variant of its own.<br>
+ * Sizes up to {@link #EXACT_SIZE_LIMIT} are their own class, above there are {@link #CLASSES_PER_OCTAVE} classes
+ * between each power of two, so at most about a ninth of the bitmap's width or height is cut off.
+ */
+public class SizeClassBitmapSource<S> implements BitmapSource<S> {
+    public static final int EXACT_SIZE_LIMIT = 16;
+    public static final int CLASSES_PER_OCTAVE = 8;
+    private final BitmapSource<S> source;
+
+    public SizeClassBitmapSource(BitmapSource<S> source) {
+        this.source = Objects.requireNonNull(source);
+    }
+
+    /**
+     * Returns the size class of the given width or height.
+     * @param size The width or height, positive.
+     * @return The smallest size class that is at least the given size.
+     */
+    public static int getSizeClass(int size) {
+        if (size <= EXACT_SIZE_LIMIT) {
+            return size;
+        }
+        int step = Integer.highestOneBit(size) / CLASSES_PER_OCTAVE;
+        return (size + step - 1) / step * step;
+    }
+
+    @Override
+    public AbstractBitmap getBitmap(MosaicTile<S> forTile, int requiredWidth, int requiredHeight) {
+        int classWidth = getSizeClass(requiredWidth);
+        int classHeight = getSizeClass(requiredHeight);
+        AbstractBitmap bitmap = source.getBitmap(forTile, classWidth, classHeight);
+        if (bitmap == null || (classWidth == requiredWidth && classHeight == requiredHeight)) {
+            return bitmap;
+        }
+        return bitmap.obtainCropped((classWidth - requiredWidth) / 2, (classHeight - requiredHeight) / 2,
+                                    requiredWidth, requiredHeight);
+    }
+
+    @Override
+    public void releaseCache() {
+        source.releaseCache();
+    }
+
+    @Override
+    public boolean isCroppingToFit() {
+        return source.isCroppingToFit();
+    }
+
+    @Override
+    public void prefetch(MosaicTile<S> forTile, int requiredWidth, int requiredHeight) {
+        source.prefetch(forTile, getSizeClass(requiredWidth), getSizeClass(requiredHeight));
+    }
+
+    @Override
+    public int getPrefetchDepth() {
+        return source.getPrefetchDepth();
+    }
+}
@@ -0,0 +1,155 @@
+package data.image;
+
+import data.storage.MosaicTile;
+import util.caching.Cachable;
+import util.caching.WeightedLruCache;
+import util.image.Color;
+
+import java.util.Objects;
+
+/**
+ * Decorates a bitmap source to blend each bitmap toward the average color of the fragment it is placed on, which
+ * hides how far the tile's color is from the fragment's. Each color channel is blended by a lookup table that is
+ * made once per tint, see {@link AbstractBitmap#obtainRecolored(int[], int[], int[])}. The fragment colors are
+ * quantized to {@link #TINT_STEP} per channel, so the tinted bitmaps can be cached by tile, size and tint and
+ * reused for the many fragments of about the same color in big mosaics.
+ */
+public class TintingBitmapSource<S> implements BitmapSource<S> {
+    public static final long DEFAULT_CACHE_BYTES = 32L * 1024L * 1024L;
+    public static final int TINT_STEP = 8;
+    private static final long BYTES_PER_PIXEL = 4L;
+    private static final int WEIGHT_ONE = 256;
+    private final BitmapSource<S> source;
+    private final int weight; // of the tint, out of WEIGHT_ONE
+    private final WeightedLruCache<TintKey<S>, AbstractBitmap> tinted;
+
+    private static class TintKey<S> {
+        private final BitmapRequest<S> request;
+        private final int tint;
+
+        private TintKey(BitmapRequest<S> request, int tint) {
+            this.request = request;
+            this.tint = tint;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            TintKey<?> other = (TintKey<?>) o;
+            return tint == other.tint && request.equals(other.request);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(request, tint);
+        }
+    }
+
+    public TintingBitmapSource(BitmapSource<S> source, double strength) {
+        this(source, strength, DEFAULT_CACHE_BYTES);
+    }
+
+    /**
+     * Creates a new tinting source.
+     * @param source The source of the bitmaps to tint.
+     * @param strength How much the bitmaps are blended toward the fragments' colors, from 0 (not at all) to 1
+     *                 (only the fragment's color is left).
+     * @param cacheBytes The maximum bytes of the pixels of the cached tinted bitmaps.
+     */
+    public TintingBitmapSource(BitmapSource<S> source, double strength, long cacheBytes) {
+        if (strength < 0. || strength > 1. || Double.isNaN(strength)) {
+            throw new IllegalArgumentException("Tint strength not between 0 and 1: " + strength);
+        }
+        this.source = Objects.requireNonNull(source);
+        weight = (int) Math.round(strength * WEIGHT_ONE);
+        tinted = new WeightedLruCache<>(cacheBytes,
+                                        bitmap -> BYTES_PER_PIXEL * bitmap.getWidth() * bitmap.getHeight());
+    }
+
+    /**
+     * Returns the bitmap untinted, as the fragment's color is not known.
+     */
+    @Override
+    public AbstractBitmap getBitmap(MosaicTile<S> forTile, int requiredWidth, int requiredHeight) {
+        return source.getBitmap(forTile, requiredWidth, requiredHeight);
+    }
+
+    @Override
+    public AbstractBitmap getBitmap(MosaicTile<S> forTile, int requiredWidth, int requiredHeight, int fragmentRGB) {
+        if (weight == 0) {
+            return source.getBitmap(forTile, requiredWidth, requiredHeight);
+        }
+        int tint = quantize(fragmentRGB);
+        TintKey<S> key = new TintKey<>(new BitmapRequest<>(forTile, requiredWidth, requiredHeight), tint);
+        AbstractBitmap bitmap = tinted.getFromCache(key).orElse(null);
+        if (bitmap != null) {
+            return bitmap;
+        }
+        bitmap = source.getBitmap(forTile, requiredWidth, requiredHeight);
+        if (bitmap == null) {
+            return null;
+        }
+        bitmap = bitmap.obtainRecolored(makeTable(Color.red(tint)), makeTable(Color.green(tint)),
+                                        makeTable(Color.blue(tint)));
+        tinted.addToCache(key, bitmap);
+        return bitmap;
+    }
+
+    private static int quantize(int rgb) {
+        // the center of the step, so the error is at most half a step
+        return Color.rgb(quantizeChannel(Color.red(rgb)), quantizeChannel(Color.green(rgb)),
+                         quantizeChannel(Color.blue(rgb)));
+    }
+
+    private static int quantizeChannel(int value) {
+        return value / TINT_STEP * TINT_STEP + TINT_STEP / 2;
+    }
+
+    private int[] makeTable(int tintValue) {
+        int[] table = new int[256];
+        int tintPart = tintValue * weight + WEIGHT_ONE / 2;
+        for (int value = 0; value < table.length; value++) {
+            table[value] = (value * (WEIGHT_ONE - weight) + tintPart) / WEIGHT_ONE;
+        }
+        return table;
+    }
+
+    /**
+     * Returns how many tinted bitmaps were served from the cache.
+     * @return The hits count.
+     */
+    public long getCacheHitsCount() {
+        return tinted.getHitsCount();
+    }
+
+    @Override
+    public void releaseCache() {
+        tinted.clearCache(Cachable.CLEAR_EMPTY);
+        source.releaseCache();
+    }
+
+    @Override
+    public boolean isCroppingToFit() {
+        return source.isCroppingToFit();
+    }
+
+    @Override
+    public void prefetch(MosaicTile<S> forTile, int requiredWidth, int requiredHeight) {
+        source.prefetch(forTile, requiredWidth, requiredHeight);
+    }
+
+    @Override
+    public int getPrefetchDepth() {
+        return source.getPrefetchDepth();
+    }
+
+    @Override
+    public String toString() {
+        return "TintingBitmapSource(" + weight + "/" + WEIGHT_ONE + ", " + tinted + ")";
+    }
+}
@@ -0,0 +1,144 @@
+package matching;
+
+import data.storage.MosaicTile;
+import reconstruction.MosaicFragment;
+import util.caching.StripedLruCache;
+import util.image.ColorSpace;
+
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+
+/**
+ * A TileMatcher that can be shared by several threads that match fragments at the same time, for example
+ * when multiple mosaics are made from the same big tile set.
+ * The match cache is striped, the reuse counts are counted atomically so that the reuse limit holds for all threads
+ * together, and the index is guarded by a read write lock: lookups only share the read lock
+ * and run in parallel, removing tiles and rebuilding the index after a color space change take the write lock.
+ * Subclasses implement the lookup and the index changes without any synchronization of their own, but lookups must
+ * not modify the index. The color space and accuracy should not be changed while other threads are matching.
+ */
+public abstract class ConcurrentTileMatcher<S> extends TileMatcher<S> {
+    private final ReadWriteLock indexLock = new ReentrantReadWriteLock();
+    private final ConcurrentMap<S, AtomicInteger> concurrentReuseCount = new ConcurrentHashMap<>();
+    private final AtomicInteger nullSourceReuseCount = new AtomicInteger(-1);
+
+    protected ConcurrentTileMatcher(ColorSpace space) {
+        super(space, new StripedLruCache<>(CACHE_SIZE));
+    }
+
+    /**
+     * Looks up the best match in the index. Only reads the index, other lookups can run at the same time.
+     * @param wantedTile The fragment to match.
+     * @return The best matching tile or empty if there are no tiles.
+     */
+    protected abstract Optional<? extends MosaicTile<S>> lookUpBestMatch(MosaicFragment wantedTile);
+
+    /**
+     * Removes the tile from the index. No lookup runs at the same time.
+     * @param toRemove The tile to remove.
+     * @return If the tile was contained and removed.
+     */
+    protected abstract boolean removeFromIndex(MosaicTile<S> toRemove);
+
+    /**
+     * Rebuilds the index for the changed color space. No lookup runs at the same time.
+     */
+    protected abstract void rebuildIndex();
+
+    /**
+     * Returns the amount of tiles in the index. Only reads the index.
+     * @return The amount of tiles.
+     */
+    protected abstract int getIndexSize();
+
+    /**
+     * Reads the index while holding the read lock, for example to copy it.
+     * @param reader Reads the index, must not modify it.
+     * @return The reader's result.
+     */
+    protected final <T> T readIndex(Supplier<T> reader) {
+        indexLock.readLock().lock();
+        try {
+            return reader.get();
+        } finally {
+            indexLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Changes the index while holding the write lock, no lookup runs at the same time.
+     * @param writer Changes the index.
+     */
+    protected final void writeIndex(Runnable writer) {
+        indexLock.writeLock().lock();
+        try {
+            writer.run();
+        } finally {
+            indexLock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public Optional<? extends MosaicTile<S>> calculateBestMatch(MosaicFragment wantedTile) {
+        indexLock.readLock().lock();
+        try {
+            return lookUpBestMatch(wantedTile);
+        } finally {
+            indexLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    protected final boolean doRemoveTile(MosaicTile<S> toRemove) {
+        indexLock.writeLock().lock();
+        try {
+            return removeFromIndex(toRemove);
+        } finally {
+            indexLock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    protected final void onColorSpaceChanged() {
+        indexLock.writeLock().lock();
+        try {
+            rebuildIndex();
+        } finally {
+            indexLock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public final int getUsedTilesCount() {
+        indexLock.readLock().lock();
+        try {
+            return getIndexSize();
+        } finally {
+            indexLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    protected int increaseReuseCount(S source) {
+        if (source == null) {
+            return nullSourceReuseCount.getAndIncrement(); // the concurrent map does not allow null keys
+        }
+        return concurrentReuseCount.computeIfAbsent(source, key -> new AtomicInteger(-1)).getAndIncrement();
+    }
+
+    /**
+     * Replaces the reuse counts by the current counts of the given matcher.
+     * @param other The matcher to copy the counts from.
+     */
+    protected void copyReuseCounts(ConcurrentTileMatcher<S> other) {
+        concurrentReuseCount.clear();
+        other.concurrentReuseCount.forEach((source, count) -> concurrentReuseCount.put(source,
+                                                                                      new AtomicInteger(count.get())));
+        nullSourceReuseCount.set(other.nullSourceReuseCount.get());
+    }
+}
@@ -0,0 +1,145 @@
+package matching;
+
+import data.storage.MosaicTile;
+import reconstruction.MosaicFragment;
+import util.image.Color;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.Random;
+
+/**
+ * Measures how a TileMatcher trades color error for speed when lowering its accuracy. The matcher is queried
+ * for random opaque colors, first with accuracy 1 to get the reference distances and then with each of the given
+ * accuracies. The match cache is bypassed, so only the lookups are timed.
+ */
+public class MatcherBenchmark {
+    private static final int WARM_UP_ROUNDS = 2;
+
+    private MatcherBenchmark() {}
+
+    public static class Measurement {
+        /**
+         * The accuracy the matcher accepted.
+         */
+        public final double accuracy;
+        /**
+         * The average time for a single lookup in nanoseconds.
+         */
+        public final double nanosPerQuery;
+        /**
+         * The average additional distance to the exact best match, relative to the space's maximum distance.
+         */
+        public final double meanError;
+        /**
+         * The greatest additional distance to the exact best match, relative to the space's maximum distance.
+         */
+        public final double maxError;
+        /**
+         * The fraction of lookups that found a tile as close as the exact best match.
+         */
+        public final double exactFraction;
+
+        Measurement(double accuracy, double nanosPerQuery, double meanError, double maxError, double exactFraction) {
+            this.accuracy = accuracy;
+            this.nanosPerQuery = nanosPerQuery;
+            this.meanError = meanError;
+            this.maxError = maxError;
+            this.exactFraction = exactFraction;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "accuracy=%.2f time=%.0fns meanError=%.6f maxError=%.6f exact=%.1f%%",
+                                 accuracy, nanosPerQuery, meanError, maxError, exactFraction * 100);
+        }
+    }
+
+    /**
+     * Measures the given matcher for each of the given accuracies. The matcher's accuracy is restored afterwards.
+     * @param matcher The matcher to measure. Should use the tile set of interest.
+     * @param accuracies The accuracies to measure.
+     * @param queriesCount The amount of random colors to look up for each accuracy.
+     * @param random The random generator for the colors.
+     * @return The measurements, one for each accuracy in the same order. Empty if the matcher has no tiles.
+     */
+    public static <S> List<Measurement> measureAccuracyCurve(TileMatcher<S> matcher, double[] accuracies,
+                                                             int queriesCount, Random random) {
+        List<Measurement> measurements = new ArrayList<>(accuracies.length);
+        if (matcher.getUsedTilesCount() == 0) {
+            return measurements;
+        }
+        MosaicFragment[] queries = makeRandomQueries(random, queriesCount);
+        double previousAccuracy = matcher.getAccuracy();
+        matcher.setAccuracy(1.);
+        double[] exactDistances = lookUpDistances(matcher, queries);
+        final double maxDistance = matcher.space.getMaxDistance();
+
+        for (double accuracy : accuracies) {
+            matcher.setAccuracy(accuracy);
+            for (int i = 0; i < WARM_UP_ROUNDS; i++) {
+                lookUpDistances(matcher, queries);
+            }
+            long start = System.nanoTime();
+            double[] distances = lookUpDistances(matcher, queries);
+            long duration = System.nanoTime() - start;
+
+            double errorSum = 0.;
+            double maxError = 0.;
+            int exactCount = 0;
+            for (int i = 0; i < queries.length; i++) {
+                double error = Math.max(0., distances[i] - exactDistances[i]) / maxDistance;
+                errorSum += error;
+                maxError = Math.max(maxError, error);
+                if (error <= 0.) {
+                    exactCount++;
+                }
+            }
+            measurements.add(new Measurement(matcher.getAccuracy(), duration / (double) queries.length,
+                                             errorSum / queries.length, maxError,
+                                             exactCount / (double) queries.length));
+        }
+        matcher.setAccuracy(previousAccuracy);
+        return measurements;
+    }
+
+    /**
+     * Measures the average time of a single lookup of the matcher at its current accuracy.
+     * @param matcher The matcher to measure.
+     * @param queriesCount The amount of random colors to look up.
+     * @param random The random generator for the colors.
+     * @return The average time for a single lookup in nanoseconds.
+     */
+    public static <S> double measureNanosPerQuery(TileMatcher<S> matcher, int queriesCount, Random random) {
+        MosaicFragment[] queries = makeRandomQueries(random, queriesCount);
+        for (int i = 0; i < WARM_UP_ROUNDS; i++) {
+            lookUpDistances(matcher, queries);
+        }
+        long start = System.nanoTime();
+        lookUpDistances(matcher, queries);
+        return (System.nanoTime() - start) / (double) queries.length;
+    }
+
+    private static MosaicFragment[] makeRandomQueries(Random random, int count) {
+        MosaicFragment[] queries = new MosaicFragment[Math.max(1, count)];
+        for (int i = 0; i < queries.length; i++) {
+            // opaque like the fragments of common source images, random alphas would be far off the tiles
+            int color = Color.rgb(random.nextInt(256), random.nextInt(256), random.nextInt(256));
+            queries[i] = new MosaicFragment(1, 1, color);
+        }
+        return queries;
+    }
+
+    private static <S> double[] lookUpDistances(TileMatcher<S> matcher, MosaicFragment[] queries) {
+        double[] distances = new double[queries.length];
+        for (int i = 0; i < queries.length; i++) {
+            int color = queries[i].getAverageRGB();
+            Optional<? extends MosaicTile<S>> match = matcher.calculateBestMatch(queries[i]);
+            distances[i] = match.map(tile -> matcher.space.getDistance(tile.getAverageARGB(), color))
+                                .orElse(Double.MAX_VALUE);
+        }
+        return distances;
+    }
+}
@@ -0,0 +1,219 @@
+package matching;
+
+import data.storage.MosaicTile;
+import matching.workers.FastMatcher;
+import matching.workers.SharedIndexMatcher;
+import org.pmw.tinylog.Logger;
+import util.image.ColorSpace;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Hands out matchers that share the color index of a tile set, so rendering many mosaics from the same tile set
+ * builds the index only once for each color space. An index is identified by the tile collection instance and
+ * the color space, so the same collection instance has to be passed for the same tile set and it must not
+ * be changed afterwards.
+ * The index itself is never modified, it is kept by a {@link FastMatcher} and each job gets a snapshot of it, a
+ * {@link SharedIndexMatcher} that keeps the job's removed tiles and reuse counts. The indices count the views using them. An index that is no longer used is kept
+ * for later jobs until more than the maximum amount of unused indices are kept, then the least recently released
+ * index is evicted.
+ */
+public class MatcherIndexRegistry<S> {
+    public static final int DEFAULT_MAX_UNUSED_INDICES = 2;
+    private final Map<IndexKey, SharedIndex<S>> indices = new HashMap<>();
+    private final Set<IndexKey> unusedKeys = new LinkedHashSet<>(); // ordered by release time, eldest first
+    private final int maxUnusedIndices;
+
+    public MatcherIndexRegistry() {
+        this(DEFAULT_MAX_UNUSED_INDICES);
+    }
+
+    /**
+     * Creates a new registry.
+     * @param maxUnusedIndices The amount of indices to keep when no view uses them anymore.
+     */
+    public MatcherIndexRegistry(int maxUnusedIndices) {
+        this.maxUnusedIndices = Math.max(0, maxUnusedIndices);
+    }
+
+    /**
+     * Creates a new matcher for the given tiles that uses the shared index of the tiles and space. The index
+     * is built if there is none yet. The matcher has to be released by {@link SharedIndexMatcher#release()}
+     * when the job is done.
+     * @param tiles The tiles, identified by the collection instance.
+     * @param space The color space.
+     * @return A new matcher for one job.
+     */
+    public SharedIndexMatcher<S> acquire(Collection<? extends MosaicTile<S>> tiles, ColorSpace space) {
+        return new SharedIndexMatcher<>(this, tiles, space);
+    }
+
+    /**
+     * Returns the index for the given tiles and space and counts another user. Builds the index if required.
+     * Building is done without holding the registry's lock, other jobs that want the same index wait for it
+     * instead of building it again, jobs that want other indices do not wait.
+     * @param tiles The tiles, identified by the collection instance.
+     * @param space The color space of the index.
+     * @return The shared index, must be released by {@link #releaseIndex(SharedIndex)}.
+     */
+    public SharedIndex<S> acquireIndex(Collection<? extends MosaicTile<S>> tiles, ColorSpace space) {
+        IndexKey key = new IndexKey(tiles, space);
+        SharedIndex<S> index;
+        boolean build;
+        synchronized (this) {
+            index = indices.get(key);
+            build = index == null;
+            if (build) {
+                index = new SharedIndex<>(key);
+                indices.put(key, index);
+            }
+            unusedKeys.remove(key);
+            index.usersCount++;
+        }
+        if (build) {
+            build(index, tiles);
+        } else {
+            index.awaitBuilt();
+        }
+        return index;
+    }
+
+    private void build(SharedIndex<S> index, Collection<? extends MosaicTile<S>> tiles) {
+        long start = System.currentTimeMillis();
+        try {
+            index.prototype.complete(new FastMatcher<>(tiles, index.key.space));
+        } catch (RuntimeException | Error e) {
+            // the waiting jobs fail as well, a later job tries again
+            synchronized (this) {
+                indices.remove(index.key, index);
+            }
+            index.prototype.completeExceptionally(e);
+            throw e;
+        }
+        Logger.info("Built shared index {} in {}ms.", index, System.currentTimeMillis() - start);
+    }
+
+    /**
+     * Releases the index for one user. Evicts unused indices if there are too many.
+     * @param index The index to release, must have been acquired from this registry.
+     */
+    public synchronized void releaseIndex(SharedIndex<S> index) {
+        if (index.usersCount <= 0 || indices.get(index.key) != index) {
+            throw new IllegalStateException("Index is not acquired from this registry: " + index);
+        }
+        index.usersCount--;
+        if (index.usersCount == 0) {
+            unusedKeys.add(index.key);
+            evictUnused(maxUnusedIndices);
+        }
+    }
+
+    private void evictUnused(int keepCount) {
+        Iterator<IndexKey> eldestFirst = unusedKeys.iterator();
+        while (unusedKeys.size() > keepCount && eldestFirst.hasNext()) {
+            IndexKey key = eldestFirst.next();
+            eldestFirst.remove();
+            indices.remove(key);
+        }
+    }
+
+    /**
+     * Evicts all indices that are not used at the moment.
+     */
+    public synchronized void evictUnused() {
+        evictUnused(0);
+    }
+
+    /**
+     * Returns the amount of indices currently kept, used or unused.
+     * @return The amount of indices.
+     */
+    public synchronized int getIndicesCount() {
+        return indices.size();
+    }
+
+    /**
+     * An immutable color index of a tile set in one color space, kept by a matcher that is never used for matching
+     * and only gives snapshots, see {@link FastMatcher#snapshot()}.
+     */
+    public static class SharedIndex<S> {
+        private final IndexKey key;
+        private final CompletableFuture<FastMatcher<S>> prototype = new CompletableFuture<>();
+        private int usersCount;
+
+        private SharedIndex(IndexKey key) {
+            this.key = key;
+        }
+
+        private FastMatcher<S> awaitBuilt() {
+            try {
+                return prototype.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                if (e.getCause() instanceof Error) {
+                    throw (Error) e.getCause();
+                }
+                throw e;
+            }
+        }
+
+        /**
+         * Returns the matcher that keeps the index, its snapshots share the index.
+         * @return The matcher that hides no tiles, must not be changed.
+         */
+        public FastMatcher<S> getPrototype() {
+            return awaitBuilt();
+        }
+
+        public ColorSpace getSpace() {
+            return key.space;
+        }
+
+        public int size() {
+            return awaitBuilt().getUsedTilesCount();
+        }
+
+        @Override
+        public String toString() {
+            return "SharedIndex(" + (prototype.isDone() ? size() + " tiles, " : "building, ")
+                    + key.space.getClass().getSimpleName() + (key.space.usesAlpha() ? " with alpha)" : ")");
+        }
+    }
+
+    private static class IndexKey {
+        private final Collection<?> tiles;
+        private final ColorSpace space;
+
+        IndexKey(Collection<?> tiles, ColorSpace space) {
+            this.tiles = Objects.requireNonNull(tiles);
+            this.space = Objects.requireNonNull(space);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            IndexKey other = (IndexKey) o;
+            return tiles == other.tiles && space.equals(other.space);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(tiles) + space.hashCode();
+        }
+    }
+}
@@ -0,0 +1,228 @@
+package matching;
+
+import data.storage.MosaicTile;
+import data.storage.VoidTile;
+import matching.workers.FastMatcher;
+import matching.workers.PackedLinearMatcher;
+import matching.workers.SortedValueMatcher;
+import org.pmw.tinylog.Logger;
+import util.image.Color;
+import util.image.ColorSpace;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Chooses the matcher and match cache configuration for a job. The choice is based on a model of the total matching
+ * time: building the index, one lookup per expected fragment and one tile removal each time the reuse limit
+ * excludes a tile. The costs of the model are measured once per color space by a short calibration on this host,
+ * as the kd-tree's advantage depends on the space's dimension and metric.
+ */
+public class MatcherSelector {
+    private static final int CALIBRATION_TILES = 4096;
+    private static final int CALIBRATION_QUERIES = 1000;
+    private static final int CALIBRATION_REMOVALS = 256;
+    /**
+     * If the lookups are estimated to take longer than this, the match cache uses quantized keys.
+     */
+    private static final double QUANTIZED_CACHE_THRESHOLD_NANOS = 2E9;
+    private static final int QUANTIZED_CACHE_MAX_COLOR_ERROR = 2;
+    private static final Map<ColorSpace, Calibration> CALIBRATIONS = new HashMap<>();
+
+    private MatcherSelector() {}
+
+    public enum MatcherType {PACKED_LINEAR, KD_TREE}
+
+    /**
+     * The measured costs of the matchers for one color space.
+     */
+    public static class Calibration {
+        final double linearBuildNanosPerTile;
+        final double linearScanNanosPerTile;
+        final double linearRemoveNanosPerTile;
+        final double treeBuildNanosPerTile; // divided by the logarithm of the tile count
+        final double treeQueryNanos; // at the calibration's tile count
+        final double treeRemoveNanos; // at the calibration's tile count
+
+        Calibration(double linearBuildNanosPerTile, double linearScanNanosPerTile, double linearRemoveNanosPerTile,
+                    double treeBuildNanosPerTile, double treeQueryNanos, double treeRemoveNanos) {
+            this.linearBuildNanosPerTile = linearBuildNanosPerTile;
+            this.linearScanNanosPerTile = linearScanNanosPerTile;
+            this.linearRemoveNanosPerTile = linearRemoveNanosPerTile;
+            this.treeBuildNanosPerTile = treeBuildNanosPerTile;
+            this.treeQueryNanos = treeQueryNanos;
+            this.treeRemoveNanos = treeRemoveNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "linear build=%.1fns/tile scan=%.2fns/tile remove=%.2fns/tile, "
+                                         + "kd-tree build=%.1fns/tile query=%.0fns remove=%.0fns at %d tiles",
+                                 linearBuildNanosPerTile, linearScanNanosPerTile, linearRemoveNanosPerTile,
+                                 treeBuildNanosPerTile, treeQueryNanos, treeRemoveNanos, CALIBRATION_TILES);
+        }
+    }
+
+    /**
+     * The chosen matcher type and cache configuration with the estimated times that lead to the choice.
+     */
+    public static class Choice {
+        public final MatcherType type;
+        public final int cacheMaxColorError;
+        public final double linearEstimateNanos;
+        public final double treeEstimateNanos;
+        public final String reason;
+
+        Choice(MatcherType type, int cacheMaxColorError, double linearEstimateNanos, double treeEstimateNanos,
+               String reason) {
+            this.type = type;
+            this.cacheMaxColorError = cacheMaxColorError;
+            this.linearEstimateNanos = linearEstimateNanos;
+            this.treeEstimateNanos = treeEstimateNanos;
+            this.reason = reason;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "%s (estimated linear %.1fms, kd-tree %.1fms, cache max color error %d): %s",
+                                 type, linearEstimateNanos / 1E6, treeEstimateNanos / 1E6, cacheMaxColorError,
+                                 reason);
+        }
+    }
+
+    /**
+     * Returns the calibration for the given color space, measures it on first use.
+     * @param space The color space.
+     * @return The calibration.
+     */
+    public static synchronized Calibration getCalibration(ColorSpace space) {
+        Calibration calibration = CALIBRATIONS.get(space);
+        if (calibration == null) {
+            long start = System.currentTimeMillis();
+            Random random = new Random(CALIBRATION_TILES);
+            calibrate(space, random); // the first run mostly measures the JIT compiler
+            calibration = calibrate(space, random);
+            CALIBRATIONS.put(space, calibration);
+            Logger.info("Calibrated matchers in {}ms: {}", System.currentTimeMillis() - start, calibration);
+        }
+        return calibration;
+    }
+
+    private static Calibration calibrate(ColorSpace space, Random random) {
+        List<MosaicTile<Void>> tiles = new ArrayList<>(CALIBRATION_TILES);
+        for (int i = 0; i < CALIBRATION_TILES; i++) {
+            // tiles are opaque, as most images are
+            tiles.add(new VoidTile(Color.rgb(random.nextInt(256), random.nextInt(256), random.nextInt(256))));
+        }
+        long start = System.nanoTime();
+        PackedLinearMatcher<Void> linear = new PackedLinearMatcher<>(tiles, space);
+        double linearBuild = (System.nanoTime() - start) / (double) CALIBRATION_TILES;
+        linear.setParallelScan(false);
+        double linearScan = MatcherBenchmark.measureNanosPerQuery(linear, CALIBRATION_QUERIES, random)
+                / CALIBRATION_TILES;
+
+        start = System.nanoTime();
+        FastMatcher<Void> tree = new FastMatcher<>(tiles, space);
+        double treeBuild = (System.nanoTime() - start) / (double) CALIBRATION_TILES / log2(CALIBRATION_TILES);
+        double treeQuery = MatcherBenchmark.measureNanosPerQuery(tree, CALIBRATION_QUERIES, random);
+
+        List<MosaicTile<Void>> toRemove = tiles.subList(0, CALIBRATION_REMOVALS);
+        start = System.nanoTime();
+        toRemove.forEach(linear::doRemoveTile);
+        double linearRemove = (System.nanoTime() - start) / (double) CALIBRATION_REMOVALS / CALIBRATION_TILES;
+        start = System.nanoTime();
+        toRemove.forEach(tree::doRemoveTile);
+        double treeRemove = (System.nanoTime() - start) / (double) CALIBRATION_REMOVALS;
+        return new Calibration(linearBuild, linearScan, linearRemove, treeBuild, treeQuery, treeRemove);
+    }
+
+    private static double log2(double value) {
+        return Math.log(Math.max(2., value)) / Math.log(2.);
+    }
+
+    /**
+     * Chooses the matcher for the given job.
+     * @param tilesCount The amount of tiles.
+     * @param expectedFragments The amount of fragments expected to be matched.
+     * @param reuseLimit The reuse limit of the tiles, see {@link TileMatcher#setTileReuseLimit(int)}.
+     * @param calibration The calibration of the job's color space.
+     * @return The choice.
+     */
+    public static Choice choose(int tilesCount, int expectedFragments, int reuseLimit, Calibration calibration) {
+        double tiles = Math.max(1, tilesCount);
+        double queries = Math.max(0, expectedFragments);
+        // each tile can be used reuseLimit + 1 times, then the next match removes it
+        double removals = reuseLimit < 0 ? 0. : Math.min(tiles, queries / (reuseLimit + 1.));
+        double treeScale = log2(tiles) / log2(CALIBRATION_TILES);
+
+        double linearBuild = tiles * calibration.linearBuildNanosPerTile;
+        double linearLookups = queries * tiles * calibration.linearScanNanosPerTile;
+        double linearRemovals = removals * tiles * calibration.linearRemoveNanosPerTile;
+        double treeBuild = tiles * log2(tiles) * calibration.treeBuildNanosPerTile;
+        double treeLookups = queries * calibration.treeQueryNanos * treeScale;
+        double treeRemovals = removals * calibration.treeRemoveNanos * treeScale;
+        double linearTotal = linearBuild + linearLookups + linearRemovals;
+        double treeTotal = treeBuild + treeLookups + treeRemovals;
+
+        MatcherType type;
+        String reason;
+        if (linearTotal <= treeTotal) {
+            type = MatcherType.PACKED_LINEAR;
+            reason = treeBuild >= linearLookups ? "too few fragments to pay off building the kd-tree"
+                    : linearRemovals < treeRemovals ? "removals for the reuse limit are cheaper than in the kd-tree"
+                    : "scanning the tiles is faster than the kd-tree lookups";
+        } else {
+            type = MatcherType.KD_TREE;
+            reason = "kd-tree lookups save more than building the tree and removing tiles costs";
+        }
+        double lookups = type == MatcherType.PACKED_LINEAR ? linearLookups : treeLookups;
+        int cacheMaxColorError = TileMatcher.CACHE_EXACT_COLORS;
+        if (reuseLimit < 0 && lookups > QUANTIZED_CACHE_THRESHOLD_NANOS) {
+            cacheMaxColorError = QUANTIZED_CACHE_MAX_COLOR_ERROR;
+            reason += ", lookups are slow enough to share matches of very similar colors";
+        }
+        return new Choice(type, cacheMaxColorError, linearTotal, treeTotal, reason);
+    }
+
+    /**
+     * Creates the matcher chosen for the given job and logs the reason of the choice. One dimensional spaces always
+     * use the {@link SortedValueMatcher}.
+     * @param tiles The tiles to use.
+     * @param space The color space to use.
+     * @param expectedFragments The amount of fragments expected to be matched.
+     * @param reuseLimit The reuse limit, set on the created matcher.
+     * @param registry The registry of shared indices or null. Used for the kd-tree if tiles are not removed.
+     * @return The new matcher.
+     */
+    public static <S> TileMatcher<S> select(Collection<? extends MosaicTile<S>> tiles, ColorSpace space,
+                                            int expectedFragments, int reuseLimit,
+                                            MatcherIndexRegistry<S> registry) {
+        if (space.getDimension() == 1) {
+            // binary search and removals in O(log(n)) beat the other matchers after sorting once, no need to calibrate
+            Logger.info("Chose sorted matcher for {} tiles in the one dimensional space {}.", tiles.size(), space);
+            TileMatcher<S> matcher = new SortedValueMatcher<>(tiles, space);
+            matcher.setTileReuseLimit(reuseLimit);
+            return matcher;
+        }
+        Choice choice = choose(tiles.size(), expectedFragments, reuseLimit, getCalibration(space));
+        Logger.info("Chose matcher for {} tiles, {} fragments and reuse limit {}: {}", tiles.size(),
+                    expectedFragments, reuseLimit, choice);
+        TileMatcher<S> matcher;
+        if (choice.type == MatcherType.PACKED_LINEAR) {
+            matcher = new PackedLinearMatcher<>(tiles, space);
+        } else if (registry != null && reuseLimit < 0) {
+            // shared indices only hide removed tiles, so they are only used without removals
+            matcher = registry.acquire(tiles, space);
+        } else {
+            matcher = new FastMatcher<>(tiles, space);
+        }
+        matcher.setTileReuseLimit(reuseLimit);
+        matcher.setCacheMaxColorError(choice.cacheMaxColorError);
+        return matcher;
+    }
+}
@@ -19,12 +19,15 @@ package matching;
 import data.storage.MosaicTile;
 import reconstruction.MosaicFragment;
 import util.caching.Cachable;
-import util.caching.LruCache;
+import util.caching.WeightedLruCache;
+import util.image.Color;
 import util.image.ColorSpace;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Locale;
 import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * This class models an abstract TileMatcher which can with a certain
@@ -33,22 +36,101 @@ import java.util.Optional;
  *
  */
 public abstract class TileMatcher<S> {
-	private static final int CACHE_SIZE = 64;
+	protected static final int CACHE_SIZE = 64;
+	private static final int MAX_ADAPTIVE_CACHE_SIZE = 4096;
+	private static final int CACHE_ADAPTION_INTERVAL = 1024; // in cache misses
+	public static final int CACHE_EXACT_COLORS = 0;
     private static final ColorSpace DEFAULT_COLOR_SPACE = ColorSpace.RgbEuclid.INSTANCE_WITHOUT_ALPHA;
 	public static final int REUSE_UNLIMITED = -1;
 	public static final int REUSE_NONE = 0;
 
 	protected ColorSpace space;
-    private Cachable<MosaicFragment, MosaicTile<S>> matchesCache = new LruCache<>(CACHE_SIZE);
-    private Map<S, Integer> reuseCount = new HashMap<>();
+    private final Cachable<MosaicFragment, MosaicTile<S>> matchesCache;
+    private final Map<S, Integer> reuseCount = new HashMap<>();
 
 	private int reuseLimit = REUSE_UNLIMITED;
+	private volatile int cacheMaxColorError = CACHE_EXACT_COLORS;
+	private final AtomicLong cacheHits = new AtomicLong();
+	private final AtomicLong cacheMisses = new AtomicLong();
+	// guards the adaption of the cache size, which concurrent matchers run from several threads
+	private final Object cacheSizeLock = new Object();
+	private volatile int cacheSize = CACHE_SIZE;
+	private long evictionsAtLastAdaption;
 
 	protected void setCacheSize(int size) {
-    	matchesCache.setCacheSize(size);
+		synchronized (cacheSizeLock) {
+			cacheSize = size;
+			matchesCache.setCacheSize(size);
+		}
+	}
+
+	/**
+	 * Sets the maximum color error of the match cache's keys. By default the cache is keyed by the exact color of
+	 * the fragment, which rarely repeats for photographic sources. With a positive error each argb channel is
+	 * quantized into buckets so that the channel differs by at most the given error from its bucket's center,
+	 * all fragments of the same size in a bucket share the best match of the center color. In this mode the cache
+	 * grows while it is evicting a lot.
+	 * @param maxColorError The maximum error for each channel, from 0 (exact colors) to 127.
+	 */
+	public void setCacheMaxColorError(int maxColorError) {
+		maxColorError = Math.min(127, Math.max(CACHE_EXACT_COLORS, maxColorError));
+		synchronized (cacheSizeLock) {
+			if (maxColorError != cacheMaxColorError) {
+				cacheMaxColorError = maxColorError;
+				// the keys changed, but the size the cache grew to is kept for the fragments still to come
+				resetHashMatches();
+				evictionsAtLastAdaption = matchesCache.getEvictionsCount();
+			}
+		}
+	}
+
+	public int getCacheMaxColorError() {
+		return cacheMaxColorError;
+	}
+
+	private MosaicFragment getCacheKey(MosaicFragment wantedFragment) {
+		int maxError = cacheMaxColorError; // read once, so all channels are quantized alike
+		if (maxError == CACHE_EXACT_COLORS) {
+			return wantedFragment;
+		}
+		int color = wantedFragment.getAverageRGB();
+		return new MosaicFragment(wantedFragment.getWidth(), wantedFragment.getHeight(),
+								  Color.argb(quantizeChannel(Color.alpha(color), maxError),
+											 quantizeChannel(Color.red(color), maxError),
+											 quantizeChannel(Color.green(color), maxError),
+											 quantizeChannel(Color.blue(color), maxError)));
+	}
+
+	private static int quantizeChannel(int value, int maxError) {
+		int bucketSize = 2 * maxError + 1;
+		return Math.min(255, value - value % bucketSize + maxError);
+	}
+
+	private void adaptCacheSize(long misses) {
+		if (cacheMaxColorError == CACHE_EXACT_COLORS || misses % CACHE_ADAPTION_INTERVAL != 0) {
+			return;
+		}
+		synchronized (cacheSizeLock) {
+			long evictions = matchesCache.getEvictionsCount();
+			long newEvictions = evictions - evictionsAtLastAdaption;
+			evictionsAtLastAdaption = evictions;
+			if (newEvictions > CACHE_ADAPTION_INTERVAL / 4 && cacheSize < MAX_ADAPTIVE_CACHE_SIZE) {
+				// most misses need to evict, so the cache is too small for the buckets in use
+				setCacheSize(Math.min(MAX_ADAPTIVE_CACHE_SIZE, cacheSize * 2));
+			}
+		}
+	}
+
+	/**
+	 * Returns the match cache's counters since the matcher was created.
+	 * @return The current statistics.
+	 */
+	public CacheStatistics getCacheStatistics() {
+		return new CacheStatistics(cacheHits.get(), cacheMisses.get(), matchesCache.getEvictionsCount(), cacheSize,
+								   cacheMaxColorError);
 	}
 
-    private void resetHashMatches() {
+    protected void resetHashMatches() {
         matchesCache.clearCache(Cachable.CLEAR_EMPTY);
     }
 
@@ -58,7 +140,16 @@ public abstract class TileMatcher<S> {
 
     private Optional<? extends MosaicTile<S>> getBestMatchHashed(MosaicFragment wantedFragment) {
 		if (cacheEnabled()) {
-			return matchesCache.getFromCache(wantedFragment, this::calculateBestMatch);
+			MosaicFragment key = getCacheKey(wantedFragment);
+			Optional<? extends MosaicTile<S>> cached = matchesCache.getFromCache(key);
+			if (cached.isPresent()) {
+				cacheHits.incrementAndGet();
+				return cached;
+			}
+			Optional<? extends MosaicTile<S>> result = calculateBestMatch(key);
+			result.ifPresent(tile -> matchesCache.addToCache(key, tile));
+			adaptCacheSize(cacheMisses.incrementAndGet());
+			return result;
 		}
 		return calculateBestMatch(wantedFragment);
     }
@@ -67,9 +158,15 @@ public abstract class TileMatcher<S> {
     	this.reuseLimit = limit;
 	}
 
+	public int getTileReuseLimit() {
+		return reuseLimit;
+	}
+
     public final void setUseAlpha(boolean useAlpha) {
     	boolean oldUseAlpha = usesAlpha();
-    	space = space.getInstanceByAlpha(useAlpha);
+    	ColorSpace newSpace = space.getInstanceByAlpha(useAlpha);
+    	checkColorSpace(newSpace);
+    	space = newSpace;
         if (oldUseAlpha != usesAlpha()) {
         	resetHashMatches();
         	onColorSpaceChanged();
@@ -78,11 +175,34 @@ public abstract class TileMatcher<S> {
 
 	protected abstract void onColorSpaceChanged();
 
+	/**
+	 * Checks if the matcher can match in the given color space before it is set. By default any space is allowed.
+	 * @param newSpace The space to set, not null.
+	 * @throws IllegalArgumentException If the matcher does not support the space, then nothing is changed.
+	 */
+	protected void checkColorSpace(ColorSpace newSpace) {}
+
     protected TileMatcher(ColorSpace space) {
+		this(space, new WeightedLruCache<>(CACHE_SIZE));
+	}
+
+	protected TileMatcher(ColorSpace space, Cachable<MosaicFragment, MosaicTile<S>> matchesCache) {
 		this.space = space;
 		if (space == null) {
 			this.space = DEFAULT_COLOR_SPACE;
 		}
+		this.matchesCache = matchesCache;
+	}
+
+	/**
+	 * Counts another use of the tile with the given source.
+	 * @param source The source of the used tile.
+	 * @return The amount of uses before this one minus one, so -1 for the first use.
+	 */
+	protected int increaseReuseCount(S source) {
+		int currentReuseCount = reuseCount.getOrDefault(source, -1);
+		reuseCount.put(source, currentReuseCount + 1);
+		return currentReuseCount;
 	}
 
 	protected abstract Optional<? extends MosaicTile<S>> calculateBestMatch(MosaicFragment wantedTile);
@@ -94,12 +214,11 @@ public abstract class TileMatcher<S> {
 			canUseResult = true;
 			result = getBestMatchHashed(wantedFragment);
 			if (result.isPresent() && reuseLimit >= 0) {
-				int currentReuseCount = reuseCount.getOrDefault(result.get().getSource(), -1);
-				reuseCount.put(result.get().getSource(), currentReuseCount + 1);
+				int currentReuseCount = increaseReuseCount(result.get().getSource());
 				if (currentReuseCount >= reuseLimit) {
 					canUseResult = false;
 					doRemoveTile(result.get());
-					matchesCache.removeFromCache(wantedFragment);
+					matchesCache.removeFromCache(getCacheKey(wantedFragment));
 				}
 			}
 		} while (!canUseResult);
@@ -151,14 +270,50 @@ public abstract class TileMatcher<S> {
 
     public final void setColorSpace(ColorSpace newSpace) {
 		ColorSpace oldSpace = space;
-	    if (newSpace == null) {
-	        space = DEFAULT_COLOR_SPACE;
-        } else {
-	        space = newSpace;
-        }
+		if (newSpace == null) {
+			newSpace = DEFAULT_COLOR_SPACE;
+		}
+		checkColorSpace(newSpace);
+		space = newSpace;
         if (!space.equals(oldSpace)) {
 	    	resetHashMatches();
 	    	onColorSpaceChanged();
 		}
     }
+
+	public static class CacheStatistics {
+		/**
+		 * The amount of lookups answered by the cache.
+		 */
+		public final long hits;
+		/**
+		 * The amount of lookups that had to search the tiles.
+		 */
+		public final long misses;
+		/**
+		 * The amount of cached matches that were dropped to make room for new ones.
+		 */
+		public final long evictions;
+		public final int cacheSize;
+		public final int maxColorError;
+
+		CacheStatistics(long hits, long misses, long evictions, int cacheSize, int maxColorError) {
+			this.hits = hits;
+			this.misses = misses;
+			this.evictions = evictions;
+			this.cacheSize = cacheSize;
+			this.maxColorError = maxColorError;
+		}
+
+		public double getHitRate() {
+			long lookups = hits + misses;
+			return lookups == 0 ? 0. : hits / (double) lookups;
+		}
+
+		@Override
+		public String toString() {
+			return String.format(Locale.ROOT, "maxColorError=%d size=%d hits=%d misses=%d evictions=%d hitRate=%.1f%%",
+								 maxColorError, cacheSize, hits, misses, evictions, getHitRate() * 100);
+		}
+	}
 }
@@ -0,0 +1,519 @@
+package matching.workers;
+
+import data.image.AbstractBitmap;
+import data.image.BitmapSource;
+import data.storage.MosaicTile;
+import matching.ConcurrentTileMatcher;
+import org.pmw.tinylog.Logger;
+import reconstruction.DescribedFragment;
+import reconstruction.MosaicFragment;
+import util.image.ColorAnalysisUtil;
+import util.image.ColorDistanceKernel;
+import util.image.ColorSpace;
+import util.jama.EigenvalueDecomposition;
+import util.jama.Matrix;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+import java.util.function.Function;
+
+/**
+ * Matches the structure of fragment and tile instead of only their average color. Each tile is described by the
+ * average colors of a grid of gridSize x gridSize cells, fragments are described the same way by
+ * {@link DescribedFragment}s, see {@link reconstruction.workers.RectReconstructor.RectParameters#descriptorGridSize}.
+ * Fragments without a descriptor are treated as uniformly colored. The distance of two descriptors is the sum of
+ * the color space's distances of their cells, so a fragment that is dark on the left and bright on the right prefers
+ * a tile with the same split over a uniform tile of the same average color.<br>
+ * The descriptors have gridSize * gridSize times the space's dimension coordinates. A principal component analysis
+ * of a sample of the tiles reduces them to at most {@link #MAX_REDUCED_DIMENSION} coordinates, which are indexed by
+ * a K-D tree. A lookup takes the nearest candidates in the reduced space and re-ranks them by their exact descriptor
+ * distance. As the reduced distance is a lower bound of the exact distance for the euclidean, absolute and
+ * brightness metrics, the lookup doubles the candidates until no other tile can be closer, so with accuracy 1 the
+ * result is exact for these spaces. A smaller accuracy only re-ranks the first candidates.<br>
+ * Reading the tiles' descriptors is the expensive part for big tile sets, it happens once in the constructor.
+ */
+public class DescriptorMatcher<S> extends ConcurrentTileMatcher<S> {
+    public static final int MAX_REDUCED_DIMENSION = 8;
+    private static final double EXPLAINED_VARIANCE = 0.95;
+    private static final int PCA_SAMPLE_SIZE = 4096;
+    private static final int CANDIDATES_COUNT = 32;
+    private static final int LEAF_SIZE = 16;
+    /**
+     * The size in pixels of a grid cell of the bitmaps that {@link #makeDescriber(BitmapSource, int)} describes.
+     */
+    private static final int DESCRIBED_CELL_SIZE = 4;
+
+    private enum LowerBound {SQUARED, ABSOLUTE, NONE}
+
+    private final List<MosaicTile<S>> tiles;
+    private final Map<MosaicTile<S>, Integer> tileIndices;
+    private final int gridSize;
+    private final int cellsCount;
+    private final int[] tileCells; // the descriptors of all tiles one after another
+    private final boolean[] removed;
+    private int removedCount;
+    private double accuracy = 1.;
+
+    // the index for the current color space
+    private ColorDistanceKernel kernel;
+    private LowerBound lowerBound;
+    private int reducedDimension;
+    private double[] mean;
+    private double[] basis; // reducedDimension principal components of the descriptor coordinates
+    private double[] reduced; // the reduced coordinates of all tiles one after another
+    private int[] order; // tile indices in the order of the tree's leaves
+    private Node root;
+
+    private static class Node {
+        private final int from;
+        private final int to;
+        private int axis;
+        private double split;
+        private Node left;
+        private Node right;
+
+        private Node(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+    }
+
+    /**
+     * Creates a new descriptor matcher and reads the descriptors of all tiles.
+     * @param tiles The tiles to use.
+     * @param space The color space to use.
+     * @param gridSize The amount of cells per row and column of the descriptors. 2 to 4 are reasonable values.
+     * @param describer Calculates the descriptor of a tile, gridSize * gridSize average colors row by row.
+     *                  If it returns null the tile is treated as uniformly colored.
+     */
+    public DescriptorMatcher(Collection<? extends MosaicTile<S>> tiles, ColorSpace space, int gridSize,
+                             Function<? super MosaicTile<S>, int[]> describer) {
+        super(space);
+        if (gridSize <= 0) {
+            throw new IllegalArgumentException("Grid size must be positive: " + gridSize);
+        }
+        this.tiles = new ArrayList<>(tiles);
+        this.gridSize = gridSize;
+        this.cellsCount = gridSize * gridSize;
+        int count = this.tiles.size();
+        tileIndices = new HashMap<>(count * 2);
+        tileCells = new int[count * cellsCount];
+        removed = new boolean[count];
+        for (int i = 0; i < count; i++) {
+            MosaicTile<S> tile = this.tiles.get(i);
+            tileIndices.putIfAbsent(tile, i);
+            int[] cells = describer.apply(tile);
+            if (cells != null && cells.length == cellsCount) {
+                System.arraycopy(cells, 0, tileCells, i * cellsCount, cellsCount);
+            } else {
+                Arrays.fill(tileCells, i * cellsCount, (i + 1) * cellsCount, tile.getAverageARGB());
+            }
+        }
+        buildIndex();
+    }
+
+    /**
+     * Creates a describer that loads the tiles' bitmaps in a small size and averages the grid's cells.
+     * @param source The source of the tiles' bitmaps.
+     * @param gridSize The amount of cells per row and column.
+     * @return The describer, returns null for tiles whose bitmap can not be loaded.
+     */
+    public static <S> Function<MosaicTile<S>, int[]> makeDescriber(BitmapSource<S> source, int gridSize) {
+        final int size = gridSize * DESCRIBED_CELL_SIZE;
+        return tile -> {
+            AbstractBitmap bitmap = source.getBitmap(tile, size, size);
+            if (bitmap == null) {
+                return null;
+            }
+            return ColorAnalysisUtil.getGridAverageColors(bitmap, 0, size, 0, size, gridSize);
+        };
+    }
+
+    /**
+     * Returns the amount of cells per row and column of the descriptors.
+     * @return The grid size.
+     */
+    public int getGridSize() {
+        return gridSize;
+    }
+
+    /**
+     * Returns the amount of coordinates of the index after the principal component analysis.
+     * @return The reduced dimension.
+     */
+    public int getReducedDimension() {
+        return reducedDimension;
+    }
+
+    private void buildIndex() {
+        long start = System.currentTimeMillis();
+        kernel = space.getDistanceKernel();
+        if (kernel instanceof ColorDistanceKernel.RgbSquared || kernel instanceof ColorDistanceKernel.OklabSquared) {
+            lowerBound = LowerBound.SQUARED;
+        } else if (kernel instanceof ColorDistanceKernel.RgbAbsolute
+                || kernel instanceof ColorDistanceKernel.Brightness) {
+            // the absolute distance is at least the euclidean distance
+            lowerBound = LowerBound.ABSOLUTE;
+        } else {
+            lowerBound = LowerBound.NONE;
+        }
+        calculatePrincipalComponents();
+        int count = tiles.size();
+        reduced = new double[count * reducedDimension];
+        double[] coordinates = new double[cellsCount * space.getDimension()];
+        for (int i = 0; i < count; i++) {
+            getDescriptorCoordinates(tileCells, i * cellsCount, coordinates);
+            project(coordinates, reduced, i * reducedDimension);
+        }
+        int alive = 0;
+        order = new int[count - removedCount];
+        for (int i = 0; i < count; i++) {
+            if (!removed[i]) {
+                order[alive++] = i;
+            }
+        }
+        root = order.length == 0 ? null : buildNode(0, order.length);
+        Logger.info("Built descriptor index for {} tiles with {} of {} dimensions in {}ms.", order.length,
+                    reducedDimension, coordinates.length, System.currentTimeMillis() - start);
+    }
+
+    private void getDescriptorCoordinates(int[] cells, int offset, double[] coordinates) {
+        int dimension = space.getDimension();
+        for (int cell = 0; cell < cellsCount; cell++) {
+            System.arraycopy(space.getCoordinates(cells[offset + cell]), 0, coordinates, cell * dimension, dimension);
+        }
+    }
+
+    private void calculatePrincipalComponents() {
+        int dimension = cellsCount * space.getDimension();
+        int count = tiles.size();
+        int sampleSize = Math.min(count, PCA_SAMPLE_SIZE);
+        Random random = new Random(count);
+        double[][] samples = new double[sampleSize][dimension];
+        mean = new double[dimension];
+        for (int i = 0; i < sampleSize; i++) {
+            int index = sampleSize == count ? i : random.nextInt(count);
+            getDescriptorCoordinates(tileCells, index * cellsCount, samples[i]);
+            for (int j = 0; j < dimension; j++) {
+                mean[j] += samples[i][j];
+            }
+        }
+        for (int j = 0; j < dimension; j++) {
+            mean[j] /= Math.max(1, sampleSize);
+        }
+        double[][] covariance = new double[dimension][dimension];
+        for (double[] sample : samples) {
+            for (int j = 0; j < dimension; j++) {
+                double diffJ = sample[j] - mean[j];
+                for (int k = j; k < dimension; k++) {
+                    covariance[j][k] += diffJ * (sample[k] - mean[k]);
+                }
+            }
+        }
+        for (int j = 0; j < dimension; j++) {
+            for (int k = j; k < dimension; k++) {
+                covariance[j][k] /= Math.max(1, sampleSize - 1);
+                covariance[k][j] = covariance[j][k];
+            }
+        }
+        EigenvalueDecomposition decomposition = new EigenvalueDecomposition(new Matrix(covariance));
+        double[] eigenvalues = decomposition.getRealEigenvalues();
+        double[][] eigenvectors = decomposition.getV().getArray();
+        Integer[] components = new Integer[dimension];
+        double totalVariance = 0.;
+        for (int j = 0; j < dimension; j++) {
+            components[j] = j;
+            totalVariance += Math.max(0., eigenvalues[j]);
+        }
+        Arrays.sort(components, (c1, c2) -> Double.compare(eigenvalues[c2], eigenvalues[c1]));
+
+        reducedDimension = 0;
+        double explained = 0.;
+        int maxDimension = Math.min(dimension, MAX_REDUCED_DIMENSION);
+        while (reducedDimension < maxDimension
+                && (reducedDimension == 0 || explained < EXPLAINED_VARIANCE * totalVariance)) {
+            explained += Math.max(0., eigenvalues[components[reducedDimension]]);
+            reducedDimension++;
+        }
+        basis = new double[reducedDimension * dimension];
+        for (int r = 0; r < reducedDimension; r++) {
+            for (int j = 0; j < dimension; j++) {
+                basis[r * dimension + j] = eigenvectors[j][components[r]];
+            }
+        }
+    }
+
+    private void project(double[] coordinates, double[] target, int offset) {
+        int dimension = coordinates.length;
+        for (int r = 0; r < reducedDimension; r++) {
+            double value = 0.;
+            int basisOffset = r * dimension;
+            for (int j = 0; j < dimension; j++) {
+                value += basis[basisOffset + j] * (coordinates[j] - mean[j]);
+            }
+            target[offset + r] = value;
+        }
+    }
+
+    private Node buildNode(int from, int to) {
+        Node node = new Node(from, to);
+        if (to - from <= LEAF_SIZE) {
+            return node;
+        }
+        // split at the median of the axis with the biggest spread
+        double bestSpread = -1.;
+        for (int axis = 0; axis < reducedDimension; axis++) {
+            double min = Double.POSITIVE_INFINITY;
+            double max = Double.NEGATIVE_INFINITY;
+            for (int i = from; i < to; i++) {
+                double value = reduced[order[i] * reducedDimension + axis];
+                min = Math.min(min, value);
+                max = Math.max(max, value);
+            }
+            if (max - min > bestSpread) {
+                bestSpread = max - min;
+                node.axis = axis;
+            }
+        }
+        int middle = (from + to) >>> 1;
+        select(from, to - 1, middle, node.axis);
+        node.split = reduced[order[middle] * reducedDimension + node.axis];
+        node.left = buildNode(from, middle);
+        node.right = buildNode(middle, to);
+        return node;
+    }
+
+    private double getReduced(int orderIndex, int axis) {
+        return reduced[order[orderIndex] * reducedDimension + axis];
+    }
+
+    /**
+     * Partially sorts the order so that the given position holds the element that belongs there by the axis' value,
+     * with no bigger values before and no smaller values after it.
+     */
+    private void select(int left, int right, int position, int axis) {
+        while (right > left) {
+            double pivot = getReduced((left + right) >>> 1, axis);
+            int i = left;
+            int j = right;
+            while (i <= j) {
+                while (getReduced(i, axis) < pivot) {
+                    i++;
+                }
+                while (getReduced(j, axis) > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    int temp = order[i];
+                    order[i] = order[j];
+                    order[j] = temp;
+                    i++;
+                    j--;
+                }
+            }
+            if (position <= j) {
+                right = j;
+            } else if (position >= i) {
+                left = i;
+            } else {
+                return;
+            }
+        }
+    }
+
+    /**
+     * The nearest tiles in the reduced space found so far, a max heap by their reduced distance.
+     */
+    private static class Candidates {
+        private final int[] indices;
+        private final double[] distances;
+        private int size;
+
+        private Candidates(int capacity) {
+            indices = new int[capacity];
+            distances = new double[capacity];
+        }
+
+        private boolean isFull() {
+            return size == indices.length;
+        }
+
+        private double getWorstDistance() {
+            return isFull() ? distances[0] : Double.POSITIVE_INFINITY;
+        }
+
+        private void offer(int index, double distance) {
+            if (!isFull()) {
+                int child = size++;
+                while (child > 0 && distances[(child - 1) / 2] < distance) {
+                    int parent = (child - 1) / 2;
+                    indices[child] = indices[parent];
+                    distances[child] = distances[parent];
+                    child = parent;
+                }
+                indices[child] = index;
+                distances[child] = distance;
+            } else if (distance < distances[0]) {
+                int parent = 0;
+                while (true) {
+                    int child = 2 * parent + 1;
+                    if (child >= size) {
+                        break;
+                    }
+                    if (child + 1 < size && distances[child + 1] > distances[child]) {
+                        child++;
+                    }
+                    if (distances[child] <= distance) {
+                        break;
+                    }
+                    indices[parent] = indices[child];
+                    distances[parent] = distances[child];
+                    parent = child;
+                }
+                indices[parent] = index;
+                distances[parent] = distance;
+            }
+        }
+    }
+
+    private void search(Node node, double[] target, Candidates candidates) {
+        if (node.left == null) {
+            for (int i = node.from; i < node.to; i++) {
+                int index = order[i];
+                if (removed[index]) {
+                    continue;
+                }
+                int offset = index * reducedDimension;
+                double distance = 0.;
+                for (int axis = 0; axis < reducedDimension; axis++) {
+                    double diff = reduced[offset + axis] - target[axis];
+                    distance += diff * diff;
+                }
+                candidates.offer(index, distance);
+            }
+            return;
+        }
+        double diff = target[node.axis] - node.split;
+        search(diff < 0 ? node.left : node.right, target, candidates);
+        if (diff * diff < candidates.getWorstDistance()) {
+            search(diff < 0 ? node.right : node.left, target, candidates);
+        }
+    }
+
+    private double getLowerBound(double reducedDistance) {
+        switch (lowerBound) {
+            case SQUARED:
+                return reducedDistance;
+            case ABSOLUTE:
+                return Math.sqrt(reducedDistance);
+            default:
+                return Double.POSITIVE_INFINITY; // no bound known, trust the candidates
+        }
+    }
+
+    private double getDescriptorDistance(int index, int[] cells) {
+        int offset = index * cellsCount;
+        double distance = 0.;
+        for (int cell = 0; cell < cellsCount; cell++) {
+            distance += kernel.getDistance(tileCells[offset + cell], cells[cell]);
+        }
+        return distance;
+    }
+
+    private int[] getFragmentCells(MosaicFragment fragment) {
+        if (fragment instanceof DescribedFragment && ((DescribedFragment) fragment).getGridSize() == gridSize) {
+            return ((DescribedFragment) fragment).getGridColors();
+        }
+        int[] cells = new int[cellsCount];
+        Arrays.fill(cells, fragment.getAverageRGB());
+        return cells;
+    }
+
+    @Override
+    protected Optional<? extends MosaicTile<S>> lookUpBestMatch(MosaicFragment wantedTile) {
+        if (root == null || removedCount == tiles.size()) {
+            return Optional.empty();
+        }
+        int[] cells = getFragmentCells(wantedTile);
+        double[] coordinates = new double[cellsCount * space.getDimension()];
+        getDescriptorCoordinates(cells, 0, coordinates);
+        double[] target = new double[reducedDimension];
+        project(coordinates, target, 0);
+
+        int alive = tiles.size() - removedCount;
+        int candidatesCount = Math.min(CANDIDATES_COUNT, alive);
+        int best;
+        while (true) {
+            Candidates candidates = new Candidates(candidatesCount);
+            search(root, target, candidates);
+            best = -1;
+            double bestDistance = Double.POSITIVE_INFINITY;
+            for (int i = 0; i < candidates.size; i++) {
+                int index = candidates.indices[i];
+                double distance = getDescriptorDistance(index, cells);
+                if (distance < bestDistance || (distance == bestDistance && index < best)) {
+                    best = index;
+                    bestDistance = distance;
+                }
+            }
+            // all other tiles are at least as far as the worst candidate in the reduced space
+            if (accuracy < 1. || candidatesCount >= alive
+                    || getLowerBound(candidates.getWorstDistance()) >= bestDistance) {
+                break;
+            }
+            candidatesCount = Math.min(alive, candidatesCount * 2);
+        }
+        return Optional.of(tiles.get(best));
+    }
+
+    @Override
+    protected void rebuildIndex() {
+        buildIndex();
+    }
+
+    @Override
+    public double getAccuracy() {
+        return accuracy;
+    }
+
+    @Override
+    public boolean setAccuracy(double accuracy) {
+        double oldAccuracy = this.accuracy;
+        this.accuracy = Math.min(1., Math.max(0., accuracy));
+        if (oldAccuracy != this.accuracy) {
+            resetHashMatches();
+        }
+        return true;
+    }
+
+    /**
+     * Quantized cache keys would lose the fragments' descriptors, so the cache always uses exact keys.
+     * @param maxColorError Ignored.
+     */
+    @Override
+    public void setCacheMaxColorError(int maxColorError) {
+        super.setCacheMaxColorError(CACHE_EXACT_COLORS);
+    }
+
+    @Override
+    protected boolean removeFromIndex(MosaicTile<S> toRemove) {
+        Integer index = tileIndices.remove(toRemove);
+        if (index == null) {
+            return false;
+        }
+        removed[index] = true;
+        removedCount++;
+        return true;
+    }
+
+    @Override
+    protected int getIndexSize() {
+        return tiles.size() - removedCount;
+    }
+}
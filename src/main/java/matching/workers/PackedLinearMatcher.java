@@ -0,0 +1,263 @@
+package matching.workers;
+
+import data.storage.MosaicTile;
+import matching.ConcurrentTileMatcher;
+import reconstruction.MosaicFragment;
+import util.image.Color;
+import util.image.ColorMetric;
+import util.image.ColorSpace;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.IntStream;
+
+/**
+ * A brute force matcher like the {@link SimpleLinearTileMatcher}, but the tiles' colors are packed into one array per
+ * channel. For the rgb spaces with the squared euclidean or absolute metric the distances are calculated with integers
+ * without any virtual calls, other spaces scan a packed array of the coordinates. Each chunk of tiles is scanned in
+ * two passes, the first calculates all distances into a buffer in a loop the JIT can vectorize, the second finds the
+ * minimum. A sequential scan uses a single chunk, for large sets chunks of {@link #CHUNK_SIZE} tiles are scanned in
+ * parallel. Removing a tile moves the last tile to its place, so ties may be broken differently
+ * than by the {@link SimpleLinearTileMatcher}.<br>
+ * Has accuracy 1.0
+ */
+public class PackedLinearMatcher<S> extends ConcurrentTileMatcher<S> {
+    public static final int PARALLEL_THRESHOLD = 32768;
+    public static final int CHUNK_SIZE = 4096;
+    private static final ThreadLocal<int[]> INT_DISTANCES = ThreadLocal.withInitial(() -> new int[CHUNK_SIZE]);
+    private static final ThreadLocal<double[]> DOUBLE_DISTANCES = ThreadLocal.withInitial(() -> new double[CHUNK_SIZE]);
+
+    private enum Kernel {SQUARED, ABSOLUTE, COORDINATES}
+
+    private final List<MosaicTile<S>> tiles;
+    private int[] reds;
+    private int[] greens;
+    private int[] blues;
+    private int[] alphas;
+    private double[] coordinates; // the coordinates of all tiles one after another, only for COORDINATES kernel
+    private Kernel kernel;
+    private boolean parallelScan = true;
+
+    public PackedLinearMatcher(Collection<? extends MosaicTile<S>> tiles, ColorSpace space) {
+        super(space);
+        this.tiles = new ArrayList<>(tiles);
+        initArrays();
+    }
+
+    /**
+     * Sets if large tile sets are scanned by multiple threads.
+     * @param parallelScan If chunks of tiles sets with at least {@link #PARALLEL_THRESHOLD} tiles are scanned in
+     *                     parallel. Enabled by default.
+     */
+    public void setParallelScan(boolean parallelScan) {
+        this.parallelScan = parallelScan;
+    }
+
+    private void initArrays() {
+        ColorMetric metric = space.getMetric();
+        boolean rgb = space instanceof ColorSpace.RgbEuclid;
+        if (rgb && metric == ColorMetric.Euclid2.INSTANCE) {
+            kernel = Kernel.SQUARED;
+        } else if (rgb && metric == ColorMetric.Absolute.INSTANCE) {
+            kernel = Kernel.ABSOLUTE;
+        } else {
+            kernel = Kernel.COORDINATES;
+        }
+        int count = tiles.size();
+        if (kernel == Kernel.COORDINATES) {
+            reds = greens = blues = alphas = null;
+            int dimension = space.getDimension();
+            coordinates = new double[count * dimension];
+            for (int i = 0; i < count; i++) {
+                System.arraycopy(space.getCoordinates(tiles.get(i).getAverageARGB()), 0, coordinates, i * dimension,
+                                 dimension);
+            }
+        } else {
+            coordinates = null;
+            reds = new int[count];
+            greens = new int[count];
+            blues = new int[count];
+            alphas = new int[count];
+            for (int i = 0; i < count; i++) {
+                int color = tiles.get(i).getAverageARGB();
+                reds[i] = Color.red(color);
+                greens[i] = Color.green(color);
+                blues[i] = Color.blue(color);
+                alphas[i] = Color.alpha(color);
+            }
+        }
+    }
+
+    @Override
+    protected void rebuildIndex() {
+        initArrays();
+    }
+
+    @Override
+    protected Optional<? extends MosaicTile<S>> lookUpBestMatch(MosaicFragment wantedTile) {
+        final int count = tiles.size();
+        if (count == 0) {
+            return Optional.empty();
+        }
+        final int color = wantedTile.getAverageRGB();
+        final double[] target = kernel == Kernel.COORDINATES ? space.getCoordinates(color) : null;
+        if (!parallelScan || count < PARALLEL_THRESHOLD) {
+            int[] bestIndex = new int[1];
+            scanChunk(0, 0, count, color, target, bestIndex, new double[1]);
+            return Optional.of(tiles.get(bestIndex[0]));
+        }
+        final int chunksCount = (count + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        final int[] bestIndices = new int[chunksCount];
+        final double[] bestDistances = new double[chunksCount];
+        IntStream.range(0, chunksCount).parallel()
+                 .forEach(chunk -> scanChunk(chunk, chunk * CHUNK_SIZE, Math.min(count, (chunk + 1) * CHUNK_SIZE),
+                                             color, target, bestIndices, bestDistances));
+
+        // pick the first of the chunks' best, so ties are broken the same as by a sequential scan
+        int best = 0;
+        for (int chunk = 1; chunk < chunksCount; chunk++) {
+            if (bestDistances[chunk] < bestDistances[best]) {
+                best = chunk;
+            }
+        }
+        return Optional.of(tiles.get(bestIndices[best]));
+    }
+
+    private void scanChunk(int chunk, int from, int to, int color, double[] target, int[] bestIndices,
+                           double[] bestDistances) {
+        int length = to - from;
+        if (kernel == Kernel.COORDINATES) {
+            double[] distances = DOUBLE_DISTANCES.get();
+            if (distances.length < length) {
+                distances = new double[length];
+                DOUBLE_DISTANCES.set(distances);
+            }
+            calculateCoordinateDistances(target, from, length, distances);
+            int best = 0;
+            double bestDistance = distances[0];
+            for (int i = 1; i < length; i++) {
+                if (distances[i] < bestDistance) {
+                    best = i;
+                    bestDistance = distances[i];
+                }
+            }
+            bestIndices[chunk] = from + best;
+            bestDistances[chunk] = bestDistance;
+        } else {
+            int[] distances = INT_DISTANCES.get();
+            if (distances.length < length) {
+                distances = new int[length];
+                INT_DISTANCES.set(distances);
+            }
+            if (kernel == Kernel.SQUARED) {
+                calculateSquaredDistances(color, from, length, distances);
+            } else {
+                calculateAbsoluteDistances(color, from, length, distances);
+            }
+            int best = 0;
+            int bestDistance = distances[0];
+            for (int i = 1; i < length; i++) {
+                if (distances[i] < bestDistance) {
+                    best = i;
+                    bestDistance = distances[i];
+                }
+            }
+            bestIndices[chunk] = from + best;
+            bestDistances[chunk] = bestDistance;
+        }
+    }
+
+    private void calculateSquaredDistances(int color, int from, int length, int[] distances) {
+        final int red = Color.red(color);
+        final int green = Color.green(color);
+        final int blue = Color.blue(color);
+        final int alpha = Color.alpha(color);
+        final int[] reds = this.reds, greens = this.greens, blues = this.blues, alphas = this.alphas;
+        if (space.usesAlpha()) {
+            for (int i = 0; i < length; i++) {
+                int dr = reds[from + i] - red;
+                int dg = greens[from + i] - green;
+                int db = blues[from + i] - blue;
+                int da = alphas[from + i] - alpha;
+                distances[i] = dr * dr + dg * dg + db * db + da * da;
+            }
+        } else {
+            for (int i = 0; i < length; i++) {
+                int dr = reds[from + i] - red;
+                int dg = greens[from + i] - green;
+                int db = blues[from + i] - blue;
+                distances[i] = dr * dr + dg * dg + db * db;
+            }
+        }
+    }
+
+    private void calculateAbsoluteDistances(int color, int from, int length, int[] distances) {
+        final int red = Color.red(color);
+        final int green = Color.green(color);
+        final int blue = Color.blue(color);
+        final int alpha = Color.alpha(color);
+        final int[] reds = this.reds, greens = this.greens, blues = this.blues, alphas = this.alphas;
+        if (space.usesAlpha()) {
+            for (int i = 0; i < length; i++) {
+                distances[i] = Math.abs(reds[from + i] - red) + Math.abs(greens[from + i] - green)
+                        + Math.abs(blues[from + i] - blue) + Math.abs(alphas[from + i] - alpha);
+            }
+        } else {
+            for (int i = 0; i < length; i++) {
+                distances[i] = Math.abs(reds[from + i] - red) + Math.abs(greens[from + i] - green)
+                        + Math.abs(blues[from + i] - blue);
+            }
+        }
+    }
+
+    private void calculateCoordinateDistances(double[] target, int from, int length, double[] distances) {
+        final int dimension = target.length;
+        for (int i = 0; i < length; i++) {
+            int offset = (from + i) * dimension;
+            double distance = 0.;
+            for (int axis = 0; axis < dimension; axis++) {
+                distance += space.getCoordinateDistance(coordinates[offset + axis], target[axis], axis);
+            }
+            distances[i] = distance;
+        }
+    }
+
+    @Override
+    public double getAccuracy() {
+        return 1.0;
+    }
+
+    @Override
+    public boolean setAccuracy(double accuracy) {
+        return false;
+    }
+
+    @Override
+    protected boolean removeFromIndex(MosaicTile<S> toRemove) {
+        int index = tiles.indexOf(toRemove);
+        if (index < 0) {
+            return false;
+        }
+        // keep the arrays packed by moving the last tile into the gap
+        int last = tiles.size() - 1;
+        tiles.set(index, tiles.get(last));
+        tiles.remove(last);
+        if (kernel == Kernel.COORDINATES) {
+            int dimension = space.getDimension();
+            System.arraycopy(coordinates, last * dimension, coordinates, index * dimension, dimension);
+        } else {
+            reds[index] = reds[last];
+            greens[index] = greens[last];
+            blues[index] = blues[last];
+            alphas[index] = alphas[last];
+        }
+        return true;
+    }
+
+    @Override
+    protected int getIndexSize() {
+        return tiles.size();
+    }
+}
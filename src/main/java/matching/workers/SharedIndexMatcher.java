@@ -0,0 +1,78 @@
+package matching.workers;
+
+import data.storage.MosaicTile;
+import matching.MatcherIndexRegistry;
+import util.image.ColorIndexOverlay;
+import util.image.ColorSpace;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A snapshot of the {@link FastMatcher} that keeps a shared index of a {@link MatcherIndexRegistry}, see
+ * {@link FastMatcher#snapshot()}. Like any FastMatcher it can be shared by threads.
+ * Removing a tile only hides it from this matcher, the shared tree stays untouched, see {@link ColorIndexOverlay}.
+ * Changing the color space switches to the registry's index for the new space instead of building a new tree if
+ * another job already uses it, the removed tiles are hidden again there. Hidden tiles are still visited by each
+ * lookup until more than half of the tiles are removed, then the matcher builds a private tree.
+ * The matcher is meant for a single job and should be released when the job is done. It keeps working afterwards,
+ * but changing the color space then builds a private tree.
+ */
+public class SharedIndexMatcher<S> extends FastMatcher<S> {
+    private final MatcherIndexRegistry<S> registry;
+    private final Collection<? extends MosaicTile<S>> tiles;
+    private MatcherIndexRegistry.SharedIndex<S> index; // null once released, guarded by the index' write lock
+
+    /**
+     * Creates a new matcher, prefer {@link MatcherIndexRegistry#acquire(Collection, ColorSpace)}.
+     * @param registry The registry that holds the shared indices.
+     * @param tiles The tiles, identified by the collection instance.
+     * @param space The color space to use.
+     */
+    public SharedIndexMatcher(MatcherIndexRegistry<S> registry, Collection<? extends MosaicTile<S>> tiles,
+                              ColorSpace space) {
+        this(registry, tiles, registry.acquireIndex(tiles, space));
+    }
+
+    private SharedIndexMatcher(MatcherIndexRegistry<S> registry, Collection<? extends MosaicTile<S>> tiles,
+                               MatcherIndexRegistry.SharedIndex<S> index) {
+        super(index.getPrototype());
+        this.registry = registry;
+        this.tiles = tiles;
+        this.index = index;
+    }
+
+    /**
+     * Releases the shared index so that the registry can evict it when no other job uses it.
+     * Does nothing if already released.
+     */
+    public void release() {
+        writeIndex(() -> {
+            if (index != null) {
+                registry.releaseIndex(index);
+                index = null;
+            }
+        });
+    }
+
+    @Override
+    protected ColorIndexOverlay<MosaicTile<S>> makeIndex(ColorIndexOverlay<MosaicTile<S>> oldTree) {
+        if (index == null) {
+            return super.makeIndex(oldTree);
+        }
+        MatcherIndexRegistry.SharedIndex<S> oldIndex = index;
+        index = registry.acquireIndex(tiles, space);
+        ColorIndexOverlay<MosaicTile<S>> tree = index.getPrototype().copyIndex();
+        // hide the removed tiles again, these are the tiles that are no longer visible in the old view
+        Map<MosaicTile<S>, Integer> visibleCounts = new HashMap<>();
+        oldTree.getVisibleData().forEach(tile -> visibleCounts.merge(tile, 1, Integer::sum));
+        for (MosaicTile<S> tile : tiles) {
+            if (visibleCounts.merge(tile, -1, Integer::sum) < 0) {
+                tree.hide(tile);
+            }
+        }
+        registry.releaseIndex(oldIndex);
+        return tree;
+    }
+}
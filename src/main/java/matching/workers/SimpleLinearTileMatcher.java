@@ -17,6 +17,7 @@ package matching.workers;
 
 
 import data.storage.MosaicTile;
+import matching.ConcurrentTileMatcher;
 import matching.TileMatcher;
 import reconstruction.MosaicFragment;
 import util.image.ColorSpace;
@@ -28,27 +29,54 @@ import java.util.*;
  * TileMatcher, very slow (no caching) in O(n) with n being the amount
  * of tiles given in the database. But maybe useful if you create
  * a new Matcher and want to check the results...<br>
+ * The tiles' colors are converted to the color space's coordinates once, so a lookup
+ * only converts the wanted color.<br>
+ * Lookups only read the tiles, so the matcher can be shared by threads that match at the same time.<br>
  * Has accuracy 1.0
  * @author Daniel
  *
  */
-public class SimpleLinearTileMatcher<S> extends TileMatcher<S> {
-	private List<MosaicTile<S>> tiles;
+public class SimpleLinearTileMatcher<S> extends ConcurrentTileMatcher<S> {
+	private final List<MosaicTile<S>> tiles;
+	private final List<double[]> tilesCoordinates;
 
 	public SimpleLinearTileMatcher(Collection<? extends MosaicTile<S>> data, ColorSpace space) {
 		super(space);
-		this.tiles = new LinkedList<>(data);
+		this.tiles = new ArrayList<>(data);
+		this.tilesCoordinates = new ArrayList<>(tiles.size());
+		initCoordinates();
+	}
+
+	private void initCoordinates() {
+		tilesCoordinates.clear();
+		for (MosaicTile<S> tile : tiles) {
+			tilesCoordinates.add(space.getCoordinates(tile.getAverageARGB()));
+		}
 	}
 
 	@Override
-	protected void onColorSpaceChanged() {
-		// ignore
+	protected void rebuildIndex() {
+		initCoordinates();
 	}
 
 	@Override
 	public Optional<MosaicTile<S>> calculateBestMatch(MosaicFragment fragment) {
-		return this.tiles.stream().min(Comparator.comparingDouble(
-											tile -> space.getDistance(tile.getAverageARGB(), fragment.getAverageRGB())));
+		return super.calculateBestMatch(fragment).map(tile -> tile); // narrows the type for comparisons in tests
+	}
+
+	@Override
+	protected Optional<MosaicTile<S>> lookUpBestMatch(MosaicFragment fragment) {
+		double[] wanted = space.getCoordinates(fragment.getAverageRGB());
+		MosaicTile<S> best = null;
+		double bestDistance = Double.MAX_VALUE;
+		for (int i = 0; i < tiles.size(); i++) {
+			double distance = space.getCoordinateDistance(tilesCoordinates.get(i), wanted);
+			if (best == null || distance < bestDistance) {
+				best = tiles.get(i);
+				bestDistance = distance;
+			}
+		}
+		return Optional.ofNullable(best);
 	}
 
 	@Override
@@ -62,12 +90,18 @@ public class SimpleLinearTileMatcher<S> extends TileMatcher<S> {
 	}
 
 	@Override
-	public boolean doRemoveTile(MosaicTile toRemove) {
-		return this.tiles.remove(toRemove);
+	protected boolean removeFromIndex(MosaicTile<S> toRemove) {
+		int index = this.tiles.indexOf(toRemove);
+		if (index < 0) {
+			return false;
+		}
+		this.tiles.remove(index);
+		this.tilesCoordinates.remove(index);
+		return true;
 	}
 
 	@Override
-	public int getUsedTilesCount() {
+	protected int getIndexSize() {
 		return this.tiles.size();
 	}
 
@@ -0,0 +1,176 @@
+package matching.workers;
+
+import data.storage.MosaicTile;
+import matching.ConcurrentTileMatcher;
+import reconstruction.MosaicFragment;
+import util.image.ColorSpace;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.IntStream;
+
+/**
+ * A matcher for one dimensional color spaces like {@link ColorSpace.Brightness}. The tiles' values are sorted into
+ * a primitive array once, a lookup binary searches the wanted value and compares the closest remaining tile below
+ * and above it. Removed tiles are counted out of a Fenwick tree (see https://en.wikipedia.org/wiki/Fenwick_tree),
+ * which finds these neighbors in O(log(n)), so removals for the reuse limit are O(log(n)) too.
+ * The space's distance has to grow with the difference of the values, which holds for any metric.<br>
+ * Has accuracy 1.0
+ */
+public class SortedValueMatcher<S> extends ConcurrentTileMatcher<S> {
+    private MosaicTile<S>[] tiles; // the tiles the index is built of
+    private MosaicTile<S>[] sortedTiles;
+    private double[] values; // sorted ascending, the value of sortedTiles at the same position
+    private int[] presentCounts; // the Fenwick tree of the not removed positions, 1-based
+    private int highestPowerOfTwo; // of the positions count, for descending the Fenwick tree
+    private Map<MosaicTile<S>, Integer> firstPositions; // the first sorted position of tiles equal to the key
+    private int[] nextEqualPositions; // the next sorted position of an equal tile or -1
+    private boolean[] removed;
+    private int size;
+
+    public SortedValueMatcher(Collection<? extends MosaicTile<S>> tiles, ColorSpace space) {
+        super(space);
+        checkColorSpace(this.space);
+        this.tiles = toArray(tiles);
+        initIndex();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <S> MosaicTile<S>[] toArray(Collection<? extends MosaicTile<S>> tiles) {
+        return tiles.toArray((MosaicTile<S>[]) new MosaicTile<?>[tiles.size()]);
+    }
+
+    @Override
+    protected void checkColorSpace(ColorSpace newSpace) {
+        if (newSpace.getDimension() != 1) {
+            throw new IllegalArgumentException("Color space is not one dimensional: " + newSpace);
+        }
+    }
+
+    private void initIndex() {
+        int count = tiles.length;
+        double[] unsortedValues = new double[count];
+        for (int i = 0; i < count; i++) {
+            unsortedValues[i] = space.getValue(tiles[i].getAverageARGB(), 0);
+        }
+        int[] order = IntStream.range(0, count).boxed()
+                               .sorted(Comparator.comparingDouble(index -> unsortedValues[index]))
+                               .mapToInt(Integer::intValue).toArray();
+        sortedTiles = Arrays.copyOf(tiles, count);
+        values = new double[count];
+        for (int position = 0; position < count; position++) {
+            sortedTiles[position] = tiles[order[position]];
+            values[position] = unsortedValues[order[position]];
+        }
+
+        // each node of the tree counts the positions (i - lowestOneBit(i), i], initially all present
+        presentCounts = new int[count + 1];
+        for (int i = 1; i <= count; i++) {
+            presentCounts[i] = Integer.lowestOneBit(i);
+        }
+        highestPowerOfTwo = Integer.highestOneBit(count);
+        removed = new boolean[count];
+        size = count;
+        firstPositions = new HashMap<>(count * 2);
+        nextEqualPositions = new int[count];
+        for (int position = count - 1; position >= 0; position--) {
+            Integer next = firstPositions.put(sortedTiles[position], position);
+            nextEqualPositions[position] = next == null ? -1 : next;
+        }
+    }
+
+    /**
+     * Returns the amount of present positions lower than the given one.
+     */
+    private int countPresentBelow(int position) {
+        int count = 0;
+        for (int i = position; i > 0; i -= Integer.lowestOneBit(i)) {
+            count += presentCounts[i];
+        }
+        return count;
+    }
+
+    /**
+     * Returns the position of the k-th present position, counted from 1.
+     */
+    private int findPresent(int k) {
+        int position = 0;
+        for (int step = highestPowerOfTwo; step > 0; step >>= 1) {
+            int next = position + step;
+            if (next < presentCounts.length && presentCounts[next] < k) {
+                position = next;
+                k -= presentCounts[next];
+            }
+        }
+        return position; // the 1-based node after position is the k-th, so this is its 0-based position
+    }
+
+    @Override
+    protected Optional<? extends MosaicTile<S>> lookUpBestMatch(MosaicFragment wantedTile) {
+        if (size == 0) {
+            return Optional.empty();
+        }
+        double value = space.getValue(wantedTile.getAverageRGB(), 0);
+        int insertion = Arrays.binarySearch(values, value);
+        if (insertion < 0) {
+            insertion = -insertion - 1;
+        }
+        int presentBelow = countPresentBelow(insertion);
+        int below = presentBelow > 0 ? findPresent(presentBelow) : -1;
+        int above = presentBelow < size ? findPresent(presentBelow + 1) : -1;
+        if (below < 0 || (above >= 0 && values[above] - value < value - values[below])) {
+            return Optional.of(sortedTiles[above]);
+        }
+        return Optional.of(sortedTiles[below]);
+    }
+
+    @Override
+    protected boolean removeFromIndex(MosaicTile<S> toRemove) {
+        Integer first = firstPositions.get(toRemove);
+        int position = first == null ? -1 : first;
+        while (position >= 0 && removed[position]) {
+            position = nextEqualPositions[position];
+        }
+        if (position < 0) {
+            return false;
+        }
+        removed[position] = true;
+        size--;
+        for (int i = position + 1; i < presentCounts.length; i += Integer.lowestOneBit(i)) {
+            presentCounts[i]--;
+        }
+        return true;
+    }
+
+    @Override
+    protected void rebuildIndex() {
+        MosaicTile<S>[] remaining = Arrays.copyOf(sortedTiles, size);
+        int count = 0;
+        for (int position = 0; position < sortedTiles.length; position++) {
+            if (!removed[position]) {
+                remaining[count++] = sortedTiles[position];
+            }
+        }
+        tiles = remaining;
+        initIndex();
+    }
+
+    @Override
+    protected int getIndexSize() {
+        return size;
+    }
+
+    @Override
+    public double getAccuracy() {
+        return 1.0;
+    }
+
+    @Override
+    public boolean setAccuracy(double accuracy) {
+        return false;
+    }
+}
@@ -0,0 +1,134 @@
+package matching.workers;
+
+import data.storage.MosaicTile;
+import matching.TileMatcher;
+import reconstruction.MosaicFragment;
+import util.image.ColorDistanceKernel;
+import util.image.ColorIndex;
+import util.image.ColorSpace;
+
+import java.util.*;
+
+/**
+ * Avoids visible repetition of the same tiles without limiting reuse. For each fragment the tree is asked for the
+ * nearest few candidates and the candidate with the smallest distance plus repetition penalty is chosen. The penalty
+ * of a tile grows with the times it was chosen within the last picks, so a slightly worse tile wins over a tile that
+ * was just used. As the result depends on the previous picks the match cache is disabled.
+ * Since nothing is removed from the tree this keeps the fast lookup of the {@link FastMatcher}, which also picks
+ * the kind of index that suits the color space, see {@link ColorIndex#make(Random, Collection, ColorSpace)}.
+ */
+public class VarietyMatcher<S> extends TileMatcher<S> {
+    public static final int DEFAULT_CANDIDATES = 8;
+    public static final int DEFAULT_MEMORY = 64;
+    public static final double DEFAULT_REPETITION_PENALTY = 0.02;
+
+    private final List<MosaicTile<S>> tiles;
+    private ColorIndex<MosaicTile<S>> tree;
+    private ColorDistanceKernel kernel;
+    private final Map<MosaicTile<S>, double[]> coordinates = new HashMap<>(); // of the tiles in the current space
+    private final int candidatesCount;
+    private final int memory;
+    private final double repetitionPenalty;
+    private final Deque<MosaicTile<S>> recentlyUsed = new ArrayDeque<>();
+    private final Map<MosaicTile<S>, Integer> recentUseCount = new HashMap<>();
+
+    public VarietyMatcher(Collection<? extends MosaicTile<S>> tiles, ColorSpace space) {
+        this(tiles, space, DEFAULT_CANDIDATES, DEFAULT_MEMORY, DEFAULT_REPETITION_PENALTY);
+    }
+
+    /**
+     * Creates a new VarietyMatcher.
+     * @param tiles The tiles to use.
+     * @param space The color space to use.
+     * @param candidatesCount The amount of nearest tiles to choose from. Must be positive, one equals the FastMatcher.
+     * @param memory The amount of last picks that are remembered to punish repetition.
+     * @param repetitionPenalty The penalty for each remembered pick of a tile, as a fraction of the space's
+     *                          maximum distance.
+     */
+    public VarietyMatcher(Collection<? extends MosaicTile<S>> tiles, ColorSpace space, int candidatesCount,
+                          int memory, double repetitionPenalty) {
+        super(space);
+        if (candidatesCount <= 0) {
+            throw new IllegalArgumentException("Candidates count must be positive: " + candidatesCount);
+        }
+        this.tiles = new ArrayList<>(tiles);
+        this.candidatesCount = candidatesCount;
+        this.memory = Math.max(0, memory);
+        this.repetitionPenalty = Math.max(0., repetitionPenalty);
+        initTree();
+    }
+
+    private void initTree() {
+        tree = ColorIndex.make(new Random(), tiles, space);
+        kernel = space.getDistanceKernel();
+        // converted once instead of for each candidate of each lookup
+        coordinates.clear();
+        for (MosaicTile<S> tile : tiles) {
+            coordinates.put(tile, space.getCoordinates(tile.getAverageARGB()));
+        }
+    }
+
+    @Override
+    protected boolean cacheEnabled() {
+        return false; // results depend on the previous picks
+    }
+
+    @Override
+    protected void onColorSpaceChanged() {
+        initTree();
+    }
+
+    @Override
+    protected Optional<? extends MosaicTile<S>> calculateBestMatch(MosaicFragment wantedTile) {
+        double[] wanted = space.getCoordinates(wantedTile.getAverageRGB());
+        List<MosaicTile<S>> candidates = tree.getNearestNeighbors(wanted, candidatesCount);
+        final double maxDistance = space.getMaxDistance();
+        MosaicTile<S> best = null;
+        double bestScore = Double.MAX_VALUE;
+        for (MosaicTile<S> candidate : candidates) {
+            double score = kernel.getCoordinateDistance(coordinates.get(candidate), wanted)
+                    / maxDistance
+                    + repetitionPenalty * recentUseCount.getOrDefault(candidate, 0);
+            if (best == null || score < bestScore) {
+                best = candidate;
+                bestScore = score;
+            }
+        }
+        if (best != null) {
+            rememberUse(best);
+        }
+        return Optional.ofNullable(best);
+    }
+
+    private void rememberUse(MosaicTile<S> tile) {
+        if (memory == 0) {
+            return;
+        }
+        recentlyUsed.addLast(tile);
+        recentUseCount.merge(tile, 1, Integer::sum);
+        if (recentlyUsed.size() > memory) {
+            MosaicTile<S> forgotten = recentlyUsed.removeFirst();
+            recentUseCount.computeIfPresent(forgotten, (key, count) -> count > 1 ? count - 1 : null);
+        }
+    }
+
+    @Override
+    public double getAccuracy() {
+        return 1;
+    }
+
+    @Override
+    public boolean setAccuracy(double accuracy) {
+        return false;
+    }
+
+    @Override
+    public boolean doRemoveTile(MosaicTile<S> toRemove) {
+        return tree.removeNode(toRemove);
+    }
+
+    @Override
+    public int getUsedTilesCount() {
+        return tree.size();
+    }
+}
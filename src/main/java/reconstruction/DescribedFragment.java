@@ -0,0 +1,56 @@
+package reconstruction;
+
+import java.util.Arrays;
+
+/**
+ * A fragment that describes the structure of its region besides the average color: the region is split into a grid
+ * of gridSize x gridSize cells and the average color of each cell is given. Matchers that know about descriptors
+ * like the {@link matching.workers.DescriptorMatcher} use it, all others only see the average color.
+ */
+public class DescribedFragment extends MosaicFragment {
+    private final int gridSize;
+    private final int[] gridColors;
+
+    /**
+     * Creates a new described fragment.
+     * @param width The width of the fragment.
+     * @param height The height of the fragment.
+     * @param averageRGB The average color of the fragment.
+     * @param gridSize The amount of cells per row and column of the grid.
+     * @param gridColors The average colors of the cells row by row, gridSize * gridSize values.
+     */
+    public DescribedFragment(int width, int height, int averageRGB, int gridSize, int[] gridColors) {
+        super(width, height, averageRGB);
+        if (gridSize <= 0 || gridColors == null || gridColors.length != gridSize * gridSize) {
+            throw new IllegalArgumentException("Grid colors do not fit grid size " + gridSize);
+        }
+        this.gridSize = gridSize;
+        this.gridColors = gridColors;
+    }
+
+    /**
+     * Returns the amount of cells per row and column of the grid.
+     * @return The grid size.
+     */
+    public int getGridSize() {
+        return gridSize;
+    }
+
+    /**
+     * Returns the average colors of the grid's cells row by row. The array must not be modified.
+     * @return The colors of the cells.
+     */
+    public int[] getGridColors() {
+        return gridColors;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return super.equals(o) && Arrays.equals(gridColors, ((DescribedFragment) o).gridColors);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * super.hashCode() + Arrays.hashCode(gridColors);
+    }
+}
@@ -21,6 +21,9 @@ import data.image.AbstractBitmap;
 import data.image.AbstractBitmapFactory;
 import reconstruction.workers.RectReconstructor;
 
+import java.util.Collections;
+import java.util.List;
+
 /**
  * This class models an abstract Reconstructor which is used to reconstruct
  * a provided image. How the image is fragmented can be defined by the
@@ -56,6 +59,16 @@ public abstract class Reconstructor {
 	 * @return The next MosaicFragment. <code>null</code> if hasAll() is <code>true</code>.
 	 */
 	public abstract MosaicFragment nextFragment();
+
+	/**
+	 * Returns the fragments that follow the next fragment, if the reconstructor knows them in advance. Giving the
+	 * images must not change these fragments then. Allows to match and load the images ahead.
+	 * @param count The maximum amount of fragments to return.
+	 * @return Up to count fragments in the order nextFragment() will return them. Empty by default.
+	 */
+	public List<MosaicFragment> peekFragments(int count) {
+		return Collections.emptyList();
+	}
 	
 	/**
 	 * Returns <code>true</code> if all images needed were provided. Can
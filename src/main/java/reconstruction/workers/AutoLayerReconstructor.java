@@ -23,6 +23,7 @@ import reconstruction.Reconstructor;
 import util.MultistepPercentProgressListener;
 import util.PercentProgressListener;
 import util.image.ColorAnalysisUtil;
+import util.image.ColorDistanceKernel;
 import util.image.ColorSpace;
 
 import java.util.ArrayList;
@@ -97,6 +98,7 @@ public class AutoLayerReconstructor extends Reconstructor {
         final double maxSim = space.getMaxDistance();
         final double sim = ColorAnalysisUtil.factorToSimilarityBound(factor);
         final int simBound = (int) (sim * maxSim);
+        final ColorDistanceKernel kernel = space.getDistanceKernel();
         final int alreadyReachedMarker = Integer.MIN_VALUE;
         List<Integer> usedColors = new ArrayList<>();
         List<Integer> usedColorsStartPosition = new ArrayList<>();
@@ -112,7 +114,7 @@ public class AutoLayerReconstructor extends Reconstructor {
             deltas[analyzedToIndex] = 0; // marker no  longer required, reset delta
 
             for (int currIndex = analyzedToIndex + 1; currIndex < colors.length; currIndex++) {
-                if (space.getDistance(colors[currIndex], currColor) <= simBound) {
+                if (kernel.getDistance(colors[currIndex], currColor) <= simBound) {
                     colors[currIndex] = currColor;
                     deltas[analyzedToIndex] = currIndex - analyzedToIndex;
                     deltas[currIndex] = alreadyReachedMarker; // so it is not added as a new color when main loop reaches this index
@@ -134,7 +136,7 @@ public class AutoLayerReconstructor extends Reconstructor {
             startPositions.add(usedColorsStartPosition.get(i));
             for (int j = i + 1; j < usedColors.size(); j++) {
                 Integer potentialColor = usedColors.get(j);
-                if (space.getDistance(currColorI, potentialColor) <= simBound) { // if the pixel != 0 check is not done you need to check here if delta is zero else multiple paths might leed together and result in way too many pixels being drawn
+                if (kernel.getDistance(currColorI, potentialColor) <= simBound) { // if the pixel != 0 check is not done you need to check here if delta is zero else multiple paths might leed together and result in way too many pixels being drawn
                     startPositions.add(usedColorsStartPosition.get(j));
                     usedColors.remove(j);
                     usedColorsStartPosition.remove(j);
@@ -21,6 +21,7 @@ import reconstruction.MosaicFragment;
 import reconstruction.ReconstructionParameters;
 import reconstruction.Reconstructor;
 import util.PercentProgressListener;
+import util.image.ColorDistanceKernel;
 import util.image.ColorSpace;
 
 import java.util.Arrays;
@@ -115,10 +116,11 @@ public class FixedLayerReconstructor extends Reconstructor {
         // init k-means++ style by preferring centers that are further away from the last center
         clusterCenters[0] = pixelColors[rand.nextInt(pixelColors.length)];
         final double maxDist = space.getMaxDistance();
+        final ColorDistanceKernel kernel = space.getDistanceKernel();
         for (int cluster = 1; cluster < clusterCount; cluster++) {
             clusterCenters[cluster] = pixelColors[rand.nextInt(pixelColors.length)];
             for (int i = 0; i < pixelColors.length; i++) {
-                double distFraction = space.getDistance(pixelColors[i], clusterCenters[cluster - 1]) / maxDist;
+                double distFraction = kernel.getDistance(pixelColors[i], clusterCenters[cluster - 1]) / maxDist;
                 distFraction *= distFraction;
                 distFraction *= distFraction;
                 distFraction *= i / (double) pixelColors.length;
@@ -129,7 +131,7 @@ public class FixedLayerReconstructor extends Reconstructor {
             }
         }
 
-        int[][] valuesPerDimension = new int[space.getDimension()][clusterCount];
+        double[][] valuesPerDimension = new double[space.getDimension()][clusterCount];
         int[] clusterSize = new int[clusterCount];
         int redistributionCount = 0;
         int maxRedistributions = MAX_RECALCULATIONS_BASE + MAX_RECALCULATIONS_LINEAR_GROWTH * clusterCount;
@@ -148,7 +150,7 @@ public class FixedLayerReconstructor extends Reconstructor {
                 double minWeightIncrease = Double.MAX_VALUE;
                 int minWeightIncreaseIndex = 0;
                 for (int cluster = 0; cluster < clusterCount; cluster++) {
-                    double currWeightIncrease = space.getDistance(clusterCenters[cluster], currColor);
+                    double currWeightIncrease = kernel.getDistance(clusterCenters[cluster], currColor);
                     if (currWeightIncrease < minWeightIncrease) {
                         minWeightIncrease = currWeightIncrease;
                         minWeightIncreaseIndex = cluster;
@@ -163,7 +165,7 @@ public class FixedLayerReconstructor extends Reconstructor {
             redistributionCount++;
 
             // recalculate centers
-            for (int[] aValuesPerDimension : valuesPerDimension) {
+            for (double[] aValuesPerDimension : valuesPerDimension) {
                 Arrays.fill(aValuesPerDimension, 0);
             }
             Arrays.fill(clusterSize, 0);
@@ -6,6 +6,7 @@ import reconstruction.MosaicFragment;
 import reconstruction.ReconstructionParameters;
 import reconstruction.Reconstructor;
 import util.image.ColorAnalysisUtil;
+import util.image.ColorDistanceKernel;
 import util.image.ColorSpace;
 
 import java.util.*;
@@ -123,6 +124,12 @@ public class MultiRectReconstructor extends RectReconstructor {
         return wantedFragment;
     }
 
+    @Override
+    public List<MosaicFragment> peekFragments(int count) {
+        // the next fragments depend on the rects the previous ones use, they are not laid out in advance
+        return Collections.emptyList();
+    }
+
     private void advanceRectIndex() {
         while (currentRowIndex < getRows() && currentColumnIndex < getColumns()
                 && rectIsUsed[currentRowIndex][currentColumnIndex]) {
@@ -177,12 +184,13 @@ public class MultiRectReconstructor extends RectReconstructor {
     private boolean checkSubRect(int baseColor, double simBound, int startRow, int startColumn, int endRow, int endColumn) {
 
         final double maxSim = space.getMaxDistance();
+        final ColorDistanceKernel kernel = space.getDistanceKernel();
         for (int r = startRow; r < endRow; r++) {
             for (int c = startColumn; c < endColumn; c++) {
                 if (rectIsUsed[r][c]) {
                     return false;
                 }
-                double currFactor = space.getDistance(baseColor, resultingRGBA[r][c]) / maxSim;
+                double currFactor = kernel.getDistance(baseColor, resultingRGBA[r][c]) / maxSim;
                 if (currFactor > simBound) {
                     return false;
                 }
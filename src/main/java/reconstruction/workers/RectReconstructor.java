@@ -22,6 +22,7 @@ import data.image.AbstractCanvasFactory;
 import effects.BitmapEffect;
 import effects.workers.ResizeUsingDivisorsEffect;
 import effects.SizeSupplier2D;
+import reconstruction.DescribedFragment;
 import reconstruction.MosaicFragment;
 import reconstruction.ReconstructionParameters;
 import reconstruction.Reconstructor;
@@ -43,6 +44,8 @@ public class RectReconstructor extends Reconstructor {
 	protected final int mRectHeight;
 	protected final int mRectWidth;
 	protected int[][] resultingRGBA;
+	private int[][][] resultingGridColors; // null if fragments are not described
+	private final int descriptorGridSize;
 	private AbstractBitmap result;
     protected AbstractCanvas mResultCanvas;
 	private int nextImageIndex;
@@ -50,6 +53,11 @@ public class RectReconstructor extends Reconstructor {
 	public static class RectParameters extends ReconstructionParameters implements SizeSupplier2D {
 		public int wantedRows;
 		public int wantedColumns;
+		/**
+		 * If positive, the fragments of the RectReconstructor are {@link DescribedFragment}s with a grid of this
+		 * size, for a matcher that compares the structure of fragment and tile. Zero by default.
+		 */
+		public int descriptorGridSize;
 
 		@Override
 		public Reconstructor makeReconstructor() throws IllegalParameterException {
@@ -66,6 +74,7 @@ public class RectReconstructor extends Reconstructor {
 		@Override
 		protected void resetToDefaults() {
 			wantedRows = wantedColumns = 20;
+			descriptorGridSize = 0;
 		}
 
 		@Override
@@ -77,6 +86,9 @@ public class RectReconstructor extends Reconstructor {
 			if (wantedColumns <= 0) {
 				throw new IllegalParameterException(wantedColumns, "Columns must be positive.");
 			}
+			if (descriptorGridSize < 0) {
+				throw new IllegalParameterException(descriptorGridSize, "Descriptor grid size must not be negative.");
+			}
 		}
 
 		@Override
@@ -101,6 +113,10 @@ public class RectReconstructor extends Reconstructor {
 		this.mRectHeight = source.getHeight() / actualRows;
 		this.mRectWidth = source.getWidth() / actualColumns;
 		this.resultingRGBA = new int[actualRows][actualColumns];
+		this.descriptorGridSize = parameters.descriptorGridSize;
+		if (descriptorGridSize > 0) {
+			this.resultingGridColors = new int[actualRows][actualColumns][];
+		}
 		this.nextImageIndex = 0;
 		this.result = obtainBaseBitmap(this.mRectWidth * this.getColumns(), this.mRectHeight * this.getRows());
         mResultCanvas = AbstractCanvasFactory.getInstance().makeCanvas(result);
@@ -116,6 +132,13 @@ public class RectReconstructor extends Reconstructor {
                         (widthIndex + 1) * this.mRectWidth,
                         heightIndex * this.mRectHeight,
                         (heightIndex + 1) * this.mRectHeight);
+                if (resultingGridColors != null) {
+                    resultingGridColors[heightIndex][widthIndex]
+                            = ColorAnalysisUtil.getGridAverageColors(source, widthIndex * this.mRectWidth,
+                            (widthIndex + 1) * this.mRectWidth,
+                            heightIndex * this.mRectHeight,
+                            (heightIndex + 1) * this.mRectHeight, descriptorGridSize);
+                }
             }
         }
     }
@@ -161,9 +184,27 @@ public class RectReconstructor extends Reconstructor {
 		if (this.hasAll()) {
 			return null;
 		}
-		return new MosaicFragment(this.mRectWidth, this.mRectHeight,
-				this.resultingRGBA[this.nextImageIndex / this.getColumns()]
-						[this.nextImageIndex % this.getColumns()]);
+		return getFragment(this.nextImageIndex);
+	}
+
+	@Override
+	public List<MosaicFragment> peekFragments(int count) {
+		int end = Math.min(this.getRows() * this.getColumns(), this.nextImageIndex + 1 + Math.max(0, count));
+		List<MosaicFragment> fragments = new ArrayList<>(Math.max(0, end - this.nextImageIndex - 1));
+		for (int index = this.nextImageIndex + 1; index < end; index++) {
+			fragments.add(getFragment(index));
+		}
+		return fragments;
+	}
+
+	private MosaicFragment getFragment(int index) {
+		int row = index / this.getColumns();
+		int column = index % this.getColumns();
+		if (this.resultingGridColors != null) {
+			return new DescribedFragment(this.mRectWidth, this.mRectHeight, this.resultingRGBA[row][column],
+					this.descriptorGridSize, this.resultingGridColors[row][column]);
+		}
+		return new MosaicFragment(this.mRectWidth, this.mRectHeight, this.resultingRGBA[row][column]);
 	}
 
 	@Override
@@ -3,35 +3,247 @@ package ui;
 import data.image.AbstractBitmap;
 import data.image.AbstractBitmapFactory;
 import data.image.BitmapSource;
+import data.image.ImageResolution;
 import data.storage.MosaicTile;
-import util.caching.LruCache;
+import util.caching.Cachable;
+import util.caching.WeightedLruCache;
 
 import java.io.File;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Objects;
+import java.util.Set;
 
 /**
+ * Loads the tiles' bitmaps from their files and caches the decoded images and their resized variants.
+ * A file is decoded subsampled to just above the required size, see
+ * {@link AbstractBitmapFactory#createBitmap(int, int)}, and only decoded again if a bigger size is required than the
+ * cached decoded image has. If thumbnails of the files are given, the smallest thumbnail that is big enough replaces
+ * decoding the file, see {@link ThumbnailPyramid}.
+ * When cropping to fit only the centered region of the required aspect ratio is decoded, see
+ * {@link AbstractBitmapFactory#createCroppedBitmap(int, int)}, and the decoded region is cached per aspect ratio.
+ * The cache is bounded by the bytes of the cached bitmaps. Decoded images and variants are evicted independently, each
+ * least recently used first, and the variants take precedence: the decoded images only get the bytes that the variants
+ * leave, so once the common fragment sizes are cached the decoded images are dropped first. A variant missing then
+ * decodes its file again. A decoded image that already has the required size is cached only once: as the variant
+ * if it was just decoded, else it stays a decoded image and is returned from there. If the variants are stored off
+ * the heap, the off heap copy of such an image replaces it.<br>
+ * The source is thread safe, but threads requesting the same bitmap at the same time each decode it, a
+ * {@link data.image.ConcurrentBitmapSource} shares these loads.
  * Created by dd on 03.06.17.
  */
 public class FileBitmapSource implements BitmapSource<String> {
-    private LruCache<String, List<AbstractBitmap>> cache = new LruCache<>(100);
+    public static final long DEFAULT_CACHE_BYTES = 128L * 1024L * 1024L;
+    private static final long BYTES_PER_PIXEL = 4L;
+    private final long cacheBytes;
+    private final ThumbnailPyramid thumbnails; // can be null
+    private final WeightedLruCache<VariantKey, AbstractBitmap> originals; // by the cropped resolution or 0x0
+    private final WeightedLruCache<VariantKey, AbstractBitmap> variants;
+    private volatile boolean offHeapVariants;
+    private volatile boolean cropToFit;
+
+    private static class VariantKey {
+        private final String source;
+        private final int width;
+        private final int height;
+
+        private VariantKey(String source, int width, int height) {
+            this.source = source;
+            this.width = width;
+            this.height = height;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            VariantKey other = (VariantKey) o;
+            return width == other.width && height == other.height && source.equals(other.source);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(source, width, height);
+        }
+    }
+
+    public FileBitmapSource() {
+        this(DEFAULT_CACHE_BYTES);
+    }
+
+    /**
+     * Creates a new source whose cache holds bitmaps up to the given size.
+     * @param cacheBytes The maximum bytes of the pixels of all cached bitmaps.
+     */
+    public FileBitmapSource(long cacheBytes) {
+        this(cacheBytes, null);
+    }
+
+    /**
+     * Creates a new source that loads the bitmaps from the given thumbnails if they are big enough. A file whose
+     * thumbnails are missing is decoded once big enough for all levels and its thumbnails are added.
+     * @param cacheBytes The maximum bytes of the pixels of all cached bitmaps.
+     * @param thumbnails The thumbnails of the tiles' files. Can be null to always decode the files.
+     */
+    public FileBitmapSource(long cacheBytes, ThumbnailPyramid thumbnails) {
+        this.cacheBytes = cacheBytes;
+        this.thumbnails = thumbnails;
+        originals = new WeightedLruCache<>(cacheBytes, FileBitmapSource::getBytes);
+        variants = new WeightedLruCache<>(cacheBytes, FileBitmapSource::getBytes);
+    }
+
+    private static long getBytes(AbstractBitmap bitmap) {
+        return BYTES_PER_PIXEL * bitmap.getWidth() * bitmap.getHeight();
+    }
 
     @Override
     public AbstractBitmap getBitmap(MosaicTile<String> forTile, int requiredWidth, int requiredHeight) {
-        List<AbstractBitmap> cached = cache.get(forTile.getSource());
-        if (cached == null) {
-            cached = new ArrayList<>();
-            AbstractBitmap bitmap = AbstractBitmapFactory.makeInstance(new File(forTile.getSource())).createBitmap();
-            cached.add(bitmap);
-            cache.put(forTile.getSource(), cached);
-        }
-        for (AbstractBitmap bitmap : cached) {
-            if (bitmap.getWidth() == requiredWidth && bitmap.getHeight() == requiredHeight) {
-                return bitmap;
+        String source = forTile.getSource();
+        VariantKey key = new VariantKey(source, requiredWidth, requiredHeight);
+        AbstractBitmap variant = variants.getFromCache(key).orElse(null);
+        if (variant != null) {
+            return variant;
+        }
+        VariantKey originalKey = makeOriginalKey(source, requiredWidth, requiredHeight);
+        AbstractBitmap original = originals.getFromCache(originalKey).orElse(null);
+        boolean loaded = false;
+        if (original == null || original.getWidth() < requiredWidth || original.getHeight() < requiredHeight) {
+            original = loadImage(new File(source), requiredWidth, requiredHeight);
+            if (original == null) {
+                return null;
             }
+            loaded = true;
+        }
+        boolean exactSize = original.getWidth() == requiredWidth && original.getHeight() == requiredHeight;
+        variant = exactSize ? original : original.obtainResized(requiredWidth, requiredHeight);
+        if (offHeapVariants) {
+            variant = variant.obtainOffHeapCopy();
+        }
+        // a bitmap is cached only once, so its bytes are not counted twice and it is evicted by a single cache
+        if (exactSize && variant != original) {
+            // the off heap copy replaces the decoded image
+            originals.removeFromCache(originalKey);
+        } else if (loaded && !exactSize) {
+            originals.addToCache(originalKey, original);
+        }
+        if (loaded || variant != original) {
+            variants.addToCache(key, variant);
+        }
+        // the variants may have taken bytes from the decoded images
+        originals.setMaxWeight(Math.max(0L, cacheBytes - variants.getWeight()));
+        return variant;
+    }
+
+    private VariantKey makeOriginalKey(String source, int requiredWidth, int requiredHeight) {
+        if (!cropToFit) {
+            return new VariantKey(source, 0, 0);
+        }
+        ImageResolution resolution = new ImageResolution(requiredWidth, requiredHeight);
+        return new VariantKey(source, resolution.getWidth(), resolution.getHeight());
+    }
+
+    /**
+     * Sets if the bitmaps are cropped to the required aspect ratio instead of stretched, see
+     * {@link BitmapSource#isCroppingToFit()}. Changing it empties the cache.
+     * @param crop If the bitmaps are cropped to fit.
+     */
+    public void setCropToFit(boolean crop) {
+        if (crop != cropToFit) {
+            cropToFit = crop;
+            variants.clearCache(Cachable.CLEAR_EMPTY);
+            originals.clearCache(Cachable.CLEAR_EMPTY);
         }
-        AbstractBitmap bitmap = cached.get(0).obtainResized(requiredWidth, requiredHeight);
-        cached.add(bitmap);
-        return bitmap;
+    }
+
+    @Override
+    public boolean isCroppingToFit() {
+        return cropToFit;
+    }
+
+    @Override
+    public boolean isCaching() {
+        return cacheBytes > 0L;
+    }
+
+    /**
+     * Sets if the resized variants are cached with their pixels off the Java heap, see
+     * {@link AbstractBitmap#obtainOffHeapCopy()}. Big caches then do not slow down the garbage collection. Evicted
+     * variants are not released as they may still be used, their memory is freed by the garbage collector or
+     * by {@link #releaseCache()}.
+     * @param offHeap If variants added from now on are stored off the heap.
+     */
+    public void setOffHeapVariants(boolean offHeap) {
+        offHeapVariants = offHeap;
+    }
+
+    /**
+     * Empties the cache and releases the pixels of the cached bitmaps that are stored off the heap. No bitmap that
+     * this source returned must be used afterwards. If this source is decorated, for example by a
+     * {@link assembling.MosaicMaker}, release through the outermost decorator, see
+     * {@link assembling.MosaicMaker#releaseBitmapCache()}, so no decorator keeps handing out the released bitmaps.
+     */
+    @Override
+    public void releaseCache() {
+        Set<AbstractBitmap> cached = variants.getValues();
+        variants.clearCache(Cachable.CLEAR_EMPTY);
+        originals.clearCache(Cachable.CLEAR_EMPTY);
+        cached.forEach(AbstractBitmap::release);
+    }
+
+    private AbstractBitmap loadImage(File file, int requiredWidth, int requiredHeight) {
+        if (thumbnails == null) {
+            return decode(file, requiredWidth, requiredHeight);
+        }
+        AbstractBitmap thumbnail = thumbnails.getThumbnail(file, requiredWidth, requiredHeight);
+        if (thumbnail != null) {
+            return fit(thumbnail, requiredWidth, requiredHeight);
+        }
+        if (thumbnails.contains(file)) {
+            // wanted bigger than all thumbnails
+            return decode(file, requiredWidth, requiredHeight);
+        }
+        int maxLevel = thumbnails.getMaxLevel();
+        AbstractBitmap image = AbstractBitmapFactory.makeInstance(file)
+                                                    .createBitmap(Math.max(requiredWidth, maxLevel),
+                                                                  Math.max(requiredHeight, maxLevel));
+        if (image == null) {
+            return null;
+        }
+        thumbnails.addThumbnails(file, image);
+        thumbnail = thumbnails.getThumbnail(file, requiredWidth, requiredHeight);
+        return fit(thumbnail == null ? image : thumbnail, requiredWidth, requiredHeight);
+    }
+
+    private AbstractBitmap decode(File file, int requiredWidth, int requiredHeight) {
+        AbstractBitmapFactory factory = AbstractBitmapFactory.makeInstance(file);
+        return cropToFit ? factory.createCroppedBitmap(requiredWidth, requiredHeight)
+                : factory.createBitmap(requiredWidth, requiredHeight);
+    }
+
+    private AbstractBitmap fit(AbstractBitmap image, int requiredWidth, int requiredHeight) {
+        return cropToFit ? image.obtainCroppedToFit(new ImageResolution(requiredWidth, requiredHeight)) : image;
+    }
+
+    /**
+     * Returns the bytes of all cached bitmaps.
+     * @return The resident bytes, at most the cache's size.
+     */
+    public long getResidentBytes() {
+        return originals.getWeight() + variants.getWeight();
+    }
+
+    /**
+     * Returns how many bitmaps were evicted to make room for others, decoded images and variants.
+     * @return The evictions count.
+     */
+    public long getEvictionsCount() {
+        return originals.getEvictionsCount() + variants.getEvictionsCount();
+    }
+
+    @Override
+    public String toString() {
+        return "FileBitmapSource(originals " + originals + ", variants " + variants + ")";
     }
 }
@@ -25,8 +25,19 @@ public class FileMosaicAnalyzer {
 
     private final Set<MosaicTile<String>> resultTiles;
     private final Set<String> ignoreKeys;
+    private final ThumbnailPyramid thumbnails;
 
     public FileMosaicAnalyzer(Collection<MosaicTile<String>> previousTiles) {
+        this(previousTiles, null);
+    }
+
+    /**
+     * Creates an analyzer that also adds the thumbnails of each newly analyzed image.
+     * @param previousTiles The tiles analyzed before, their files are skipped.
+     * @param thumbnails The thumbnails to add to. Can be null.
+     */
+    public FileMosaicAnalyzer(Collection<MosaicTile<String>> previousTiles, ThumbnailPyramid thumbnails) {
+        this.thumbnails = thumbnails;
         Collection<MosaicTile<String>> previousTiles1 = Optional.ofNullable(previousTiles).orElse(Collections.emptyList());
         resultTiles = new HashSet<>(previousTiles1);
         ignoreKeys = previousTiles.stream()
@@ -46,7 +57,7 @@ public class FileMosaicAnalyzer {
             estimatedFilesCount = FileMosaicAnalyzer.estimateContainedImageFiles(analyzeDirectory, updateCallback);
         }
 
-        ImageVisitor visitor = new ImageVisitor(updateCallback, estimatedFilesCount, ignoreKeys);
+        ImageVisitor visitor = new ImageVisitor(updateCallback, estimatedFilesCount, ignoreKeys, thumbnails);
         try {
             traverseDirectory(analyzeDirectory, visitor);
         } catch (IOException e) {
@@ -117,13 +128,16 @@ public class FileMosaicAnalyzer {
         private final int estimatedFilesCount;
         private final ProgressCallback updateCallback;
         private final Set<String> ignoreKeys;
+        private final ThumbnailPyramid thumbnails;
         private Set<MosaicTile<String>> tiles = new HashSet<>();
         private int count;
 
-        ImageVisitor(ProgressCallback updater, int estimatedFilesCount, Set<String> ignoreKeys) {
+        ImageVisitor(ProgressCallback updater, int estimatedFilesCount, Set<String> ignoreKeys,
+                     ThumbnailPyramid thumbnails) {
             this.updateCallback = updater;
             this.estimatedFilesCount = estimatedFilesCount;
             this.ignoreKeys = ignoreKeys;
+            this.thumbnails = thumbnails;
         }
 
         @Override
@@ -144,6 +158,9 @@ public class FileMosaicAnalyzer {
                             isHit = true;
                             MosaicTile<String> tile = getMosaicTile(key, bitmap);
                             tiles.add(tile);
+                            if (thumbnails != null) {
+                                thumbnails.addThumbnails(file, bitmap);
+                            }
                         } // else not an image file
                     }
                     if (isHit && updateCallback != null && estimatedFilesCount > 0) {
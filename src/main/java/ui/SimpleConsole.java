@@ -9,14 +9,19 @@ import data.export.BitmapExportException;
 import data.export.FileBitmapExporter;
 import data.image.AbstractBitmap;
 import data.image.AbstractBitmapFactory;
+import data.image.BitmapSource;
 import data.storage.MosaicTile;
 import effects.workers.CirclesEffect;
 import effects.workers.LegoEffect;
+import matching.MatcherBenchmark;
+import matching.TileMatcher;
+import matching.workers.FastMatcher;
 import org.pmw.tinylog.Logger;
 import util.image.Color;
 import util.image.ColorSpace;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.*;
 import java.util.stream.Collectors;
 
@@ -28,6 +33,8 @@ public class SimpleConsole {
     private static final String COMMAND_HELP = "-h";
     private static final String COMMAND_ANALYZE = "-a";
     private static final String COMMAND_MOSAIC = "-m";
+    private static final String COMMAND_BENCHMARK = "-b";
+    private static final double[] BENCHMARK_ACCURACIES = new double[] {1., 0.95, 0.9, 0.75, 0.5, 0.25, 0.1, 0.};
 
 
     public static void main(String[] args) {
@@ -51,12 +58,21 @@ public class SimpleConsole {
                     output = generateMosaic(args[1], args[2], args[3], args[4], Arrays.copyOfRange(args, 5, args.length));
                 }
                 break;
+            case COMMAND_BENCHMARK:
+                if (args.length < 2) {
+                    output = "To benchmark the matcher's accuracy specify the path to analyzation file(s) and optionally the amount of queries.";
+                } else {
+                    output = benchmarkMatcher(args[1], args.length > 2 ? parseIntegerSafe(args[2], 10000) : 10000);
+                }
+                break;
             default:
                 /* fall through */
             case COMMAND_HELP:
                 output = "Enter '-h' to show this help.\n" +
                         "'-a path1 path2' to analyze a collection of images in directory path1 and save to path2\n" +
-                        "'-m path1 path2 path3 type [type_params...]' to generate a mosaic of the image at path1, saving the result at path2, getting analyzation results from path3 and using the given mosaic type (see '-t' for details)";
+                        "'-m path1 path2 path3 type [type_params...]' to generate a mosaic of the image at path1, saving the result at path2, getting analyzation results from path3 and using the given mosaic type (see '-t' for details)\n" +
+                        "'-b path [queries]' to measure color error and lookup speed of the fast matcher for different accuracies using the analyzation results from path\n" +
+                        "Thumbnails of the tiles are only kept between runs if the directory for them is set with '-D" + ThumbnailPyramid.DIRECTORY_PROPERTY + "=path', at most " + ThumbnailPyramid.DEFAULT_MAX_BYTES + " bytes or set with '-D" + ThumbnailPyramid.MAX_BYTES_PROPERTY + "=bytes'";
                 break;
         }
         System.out.println(output);
@@ -129,55 +145,90 @@ public class SimpleConsole {
         return makeMosaic(mosaicType, typeParams, sourceFile, analyzationFiles, progress, exporter);
     }
 
-    private static String makeMosaic(String mosaicType, String[] typeParams, File sourceFile, List<File> analyzationFiles, ProgressCallback progress, AbstractBitmapExporter exporter) {
+    private static String benchmarkMatcher(String analyzationPath, int queries) {
+        List<File> analyzationFiles = getAnalyzationFiles(new File(analyzationPath));
+        if (analyzationFiles.size() == 0) {
+            return "No files found that store analyzed images at " + analyzationPath;
+        }
         Collection<MosaicTile<String>> tiles = ReconstructorAssemblor.loadTilesFromFiles(analyzationFiles, null);
-        MosaicMaker<String> maker = new MosaicMaker<>(new FileBitmapSource(), ColorSpace.RgbEuclid.INSTANCE_WITH_ALPHA,
-                                                      tiles, exporter);
-        AbstractBitmap source = AbstractBitmapFactory.makeInstance(sourceFile).createBitmap();
-        if (source == null) {
-            Logger.error("Could not load image from file: {}", sourceFile);
-            return "Source image invalid.";
+        TileMatcher<String> matcher = new FastMatcher<>(tiles, ColorSpace.RgbEuclid.INSTANCE_WITH_ALPHA);
+        List<MatcherBenchmark.Measurement> measurements = MatcherBenchmark.measureAccuracyCurve(matcher,
+                BENCHMARK_ACCURACIES, queries, new Random());
+        if (measurements.isEmpty()) {
+            return "No tiles to benchmark.";
         }
-        BitmapProject project;
-        switch (mosaicType) {
-            case "rect":
-                project = makeMosaicRect(typeParams, source, progress, maker);
-                break;
-            case "multirect":
-                project = makeMosaicMultiRect(typeParams, source, progress, maker);
-                break;
-            case "fixedlayer":
-                project = makeMosaicFixedLayer(typeParams, source, progress, maker);
-                break;
-            case "autolayer":
-                project = makeMosaicAutoLayer(typeParams, source, progress, maker);
-                break;
-            case "circle":
-                project = makeMosaicCircle(typeParams, progress, exporter);
-                break;
-            case "lego":
-                project = makeMosaicLego(typeParams, progress, exporter);
-                break;
-            case "puzzle":
-                project = makeMosaicPuzzle(typeParams, source, progress, maker);
-                break;
-            case "svd":
-                project = makeMosaicSVD(typeParams, source, progress, maker);
-                break;
-            default:
-                Logger.error("Unknown mosaic type {}.", mosaicType);
-                return "Unknown mosaic type";
+        double exactNanos = measurements.get(0).nanosPerQuery;
+        StringBuilder builder = new StringBuilder();
+        builder.append("Benchmarked ").append(tiles.size()).append(" tiles with ").append(queries).append(" queries:");
+        for (MatcherBenchmark.Measurement measurement : measurements) {
+            builder.append('\n').append(measurement)
+                   .append(String.format(Locale.ROOT, " speedup=%.1fx", exactNanos / measurement.nanosPerQuery));
+        }
+        return builder.toString();
+    }
+
+    private static String makeMosaic(String mosaicType, String[] typeParams, File sourceFile, List<File> analyzationFiles, ProgressCallback progress, AbstractBitmapExporter exporter) {
+        Collection<MosaicTile<String>> tiles = ReconstructorAssemblor.loadTilesFromFiles(analyzationFiles, null);
+        try (ThumbnailPyramid thumbnails = ThumbnailPyramid.openConfigured()) {
+            BitmapSource<String> bitmapSource = new FileBitmapSource(FileBitmapSource.DEFAULT_CACHE_BYTES, thumbnails);
+            return buildMosaic(mosaicType, typeParams, sourceFile, tiles, bitmapSource, progress, exporter);
+        } catch (IOException e) {
+            Logger.error("Could not close thumbnails: {}", e);
+            return "Failed storing the thumbnails of the tiles.";
         }
-        if (project != null) {
-            try {
-                project.build(source);
-            } catch (BitmapExportException e) {
-                Logger.error("Failed exporting image: {}", e);
-                return "Could not save result.";
+    }
+
+    private static String buildMosaic(String mosaicType, String[] typeParams, File sourceFile,
+                                      Collection<MosaicTile<String>> tiles, BitmapSource<String> bitmapSource,
+                                      ProgressCallback progress, AbstractBitmapExporter exporter) {
+        try (MosaicMaker<String> maker = new MosaicMaker<>(bitmapSource, ColorSpace.RgbEuclid.INSTANCE_WITH_ALPHA,
+                                                           tiles, exporter)) {
+            AbstractBitmap source = AbstractBitmapFactory.makeInstance(sourceFile).createBitmap();
+            if (source == null) {
+                Logger.error("Could not load image from file: {}", sourceFile);
+                return "Source image invalid.";
+            }
+            BitmapProject project;
+            switch (mosaicType) {
+                case "rect":
+                    project = makeMosaicRect(typeParams, source, progress, maker);
+                    break;
+                case "multirect":
+                    project = makeMosaicMultiRect(typeParams, source, progress, maker);
+                    break;
+                case "fixedlayer":
+                    project = makeMosaicFixedLayer(typeParams, source, progress, maker);
+                    break;
+                case "autolayer":
+                    project = makeMosaicAutoLayer(typeParams, source, progress, maker);
+                    break;
+                case "circle":
+                    project = makeMosaicCircle(typeParams, progress, exporter);
+                    break;
+                case "lego":
+                    project = makeMosaicLego(typeParams, progress, exporter);
+                    break;
+                case "puzzle":
+                    project = makeMosaicPuzzle(typeParams, source, progress, maker);
+                    break;
+                case "svd":
+                    project = makeMosaicSVD(typeParams, source, progress, maker);
+                    break;
+                default:
+                    Logger.error("Unknown mosaic type {}.", mosaicType);
+                    return "Unknown mosaic type";
             }
-            return "Successfully created mosaic.";
+            if (project != null) {
+                try {
+                    project.build(source);
+                } catch (BitmapExportException e) {
+                    Logger.error("Failed exporting image: {}", e);
+                    return "Could not save result.";
+                }
+                return "Successfully created mosaic.";
+            }
+            return "";
         }
-        return "";
     }
 
     private static BitmapProject makeMosaicPuzzle(String[] typeParams, AbstractBitmap source, ProgressCallback progress, MosaicMaker<String> maker) {
@@ -276,8 +327,14 @@ public class SimpleConsole {
         if (file.isDirectory()) {
             Set<MosaicTile<String>> tiles = FileMosaicJSONBuilder.loadExistingTiles(saveFile, null);
 
-            FileMosaicAnalyzer analyzer = new FileMosaicAnalyzer(tiles);
-            Set<MosaicTile<String>> allTiles = analyzer.analyze(file, saveFile, null);
+            Set<MosaicTile<String>> allTiles;
+            try (ThumbnailPyramid thumbnails = ThumbnailPyramid.openConfigured()) {
+                FileMosaicAnalyzer analyzer = new FileMosaicAnalyzer(tiles, thumbnails);
+                allTiles = analyzer.analyze(file, saveFile, null);
+            } catch (IOException e) {
+                Logger.error("Could not close thumbnails: {}", e);
+                return "Analyzed tiles but failed storing their thumbnails.";
+            }
             return "Successfully analyzed " + (allTiles.size() - tiles.size()) + " new tiles and saved "
                     + allTiles.size() + " tiles!";
         } else {
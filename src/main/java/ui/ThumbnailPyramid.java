@@ -0,0 +1,545 @@
+package ui;
+
+import data.image.AbstractBitmap;
+import data.image.AbstractBitmapFactory;
+import org.pmw.tinylog.Logger;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A persistent cache of downscaled versions of image files, so that mosaics do not decode the big original files again
+ * for each run. For each file thumbnails of a few levels are stored whose shorter side is the level's size, for
+ * example 32, 64, 128 and 256 pixels, only the levels not bigger than the image itself.
+ * The pixels are stored uncompressed in big segment files and read back through memory mapped I/O, a lookup returns
+ * the smallest thumbnail that is at least the wanted size. An index file lists the thumbnails of each file, it is only
+ * appended to. A file that changed since its thumbnails were made (by modification time or length) has no
+ * thumbnails until they are added again.<br>
+ * The segments hold at most a given amount of bytes, thumbnails that do not fit anymore are not added. When the
+ * pyramid is opened the thumbnails of files that changed or were deleted are dropped and if the segments are
+ * mostly full or wasted, the thumbnails of the files added first are dropped too. Then the remaining thumbnails are
+ * copied into new segments, so the outdated pixels do not take up space forever.<br>
+ * All methods are synchronized, so the pyramid can be shared by threads.
+ */
+public class ThumbnailPyramid implements Closeable {
+    public static final int[] DEFAULT_LEVELS = {32, 64, 128, 256};
+    public static final long DEFAULT_MAX_BYTES = 1024L * 1024L * 1024L;
+    /**
+     * The system property with the directory of the pyramid that {@link #openConfigured()} opens. If it is not set
+     * no thumbnails are stored.
+     */
+    public static final String DIRECTORY_PROPERTY = "mosaic.thumbnails";
+    /**
+     * The system property with the maximum bytes of the pyramid that {@link #openConfigured()} opens.
+     */
+    public static final String MAX_BYTES_PROPERTY = "mosaic.thumbnails.maxBytes";
+    private static final int INDEX_VERSION = 1;
+    private static final String INDEX_FILE_NAME = "index";
+    private static final String SEGMENT_FILE_PREFIX = "segment";
+    private static final String NEW_FILE_SUFFIX = ".new"; // for the files written while compacting
+    private static final long SEGMENT_BYTES = 256L * 1024L * 1024L;
+    private static final long CHUNK_BYTES = 16L * 1024L * 1024L; // the segments are mapped in chunks of this size
+    private static final int BYTES_PER_PIXEL = 4;
+    // when opened with more bytes stored than this fraction of the maximum, the oldest thumbnails are dropped
+    private static final double COMPACT_FILL = 0.75;
+    // the fraction of the maximum the thumbnails that are kept take up at most, so later runs can add new ones
+    private static final double COMPACTED_FILL = 0.5;
+    private final File directory;
+    private final int[] levels;
+    private final long maxBytes;
+    // by the canonical path of the image file, the file added last is last
+    private final Map<String, FileEntry> entries = new LinkedHashMap<>();
+    private final List<Segment> segments = new ArrayList<>();
+    private long liveBytes; // the bytes of the thumbnails in the entries, the rest of the segments is wasted
+    private DataOutputStream index;
+
+    private static class Thumbnail {
+        private final int segment;
+        private final long offset;
+        private final int width;
+        private final int height;
+
+        private Thumbnail(int segment, long offset, int width, int height) {
+            this.segment = segment;
+            this.offset = offset;
+            this.width = width;
+            this.height = height;
+        }
+
+        private long getBytes() {
+            return (long) BYTES_PER_PIXEL * width * height;
+        }
+    }
+
+    private static class FileEntry {
+        private final long lastModified;
+        private final long length;
+        private final List<Thumbnail> thumbnails; // smallest first
+
+        private FileEntry(long lastModified, long length, List<Thumbnail> thumbnails) {
+            this.lastModified = lastModified;
+            this.length = length;
+            this.thumbnails = thumbnails;
+        }
+
+        private boolean isUpToDate(File file) {
+            return file.lastModified() == lastModified && file.length() == length;
+        }
+
+        private long getBytes() {
+            return thumbnails.stream().mapToLong(Thumbnail::getBytes).sum();
+        }
+    }
+
+    private static class Segment {
+        private final FileChannel channel;
+        private final Map<Long, MappedByteBuffer> chunks = new HashMap<>(); // by the chunk's index
+        private long size;
+
+        private Segment(FileChannel channel) throws IOException {
+            this.channel = channel;
+            this.size = channel.size();
+        }
+
+        /**
+         * Returns the given region of the segment, read through the mapped chunk that contains it.
+         */
+        private ByteBuffer getMapped(long offset, long length) throws IOException {
+            long chunk = offset / CHUNK_BYTES;
+            long chunkStart = chunk * CHUNK_BYTES;
+            long end = offset + length;
+            if (end > chunkStart + CHUNK_BYTES) {
+                // crosses the end of the chunk, which is rare, so it is mapped on its own
+                return channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+            }
+            MappedByteBuffer mapped = chunks.get(chunk);
+            if (mapped == null || chunkStart + mapped.capacity() < end) {
+                // only the last chunk grows, it is mapped again once a region appended to it is read
+                mapped = channel.map(FileChannel.MapMode.READ_ONLY, chunkStart,
+                                     Math.min(CHUNK_BYTES, size - chunkStart));
+                chunks.put(chunk, mapped);
+            }
+            ByteBuffer region = mapped.duplicate();
+            region.limit((int) (end - chunkStart));
+            region.position((int) (offset - chunkStart));
+            return region.slice();
+        }
+    }
+
+    /**
+     * Opens the pyramid stored in the given directory or creates a new one there, with at most
+     * {@link #DEFAULT_MAX_BYTES}.
+     * @param directory The directory of the index and segment files, created if missing.
+     * @param levels The sizes of the shorter side of the thumbnails that are added, positive.
+     * @throws IOException If the directory or files could not be created or read.
+     */
+    public ThumbnailPyramid(File directory, int[] levels) throws IOException {
+        this(directory, levels, DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * Opens the pyramid stored in the given directory or creates a new one there. Outdated thumbnails are dropped
+     * and compacted away if they waste much space.
+     * @param directory The directory of the index and segment files, created if missing.
+     * @param levels The sizes of the shorter side of the thumbnails that are added, positive.
+     * @param maxBytes The maximum bytes of the segments, positive.
+     * @throws IOException If the directory or files could not be created, read or compacted.
+     */
+    public ThumbnailPyramid(File directory, int[] levels, long maxBytes) throws IOException {
+        if (levels.length == 0 || Arrays.stream(levels).anyMatch(level -> level <= 0)) {
+            throw new IllegalArgumentException("Illegal levels: " + Arrays.toString(levels));
+        }
+        if (maxBytes <= 0L) {
+            throw new IllegalArgumentException("Illegal maximum bytes: " + maxBytes);
+        }
+        this.directory = directory;
+        this.levels = Arrays.copyOf(levels, levels.length);
+        this.maxBytes = maxBytes;
+        Arrays.sort(this.levels);
+        Files.createDirectories(directory.toPath());
+        open();
+        if (dropOutdated()) {
+            compact();
+        }
+    }
+
+    /**
+     * Opens the pyramid with the default levels in the directory given by the system property
+     * {@link #DIRECTORY_PROPERTY}, with at most the bytes given by {@link #MAX_BYTES_PROPERTY} or else
+     * {@link #DEFAULT_MAX_BYTES}.
+     * @return The pyramid or null if the directory is not set or the pyramid could not be opened.
+     */
+    public static ThumbnailPyramid openConfigured() {
+        String path = System.getProperty(DIRECTORY_PROPERTY);
+        if (path == null || path.isEmpty()) {
+            return null;
+        }
+        File directory = new File(path);
+        try {
+            return new ThumbnailPyramid(directory, DEFAULT_LEVELS, Long.getLong(MAX_BYTES_PROPERTY,
+                                                                                DEFAULT_MAX_BYTES));
+        } catch (IOException | IllegalArgumentException e) {
+            Logger.warn("Could not open thumbnails at {}: {}", directory, e);
+            return null;
+        }
+    }
+
+    private File getSegmentFile(int segment) {
+        return new File(directory, SEGMENT_FILE_PREFIX + segment);
+    }
+
+    private File getNewFile(File file) {
+        return new File(directory, file.getName() + NEW_FILE_SUFFIX);
+    }
+
+    private static Segment openSegment(File file) throws IOException {
+        return new Segment(FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                                            StandardOpenOption.WRITE));
+    }
+
+    private void open() throws IOException {
+        for (int i = 0; getSegmentFile(i).exists(); i++) {
+            segments.add(openSegment(getSegmentFile(i)));
+        }
+        readIndex();
+        liveBytes = entries.values().stream().mapToLong(FileEntry::getBytes).sum();
+    }
+
+    private long getStoredBytes() {
+        return segments.stream().mapToLong(segment -> segment.size).sum();
+    }
+
+    /**
+     * Drops the thumbnails of files that changed or were deleted and, if the segments are too full, the thumbnails
+     * of the files added first.
+     * @return true if the segments should be compacted.
+     */
+    private boolean dropOutdated() {
+        entries.entrySet().removeIf(entry -> !entry.getValue().isUpToDate(new File(entry.getKey())));
+        liveBytes = entries.values().stream().mapToLong(FileEntry::getBytes).sum();
+        long storedBytes = getStoredBytes();
+        if (storedBytes > maxBytes * COMPACT_FILL) {
+            Iterator<FileEntry> oldest = entries.values().iterator();
+            while (liveBytes > maxBytes * COMPACTED_FILL && oldest.hasNext()) {
+                liveBytes -= oldest.next().getBytes();
+                oldest.remove();
+            }
+            return true;
+        }
+        return storedBytes - liveBytes > storedBytes / 2;
+    }
+
+    /**
+     * Copies the thumbnails of the entries into new segments and writes a new index, then replaces the old files.
+     * The old index is deleted first, so if this is interrupted the pyramid is at worst empty when opened again.
+     */
+    private void compact() throws IOException {
+        Logger.info("Compacting thumbnails at {} from {} to {} bytes.", directory, getStoredBytes(), liveBytes);
+        List<Segment> compacted = new ArrayList<>();
+        Map<String, FileEntry> moved = new LinkedHashMap<>();
+        try {
+            for (Map.Entry<String, FileEntry> entry : entries.entrySet()) {
+                List<Thumbnail> thumbnails = new ArrayList<>(entry.getValue().thumbnails.size());
+                for (Thumbnail thumbnail : entry.getValue().thumbnails) {
+                    Segment target = getAppendSegment(compacted, i -> getNewFile(getSegmentFile(i)));
+                    FileChannel from = segments.get(thumbnail.segment).channel;
+                    long copied = 0L;
+                    while (copied < thumbnail.getBytes()) {
+                        copied += from.transferTo(thumbnail.offset + copied, thumbnail.getBytes() - copied,
+                                                  target.channel.position(target.size + copied));
+                    }
+                    thumbnails.add(new Thumbnail(compacted.size() - 1, target.size, thumbnail.width,
+                                                 thumbnail.height));
+                    target.size += copied;
+                }
+                moved.put(entry.getKey(), new FileEntry(entry.getValue().lastModified, entry.getValue().length,
+                                                        thumbnails));
+            }
+            File indexFile = new File(directory, INDEX_FILE_NAME);
+            try (DataOutputStream newIndex = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(getNewFile(indexFile))))) {
+                newIndex.writeInt(INDEX_VERSION);
+                for (Map.Entry<String, FileEntry> entry : moved.entrySet()) {
+                    writeEntry(newIndex, entry.getKey(), entry.getValue());
+                }
+            }
+            closeFiles();
+            Files.delete(indexFile.toPath());
+            // the old segments are deleted from the last one, so the remaining ones are always found when opening
+            for (int i = segments.size() - 1; i >= 0; i--) {
+                Files.delete(getSegmentFile(i).toPath());
+            }
+            segments.clear();
+            for (Segment segment : compacted) {
+                segment.channel.close();
+            }
+            for (int i = 0; i < compacted.size(); i++) {
+                Files.move(getNewFile(getSegmentFile(i)).toPath(), getSegmentFile(i).toPath());
+            }
+            Files.move(getNewFile(indexFile).toPath(), indexFile.toPath());
+        } finally {
+            for (Segment segment : compacted) {
+                segment.channel.close();
+            }
+        }
+        entries.clear();
+        open();
+    }
+
+    private interface SegmentFiles {
+        File getFile(int segment);
+    }
+
+    /**
+     * Returns the last of the given segments, or a new one if it is full.
+     */
+    private static Segment getAppendSegment(List<Segment> segments, SegmentFiles files) throws IOException {
+        if (segments.isEmpty() || segments.get(segments.size() - 1).size >= SEGMENT_BYTES) {
+            File file = files.getFile(segments.size());
+            Files.deleteIfExists(file.toPath()); // left by an interrupted compaction
+            segments.add(openSegment(file));
+        }
+        return segments.get(segments.size() - 1);
+    }
+
+    private void readIndex() throws IOException {
+        File indexFile = new File(directory, INDEX_FILE_NAME);
+        byte[] bytes = indexFile.exists() ? Files.readAllBytes(indexFile.toPath()) : new byte[0];
+        long validBytes = 0L;
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(bytes));
+        try {
+            if (bytes.length > 0 && input.readInt() != INDEX_VERSION) {
+                Logger.warn("Unknown thumbnail index version in {}, starting a new index.", indexFile);
+                bytes = new byte[0];
+            } else {
+                // a record that was not written completely is dropped
+                while (input.available() > 0) {
+                    validBytes = bytes.length - input.available();
+                    readEntry(input);
+                }
+                validBytes = bytes.length;
+            }
+        } catch (EOFException e) {
+            Logger.warn("Dropping incomplete thumbnail index record in {}.", indexFile);
+        }
+        if (bytes.length == 0) {
+            entries.clear();
+            validBytes = 0L;
+        }
+        try (FileChannel channel = FileChannel.open(indexFile.toPath(), StandardOpenOption.CREATE,
+                                                    StandardOpenOption.WRITE)) {
+            channel.truncate(validBytes);
+        }
+        index = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile, true)));
+        if (validBytes == 0L) {
+            index.writeInt(INDEX_VERSION);
+            index.flush();
+        }
+    }
+
+    private void readEntry(DataInputStream input) throws IOException {
+        String path = input.readUTF();
+        long lastModified = input.readLong();
+        long length = input.readLong();
+        int count = input.readInt();
+        List<Thumbnail> thumbnails = new ArrayList<>(count);
+        boolean valid = true;
+        for (int i = 0; i < count; i++) {
+            Thumbnail thumbnail = new Thumbnail(input.readInt(), input.readLong(), input.readInt(), input.readInt());
+            valid &= thumbnail.segment < segments.size()
+                    && thumbnail.offset + thumbnail.getBytes() <= segments.get(thumbnail.segment).size;
+            thumbnails.add(thumbnail);
+        }
+        entries.remove(path);
+        if (valid) {
+            entries.put(path, new FileEntry(lastModified, length, thumbnails));
+        }
+    }
+
+    private static String getKey(File file) {
+        try {
+            return file.getCanonicalPath();
+        } catch (IOException e) {
+            return file.getAbsolutePath();
+        }
+    }
+
+    private FileEntry getEntry(File file) {
+        FileEntry entry = entries.get(getKey(file));
+        return entry != null && entry.isUpToDate(file) ? entry : null;
+    }
+
+    /**
+     * Returns the size of the biggest level, images are decoded at least this big to add all their thumbnails.
+     * @return The biggest level.
+     */
+    public int getMaxLevel() {
+        return levels[levels.length - 1];
+    }
+
+    /**
+     * Checks if the thumbnails of the given file were added and the file did not change since. This is also true if
+     * the image was too small for any thumbnail.
+     * @param file The image file.
+     * @return true if the thumbnails of the file are up to date.
+     */
+    public synchronized boolean contains(File file) {
+        return getEntry(file) != null;
+    }
+
+    /**
+     * Returns the smallest thumbnail of the given file that is at least the given size.
+     * @param file The image file.
+     * @param minWidth The minimum width.
+     * @param minHeight The minimum height.
+     * @return A new bitmap or null if no such thumbnail is stored.
+     */
+    public synchronized AbstractBitmap getThumbnail(File file, int minWidth, int minHeight) {
+        FileEntry entry = getEntry(file);
+        if (entry == null) {
+            return null;
+        }
+        for (Thumbnail thumbnail : entry.thumbnails) {
+            if (thumbnail.width >= minWidth && thumbnail.height >= minHeight) {
+                try {
+                    return readThumbnail(thumbnail);
+                } catch (IOException e) {
+                    Logger.error("Could not read thumbnail of {}: {}", file, e);
+                    return null;
+                }
+            }
+        }
+        return null;
+    }
+
+    private AbstractBitmap readThumbnail(Thumbnail thumbnail) throws IOException {
+        ByteBuffer mapped = segments.get(thumbnail.segment).getMapped(thumbnail.offset, thumbnail.getBytes());
+        int[] pixels = new int[thumbnail.width * thumbnail.height];
+        mapped.asIntBuffer().get(pixels);
+        AbstractBitmap bitmap = AbstractBitmapFactory.makeInstance(thumbnail.width, thumbnail.height).createBitmap();
+        bitmap.setPixels(pixels);
+        return bitmap;
+    }
+
+    /**
+     * Adds the thumbnails of the given file, made from its decoded image. Only the levels not bigger than the image
+     * are added, so the image should be decoded at least {@link #getMaxLevel()} big.
+     * @param file The image file.
+     * @param image The decoded image of the file.
+     * @return true if the thumbnails were stored, false if they failed to be stored or would exceed the maximum bytes.
+     */
+    public synchronized boolean addThumbnails(File file, AbstractBitmap image) {
+        int shorterSide = Math.min(image.getWidth(), image.getHeight());
+        int[][] sizes = new int[levels.length][];
+        long bytes = 0L;
+        for (int i = levels.length - 1; i >= 0; i--) {
+            if (levels[i] <= shorterSide) {
+                double factor = levels[i] / (double) shorterSide;
+                sizes[i] = new int[] {Math.max(levels[i], (int) Math.round(image.getWidth() * factor)),
+                        Math.max(levels[i], (int) Math.round(image.getHeight() * factor))};
+                bytes += (long) BYTES_PER_PIXEL * sizes[i][0] * sizes[i][1];
+            }
+        }
+        if (getStoredBytes() + bytes > maxBytes) {
+            Logger.debug("Not storing thumbnails of {}, the pyramid at {} is full.", file, directory);
+            return false;
+        }
+        List<Thumbnail> thumbnails = new ArrayList<>(levels.length);
+        // each level is scaled down from the next bigger one, which is cheaper than from the image
+        AbstractBitmap scaled = image;
+        try {
+            for (int i = levels.length - 1; i >= 0; i--) {
+                if (sizes[i] != null) {
+                    scaled = scaled.obtainResized(sizes[i][0], sizes[i][1]);
+                    thumbnails.add(writeThumbnail(scaled));
+                }
+            }
+            Collections.reverse(thumbnails);
+            String key = getKey(file);
+            FileEntry entry = new FileEntry(file.lastModified(), file.length(), thumbnails);
+            writeEntry(index, key, entry);
+            index.flush();
+            FileEntry replaced = entries.remove(key);
+            if (replaced != null) {
+                liveBytes -= replaced.getBytes();
+            }
+            entries.put(key, entry);
+            liveBytes += bytes;
+            return true;
+        } catch (IOException e) {
+            Logger.error("Could not store thumbnails of {}: {}", file, e);
+            return false;
+        }
+    }
+
+    private Thumbnail writeThumbnail(AbstractBitmap bitmap) throws IOException {
+        Segment segment = getAppendSegment(segments, this::getSegmentFile);
+        int segmentIndex = segments.size() - 1;
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        int[] pixels = new int[width * height];
+        bitmap.getPixels(pixels);
+        ByteBuffer bytes = ByteBuffer.allocate(BYTES_PER_PIXEL * width * height);
+        bytes.asIntBuffer().put(pixels);
+        long offset = segment.size;
+        while (bytes.hasRemaining()) {
+            segment.channel.write(bytes, segment.size + bytes.position());
+        }
+        segment.size += bytes.capacity();
+        return new Thumbnail(segmentIndex, offset, width, height);
+    }
+
+    private static void writeEntry(DataOutputStream output, String path, FileEntry entry) throws IOException {
+        output.writeUTF(path);
+        output.writeLong(entry.lastModified);
+        output.writeLong(entry.length);
+        output.writeInt(entry.thumbnails.size());
+        for (Thumbnail thumbnail : entry.thumbnails) {
+            output.writeInt(thumbnail.segment);
+            output.writeLong(thumbnail.offset);
+            output.writeInt(thumbnail.width);
+            output.writeInt(thumbnail.height);
+        }
+    }
+
+    private void closeFiles() throws IOException {
+        index.close();
+        for (Segment segment : segments) {
+            segment.channel.close();
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        closeFiles();
+        segments.clear();
+        entries.clear();
+        liveBytes = 0L;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "ThumbnailPyramid(" + entries.size() + " files in " + segments.size() + " segments at " + directory
+                + ")";
+    }
+}
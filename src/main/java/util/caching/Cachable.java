@@ -29,4 +29,12 @@ public interface Cachable<K, V> {
     void removeFromCache(K key);
 
     void removeValueFromCache(V value);
+
+    /**
+     * Returns the amount of entries that were removed to make room for new entries.
+     * @return The amount of evictions so far, zero if not counted.
+     */
+    default long getEvictionsCount() {
+        return 0L;
+    }
 }
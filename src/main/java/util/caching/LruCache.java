@@ -5,12 +5,15 @@ import java.util.Map;
 import java.util.Optional;
 
 /**
+ * A least recently used cache of a fixed amount of entries. Not thread safe, see {@link WeightedLruCache} for a
+ * cache that can be shared and removes values without a search.
  * Created by dd on 03.06.17.
  */
 public class LruCache<K, V> extends LinkedHashMap<K, V> implements Cachable<K, V> {
     private static final int INITIAL_CAPACITY = 16;
     private static final float LOAD_FACTOR = 0.75f;
     private int cacheSize;
+    private long evictionsCount;
 
     public LruCache(int cacheSize) {
         super(INITIAL_CAPACITY, LOAD_FACTOR, true);
@@ -18,7 +21,11 @@ public class LruCache<K, V> extends LinkedHashMap<K, V> implements Cachable<K, V
     }
 
     protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
-        return size() >= cacheSize;
+        if (size() > cacheSize) {
+            evictionsCount++;
+            return true;
+        }
+        return false;
     }
 
     @Override
@@ -48,7 +55,13 @@ public class LruCache<K, V> extends LinkedHashMap<K, V> implements Cachable<K, V
 
     @Override
     public void removeValueFromCache(V value) {
-        // we do a brute force search as we cannot even be sure the value is hashable
-        keySet().removeIf(key -> get(key).equals(value));
+        // we do a brute force search as we cannot even be sure the value is hashable, going over the values does
+        // not count as an access that changes the order
+        values().removeIf(value::equals);
+    }
+
+    @Override
+    public long getEvictionsCount() {
+        return evictionsCount;
     }
 }
\ No newline at end of file
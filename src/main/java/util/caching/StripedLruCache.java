@@ -0,0 +1,113 @@
+package util.caching;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * A thread safe cache that splits the keys by their hash onto several {@link LruCache}s, each guarded by its own lock.
+ * Threads that use different stripes do not block each other. The least recently used order is only kept
+ * per stripe, so the entry evicted is not necessarily the globally least recently used one.
+ */
+public class StripedLruCache<K, V> implements Cachable<K, V> {
+    public static final int DEFAULT_STRIPES_COUNT = 16;
+    private static final int MIN_STRIPE_SIZE = 16;
+    private final List<LruCache<K, V>> stripes;
+
+    /**
+     * Creates a new cache with up to {@link #DEFAULT_STRIPES_COUNT} stripes, but less for small caches so that
+     * a stripe holds enough entries to not evict too early when keys are unevenly spread.
+     * @param cacheSize The size of the cache.
+     */
+    public StripedLruCache(int cacheSize) {
+        this(cacheSize, Math.max(1, Math.min(DEFAULT_STRIPES_COUNT, cacheSize / MIN_STRIPE_SIZE)));
+    }
+
+    public StripedLruCache(int cacheSize, int stripesCount) {
+        if (stripesCount <= 0) {
+            throw new IllegalArgumentException("Stripes count must be positive: " + stripesCount);
+        }
+        stripes = new ArrayList<>(stripesCount);
+        int stripeSize = getStripeSize(cacheSize, stripesCount);
+        for (int i = 0; i < stripesCount; i++) {
+            stripes.add(new LruCache<>(stripeSize));
+        }
+    }
+
+    private static int getStripeSize(int cacheSize, int stripesCount) {
+        return (cacheSize + stripesCount - 1) / stripesCount;
+    }
+
+    private int getStripeSize(int cacheSize) {
+        return getStripeSize(cacheSize, stripes.size());
+    }
+
+    private LruCache<K, V> getStripe(K key) {
+        int hash = key.hashCode();
+        hash ^= hash >>> 16;
+        return stripes.get((hash & Integer.MAX_VALUE) % stripes.size());
+    }
+
+    @Override
+    public void clearCache(int sizeHint) {
+        for (LruCache<K, V> stripe : stripes) {
+            synchronized (stripe) {
+                stripe.clearCache(getStripeSize(sizeHint));
+            }
+        }
+    }
+
+    @Override
+    public Optional<V> getFromCache(K key) {
+        LruCache<K, V> stripe = getStripe(key);
+        synchronized (stripe) {
+            return stripe.getFromCache(key);
+        }
+    }
+
+    @Override
+    public void addToCache(K key, V value) {
+        LruCache<K, V> stripe = getStripe(key);
+        synchronized (stripe) {
+            stripe.addToCache(key, value);
+        }
+    }
+
+    @Override
+    public void setCacheSize(int sizeHint) {
+        int stripeSize = getStripeSize(sizeHint);
+        for (LruCache<K, V> stripe : stripes) {
+            synchronized (stripe) {
+                stripe.setCacheSize(stripeSize);
+            }
+        }
+    }
+
+    @Override
+    public void removeFromCache(K key) {
+        LruCache<K, V> stripe = getStripe(key);
+        synchronized (stripe) {
+            stripe.removeFromCache(key);
+        }
+    }
+
+    @Override
+    public void removeValueFromCache(V value) {
+        for (LruCache<K, V> stripe : stripes) {
+            synchronized (stripe) {
+                stripe.removeValueFromCache(value);
+            }
+        }
+    }
+
+    @Override
+    public long getEvictionsCount() {
+        long evictionsCount = 0L;
+        for (LruCache<K, V> stripe : stripes) {
+            synchronized (stripe) {
+                evictionsCount += stripe.getEvictionsCount();
+            }
+        }
+        return evictionsCount;
+    }
+}
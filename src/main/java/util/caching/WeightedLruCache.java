@@ -0,0 +1,212 @@
+package util.caching;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.ToLongFunction;
+
+/**
+ * A least recently used cache whose capacity is a total weight instead of an amount of entries, for example the
+ * bytes of cached bitmaps. The least recently used entries are evicted until the weight of all entries fits.
+ * An entry heavier than the whole capacity is not kept at all. Besides the keys the values are indexed too,
+ * so removing a value is as cheap as removing a key. Values must be hashable for this.<br>
+ * All methods are synchronized, so the cache can be shared by threads. The hits, misses and evictions are counted.
+ */
+public class WeightedLruCache<K, V> implements Cachable<K, V> {
+    private final Map<K, Entry<K, V>> entries = new HashMap<>();
+    private final Map<V, Set<K>> keysByValue = new HashMap<>();
+    private final ToLongFunction<? super V> weigher;
+    private final Entry<K, V> head; // sentinel of the usage order, head.next is the most recently used entry
+    private long maxWeight;
+    private long weight;
+    private long hitsCount;
+    private long missesCount;
+    private long evictionsCount;
+
+    private static class Entry<K, V> {
+        private final K key;
+        private final V value;
+        private final long weight;
+        private Entry<K, V> previous;
+        private Entry<K, V> next;
+
+        private Entry(K key, V value, long weight) {
+            this.key = key;
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+
+    /**
+     * Creates a cache that holds up to the given amount of entries, each entry weighs one.
+     * @param cacheSize The amount of entries.
+     */
+    public WeightedLruCache(int cacheSize) {
+        this(cacheSize, value -> 1L);
+    }
+
+    /**
+     * Creates a cache that holds entries up to the given total weight.
+     * @param maxWeight The maximum total weight.
+     * @param weigher Calculates the weight of a value, not negative. It is calculated once when the value is added.
+     */
+    public WeightedLruCache(long maxWeight, ToLongFunction<? super V> weigher) {
+        this.maxWeight = maxWeight;
+        this.weigher = weigher;
+        head = new Entry<>(null, null, 0L);
+        head.previous = head;
+        head.next = head;
+    }
+
+    private void unlink(Entry<K, V> entry) {
+        entry.previous.next = entry.next;
+        entry.next.previous = entry.previous;
+    }
+
+    private void linkFirst(Entry<K, V> entry) {
+        entry.next = head.next;
+        entry.previous = head;
+        head.next.previous = entry;
+        head.next = entry;
+    }
+
+    private void removeEntry(Entry<K, V> entry) {
+        entries.remove(entry.key);
+        unlink(entry);
+        weight -= entry.weight;
+        Set<K> keys = keysByValue.get(entry.value);
+        if (keys != null) {
+            keys.remove(entry.key);
+            if (keys.isEmpty()) {
+                keysByValue.remove(entry.value);
+            }
+        }
+    }
+
+    private void evict() {
+        while (weight > maxWeight && head.previous != head) {
+            removeEntry(head.previous);
+            evictionsCount++;
+        }
+    }
+
+    @Override
+    public synchronized void clearCache(int sizeHint) {
+        entries.clear();
+        keysByValue.clear();
+        head.previous = head;
+        head.next = head;
+        weight = 0L;
+    }
+
+    @Override
+    public synchronized Optional<V> getFromCache(K key) {
+        Entry<K, V> entry = entries.get(key);
+        if (entry == null) {
+            missesCount++;
+            return Optional.empty();
+        }
+        hitsCount++;
+        unlink(entry);
+        linkFirst(entry);
+        return Optional.of(entry.value);
+    }
+
+    /**
+     * Adds the value for the given key, replacing a previous value. Adding the same value again updates its weight.
+     * @param key The key.
+     * @param value The value, not null.
+     */
+    @Override
+    public synchronized void addToCache(K key, V value) {
+        Entry<K, V> previous = entries.get(key);
+        if (previous != null) {
+            removeEntry(previous);
+        }
+        Entry<K, V> entry = new Entry<>(key, value, weigher.applyAsLong(value));
+        entries.put(key, entry);
+        linkFirst(entry);
+        weight += entry.weight;
+        keysByValue.computeIfAbsent(value, v -> new HashSet<>(2)).add(key);
+        evict();
+    }
+
+    /**
+     * Sets the maximum total weight, in entries for caches created with {@link #WeightedLruCache(int)}.
+     * @param sizeHint The maximum total weight.
+     */
+    @Override
+    public void setCacheSize(int sizeHint) {
+        setMaxWeight(sizeHint);
+    }
+
+    public synchronized void setMaxWeight(long maxWeight) {
+        this.maxWeight = maxWeight;
+        evict();
+    }
+
+    public synchronized long getMaxWeight() {
+        return maxWeight;
+    }
+
+    @Override
+    public synchronized void removeFromCache(K key) {
+        Entry<K, V> entry = entries.get(key);
+        if (entry != null) {
+            removeEntry(entry);
+        }
+    }
+
+    @Override
+    public synchronized void removeValueFromCache(V value) {
+        Set<K> keys = keysByValue.remove(value);
+        if (keys != null) {
+            for (K key : keys) {
+                Entry<K, V> entry = entries.remove(key);
+                unlink(entry);
+                weight -= entry.weight;
+            }
+        }
+    }
+
+    /**
+     * Returns the distinct cached values.
+     * @return A new set of the values.
+     */
+    public synchronized Set<V> getValues() {
+        return new HashSet<>(keysByValue.keySet());
+    }
+
+    /**
+     * Returns the total weight of the cached entries.
+     * @return The weight.
+     */
+    public synchronized long getWeight() {
+        return weight;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getHitsCount() {
+        return hitsCount;
+    }
+
+    public synchronized long getMissesCount() {
+        return missesCount;
+    }
+
+    @Override
+    public synchronized long getEvictionsCount() {
+        return evictionsCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "WeightedLruCache(" + entries.size() + " entries, weight " + weight + "/" + maxWeight + ", "
+                + hitsCount + " hits, " + missesCount + " misses, " + evictionsCount + " evictions)";
+    }
+}
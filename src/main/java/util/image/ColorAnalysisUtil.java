@@ -152,6 +152,33 @@ public final class ColorAnalysisUtil {
 	public static int getAverageColor(AbstractBitmap image, int fromX, int toX, int fromY, int toY) {
 		return getAverageColor(image::getPixel, fromX, toX, fromY, toY);
 	}
+
+	/**
+	 * Splits the given rect into a grid of gridSize x gridSize cells and calculates the average color of each cell.
+	 * If the rect is smaller than the grid, neighboring cells share pixels.
+	 * @param image The image.
+	 * @param fromX The start x coordinate, inclusive.
+	 * @param toX The end x coordinate, exclusive. Greater than fromX.
+	 * @param fromY The start y coordinate, inclusive.
+	 * @param toY The end y coordinate, exclusive. Greater than fromY.
+	 * @param gridSize The amount of cells per row and column.
+	 * @return The average colors of the cells row by row, gridSize * gridSize values.
+	 */
+	public static int[] getGridAverageColors(AbstractBitmap image, int fromX, int toX, int fromY, int toY, int gridSize) {
+		int[] colors = new int[gridSize * gridSize];
+		int width = toX - fromX;
+		int height = toY - fromY;
+		for (int row = 0; row < gridSize; row++) {
+			int cellFromY = Math.min(toY - 1, fromY + row * height / gridSize);
+			int cellToY = Math.max(cellFromY + 1, fromY + (row + 1) * height / gridSize);
+			for (int column = 0; column < gridSize; column++) {
+				int cellFromX = Math.min(toX - 1, fromX + column * width / gridSize);
+				int cellToX = Math.max(cellFromX + 1, fromX + (column + 1) * width / gridSize);
+				colors[row * gridSize + column] = getAverageColor(image, cellFromX, cellToX, cellFromY, cellToY);
+			}
+		}
+		return colors;
+	}
 	
 	
 	/**
@@ -183,6 +210,85 @@ public final class ColorAnalysisUtil {
         return 0.299/255. * ((rgb >> 16) & 0xFF) + 0.587/255. * ((rgb >> 8) & 0xFF) + 0.114/255. * (rgb & 0xFF);
     }
 	
+	/**
+	 * Converts the given color into the Oklab color space (see https://bottosson.github.io/posts/oklab/), which is
+	 * perceptually uniform, so the euclidean distance of two converted colors resembles how different a human
+	 * would consider them. Alpha is ignored.
+	 * @param rgb The rgb value.
+	 * @param lab The array to write the lightness (index 0, in range 0 to 1) and the a and b values (index 1 and 2,
+	 *            each approximately in range -0.32 to 0.28) to.
+	 */
+	public static void getOklab(int rgb, double[] lab) {
+		double red = SRGB_TO_LINEAR[(rgb >> 16) & 0xFF];
+		double green = SRGB_TO_LINEAR[(rgb >> 8) & 0xFF];
+		double blue = SRGB_TO_LINEAR[rgb & 0xFF];
+		double l = Math.cbrt(0.4122214708 * red + 0.5363325363 * green + 0.0514459929 * blue);
+		double m = Math.cbrt(0.2119034982 * red + 0.6806995451 * green + 0.1073969566 * blue);
+		double s = Math.cbrt(0.0883024619 * red + 0.2817188376 * green + 0.6299787005 * blue);
+		lab[0] = 0.2104542553 * l + 0.7936177850 * m - 0.0040720468 * s;
+		lab[1] = 1.9779984951 * l - 2.4285922050 * m + 0.4505937099 * s;
+		lab[2] = 0.0259040371 * l + 0.7827717662 * m - 0.8086757660 * s;
+	}
+
+	/**
+	 * Calculates the squared euclidean distance of the given colors in the Oklab color space, see
+	 * {@link #getOklab(int, double[])}, without converting them into arrays. Alpha is ignored.
+	 * @param rgb1 The first rgb value.
+	 * @param rgb2 The second rgb value.
+	 * @return The squared distance, in range 0 to 1 for opaque colors.
+	 */
+	public static double getOklabSquaredDistance(int rgb1, int rgb2) {
+		double red1 = SRGB_TO_LINEAR[(rgb1 >> 16) & 0xFF];
+		double green1 = SRGB_TO_LINEAR[(rgb1 >> 8) & 0xFF];
+		double blue1 = SRGB_TO_LINEAR[rgb1 & 0xFF];
+		double red2 = SRGB_TO_LINEAR[(rgb2 >> 16) & 0xFF];
+		double green2 = SRGB_TO_LINEAR[(rgb2 >> 8) & 0xFF];
+		double blue2 = SRGB_TO_LINEAR[rgb2 & 0xFF];
+		double l = Math.cbrt(0.4122214708 * red1 + 0.5363325363 * green1 + 0.0514459929 * blue1)
+				- Math.cbrt(0.4122214708 * red2 + 0.5363325363 * green2 + 0.0514459929 * blue2);
+		double m = Math.cbrt(0.2119034982 * red1 + 0.6806995451 * green1 + 0.1073969566 * blue1)
+				- Math.cbrt(0.2119034982 * red2 + 0.6806995451 * green2 + 0.1073969566 * blue2);
+		double s = Math.cbrt(0.0883024619 * red1 + 0.2817188376 * green1 + 0.6299787005 * blue1)
+				- Math.cbrt(0.0883024619 * red2 + 0.2817188376 * green2 + 0.6299787005 * blue2);
+		// the lab values are linear in l, m and s, so their differences follow from the differences of these
+		double lightness = 0.2104542553 * l + 0.7936177850 * m - 0.0040720468 * s;
+		double a = 1.9779984951 * l - 2.4285922050 * m + 0.4505937099 * s;
+		double b = 0.0259040371 * l + 0.7827717662 * m - 0.8086757660 * s;
+		return lightness * lightness + a * a + b * b;
+	}
+
+	/**
+	 * Converts the given Oklab values back to an opaque rgb color. Values outside of the rgb gamut are clamped.
+	 * @param lightness The lightness.
+	 * @param a The a value.
+	 * @param b The b value.
+	 * @return The rgb color closest to the given Oklab values.
+	 */
+	public static int getArgbForOklab(double lightness, double a, double b) {
+		double l = lightness + 0.3963377774 * a + 0.2158037573 * b;
+		double m = lightness - 0.1055613458 * a - 0.0638541728 * b;
+		double s = lightness - 0.0894841775 * a - 1.2914855480 * b;
+		l = l * l * l;
+		m = m * m * m;
+		s = s * s * s;
+		return Color.rgb(linearToSrgb(4.0767416621 * l - 3.3077115913 * m + 0.2309699292 * s),
+						 linearToSrgb(-1.2684380046 * l + 2.6097574011 * m - 0.3413193965 * s),
+						 linearToSrgb(-0.0041960863 * l - 0.7034186147 * m + 1.7076147010 * s));
+	}
+
+	private static final double[] SRGB_TO_LINEAR = new double[256];
+	static {
+		for (int i = 0; i < SRGB_TO_LINEAR.length; i++) {
+			double value = i / 255.;
+			SRGB_TO_LINEAR[i] = value <= 0.04045 ? value / 12.92 : Math.pow((value + 0.055) / 1.055, 2.4);
+		}
+	}
+
+	private static int linearToSrgb(double linear) {
+		double value = linear <= 0.0031308 ? 12.92 * linear : 1.055 * Math.pow(linear, 1. / 2.4) - 0.055;
+		return (int) Math.round(Math.max(0., Math.min(1., value)) * 255);
+	}
+
 	/**
 	 * Calculates the "greyness" of the given RGB color, which is a way
 	 * to measure the distance from the grey colors with red=green=blue.
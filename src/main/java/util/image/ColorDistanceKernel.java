@@ -0,0 +1,271 @@
+package util.image;
+
+/**
+ * The distance function of a color space, fetched once by {@link ColorSpace#getDistanceKernel()} before comparing
+ * many pairs of colors. The built in spaces return instances of a final class per metric, so a loop that calls one
+ * kernel is monomorphic and the JIT can inline the distance. The rgb kernels calculate in integers on the
+ * packed argb values and do not go through the axis extractors of the {@link ColorMetric}.<br>
+ * Besides the distance of colors a kernel gives lower bounds of the distance by a single axis: two colors whose
+ * coordinates on an axis differ are at least {@link #getAxisLowerBound(double, double, int)} apart. Spatial indices
+ * use this to prune by a splitting plane.
+ */
+public abstract class ColorDistanceKernel {
+
+    /**
+     * Returns the distance of the given colors, equal to {@link ColorSpace#getDistance(int, int)}.
+     * @param color1 The first argb color.
+     * @param color2 The second argb color.
+     * @return The distance of the colors.
+     */
+    public abstract double getDistance(int color1, int color2);
+
+    /**
+     * Returns the distance of two colors given by their coordinates, equal to
+     * {@link ColorSpace#getCoordinateDistance(double[], double[])}.
+     * @param coordinates1 The coordinates of the first color.
+     * @param coordinates2 The coordinates of the second color.
+     * @return The distance of the colors.
+     */
+    public abstract double getCoordinateDistance(double[] coordinates1, double[] coordinates2);
+
+    /**
+     * Returns a lower bound of the distance of any two colors whose coordinates on the given axis are the given
+     * values. For the metrics of the built in spaces this is the axis' exact contribution to the distance.
+     * @param value1 The coordinate of the first color on the axis.
+     * @param value2 The coordinate of the second color on the axis.
+     * @param axis The axis.
+     * @return The lower bound, not negative.
+     */
+    public abstract double getAxisLowerBound(double value1, double value2, int axis);
+
+    /**
+     * Returns if {@link #getAxisLowerBound(double, double, int)} is a valid bound. Only then indices that prune by
+     * a single axis like the {@link KDColorTree} find the nearest color.
+     * @return True for the kernels of the built in spaces.
+     */
+    public boolean hasAxisLowerBounds() {
+        return true;
+    }
+
+    /**
+     * Transforms a distance of this kernel to a distance that obeys the triangle inequality, for metric indices like
+     * the {@link VPColorTree}. The transformation keeps the order of distances.
+     * @param distance A distance of this kernel.
+     * @return The metric distance.
+     */
+    public double toMetric(double distance) {
+        return distance;
+    }
+
+    /**
+     * A kernel whose distances are integers, for the rgb spaces.
+     */
+    public abstract static class IntegerKernel extends ColorDistanceKernel {
+
+        /**
+         * Returns the distance of the given colors as an integer.
+         * @param color1 The first argb color.
+         * @param color2 The second argb color.
+         * @return The distance of the colors.
+         */
+        public abstract int getIntDistance(int color1, int color2);
+
+        @Override
+        public final double getDistance(int color1, int color2) {
+            return getIntDistance(color1, color2);
+        }
+    }
+
+    /**
+     * The squared euclidean distance of the rgb(a) channels.
+     */
+    public static final class RgbSquared extends IntegerKernel {
+        public static final RgbSquared INSTANCE_WITH_ALPHA = new RgbSquared(true);
+        public static final RgbSquared INSTANCE_WITHOUT_ALPHA = new RgbSquared(false);
+        private final boolean useAlpha;
+
+        private RgbSquared(boolean useAlpha) {
+            this.useAlpha = useAlpha;
+        }
+
+        @Override
+        public int getIntDistance(int color1, int color2) {
+            int dr = ((color1 >> 16) & 0xFF) - ((color2 >> 16) & 0xFF);
+            int dg = ((color1 >> 8) & 0xFF) - ((color2 >> 8) & 0xFF);
+            int db = (color1 & 0xFF) - (color2 & 0xFF);
+            int distance = dr * dr + dg * dg + db * db;
+            if (useAlpha) {
+                int da = (color1 >>> 24) - (color2 >>> 24);
+                distance += da * da;
+            }
+            return distance;
+        }
+
+        @Override
+        public double getCoordinateDistance(double[] coordinates1, double[] coordinates2) {
+            double distance = 0.;
+            for (int axis = 0; axis < coordinates1.length; axis++) {
+                double diff = coordinates1[axis] - coordinates2[axis];
+                distance += diff * diff;
+            }
+            return distance;
+        }
+
+        @Override
+        public double getAxisLowerBound(double value1, double value2, int axis) {
+            double diff = value1 - value2;
+            return diff * diff;
+        }
+
+        @Override
+        public double toMetric(double distance) {
+            return Math.sqrt(distance); // the euclidean distance obeys the triangle inequality, its square does not
+        }
+    }
+
+    /**
+     * The sum of the absolute differences of the rgb(a) channels.
+     */
+    public static final class RgbAbsolute extends IntegerKernel {
+        public static final RgbAbsolute INSTANCE_WITH_ALPHA = new RgbAbsolute(true);
+        public static final RgbAbsolute INSTANCE_WITHOUT_ALPHA = new RgbAbsolute(false);
+        private final boolean useAlpha;
+
+        private RgbAbsolute(boolean useAlpha) {
+            this.useAlpha = useAlpha;
+        }
+
+        @Override
+        public int getIntDistance(int color1, int color2) {
+            int distance = Math.abs(((color1 >> 16) & 0xFF) - ((color2 >> 16) & 0xFF))
+                    + Math.abs(((color1 >> 8) & 0xFF) - ((color2 >> 8) & 0xFF))
+                    + Math.abs((color1 & 0xFF) - (color2 & 0xFF));
+            if (useAlpha) {
+                distance += Math.abs((color1 >>> 24) - (color2 >>> 24));
+            }
+            return distance;
+        }
+
+        @Override
+        public double getCoordinateDistance(double[] coordinates1, double[] coordinates2) {
+            double distance = 0.;
+            for (int axis = 0; axis < coordinates1.length; axis++) {
+                distance += Math.abs(coordinates1[axis] - coordinates2[axis]);
+            }
+            return distance;
+        }
+
+        @Override
+        public double getAxisLowerBound(double value1, double value2, int axis) {
+            return Math.abs(value1 - value2);
+        }
+    }
+
+    /**
+     * The absolute difference of the brightness.
+     */
+    public static final class Brightness extends ColorDistanceKernel {
+        public static final Brightness INSTANCE_WITH_ALPHA = new Brightness(true);
+        public static final Brightness INSTANCE_WITHOUT_ALPHA = new Brightness(false);
+        private final boolean useAlpha;
+
+        private Brightness(boolean useAlpha) {
+            this.useAlpha = useAlpha;
+        }
+
+        @Override
+        public double getDistance(int color1, int color2) {
+            if (useAlpha) {
+                return Math.abs(ColorAnalysisUtil.getBrightnessWithAlpha(color1)
+                                        - ColorAnalysisUtil.getBrightnessWithAlpha(color2));
+            }
+            return Math.abs(ColorAnalysisUtil.getBrightnessNoAlpha(color1)
+                                    - ColorAnalysisUtil.getBrightnessNoAlpha(color2));
+        }
+
+        @Override
+        public double getCoordinateDistance(double[] coordinates1, double[] coordinates2) {
+            return Math.abs(coordinates1[0] - coordinates2[0]);
+        }
+
+        @Override
+        public double getAxisLowerBound(double value1, double value2, int axis) {
+            return Math.abs(value1 - value2);
+        }
+    }
+
+    /**
+     * The squared euclidean distance in the oklab space, the alpha axis is scaled to [0,1].
+     */
+    public static final class OklabSquared extends ColorDistanceKernel {
+        public static final OklabSquared INSTANCE_WITH_ALPHA = new OklabSquared(true);
+        public static final OklabSquared INSTANCE_WITHOUT_ALPHA = new OklabSquared(false);
+        private final boolean useAlpha;
+
+        private OklabSquared(boolean useAlpha) {
+            this.useAlpha = useAlpha;
+        }
+
+        @Override
+        public double getDistance(int color1, int color2) {
+            double distance = ColorAnalysisUtil.getOklabSquaredDistance(color1, color2);
+            if (useAlpha) {
+                double dAlpha = (Color.alpha(color1) - Color.alpha(color2)) / 255.;
+                distance += dAlpha * dAlpha;
+            }
+            return distance;
+        }
+
+        @Override
+        public double getCoordinateDistance(double[] coordinates1, double[] coordinates2) {
+            double distance = 0.;
+            for (int axis = 0; axis < coordinates1.length; axis++) {
+                double diff = coordinates1[axis] - coordinates2[axis];
+                distance += diff * diff;
+            }
+            return distance;
+        }
+
+        @Override
+        public double getAxisLowerBound(double value1, double value2, int axis) {
+            double diff = value1 - value2;
+            return diff * diff;
+        }
+
+        @Override
+        public double toMetric(double distance) {
+            return Math.sqrt(distance); // the euclidean distance obeys the triangle inequality, its square does not
+        }
+    }
+
+    /**
+     * Delegates to the color space, for spaces without a specialized kernel.
+     */
+    static final class SpaceDelegate extends ColorDistanceKernel {
+        private final ColorSpace space;
+
+        SpaceDelegate(ColorSpace space) {
+            this.space = space;
+        }
+
+        @Override
+        public double getDistance(int color1, int color2) {
+            return space.getDistance(color1, color2);
+        }
+
+        @Override
+        public double getCoordinateDistance(double[] coordinates1, double[] coordinates2) {
+            return space.getCoordinateDistance(coordinates1, coordinates2);
+        }
+
+        @Override
+        public double getAxisLowerBound(double value1, double value2, int axis) {
+            return space.getCoordinateDistance(value1, value2, axis);
+        }
+
+        @Override
+        public boolean hasAxisLowerBounds() {
+            return false; // the metric of the space is unknown, it may not be a sum over the axes
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package util.image;
+
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.function.Predicate;
+
+/**
+ * An index of colorized data that finds the nearest neighbor of a color in a color space.
+ * Each data has an id, its position in the collection the index was made of, which does not change when
+ * other data is removed.
+ */
+public interface ColorIndex<D extends Colorized> {
+
+    /**
+     * Returns an approximated nearest neighbor measured in the color space's metric to the given target coordinates.
+     * @param target The coordinates of the color to search, as given by the index' color space.
+     * @param epsilon The allowed relative error, zero for the exact nearest neighbor.
+     * @param filter Accepts the data that can be returned. If null all data is accepted.
+     * @return An empty optional if the index contains no accepted data, else a well fitting data.
+     */
+    Optional<D> getNearestNeighbor(double[] target, double epsilon, Predicate<? super D> filter);
+
+    /**
+     * Returns an approximated nearest neighbor like {@link #getNearestNeighbor(double[], double, Predicate)} but
+     * skips the data whose ids are set. The index is not modified, so this allows several users of an index
+     * to each hide other data. Hidden data is still visited, so only a part of the data should be hidden.
+     * @param target The coordinates of the color to search, as given by the index' color space.
+     * @param epsilon The allowed relative error, zero for the exact nearest neighbor.
+     * @param hiddenIds The ids of the data that can not be returned.
+     * @return An empty optional if the index contains no data that is not hidden, else a well fitting data.
+     */
+    Optional<D> getNearestNeighbor(double[] target, double epsilon, BitSet hiddenIds);
+
+    default Optional<D> getNearestNeighbor(double[] target, double epsilon) {
+        return getNearestNeighbor(target, epsilon, (Predicate<? super D>) null);
+    }
+
+    /**
+     * Returns the given amount of nearest neighbors measured in the color space's metric to the given target
+     * coordinates.
+     * @param target The coordinates of the color to search, as given by the index' color space.
+     * @param count The maximum amount of neighbors to return.
+     * @return The nearest data, ordered by increasing distance. Contains less elements than wanted only if the
+     * index is smaller.
+     */
+    List<D> getNearestNeighbors(double[] target, int count);
+
+    /**
+     * Removes the given data from the index if present.
+     * @param data The data to remove.
+     * @return true only if data got removed.
+     */
+    boolean removeNode(D data);
+
+    /**
+     * Returns the amount of data in the index.
+     * @return The size.
+     */
+    int size();
+
+    /**
+     * Creates the index that suits the given space: a {@link KDColorTree} if its distance kernel gives valid
+     * lower bounds per axis, else a {@link VPColorTree} that only relies on the triangle inequality.
+     * @param random The random generator for building the index.
+     * @param data The data to index.
+     * @param space The color space.
+     * @return The new index.
+     */
+    static <D extends Colorized> ColorIndex<D> make(Random random, Collection<D> data, ColorSpace space) {
+        if (space.getDistanceKernel().hasAxisLowerBounds()) {
+            return KDColorTree.make(random, data, space);
+        }
+        return VPColorTree.make(random, data, space);
+    }
+}
@@ -0,0 +1,252 @@
+package util.image;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+
+/**
+ * A view of color indices that removes data by hiding it in a bit set of ids, the indices themselves are never
+ * modified. So views can share the indices and {@link #copy()} only copies the bit sets, which takes O(n/64) instead
+ * of building a new index. Hidden data is still visited by lookups, so once more than half of an index' data is hidden
+ * the view builds a private index of the visible data instead (copy on write), shared indices stay untouched.<br>
+ * Data can be inserted too: the view is log structured, it keeps levels of static indices whose sizes shrink at least
+ * by half from the oldest to the newest level. Inserted data starts a new level, which is merged with the levels before
+ * it as long as these are not bigger. So there are O(log(n)) levels that a lookup searches, and each data is merged
+ * into a new index O(log(n)) times, without rebuilding the whole index.<br>
+ * A view is not thread safe, but several threads can look up in it at the same time if it is not changed meanwhile.
+ */
+public class ColorIndexOverlay<D extends Colorized> {
+    private final Random random;
+    private final ColorSpace space;
+    private final ColorDistanceKernel kernel;
+    private List<Level<D>> levels; // the oldest and biggest level first
+    private int size;
+
+    /**
+     * The immutable part of a level that is shared by the views: the index and the ids of equal data.
+     */
+    private static class SharedLevel<D extends Colorized> {
+        private final List<D> data;
+        private final ColorIndex<D> index;
+        private final Map<D, Integer> firstIds; // the first id of data equal to the key
+        private final int[] nextEqualIds; // the next id of equal data or -1
+
+        private SharedLevel(Random random, List<D> data, ColorSpace space) {
+            this.data = Collections.unmodifiableList(data);
+            this.index = ColorIndex.make(random, data, space);
+            firstIds = new HashMap<>(data.size() * 2);
+            nextEqualIds = new int[data.size()];
+            for (int id = data.size() - 1; id >= 0; id--) {
+                Integer next = firstIds.put(data.get(id), id);
+                nextEqualIds[id] = next == null ? -1 : next;
+            }
+        }
+    }
+
+    /**
+     * A shared level and the ids this view hides of it.
+     */
+    private static class Level<D extends Colorized> {
+        private final SharedLevel<D> shared;
+        private final BitSet hiddenIds;
+        private int hiddenCount;
+
+        private Level(SharedLevel<D> shared, BitSet hiddenIds, int hiddenCount) {
+            this.shared = shared;
+            this.hiddenIds = hiddenIds;
+            this.hiddenCount = hiddenCount;
+        }
+
+        private int size() {
+            return shared.data.size() - hiddenCount;
+        }
+
+        private int findVisibleId(D data) {
+            Integer first = shared.firstIds.get(data);
+            int id = first == null ? -1 : first;
+            while (id >= 0 && hiddenIds.get(id)) {
+                id = shared.nextEqualIds[id];
+            }
+            return id;
+        }
+
+        private void addVisibleData(List<D> visible) {
+            List<D> data = shared.data;
+            for (int id = hiddenIds.nextClearBit(0); id < data.size(); id = hiddenIds.nextClearBit(id + 1)) {
+                visible.add(data.get(id));
+            }
+        }
+
+        private Optional<D> getNearestNeighbor(double[] target, double epsilon) {
+            if (hiddenCount == 0) {
+                return shared.index.getNearestNeighbor(target, epsilon);
+            }
+            return shared.index.getNearestNeighbor(target, epsilon, hiddenIds);
+        }
+
+        private Level<D> copy() {
+            return new Level<>(shared, (BitSet) hiddenIds.clone(), hiddenCount);
+        }
+    }
+
+    private ColorIndexOverlay(Random random, ColorSpace space, List<Level<D>> levels) {
+        this.random = random;
+        this.space = space;
+        this.kernel = space.getDistanceKernel();
+        this.levels = levels;
+        for (Level<D> level : levels) {
+            size += level.size();
+        }
+    }
+
+    private Level<D> makeLevel(List<D> data) {
+        return new Level<>(new SharedLevel<>(random, data, space), new BitSet(), 0);
+    }
+
+    /**
+     * Returns an approximated nearest neighbor of the visible data.
+     * @param target The coordinates of the color to search, as given by the color space.
+     * @param epsilon The allowed relative error, zero for the exact nearest neighbor.
+     * @return An empty optional if there is no visible data, else a well fitting data.
+     */
+    public Optional<D> getNearestNeighbor(double[] target, double epsilon) {
+        if (levels.size() == 1) {
+            return levels.get(0).getNearestNeighbor(target, epsilon);
+        }
+        // each level's neighbor is at most (1+epsilon) times that level's best distance away, so the best of them is too
+        D best = null;
+        double bestDistance = Double.POSITIVE_INFINITY;
+        for (Level<D> level : levels) {
+            Optional<D> neighbor = level.getNearestNeighbor(target, epsilon);
+            if (neighbor.isPresent()) {
+                double distance = kernel.getCoordinateDistance(target,
+                                                               space.getCoordinates(neighbor.get().getColor()));
+                if (best == null || distance < bestDistance) {
+                    best = neighbor.get();
+                    bestDistance = distance;
+                }
+            }
+        }
+        return Optional.ofNullable(best);
+    }
+
+    public boolean contains(D data) {
+        for (Level<D> level : levels) {
+            if (level.findVisibleId(data) >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Hides one occurrence of the given data from this view.
+     * @param data The data to hide.
+     * @return true only if visible data got hidden.
+     */
+    public boolean hide(D data) {
+        for (int i = levels.size() - 1; i >= 0; i--) {
+            Level<D> level = levels.get(i);
+            int id = level.findVisibleId(data);
+            if (id >= 0) {
+                level.hiddenIds.set(id);
+                level.hiddenCount++;
+                size--;
+                if (level.hiddenCount * 2 > level.shared.data.size()) {
+                    compact(i);
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void compact(int levelIndex) {
+        List<D> visible = new ArrayList<>(levels.get(levelIndex).size());
+        levels.get(levelIndex).addVisibleData(visible);
+        if (visible.isEmpty() && levels.size() > 1) {
+            levels.remove(levelIndex);
+        } else {
+            levels.set(levelIndex, makeLevel(visible));
+        }
+    }
+
+    /**
+     * Inserts the given data into this view. Takes amortized O(log(n)^2) time for the kd-tree, as the data is merged
+     * into a new index O(log(n)) times. Indices shared with other views stay untouched.
+     * @param data The data to insert.
+     */
+    public void insert(D data) {
+        List<D> merged = new ArrayList<>();
+        merged.add(data);
+        // merge all newest levels that are not bigger than the merged data, so the level sizes keep halving
+        while (!levels.isEmpty() && levels.get(levels.size() - 1).size() <= merged.size()) {
+            Level<D> newest = levels.remove(levels.size() - 1);
+            List<D> newestData = new ArrayList<>(newest.size() + merged.size());
+            newest.addVisibleData(newestData);
+            newestData.addAll(merged);
+            merged = newestData;
+        }
+        levels.add(makeLevel(merged));
+        size++;
+    }
+
+    /**
+     * Returns a new list of the visible data.
+     * @return The visible data.
+     */
+    public List<D> getVisibleData() {
+        List<D> visible = new ArrayList<>(size);
+        for (Level<D> level : levels) {
+            level.addVisibleData(visible);
+        }
+        return visible;
+    }
+
+    /**
+     * Returns the amount of visible data.
+     * @return The size.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Creates a new view that shares the indices and hides the same data as this view.
+     * Hiding or inserting data in either view afterwards does not affect the other one.
+     * @return The copy.
+     */
+    public ColorIndexOverlay<D> copy() {
+        List<Level<D>> copiedLevels = new ArrayList<>(levels.size());
+        for (Level<D> level : levels) {
+            copiedLevels.add(level.copy());
+        }
+        return new ColorIndexOverlay<>(random, space, copiedLevels);
+    }
+
+    @Override
+    public String toString() {
+        return "ColorIndexOverlay(" + size + " in " + levels.size() + " levels)";
+    }
+
+    /**
+     * Creates a new index for the given data and a view of it that hides nothing.
+     * @param random The random generator for building the indices.
+     * @param data The data to index.
+     * @param space The color space.
+     * @return The new view.
+     */
+    public static <D extends Colorized> ColorIndexOverlay<D> make(Random random, Collection<? extends D> data,
+                                                                 ColorSpace space) {
+        ColorIndexOverlay<D> overlay = new ColorIndexOverlay<>(random, space, new ArrayList<>());
+        overlay.levels.add(overlay.makeLevel(new ArrayList<>(data)));
+        overlay.size = data.size();
+        return overlay;
+    }
+}
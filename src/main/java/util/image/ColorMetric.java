@@ -28,8 +28,18 @@ public abstract class ColorMetric {
     abstract double getDistance(int color1, int color2, boolean useAlpha);
     abstract double maxValue(boolean useAlpha);
 
+    /**
+     * Returns the contribution of two color space values on a single axis to the total distance. The total distance
+     * is the sum of the contributions of all axes, so this is consistent with getDistance(int, int, int) if the values
+     * are the ones the color space calculated for the colors.
+     * @param value1 The first value.
+     * @param value2 The second value.
+     * @return The distance contribution of the values.
+     */
+    abstract double getValueDistance(double value1, double value2);
+
     public static List<ColorMetric> makeAll() {
-        List<ColorMetric> list = new ArrayList<>(8);
+        List<ColorMetric> list = new ArrayList<>(9);
         list.add(Euclid2.INSTANCE);
         list.add(Absolute.INSTANCE);
         list.add(Greyness.INSTANCE);
@@ -38,6 +48,7 @@ public abstract class ColorMetric {
         list.add(AbsoluteBlue.INSTANCE);
         list.add(BrightnessWithAlpha.INSTANCE);
         list.add(BrightnessNoAlpha.INSTANCE);
+        list.add(OklabEuclid2.INSTANCE);
         return list;
     }
 
@@ -72,6 +83,12 @@ public abstract class ColorMetric {
             return result;
         }
 
+        @Override
+        double getValueDistance(double value1, double value2) {
+            double diff = value1 - value2;
+            return diff * diff;
+        }
+
         @Override
         public double maxValue(boolean useAlpha) {
             return useAlpha ? GREATEST_VALUE_ALPHA : GREATEST_VALUE_NO_ALPHA;
@@ -107,6 +124,11 @@ public abstract class ColorMetric {
 
         }
 
+        @Override
+        double getValueDistance(double value1, double value2) {
+            return Math.abs(value1 - value2);
+        }
+
         @Override
         public double maxValue(boolean useAlpha) {
             return useAlpha ? GREATEST_VALUE_ALPHA : GREATEST_VALUE_NO_ALPHA;
@@ -132,6 +154,11 @@ public abstract class ColorMetric {
             return getDistance(color1, color2, 0);
         }
 
+        @Override
+        double getValueDistance(double value1, double value2) {
+            return Math.abs(value1 - value2);
+        }
+
         @Override
         public double maxValue(boolean useAlpha) {
             return 1.0;
@@ -159,6 +186,11 @@ public abstract class ColorMetric {
             return getDistance(color1, color2, 0) + (useAlpha ? getDistance(color1, color2, 1): 0);
         }
 
+        @Override
+        double getValueDistance(double value1, double value2) {
+            return Math.abs(value1 - value2);
+        }
+
         @Override
         public double maxValue(boolean useAlpha) {
             return useAlpha ? 255 * 2 : 255;
@@ -187,6 +219,11 @@ public abstract class ColorMetric {
             return getDistance(color1, color2, 0) + (useAlpha ? getDistance(color1, color2, 1): 0);
         }
 
+        @Override
+        double getValueDistance(double value1, double value2) {
+            return Math.abs(value1 - value2);
+        }
+
         @Override
         public double maxValue(boolean useAlpha) {
             return useAlpha ? 255 * 2 : 255;
@@ -214,6 +251,11 @@ public abstract class ColorMetric {
             return getDistance(color1, color2, 0) + (useAlpha ? getDistance(color1, color2, 1): 0);
         }
 
+        @Override
+        double getValueDistance(double value1, double value2) {
+            return Math.abs(value1 - value2);
+        }
+
         @Override
         public double maxValue(boolean useAlpha) {
             return useAlpha ? 255 * 2 : 255;
@@ -239,6 +281,11 @@ public abstract class ColorMetric {
             return getDistance(color1, color2, 0);
         }
 
+        @Override
+        double getValueDistance(double value1, double value2) {
+            return Math.abs(value1 - value2);
+        }
+
         @Override
         public double maxValue(boolean useAlpha) {
             return 1.0;
@@ -264,6 +311,11 @@ public abstract class ColorMetric {
             return getDistance(color1, color2, 0);
         }
 
+        @Override
+        double getValueDistance(double value1, double value2) {
+            return Math.abs(value1 - value2);
+        }
+
         @Override
         public double maxValue(boolean useAlpha) {
             return 1.0;
@@ -275,4 +327,43 @@ public abstract class ColorMetric {
         }
     }
 
+    public static class OklabEuclid2 extends ColorMetric {
+        public static final OklabEuclid2 INSTANCE = new OklabEuclid2();
+        // black and white are the most distant colors
+        private static final double GREATEST_VALUE_NO_ALPHA = 1.;
+        private static final double GREATEST_VALUE_ALPHA = 2.;
+        private OklabEuclid2() {}
+
+        @Override
+        protected double getDistance(int color1, int color2, int axis) {
+            return getValueDistance(ColorSpace.Oklab.getOklabValue(color1, axis),
+                                    ColorSpace.Oklab.getOklabValue(color2, axis));
+        }
+
+        @Override
+        public double getDistance(int color1, int color2, boolean useAlpha) {
+            double result = ColorAnalysisUtil.getOklabSquaredDistance(color1, color2);
+            if (useAlpha) {
+                result += getDistance(color1, color2, 3);
+            }
+            return result;
+        }
+
+        @Override
+        double getValueDistance(double value1, double value2) {
+            double diff = value1 - value2;
+            return diff * diff;
+        }
+
+        @Override
+        public double maxValue(boolean useAlpha) {
+            return useAlpha ? GREATEST_VALUE_ALPHA : GREATEST_VALUE_NO_ALPHA;
+        }
+
+        @Override
+        public String toString() {
+            return "OklabEuclid2";
+        }
+    }
+
 }
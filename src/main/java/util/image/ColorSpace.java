@@ -21,6 +21,50 @@ public abstract class ColorSpace {
         return getMetric().getDistance(color1, color2, axis);
     }
 
+    /**
+     * Returns the kernel that calculates the distances of this space. Loops that compare many colors should fetch
+     * the kernel once instead of calling getDistance(int, int) for each pair.
+     * @return The distance kernel of this space.
+     */
+    public ColorDistanceKernel getDistanceKernel() {
+        return new ColorDistanceKernel.SpaceDelegate(this);
+    }
+
+    /**
+     * Calculates the values of the given color for all axes at once. Lookups that compare one color
+     * against many others should convert all colors once and then work on the coordinates, as converting
+     * can be costly for some spaces.
+     * @param argb The color to convert.
+     * @return The values of the color, one for each axis of this space.
+     */
+    public double[] getCoordinates(int argb) {
+        double[] coordinates = new double[getDimension()];
+        for (int axis = 0; axis < coordinates.length; axis++) {
+            coordinates[axis] = getValue(argb, axis);
+        }
+        return coordinates;
+    }
+
+    /**
+     * Returns the distance of two colors given by their coordinates, see getCoordinates(int). This is
+     * equal to getDistance(int, int) of the original colors.
+     * @param coordinates1 The coordinates of the first color.
+     * @param coordinates2 The coordinates of the second color.
+     * @return The distance of the colors.
+     */
+    public double getCoordinateDistance(double[] coordinates1, double[] coordinates2) {
+        ColorMetric metric = getMetric();
+        double result = 0;
+        for (int axis = 0; axis < coordinates1.length; axis++) {
+            result += metric.getValueDistance(coordinates1[axis], coordinates2[axis]);
+        }
+        return result;
+    }
+
+    public double getCoordinateDistance(double value1, double value2, int axis) {
+        return getMetric().getValueDistance(value1, value2);
+    }
+
     void checkAxis(int axis) {
         if (axis < 0 || axis >= getDimension()) {
             throw new IllegalArgumentException("Illegal axis: " + axis + " for dimension " + getDimension());
@@ -49,6 +93,12 @@ public abstract class ColorSpace {
             return ColorMetric.Absolute.INSTANCE;
         }
 
+        @Override
+        public ColorDistanceKernel getDistanceKernel() {
+            return usesAlpha() ? ColorDistanceKernel.RgbAbsolute.INSTANCE_WITH_ALPHA
+                    : ColorDistanceKernel.RgbAbsolute.INSTANCE_WITHOUT_ALPHA;
+        }
+
         @Override
         public ColorSpace getInstanceByAlpha(boolean useAlpha) {
             if (useAlpha) {
@@ -111,6 +161,12 @@ public abstract class ColorSpace {
             return ColorMetric.Euclid2.INSTANCE;
         }
 
+        @Override
+        public ColorDistanceKernel getDistanceKernel() {
+            return useAlpha ? ColorDistanceKernel.RgbSquared.INSTANCE_WITH_ALPHA
+                    : ColorDistanceKernel.RgbSquared.INSTANCE_WITHOUT_ALPHA;
+        }
+
         @Override
         public ColorSpace getInstanceByAlpha(boolean useAlpha) {
             if (useAlpha) {
@@ -179,6 +235,12 @@ public abstract class ColorSpace {
             return ColorMetric.BrightnessNoAlpha.INSTANCE;
         }
 
+        @Override
+        public ColorDistanceKernel getDistanceKernel() {
+            return useAlpha ? ColorDistanceKernel.Brightness.INSTANCE_WITH_ALPHA
+                    : ColorDistanceKernel.Brightness.INSTANCE_WITHOUT_ALPHA;
+        }
+
         @Override
         public ColorSpace getInstanceByAlpha(boolean useAlpha) {
             if (useAlpha) {
@@ -195,4 +257,94 @@ public abstract class ColorSpace {
             return ColorAnalysisUtil.getArgbForBrightness(values[0]);
         }
     }
+
+    public static class Oklab extends ColorSpace {
+
+        public static final ColorSpace INSTANCE_WITH_ALPHA = new Oklab(true);
+        public static final ColorSpace INSTANCE_WITHOUT_ALPHA = new Oklab(false);
+        private static final double[] MINIMUM = new double[] {0., -0.234, -0.312, 0.};
+        private static final double[] MAXIMUM = new double[] {1., 0.277, 0.199, 1.};
+        private final boolean useAlpha;
+
+        private Oklab(boolean useAlpha) {
+            this.useAlpha = useAlpha;
+        }
+
+        static double getOklabValue(int color, int axis) {
+            if (axis == 3) {
+                return Color.alpha(color) / 255.;
+            }
+            double[] lab = new double[3];
+            ColorAnalysisUtil.getOklab(color, lab);
+            return lab[axis];
+        }
+
+        @Override
+        public double getValue(int color, int axis) {
+            checkAxis(axis);
+            return getOklabValue(color, axis);
+        }
+
+        @Override
+        public double[] getCoordinates(int color) {
+            double[] coordinates = new double[getDimension()];
+            ColorAnalysisUtil.getOklab(color, coordinates);
+            if (useAlpha) {
+                coordinates[3] = Color.alpha(color) / 255.;
+            }
+            return coordinates;
+        }
+
+        @Override
+        public double getMinimum(int axis) {
+            return MINIMUM[axis];
+        }
+
+        @Override
+        public double getMaximum(int axis) {
+            return MAXIMUM[axis];
+        }
+
+        @Override
+        public boolean usesAlpha() {
+            return useAlpha;
+        }
+
+        @Override
+        public int getDimension() {
+            return useAlpha ? 4 : 3;
+        }
+
+        @Override
+        public ColorMetric getMetric() {
+            return ColorMetric.OklabEuclid2.INSTANCE;
+        }
+
+        @Override
+        public ColorDistanceKernel getDistanceKernel() {
+            return useAlpha ? ColorDistanceKernel.OklabSquared.INSTANCE_WITH_ALPHA
+                    : ColorDistanceKernel.OklabSquared.INSTANCE_WITHOUT_ALPHA;
+        }
+
+        @Override
+        public ColorSpace getInstanceByAlpha(boolean useAlpha) {
+            if (useAlpha) {
+                return INSTANCE_WITH_ALPHA;
+            }
+            return INSTANCE_WITHOUT_ALPHA;
+        }
+
+        @Override
+        public int valuesToArgb(double[] values) {
+            if (values == null || values.length != getDimension()) {
+                throw new IllegalArgumentException("Too little values to get argb.");
+            }
+            int rgb = ColorAnalysisUtil.getArgbForOklab(values[0], values[1], values[2]);
+            if (useAlpha) {
+                int alpha = (int) Math.round(Math.max(0., Math.min(1., values[3])) * 255);
+                return Color.argb(alpha, Color.red(rgb), Color.green(rgb), Color.blue(rgb));
+            }
+            return rgb;
+        }
+    }
 }
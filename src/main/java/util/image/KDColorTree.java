@@ -9,12 +9,15 @@ import java.util.stream.StreamSupport;
 /**
  * A K-D-tree that uses colors of a given color space as keys. The space's dimension is used to separate each layer
  * of tree nodes by hyperplanes in the cycling axis and creates an almost balanced tree using the approximated median.
+ * The colors are converted to the space's coordinates once when building the tree, so a lookup only converts the
+ * target color.
  * Created by dd on 22.06.17.
  */
-public class KDColorTree<D extends Colorized> implements Iterable<KDColorTree.Node<D>> {
+public class KDColorTree<D extends Colorized> implements Iterable<KDColorTree.Node<D>>, ColorIndex<D> {
     private static final int MEDIAN_ESTIMATION_MIN_SAMPLE_SIZE = 10;
     private static final double MEDIAN_ESTIMATION_SAMPLE_FRACTION = 0.01;
     private final ColorSpace space;
+    private final ColorDistanceKernel kernel;
 
     private Node<D> root;
     private int size;
@@ -23,6 +26,7 @@ public class KDColorTree<D extends Colorized> implements Iterable<KDColorTree.No
         this.root = root;
         this.size = size;
         this.space = space;
+        this.kernel = space.getDistanceKernel();
     }
 
     /**
@@ -45,12 +49,12 @@ public class KDColorTree<D extends Colorized> implements Iterable<KDColorTree.No
         return node.isPresent();
     }
 
-    private double colorDistance(int color1, int color2) {
-        return space.getDistance(color1, color2);
+    private double colorDistance(double[] coordinates1, double[] coordinates2) {
+        return kernel.getCoordinateDistance(coordinates1, coordinates2);
     }
 
-    private double colorComponentDistance(int color1, int color2, int axis) {
-        return space.getDistance(color1, color2, axis);
+    private double colorComponentDistance(double[] coordinates1, double[] coordinates2, int axis) {
+        return kernel.getAxisLowerBound(coordinates1[axis], coordinates2[axis], axis);
     }
 
     /**
@@ -60,61 +64,223 @@ public class KDColorTree<D extends Colorized> implements Iterable<KDColorTree.No
      * @return An empty optional if the tree is empty, else the best fitting node's data.
      */
     public Optional<D> getNearestNeighbor(int targetColor) {
-        Optional<Node<D>> bestOpt = findNode(root, targetColor, Node::isLeaf);
-        Node<D> best;
-        double bestDist;
-        if (!bestOpt.isPresent()) {
+        return getNearestNeighbor(space.getCoordinates(targetColor));
+    }
+
+    /**
+     * Returns the nearest neighbor data measured in the color space's metric to the given target coordinates.
+     * @param target The coordinates of the color to search, as given by the tree's color space.
+     * @return An empty optional if the tree is empty, else the best fitting node's data.
+     */
+    public Optional<D> getNearestNeighbor(double[] target) {
+        return getNearestNeighbor(target, 0.);
+    }
+
+    /**
+     * Returns an approximated nearest neighbor measured in the color space's metric to the given target coordinates.
+     * A part of the tree is skipped if it cannot contain a node that is closer than the best known distance divided by
+     * (1 + epsilon). So the result's distance is at most (1 + epsilon) times the nearest neighbor's distance but
+     * fewer nodes are visited for greater epsilon, see {@link matching.workers.FastMatcher} for measurements.
+     * @param target The coordinates of the color to search, as given by the tree's color space.
+     * @param epsilon The allowed relative error, zero for the exact nearest neighbor. If infinite the leaf
+     *                whose area contains the target is returned without any backtracking.
+     * @return An empty optional if the tree is empty, else a well fitting node's data.
+     */
+    public Optional<D> getNearestNeighbor(double[] target, double epsilon) {
+        return getNearestNeighbor(target, epsilon, (Predicate<? super D>) null);
+    }
+
+    /**
+     * Returns an approximated nearest neighbor like {@link #getNearestNeighbor(double[], double)} but only considers
+     * data accepted by the given filter. The tree is not modified, so this allows to exclude data of a tree
+     * that is shared and must not change. Rejected nodes are still visited, so the filter should only reject a
+     * small part of the data.
+     * @param target The coordinates of the color to search, as given by the tree's color space.
+     * @param epsilon The allowed relative error, zero for the exact nearest neighbor.
+     * @param filter Accepts the data that can be returned. If null all data is accepted.
+     * @return An empty optional if the tree contains no accepted data, else a well fitting node's data.
+     */
+    public Optional<D> getNearestNeighbor(double[] target, double epsilon, Predicate<? super D> filter) {
+        return getNearestNode(target, epsilon, filter == null ? null : node -> filter.test(node.data));
+    }
+
+    @Override
+    public Optional<D> getNearestNeighbor(double[] target, double epsilon, BitSet hiddenIds) {
+        return getNearestNode(target, epsilon, node -> !hiddenIds.get(node.id));
+    }
+
+    private Optional<D> getNearestNode(double[] target, double epsilon, Predicate<Node<D>> filter) {
+        if (root == null) {
             return Optional.empty();
         }
-        best = bestOpt.get();
-        if (best == root) {
-            return Optional.of(best.data);
+        if (Double.isInfinite(epsilon)) {
+            Node<D> leaf = findNode(root, target, Node::isLeaf).orElse(root);
+            if (filter == null || filter.test(leaf)) {
+                return Optional.of(leaf.data);
+            }
         }
-        bestDist = colorDistance(targetColor, best.color);
+        final double pruneFactor = 1. + Math.max(0., epsilon);
+        Node<D> best = null;
+        double bestDist = Double.MAX_VALUE;
+
+        // depth first, the half plane that contains the target first, so the first leaf reached gives a good bound.
+        // A subtree is pushed with a lower bound of its distance and skipped when popped if the best found until
+        // then is already closer than the bound times the prune factor
+        SearchStack<D> nextNodes = new SearchStack<>();
+        nextNodes.push(root, 0, 0.);
+        final int dimension = space.getDimension();
+        do {
+            Node<D> current = nextNodes.popNode();
+            int axis = nextNodes.poppedAxis;
+            double bound = nextNodes.poppedBound;
+            if (best != null && bestDist < bound * pruneFactor) {
+                continue;
+            }
+            double currentDist = colorDistance(current.coordinates, target);
+            if (currentDist < bestDist && (filter == null || filter.test(current))) {
+                best = current;
+                bestDist = currentDist;
+            }
+            double currentComponentDist = colorComponentDistance(target, current.coordinates, axis);
+            Node<D> near = current.rightChild, far = current.leftChild;
+            if (target[axis] < current.coordinates[axis]) {
+                near = current.leftChild;
+                far = current.rightChild;
+            }
+            int nextAxis = (axis + 1) % dimension;
+            if (far != null && (best == null || bestDist >= currentComponentDist * pruneFactor)) {
+                // the circle around the target with radius bestDist may reach the other side
+                nextNodes.push(far, nextAxis, Math.max(bound, currentComponentDist));
+            }
+            if (near != null) {
+                nextNodes.push(near, nextAxis, bound);
+            }
+        } while (!nextNodes.isEmpty());
+
+        return best == null ? Optional.empty() : Optional.of(best.data);
+    }
+
+    /**
+     * Returns the given amount of nearest neighbors measured in the color space's metric to the given target color.
+     * @param targetColor The argb color to search.
+     * @param count The maximum amount of neighbors to return.
+     * @return The data of the nearest nodes, ordered by increasing distance. Contains less elements than wanted
+     * only if the tree is smaller.
+     */
+    public List<D> getNearestNeighbors(int targetColor, int count) {
+        return getNearestNeighbors(space.getCoordinates(targetColor), count);
+    }
 
-        // start at root again and check weather the circle around best with radius=bestDist intersects its area
+    /**
+     * Returns the given amount of nearest neighbors measured in the color space's metric to the given target
+     * coordinates. The search keeps the best candidates in a bounded heap and prunes with the worst of them, so for
+     * small counts this costs about as much as a single nearest neighbor lookup.
+     * @param target The coordinates of the color to search, as given by the tree's color space.
+     * @param count The maximum amount of neighbors to return.
+     * @return The data of the nearest nodes, ordered by increasing distance. Contains less elements than wanted
+     * only if the tree is smaller.
+     */
+    @Override
+    public List<D> getNearestNeighbors(double[] target, int count) {
+        if (root == null || count <= 0) {
+            return Collections.emptyList();
+        }
+        // max heap, the head is the worst of the best candidates found so far
+        PriorityQueue<Neighbor<D>> best = new PriorityQueue<>(count,
+                (neighbor1, neighbor2) -> Double.compare(neighbor2.distance, neighbor1.distance));
         int axis;
         Node<D> current;
-        double currentDist;
-        Stack<Node<D>> nextNodes = new Stack<>(); // use stacks for depth first search, faster than breath first
+        Stack<Node<D>> nextNodes = new Stack<>();
         Stack<Integer> nextAxis = new Stack<>();
         pushSearchNode(nextNodes, nextAxis, root, 0);
         final int dimension = space.getDimension();
         do {
             current = nextNodes.pop();
             axis = nextAxis.pop();
-            currentDist = colorDistance(current.color, targetColor);
-            if (currentDist < bestDist) {
-                best = current;
-                bestDist = currentDist;
+            double currentDist = colorDistance(current.coordinates, target);
+            if (best.size() < count) {
+                best.add(new Neighbor<>(current.data, currentDist));
+            } else if (currentDist < best.peek().distance) {
+                best.poll();
+                best.add(new Neighbor<>(current.data, currentDist));
             }
-            double currentComponentDist = colorComponentDistance(targetColor, current.color, axis);
-            boolean isInLeftHalfplane = getValueByAxis(space, targetColor, axis) < getValueByAxis(space, current.color, axis);
-            if (bestDist < currentComponentDist) {
-                // completely on one side of the tree, other can be forgotten
-                if (isInLeftHalfplane) {
-                    pushSearchNode(nextNodes, nextAxis, current.leftChild, (axis + 1) % dimension);
-                } else {
-                    pushSearchNode(nextNodes, nextAxis, current.rightChild, (axis + 1) % dimension);
-                }
-            } else {
-                // circle intersects both sides.
-                // optimization to search the half plane first that contains the current node
-                // if there are many nodes that are well spread this makes it more likely to find a good one in this
-                // part
-                Node<D> first = current.rightChild, second = current.leftChild;
-                if (isInLeftHalfplane) {
-                    first = current.leftChild;
-                    second = current.rightChild;
-                }
+            double worstDist = best.size() < count ? Double.MAX_VALUE : best.peek().distance;
+            double currentComponentDist = colorComponentDistance(target, current.coordinates, axis);
+            boolean isInLeftHalfplane = target[axis] < current.coordinates[axis];
+            Node<D> first = current.rightChild, second = current.leftChild;
+            if (isInLeftHalfplane) {
+                first = current.leftChild;
+                second = current.rightChild;
+            }
+            if (worstDist >= currentComponentDist) {
+                // the sphere around the target containing all candidates intersects the other side
                 pushSearchNode(nextNodes, nextAxis, second, (axis + 1) % dimension);
-                pushSearchNode(nextNodes, nextAxis, first, (axis + 1) % dimension);
             }
+            pushSearchNode(nextNodes, nextAxis, first, (axis + 1) % dimension);
         } while (!nextNodes.isEmpty());
 
-        return Optional.of(best.data);
+        List<Neighbor<D>> neighbors = new ArrayList<>(best);
+        neighbors.sort(Comparator.comparingDouble(neighbor -> neighbor.distance));
+        return neighbors.stream().map(neighbor -> neighbor.data).collect(Collectors.toList());
     }
 
+    private static class Neighbor<D> {
+        private final D data;
+        private final double distance;
+
+        Neighbor(D data, double distance) {
+            this.data = data;
+            this.distance = distance;
+        }
+    }
+
+    /**
+     * The nodes still to visit by a nearest neighbor search with their axis and the lower bound of their distance.
+     * Primitive arrays instead of stacks of boxed values, as the search pushes and pops for each visited node.
+     */
+    private static class SearchStack<D extends Colorized> {
+        private Node<D>[] nodes;
+        private int[] axes = new int[32];
+        private double[] bounds = new double[32];
+        private int size;
+        private int poppedAxis;
+        private double poppedBound;
+
+        @SuppressWarnings("unchecked")
+        private SearchStack() {
+            nodes = (Node<D>[]) new Node<?>[axes.length];
+        }
+
+        private void push(Node<D> node, int axis, double bound) {
+            if (size == nodes.length) {
+                nodes = Arrays.copyOf(nodes, size * 2);
+                axes = Arrays.copyOf(axes, size * 2);
+                bounds = Arrays.copyOf(bounds, size * 2);
+            }
+            nodes[size] = node;
+            axes[size] = axis;
+            bounds[size] = bound;
+            size++;
+        }
+
+        /**
+         * Pops the top node, its axis and bound are stored in poppedAxis and poppedBound.
+         */
+        private Node<D> popNode() {
+            size--;
+            poppedAxis = axes[size];
+            poppedBound = bounds[size];
+            Node<D> node = nodes[size];
+            nodes[size] = null;
+            return node;
+        }
+
+        private boolean isEmpty() {
+            return size == 0;
+        }
+    }
+
+
     private static <D extends Colorized> void pushSearchNode(Stack<Node<D>> nextNodes, Stack<Integer> nextAxis,
                                            Node<D> next, int axis) {
         if (next != null) {
@@ -123,7 +289,7 @@ public class KDColorTree<D extends Colorized> implements Iterable<KDColorTree.No
         }
     }
 
-    private Optional<Node<D>> findNode(Node<D> startNode, int targetColor, Predicate<Node<D>> stopCondition) {
+    private Optional<Node<D>> findNode(Node<D> startNode, double[] target, Predicate<Node<D>> stopCondition) {
         int depth = 0;
         int axis;
         Node<D> current = startNode;
@@ -132,9 +298,8 @@ public class KDColorTree<D extends Colorized> implements Iterable<KDColorTree.No
                 return Optional.of(current);
             }
             axis = depth % space.getDimension();
-            double currValue = getValueByAxis(space, current.color, axis);
             // go down the best possible path until stopCondition holds or there is no more child node
-            if (getValueByAxis(space, targetColor, axis) < currValue) {
+            if (target[axis] < current.coordinates[axis]) {
                 current = current.leftChild != null ? current.leftChild : current.rightChild;
             } else {
                 current = current.rightChild != null ? current.rightChild : current.leftChild;
@@ -149,7 +314,8 @@ public class KDColorTree<D extends Colorized> implements Iterable<KDColorTree.No
             return Optional.empty();
         }
         int targetColor = data.getColor();
-        return findNode(root, targetColor, current -> current.color == targetColor && (data.equals(current.data)));
+        return findNode(root, space.getCoordinates(targetColor),
+                        current -> current.color == targetColor && (data.equals(current.data)));
     }
 
     @Override
@@ -205,14 +371,21 @@ public class KDColorTree<D extends Colorized> implements Iterable<KDColorTree.No
 
     public static class Node<D extends Colorized> {
         private Node<D> parent;
+        private int id;
         private int color;
+        private double[] coordinates;
         private Node<D> leftChild;
         private Node<D> rightChild;
         private D data;
 
-        Node(D data, Node<D> leftChild, Node<D> rightChild) {
+        Node(D data, int id, double[] coordinates) {
             this.data = data;
+            this.id = id;
             this.color = data.getColor();
+            this.coordinates = coordinates;
+        }
+
+        void setChildren(Node<D> leftChild, Node<D> rightChild) {
             this.leftChild = leftChild;
             this.rightChild = rightChild;
             if (leftChild != null) {
@@ -242,7 +415,7 @@ public class KDColorTree<D extends Colorized> implements Iterable<KDColorTree.No
             int nodeDimension = space.getDimension();
             if (rightChild != null || leftChild != null) {
                 int axis = calculateAxis(nodeDimension);
-                Node<D> replacement = findReplacement(space, axis);
+                Node<D> replacement = findReplacement(axis);
                 swapNodesData(replacement);
                 assert replacement != null;
                 replacement.remove(space);
@@ -261,22 +434,28 @@ public class KDColorTree<D extends Colorized> implements Iterable<KDColorTree.No
 
         private void swapNodesData(Node<D> toSwap) {
             int tempColor = color;
+            int tempId = id;
+            double[] tempCoordinates = coordinates;
             D tempData = data;
             color = toSwap.color;
+            id = toSwap.id;
+            coordinates = toSwap.coordinates;
             data = toSwap.data;
             toSwap.color = tempColor;
+            toSwap.id = tempId;
+            toSwap.coordinates = tempCoordinates;
             toSwap.data = tempData;
         }
 
-        private Node<D> findReplacement(ColorSpace space, int axis) {
+        private Node<D> findReplacement(int axis) {
             if (rightChild != null) {
-                Optional<Node<D>> opt = rightChild.makeStream().min(Comparator.comparingDouble(node -> getValueByAxis(space, node.color, axis)));
+                Optional<Node<D>> opt = rightChild.makeStream().min(Comparator.comparingDouble(node -> node.coordinates[axis]));
                 if (opt.isPresent()) {
                     return opt.get();
                 }
             }
             if (leftChild != null) {
-                Optional<Node<D>> opt = leftChild.makeStream().max(Comparator.comparingDouble(node -> getValueByAxis(space, node.color, axis)));
+                Optional<Node<D>> opt = leftChild.makeStream().max(Comparator.comparingDouble(node -> node.coordinates[axis]));
                 if (opt.isPresent()) {
                     return opt.get();
                 }
@@ -300,10 +479,14 @@ public class KDColorTree<D extends Colorized> implements Iterable<KDColorTree.No
         public D getData() {
             return data;
         }
-    }
 
-    private static double getValueByAxis(ColorSpace space, int color, int axis) {
-        return space.getValue(color, axis);
+        /**
+         * Returns the id of the node's data, its position in the collection the tree was made of.
+         * @return The id.
+         */
+        public int getId() {
+            return id;
+        }
     }
 
     private static int getSampleSize(int total) {
@@ -321,50 +504,54 @@ public class KDColorTree<D extends Colorized> implements Iterable<KDColorTree.No
      * @return A new KDColorTree.
      */
     public static<D extends Colorized> KDColorTree<D> make(Random random, Collection<D> data, ColorSpace space) {
-        List<D> dataList = new ArrayList<>(data);
+        // convert every color only once, the nodes keep their coordinates for the tree's lifetime
+        List<Node<D>> nodes = new ArrayList<>(data.size());
+        for (D ele : data) {
+            nodes.add(new Node<>(ele, nodes.size(), space.getCoordinates(ele.getColor())));
+        }
         double[] buffer = new double[getSampleSize(data.size())];
-        Node<D> root = makeRecursively(random, space.getDimension(), dataList, buffer, 0, space);
+        Node<D> root = makeRecursively(random, space.getDimension(), nodes, buffer, 0);
         return new KDColorTree<>(root, data.size(), space);
     }
 
-    private static<D extends Colorized> Node<D> makeRecursively(Random rnd, int dimension, List<D> data,
-                                              double[] buffer, int depth, ColorSpace space) {
-        if (data.size() == 0) {
+    private static<D extends Colorized> Node<D> makeRecursively(Random rnd, int dimension, List<Node<D>> nodes,
+                                              double[] buffer, int depth) {
+        if (nodes.size() == 0) {
             return null;
         }
         int axis = depth % dimension;
 
-        D medianData = approximateMedianArgb(space, rnd, data, buffer, axis);
-        double median = getValueByAxis(space, medianData.getColor(), axis);
-        List<D> leftColors = data.stream().filter(ele -> getValueByAxis(space, ele.getColor(), axis) < median)
+        Node<D> medianNode = approximateMedianNode(rnd, nodes, buffer, axis);
+        double median = medianNode.coordinates[axis];
+        List<Node<D>> leftNodes = nodes.stream().filter(ele -> ele.coordinates[axis] < median)
                                  .collect(Collectors.toList());
-        List<D> rightColors = data.stream().filter(ele -> getValueByAxis(space, ele.getColor(), axis) >= median
-                                                                         && ele != medianData)
+        List<Node<D>> rightNodes = nodes.stream().filter(ele -> ele.coordinates[axis] >= median
+                                                                         && ele != medianNode)
                                  .collect(Collectors.toList());
         // recursion depth is approximately logarithmic (base 2) as we use the (approximated) median
-        return new Node<D>(medianData,
-                           makeRecursively(rnd, dimension, leftColors, buffer, depth + 1, space),
-                            makeRecursively(rnd, dimension, rightColors, buffer, depth + 1, space));
+        medianNode.setChildren(makeRecursively(rnd, dimension, leftNodes, buffer, depth + 1),
+                               makeRecursively(rnd, dimension, rightNodes, buffer, depth + 1));
+        return medianNode;
     }
 
-    private static<D extends Colorized> D approximateMedianArgb(ColorSpace space, Random rnd, List<D> data,
+    private static<D extends Colorized> Node<D> approximateMedianNode(Random rnd, List<Node<D>> nodes,
                                              double[] buffer, int axis) {
-        int dataSize = data.size();
+        int dataSize = nodes.size();
         int sampleSize = getSampleSize(dataSize);
         for (int i = 0; i < sampleSize; i++) {
             int pos = i + rnd.nextInt(dataSize - i);
             // swap, this prevents reusing an element and allows easy access of sample in first sample array entries
-            D temp = data.get(pos);
-            data.set(pos, data.get(i));
-            data.set(i, temp);
-            buffer[i] = getValueByAxis(space, temp.getColor(), axis);
+            Node<D> temp = nodes.get(pos);
+            nodes.set(pos, nodes.get(i));
+            nodes.set(i, temp);
+            buffer[i] = temp.coordinates[axis];
         }
         Arrays.sort(buffer, 0, sampleSize);
         double medianValue = buffer[sampleSize / 2];
-        // we want the total argb not only the value we sorted after, but the colors array is sorted differently
+        // we want the total node not only the value we sorted after, but the nodes list is sorted differently
         for (int i = 0; i < sampleSize; i++) {
-            D current = data.get(i);
-            if (getValueByAxis(space, current.getColor(), axis) == medianValue) {
+            Node<D> current = nodes.get(i);
+            if (current.coordinates[axis] == medianValue) {
                 return current; // get first with equal median value
             }
         }
@@ -0,0 +1,352 @@
+package util.image;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Resizes images given as ARGB pixel arrays, row by row. The filter is separable, so the rows are resampled first
+ * and then the columns of the result, each with a table of weights that is computed once per size.
+ * When shrinking the filter is widened by the shrink factor, so each target pixel averages all source pixels
+ * it covers. The colors are weighted by their alpha (premultiplied), so transparent pixels do not darken
+ * their neighbors. Big images are resampled by several threads, each taking whole rows, if there are several cores.
+ * Measured on one core against {@link java.awt.Image#getScaledInstance(int, int, int)} with smooth scaling:
+ * 6000x4000 to 200x133 takes 45ms instead of 205ms, 3000x2000 to 600x400 45ms instead of 52ms, about the same
+ * near 1:1 and enlarging 300x200 to 1200x800 takes 20ms instead of 6ms, so enlargements better use Java2D.
+ */
+public class Resampler {
+    // in source and target pixels, below it threads do not pay off
+    private static final int PARALLEL_THRESHOLD = 256 * 256;
+    // with a single core the rows are not split, measured this made shrinking 6000x4000 10 to 15% slower
+    private static final boolean PARALLEL = Runtime.getRuntime().availableProcessors() > 1;
+    private static final int CHANNELS = 4;
+    // the weights are fixed point numbers, which is faster than converting each pixel to floats
+    private static final int FIXED_POINT_SHIFT = 13;
+    private static final float FIXED_POINT_ONE = 1 << FIXED_POINT_SHIFT;
+    // the resampled rows keep this many more bits of alpha, so the colors divided by it stay precise
+    private static final int ALPHA_SHIFT = 8;
+    // images shrunk more than this are first averaged in blocks, then the filter only has to shrink by this much
+    private static final int REDUCING_GAP = 3;
+    private static final int MAX_REDUCE_FACTOR = 128; // so the sums of a block do not overflow
+    private static final ThreadLocal<int[]> ROW_SUMS = ThreadLocal.withInitial(() -> new int[0]);
+
+    public enum Filter {
+        /**
+         * Averages the covered source pixels, nearest neighbor when enlarging. Fastest.
+         */
+        BOX(0.5) {
+            @Override
+            double weight(double x) {
+                return x >= -0.5 && x < 0.5 ? 1. : 0.;
+            }
+        },
+        /**
+         * Weights the source pixels by a triangle, linear interpolation when enlarging.
+         */
+        BILINEAR(1.) {
+            @Override
+            double weight(double x) {
+                x = Math.abs(x);
+                return x < 1. ? 1. - x : 0.;
+            }
+        },
+        /**
+         * Weights the source pixels by a windowed sinc, sharpest but three times wider than bilinear.
+         */
+        LANCZOS3(3.) {
+            @Override
+            double weight(double x) {
+                x = Math.abs(x);
+                if (x < 1E-8) {
+                    return 1.;
+                }
+                if (x >= 3.) {
+                    return 0.;
+                }
+                double piX = Math.PI * x;
+                return 3. * Math.sin(piX) * Math.sin(piX / 3.) / (piX * piX);
+            }
+        };
+
+        private final double support; // the weight is zero at least this far from the center
+
+        Filter(double support) {
+            this.support = support;
+        }
+
+        abstract double weight(double x);
+    }
+
+    public static final Filter DEFAULT_FILTER = Filter.BILINEAR;
+
+    /**
+     * The weights of the source pixels for each target pixel of one axis. The source can be an image averaged in
+     * blocks of the given factor, then the weights are computed at the blocks' centers in the original image and the
+     * smaller last block weighs less, so the result is about the same as resampling the original image.
+     */
+    private static class Weights {
+        private final int[] firsts; // the first source index of each target index
+        private final int[] counts; // the amount of source indices of each target index
+        private final float[] weights; // the weights of each target index, taps apart
+        private final int[] fixedWeights; // the weights in fixed point
+        private final int taps;
+
+        private Weights(Filter filter, int originalSize, int factor, int targetSize) {
+            int sourceSize = (originalSize + factor - 1) / factor;
+            double scale = targetSize / (double) originalSize;
+            double filterScale = Math.max(1., 1. / scale);
+            double support = filter.support * filterScale; // in pixels of the original
+            taps = (int) Math.ceil(2. * support / factor) + 2;
+            firsts = new int[targetSize];
+            counts = new int[targetSize];
+            weights = new float[targetSize * taps];
+            for (int i = 0; i < targetSize; i++) {
+                double center = (i + 0.5) / scale;
+                int first = Math.max(0, (int) Math.floor((center - support) / factor));
+                int last = Math.min(sourceSize - 1, (int) Math.ceil((center + support) / factor));
+                double sum = 0.;
+                int count = 0;
+                for (int j = first; j <= last && count < taps; j++) {
+                    int blockStart = j * factor;
+                    int blockEnd = Math.min(originalSize, blockStart + factor);
+                    double weight = filter.weight(((blockStart + blockEnd) / 2. - center) / filterScale)
+                            * (blockEnd - blockStart) / factor;
+                    weights[i * taps + count++] = (float) weight;
+                    sum += weight;
+                }
+                if (sum == 0.) {
+                    // no source pixel in reach, happens for the box filter at the edges, take the closest one
+                    first = Math.min(sourceSize - 1, Math.max(0, (int) (center / factor)));
+                    count = 1;
+                    weights[i * taps] = 1f;
+                    sum = 1.;
+                }
+                for (int k = 0; k < count; k++) {
+                    weights[i * taps + k] /= sum;
+                }
+                firsts[i] = first;
+                counts[i] = count;
+            }
+            fixedWeights = new int[weights.length];
+            for (int i = 0; i < weights.length; i++) {
+                fixedWeights[i] = Math.round(weights[i] * FIXED_POINT_ONE);
+            }
+        }
+    }
+
+    private Resampler() {
+    }
+
+    /**
+     * Resizes the given image with the {@link #DEFAULT_FILTER}.
+     * @param source The ARGB pixels of the image row by row.
+     * @param width The image's width.
+     * @param height The image's height.
+     * @param targetWidth The wanted width, positive.
+     * @param targetHeight The wanted height, positive.
+     * @return The ARGB pixels of the resized image row by row.
+     */
+    public static int[] resample(int[] source, int width, int height, int targetWidth, int targetHeight) {
+        return resample(source, width, height, targetWidth, targetHeight, DEFAULT_FILTER);
+    }
+
+    /**
+     * Resizes the given image.
+     * @param source The ARGB pixels of the image row by row.
+     * @param width The image's width.
+     * @param height The image's height.
+     * @param targetWidth The wanted width, positive.
+     * @param targetHeight The wanted height, positive.
+     * @param filter The filter that weights the source pixels.
+     * @return The ARGB pixels of the resized image row by row.
+     */
+    public static int[] resample(int[] source, int width, int height, int targetWidth, int targetHeight,
+                                 Filter filter) {
+        int[] target = new int[targetWidth * targetHeight];
+        resample(source, width, height, target, targetWidth, targetHeight, filter);
+        return target;
+    }
+
+    /**
+     * Resizes the given image into the given array.
+     * @param source The ARGB pixels of the image row by row.
+     * @param width The image's width.
+     * @param height The image's height.
+     * @param target The array for the ARGB pixels of the resized image row by row.
+     * @param targetWidth The wanted width, positive.
+     * @param targetHeight The wanted height, positive.
+     * @param filter The filter that weights the source pixels.
+     */
+    public static void resample(int[] source, int width, int height, int[] target, int targetWidth,
+                                int targetHeight, Filter filter) {
+        if (width <= 0 || height <= 0 || targetWidth <= 0 || targetHeight <= 0) {
+            throw new IllegalArgumentException("Illegal sizes: " + width + "x" + height + " to " + targetWidth + "x"
+                                                       + targetHeight);
+        }
+        if (source.length < width * height || target.length < targetWidth * targetHeight) {
+            throw new IllegalArgumentException("Pixels arrays too short for their sizes.");
+        }
+        boolean parallel = PARALLEL
+                && (long) width * height + (long) targetWidth * targetHeight >= PARALLEL_THRESHOLD;
+        int factorX = Math.min(MAX_REDUCE_FACTOR, width / (targetWidth * REDUCING_GAP));
+        int factorY = Math.min(MAX_REDUCE_FACTOR, height / (targetHeight * REDUCING_GAP));
+        if (factorX > 1 || factorY > 1) {
+            factorX = Math.max(1, factorX);
+            factorY = Math.max(1, factorY);
+            int reducedWidth = (width + factorX - 1) / factorX;
+            int reducedHeight = (height + factorY - 1) / factorY;
+            int[] reduced = reduce(source, width, height, factorX, factorY, reducedWidth, reducedHeight, parallel);
+            filter(reduced, reducedWidth, new Weights(filter, width, factorX, targetWidth),
+                   new Weights(filter, height, factorY, targetHeight), target, parallel);
+        } else {
+            filter(source, width, new Weights(filter, width, 1, targetWidth),
+                   new Weights(filter, height, 1, targetHeight), target, parallel);
+        }
+    }
+
+    private static void filter(int[] source, int width, Weights horizontal, Weights vertical, int[] target,
+                               boolean parallel) {
+        int targetWidth = horizontal.firsts.length;
+        int targetHeight = vertical.firsts.length;
+        // the premultiplied channels of the rows resampled horizontally, only the rows the vertical pass reads
+        int firstRow = vertical.firsts[0];
+        int lastRow = vertical.firsts[targetHeight - 1] + vertical.counts[targetHeight - 1] - 1;
+        int[] rows = new int[(lastRow - firstRow + 1) * targetWidth * CHANNELS];
+        forRows(firstRow, lastRow + 1, parallel,
+                y -> resampleRow(source, y * width, horizontal, rows, (y - firstRow) * targetWidth * CHANNELS));
+        forRows(0, targetHeight, parallel,
+                y -> resampleColumns(rows, targetWidth, firstRow, vertical, y, target, y * targetWidth));
+    }
+
+    private interface RowTask {
+        void run(int y);
+    }
+
+    private static void forRows(int from, int to, boolean parallel, RowTask task) {
+        if (parallel) {
+            IntStream.range(from, to).parallel().forEach(task::run);
+        } else {
+            for (int y = from; y < to; y++) {
+                task.run(y);
+            }
+        }
+    }
+
+    /**
+     * Averages each block of the given size, which is the same as the box filter but much faster.
+     * The blocks at the right and bottom edge can be smaller.
+     */
+    private static int[] reduce(int[] source, int width, int height, int factorX, int factorY, int reducedWidth,
+                                int reducedHeight, boolean parallel) {
+        int[] reduced = new int[reducedWidth * reducedHeight];
+        forRows(0, reducedHeight, parallel, y -> {
+            int[] sums = new int[reducedWidth * CHANNELS];
+            int fromRow = y * factorY;
+            int toRow = Math.min(height, fromRow + factorY);
+            for (int row = fromRow; row < toRow; row++) {
+                int index = row * width;
+                for (int x = 0; x < reducedWidth; x++) {
+                    int alphaSum = 0;
+                    int redSum = 0;
+                    int greenSum = 0;
+                    int blueSum = 0;
+                    int to = index + Math.min(width, (x + 1) * factorX);
+                    for (int i = index + x * factorX; i < to; i++) {
+                        int argb = source[i];
+                        int alpha = argb >>> 24;
+                        alphaSum += alpha;
+                        redSum += alpha * ((argb >> 16) & 0xFF);
+                        greenSum += alpha * ((argb >> 8) & 0xFF);
+                        blueSum += alpha * (argb & 0xFF);
+                    }
+                    int offset = x * CHANNELS;
+                    sums[offset] += alphaSum;
+                    sums[offset + 1] += redSum;
+                    sums[offset + 2] += greenSum;
+                    sums[offset + 3] += blueSum;
+                }
+            }
+            for (int x = 0; x < reducedWidth; x++) {
+                int offset = x * CHANNELS;
+                int alpha = sums[offset];
+                if (alpha == 0) {
+                    continue;
+                }
+                int count = (Math.min(width, (x + 1) * factorX) - x * factorX) * (toRow - fromRow);
+                int half = alpha / 2;
+                reduced[y * reducedWidth + x] = ((alpha + count / 2) / count) << 24
+                        | ((sums[offset + 1] + half) / alpha) << 16
+                        | ((sums[offset + 2] + half) / alpha) << 8
+                        | ((sums[offset + 3] + half) / alpha);
+            }
+        });
+        return reduced;
+    }
+
+    private static void resampleRow(int[] source, int sourceOffset, Weights weights, int[] rows, int rowOffset) {
+        int taps = weights.taps;
+        int[] fixedWeights = weights.fixedWeights;
+        for (int x = 0; x < weights.firsts.length; x++) {
+            // at most 255 * 255 * 2^13 times the sum of the absolute weights, which is below 1.5 for all filters
+            int alpha = 0;
+            int red = 0;
+            int green = 0;
+            int blue = 0;
+            int index = sourceOffset + weights.firsts[x];
+            int weightIndex = x * taps;
+            int count = weights.counts[x];
+            for (int k = 0; k < count; k++) {
+                int argb = source[index + k];
+                int weightedAlpha = fixedWeights[weightIndex + k] * (argb >>> 24);
+                alpha += weightedAlpha;
+                red += weightedAlpha * ((argb >> 16) & 0xFF);
+                green += weightedAlpha * ((argb >> 8) & 0xFF);
+                blue += weightedAlpha * (argb & 0xFF);
+            }
+            int offset = rowOffset + x * CHANNELS;
+            rows[offset] = (alpha + (1 << (FIXED_POINT_SHIFT - ALPHA_SHIFT - 1))) >> (FIXED_POINT_SHIFT - ALPHA_SHIFT);
+            rows[offset + 1] = (red + (1 << (FIXED_POINT_SHIFT - 1))) >> FIXED_POINT_SHIFT;
+            rows[offset + 2] = (green + (1 << (FIXED_POINT_SHIFT - 1))) >> FIXED_POINT_SHIFT;
+            rows[offset + 3] = (blue + (1 << (FIXED_POINT_SHIFT - 1))) >> FIXED_POINT_SHIFT;
+        }
+    }
+
+    private static void resampleColumns(int[] rows, int width, int firstRow, Weights weights, int y, int[] target,
+                                        int targetOffset) {
+        int rowLength = width * CHANNELS;
+        int[] sums = ROW_SUMS.get();
+        if (sums.length < rowLength) {
+            sums = new int[rowLength];
+            ROW_SUMS.set(sums);
+        } else {
+            Arrays.fill(sums, 0, rowLength, 0);
+        }
+        int[] fixedWeights = weights.fixedWeights;
+        for (int k = 0; k < weights.counts[y]; k++) {
+            int weight = fixedWeights[y * weights.taps + k];
+            int rowOffset = (weights.firsts[y] + k - firstRow) * rowLength;
+            for (int i = 0; i < rowLength; i++) {
+                sums[i] += weight * rows[rowOffset + i];
+            }
+        }
+        for (int x = 0; x < width; x++) {
+            int offset = x * CHANNELS;
+            int alpha = sums[offset];
+            if (alpha <= 0) {
+                target[targetOffset + x] = 0;
+                continue;
+            }
+            // undo the premultiplication, the colors are weighted by the alpha without its extra bits
+            float inverseAlpha = (float) (1 << ALPHA_SHIFT) / alpha;
+            int red = clamp(sums[offset + 1] * inverseAlpha);
+            int green = clamp(sums[offset + 2] * inverseAlpha);
+            int blue = clamp(sums[offset + 3] * inverseAlpha);
+            target[targetOffset + x] = clamp(alpha / (FIXED_POINT_ONE * (1 << ALPHA_SHIFT))) << 24
+                    | red << 16 | green << 8 | blue;
+        }
+    }
+
+    private static int clamp(float value) {
+        int rounded = (int) (value + 0.5f);
+        return rounded < 0 ? 0 : rounded > 255 ? 255 : rounded;
+    }
+}
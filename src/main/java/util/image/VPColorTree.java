@@ -0,0 +1,324 @@
+package util.image;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.function.IntPredicate;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+/**
+ * A vantage point tree (see https://en.wikipedia.org/wiki/Vantage-point_tree) of colors. Each node splits the colors
+ * below it by their distance to the node's color, a lookup prunes subtrees only by the triangle inequality. So unlike
+ * the {@link KDColorTree} it finds the nearest neighbor for any metric, also if the metric is not a sum over the
+ * axes. The distances are transformed by {@link ColorDistanceKernel#toMetric(double)} first.<br>
+ * Removed data is only marked, the tree is rebuilt when half of it got removed.
+ */
+public class VPColorTree<D extends Colorized> implements ColorIndex<D> {
+    private final Random random;
+    private final ColorDistanceKernel kernel;
+    private List<D> data;
+    private double[][] coordinates;
+    private int[] ids; // the ids of the data, which stay when the tree is rebuilt
+    private boolean[] removed;
+    private int removedCount;
+    private Map<D, Integer> firstIndex; // the first not removed index of data equal to the key
+    private int[] nextEqualIndex; // the next index of equal data or -1
+    private Node root;
+
+    private static class Node {
+        private final int index;
+        private double radius;
+        private Node inside; // at most radius away from the node's color
+        private Node outside; // at least radius away from the node's color
+
+        private Node(int index) {
+            this.index = index;
+        }
+    }
+
+    private VPColorTree(Random random, List<D> data, ColorSpace space) {
+        this.random = random;
+        this.kernel = space.getDistanceKernel();
+        coordinates = new double[data.size()][];
+        ids = new int[data.size()];
+        for (int i = 0; i < coordinates.length; i++) {
+            coordinates[i] = space.getCoordinates(data.get(i).getColor());
+            ids[i] = i;
+        }
+        build(data);
+    }
+
+    private void build(List<D> data) {
+        this.data = data;
+        int count = data.size();
+        removed = new boolean[count];
+        removedCount = 0;
+        firstIndex = new HashMap<>(count * 2);
+        nextEqualIndex = new int[count];
+        for (int i = count - 1; i >= 0; i--) {
+            Integer next = firstIndex.put(data.get(i), i);
+            nextEqualIndex[i] = next == null ? -1 : next;
+        }
+        int[] indices = new int[count];
+        for (int i = 0; i < count; i++) {
+            indices[i] = i;
+        }
+        root = buildNode(indices, new double[count], 0, count);
+    }
+
+    private double distance(double[] coordinates1, double[] coordinates2) {
+        return kernel.toMetric(kernel.getCoordinateDistance(coordinates1, coordinates2));
+    }
+
+    private Node buildNode(int[] indices, double[] distances, int from, int to) {
+        if (from >= to) {
+            return null;
+        }
+        swap(indices, distances, from, from + random.nextInt(to - from));
+        Node node = new Node(indices[from]);
+        if (to - from == 1) {
+            return node;
+        }
+        double[] vantage = coordinates[node.index];
+        for (int i = from + 1; i < to; i++) {
+            distances[i] = distance(vantage, coordinates[indices[i]]);
+        }
+        int middle = (from + 1 + to) >>> 1;
+        select(indices, distances, from + 1, to - 1, middle);
+        node.radius = distances[middle];
+        node.inside = buildNode(indices, distances, from + 1, middle);
+        node.outside = buildNode(indices, distances, middle, to);
+        return node;
+    }
+
+    private static void swap(int[] indices, double[] distances, int i, int j) {
+        int index = indices[i];
+        indices[i] = indices[j];
+        indices[j] = index;
+        double distance = distances[i];
+        distances[i] = distances[j];
+        distances[j] = distance;
+    }
+
+    /**
+     * Partially sorts by distance so that the given position holds the element that belongs there,
+     * with no greater distances before and no smaller distances after it.
+     */
+    private static void select(int[] indices, double[] distances, int left, int right, int position) {
+        while (right > left) {
+            double pivot = distances[(left + right) >>> 1];
+            int i = left;
+            int j = right;
+            while (i <= j) {
+                while (distances[i] < pivot) {
+                    i++;
+                }
+                while (distances[j] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    swap(indices, distances, i, j);
+                    i++;
+                    j--;
+                }
+            }
+            if (position <= j) {
+                right = j;
+            } else if (position >= i) {
+                left = i;
+            } else {
+                return;
+            }
+        }
+    }
+
+    private class Search {
+        private final double[] target;
+        private final double pruneFactor;
+        private final IntPredicate filter;
+        private int best = -1;
+        private double bestDistance = Double.POSITIVE_INFINITY;
+
+        private Search(double[] target, double epsilon, IntPredicate filter) {
+            this.target = target;
+            this.pruneFactor = 1. + Math.max(0., epsilon);
+            this.filter = filter;
+        }
+
+        private boolean mustVisit(double lowerBound) {
+            // a subtree is skipped if none of its colors can be closer than the best distance divided by pruneFactor
+            return best < 0 || lowerBound * pruneFactor < bestDistance;
+        }
+
+        private void visit(Node node) {
+            if (node == null) {
+                return;
+            }
+            double distance = distance(target, coordinates[node.index]);
+            if (distance < bestDistance && !removed[node.index]
+                    && (filter == null || filter.test(node.index))) {
+                best = node.index;
+                bestDistance = distance;
+            }
+            // by the triangle inequality colors inside are at least distance - radius away, outside radius - distance
+            if (distance < node.radius) {
+                visit(node.inside);
+                if (mustVisit(node.radius - distance)) {
+                    visit(node.outside);
+                }
+            } else {
+                visit(node.outside);
+                if (mustVisit(distance - node.radius)) {
+                    visit(node.inside);
+                }
+            }
+        }
+    }
+
+    private static class Neighbor {
+        private final int index;
+        private final double distance;
+
+        private Neighbor(int index, double distance) {
+            this.index = index;
+            this.distance = distance;
+        }
+    }
+
+    private class NeighborsSearch {
+        private final double[] target;
+        private final int count;
+        // max heap, the head is the worst of the best candidates found so far
+        private final PriorityQueue<Neighbor> best;
+
+        private NeighborsSearch(double[] target, int count) {
+            this.target = target;
+            this.count = count;
+            best = new PriorityQueue<>(count, (neighbor1, neighbor2) -> Double.compare(neighbor2.distance,
+                                                                                        neighbor1.distance));
+        }
+
+        private double getWorstDistance() {
+            return best.size() < count ? Double.POSITIVE_INFINITY : best.peek().distance;
+        }
+
+        private void visit(Node node) {
+            if (node == null) {
+                return;
+            }
+            double distance = distance(target, coordinates[node.index]);
+            if (!removed[node.index] && distance < getWorstDistance()) {
+                if (best.size() == count) {
+                    best.poll();
+                }
+                best.add(new Neighbor(node.index, distance));
+            }
+            // like the nearest neighbor search, but pruned by the worst candidate's distance
+            if (distance < node.radius) {
+                visit(node.inside);
+                if (node.radius - distance < getWorstDistance()) {
+                    visit(node.outside);
+                }
+            } else {
+                visit(node.outside);
+                if (distance - node.radius < getWorstDistance()) {
+                    visit(node.inside);
+                }
+            }
+        }
+    }
+
+    @Override
+    public List<D> getNearestNeighbors(double[] target, int count) {
+        if (count <= 0) {
+            return new ArrayList<>();
+        }
+        NeighborsSearch search = new NeighborsSearch(target, count);
+        search.visit(root);
+        return search.best.stream()
+                          .sorted(Comparator.comparingDouble(neighbor -> neighbor.distance))
+                          .map(neighbor -> data.get(neighbor.index))
+                          .collect(Collectors.toList());
+    }
+
+    @Override
+    public Optional<D> getNearestNeighbor(double[] target, double epsilon, Predicate<? super D> filter) {
+        return getNearest(target, epsilon, filter == null ? null : index -> filter.test(data.get(index)));
+    }
+
+    @Override
+    public Optional<D> getNearestNeighbor(double[] target, double epsilon, BitSet hiddenIds) {
+        return getNearest(target, epsilon, index -> !hiddenIds.get(ids[index]));
+    }
+
+    private Optional<D> getNearest(double[] target, double epsilon, IntPredicate filter) {
+        Search search = new Search(target, epsilon, filter);
+        search.visit(root);
+        return search.best < 0 ? Optional.empty() : Optional.of(data.get(search.best));
+    }
+
+    @Override
+    public boolean removeNode(D data) {
+        Integer index = firstIndex.get(data);
+        if (index == null) {
+            return false;
+        }
+        removed[index] = true;
+        removedCount++;
+        int next = nextEqualIndex[index];
+        if (next < 0) {
+            firstIndex.remove(data);
+        } else {
+            firstIndex.put(data, next);
+        }
+        if (removedCount * 2 > this.data.size()) {
+            rebuild();
+        }
+        return true;
+    }
+
+    private void rebuild() {
+        List<D> remaining = new ArrayList<>(this.data.size() - removedCount);
+        double[][] remainingCoordinates = new double[this.data.size() - removedCount][];
+        int[] remainingIds = new int[remainingCoordinates.length];
+        for (int i = 0; i < removed.length; i++) {
+            if (!removed[i]) {
+                remainingCoordinates[remaining.size()] = coordinates[i];
+                remainingIds[remaining.size()] = ids[i];
+                remaining.add(this.data.get(i));
+            }
+        }
+        coordinates = remainingCoordinates;
+        ids = remainingIds;
+        build(remaining);
+    }
+
+    @Override
+    public int size() {
+        return data.size() - removedCount;
+    }
+
+    @Override
+    public String toString() {
+        return "VPColorTree(" + size() + ")";
+    }
+
+    /**
+     * Creates a new VPColorTree for the given data and color space.
+     * @param random The random generator that chooses the vantage points.
+     * @param data The data to add to the tree.
+     * @param space The space to use.
+     * @return A new tree.
+     */
+    public static <D extends Colorized> VPColorTree<D> make(Random random, Collection<D> data, ColorSpace space) {
+        return new VPColorTree<>(random, new ArrayList<>(data), space);
+    }
+}
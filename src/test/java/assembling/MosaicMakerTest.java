@@ -0,0 +1,142 @@
+package assembling;
+
+import data.export.AbstractBitmapExporter;
+import data.image.AbstractBitmap;
+import data.image.AbstractBitmapFactory;
+import data.image.BitmapSource;
+import data.storage.MosaicTile;
+import matching.MatcherIndexRegistry;
+import matching.MockTile;
+import matching.TileMatcher;
+import matching.workers.SimpleLinearTileMatcher;
+import matching.workers.SortedValueMatcher;
+import org.junit.Test;
+import util.image.ColorSpace;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class MosaicMakerTest {
+
+    private static class ResultExporter extends AbstractBitmapExporter {
+        private final List<AbstractBitmap> results = new ArrayList<>();
+
+        @Override
+        public void exportBitmap(AbstractBitmap toExport) {
+            results.add(toExport);
+        }
+    }
+
+    private static class UniformSource implements BitmapSource<String> {
+        @Override
+        public AbstractBitmap getBitmap(MosaicTile<String> forTile, int requiredWidth, int requiredHeight) {
+            AbstractBitmap bitmap = AbstractBitmapFactory.makeInstance(requiredWidth, requiredHeight).createBitmap();
+            for (int y = 0; y < requiredHeight; y++) {
+                for (int x = 0; x < requiredWidth; x++) {
+                    bitmap.setPixel(x, y, forTile.getAverageARGB());
+                }
+            }
+            return bitmap;
+        }
+    }
+
+    private static List<MosaicTile<String>> makeTiles() {
+        Random rnd = new Random(42);
+        List<MosaicTile<String>> tiles = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            tiles.add(new MockTile("T" + i, 0xFF000000 | rnd.nextInt(), 10, 10));
+        }
+        return tiles;
+    }
+
+    private static AbstractBitmap makeSource(int blue) {
+        AbstractBitmap source = AbstractBitmapFactory.makeInstance(40, 40).createBitmap();
+        for (int y = 0; y < 40; y++) {
+            for (int x = 0; x < 40; x++) {
+                source.setPixel(x, y, 0xFF000000 | (x * 6) << 16 | (y * 6) << 8 | blue);
+            }
+        }
+        return source;
+    }
+
+    private static void buildRect(MosaicMaker<String> maker, ResultExporter exporter) throws Exception {
+        // other colors each time, so the fragments are not answered by the matcher's cache
+        AbstractBitmap source = makeSource(exporter.results.size() * 10);
+        int resultsCount = exporter.results.size();
+        maker.makeRectProject(source, 4, 4, null).build(source);
+        assertEquals(resultsCount + 1, exporter.results.size());
+    }
+
+    @Test
+    public void testChangeColorSpaceDimension() throws Exception {
+        ResultExporter exporter = new ResultExporter();
+        MosaicMaker<String> maker = new MosaicMaker<>(new UniformSource(), ColorSpace.Brightness.INSTANCE_WITHOUT_ALPHA,
+                                                      makeTiles(), exporter);
+        maker.setPrefetchDepth(0);
+        buildRect(maker, exporter);
+        maker.setColorSpace(ColorSpace.RgbEuclid.INSTANCE_WITHOUT_ALPHA);
+        buildRect(maker, exporter);
+        maker.setColorSpace(ColorSpace.Brightness.INSTANCE_WITHOUT_ALPHA);
+        buildRect(maker, exporter);
+    }
+
+    private static long getLookups(TileMatcher<String> matcher) {
+        TileMatcher.CacheStatistics statistics = matcher.getCacheStatistics();
+        return statistics.hits + statistics.misses;
+    }
+
+    @Test
+    public void testSetMatcherKeptWhenDimensionChanges() throws Exception {
+        ResultExporter exporter = new ResultExporter();
+        List<MosaicTile<String>> tiles = makeTiles();
+        MosaicMaker<String> maker = new MosaicMaker<>(new UniformSource(), ColorSpace.RgbEuclid.INSTANCE_WITHOUT_ALPHA,
+                                                      tiles, exporter);
+        maker.setPrefetchDepth(0);
+        TileMatcher<String> matcher = new SimpleLinearTileMatcher<>(tiles, ColorSpace.RgbEuclid.INSTANCE_WITHOUT_ALPHA);
+        maker.setMatcher(matcher);
+        maker.setColorSpace(ColorSpace.Brightness.INSTANCE_WITHOUT_ALPHA);
+        long lookups = getLookups(matcher);
+        buildRect(maker, exporter);
+        assertTrue(getLookups(matcher) > lookups);
+    }
+
+    @Test
+    public void testSetMatcherRejectsColorSpace() throws Exception {
+        ResultExporter exporter = new ResultExporter();
+        List<MosaicTile<String>> tiles = makeTiles();
+        MosaicMaker<String> maker = new MosaicMaker<>(new UniformSource(), ColorSpace.Brightness.INSTANCE_WITHOUT_ALPHA,
+                                                      tiles, exporter);
+        maker.setPrefetchDepth(0);
+        TileMatcher<String> matcher = new SortedValueMatcher<>(tiles, ColorSpace.Brightness.INSTANCE_WITHOUT_ALPHA);
+        maker.setMatcher(matcher);
+        try {
+            maker.setColorSpace(ColorSpace.RgbEuclid.INSTANCE_WITHOUT_ALPHA);
+            fail("One dimensional matcher accepted three dimensions.");
+        } catch (IllegalArgumentException expected) {
+            // the maker keeps matching by brightness
+        }
+        long lookups = getLookups(matcher);
+        buildRect(maker, exporter);
+        assertTrue(getLookups(matcher) > lookups);
+    }
+
+    @Test
+    public void testProjectAfterReleasingMatcher() throws Exception {
+        ResultExporter exporter = new ResultExporter();
+        MatcherIndexRegistry<String> registry = new MatcherIndexRegistry<>();
+        List<MosaicTile<String>> tiles = makeTiles();
+        MosaicMaker<String> maker = new MosaicMaker<>(new UniformSource(), ColorSpace.RgbEuclid.INSTANCE_WITHOUT_ALPHA,
+                                                      tiles, exporter, registry);
+        maker.setPrefetchDepth(0);
+        maker.setMatcher(registry.acquire(tiles, ColorSpace.RgbEuclid.INSTANCE_WITHOUT_ALPHA));
+        buildRect(maker, exporter);
+        maker.releaseMatcher();
+        buildRect(maker, exporter);
+        maker.releaseMatcher();
+        buildRect(maker, exporter);
+        maker.releaseMatcher();
+    }
+}
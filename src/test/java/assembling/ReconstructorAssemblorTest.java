@@ -0,0 +1,113 @@
+package assembling;
+
+import data.image.AbstractBitmap;
+import data.image.AbstractBitmapFactory;
+import data.image.BitmapSource;
+import data.storage.MosaicTile;
+import matching.MockTile;
+import matching.TileMatcher;
+import matching.workers.SimpleLinearTileMatcher;
+import org.junit.Test;
+import reconstruction.MosaicFragment;
+import reconstruction.Reconstructor;
+import util.image.ColorSpace;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class ReconstructorAssemblorTest {
+
+    private static class RecordingSource implements BitmapSource<String> {
+        private final List<String> loaded = new ArrayList<>();
+
+        @Override
+        public AbstractBitmap getBitmap(MosaicTile<String> forTile, int requiredWidth, int requiredHeight) {
+            loaded.add(forTile.getSource());
+            return AbstractBitmapFactory.makeInstance(requiredWidth, requiredHeight).createBitmap();
+        }
+
+        @Override
+        public int getPrefetchDepth() {
+            return 8;
+        }
+    }
+
+    /**
+     * Peeks the upcoming fragments in reversed order, so the matches made ahead come up in another order.
+     */
+    private static class ReversePeekingReconstructor extends Reconstructor {
+        private final List<MosaicFragment> fragments;
+        private int given;
+
+        private ReversePeekingReconstructor(List<MosaicFragment> fragments) {
+            this.fragments = fragments;
+        }
+
+        @Override
+        public boolean giveNext(AbstractBitmap nextFragmentImage) {
+            given++;
+            return true;
+        }
+
+        @Override
+        public MosaicFragment nextFragment() {
+            return hasAll() ? null : fragments.get(given);
+        }
+
+        @Override
+        public List<MosaicFragment> peekFragments(int count) {
+            List<MosaicFragment> peeked = new ArrayList<>();
+            for (int i = fragments.size() - 1; i > given && peeked.size() < count; i--) {
+                peeked.add(fragments.get(i));
+            }
+            return peeked;
+        }
+
+        @Override
+        public boolean hasAll() {
+            return given >= fragments.size();
+        }
+
+        @Override
+        public AbstractBitmap getReconstructed() {
+            return obtainBaseBitmap(1, 1);
+        }
+
+        @Override
+        public int estimatedProgressPercent() {
+            return 100 * given / fragments.size();
+        }
+    }
+
+    @Test
+    public void testMatchesAheadKeptWhenPeekedOutOfOrder() {
+        List<MosaicTile<String>> tiles = new ArrayList<>();
+        List<MosaicFragment> fragments = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            int color = 0xFF000000 | (i * 40) << 16;
+            tiles.add(new MockTile("T" + i, color, 10, 10));
+            fragments.add(new MosaicFragment(4, 4, color));
+        }
+        TileMatcher<String> matcher = new SimpleLinearTileMatcher<>(tiles, ColorSpace.RgbEuclid.INSTANCE_WITHOUT_ALPHA);
+        // each tile once, so a match that was made ahead and dropped would leave a fragment without tile
+        matcher.setTileReuseLimit(TileMatcher.REUSE_NONE);
+        RecordingSource source = new RecordingSource();
+
+        Optional<AbstractBitmap> result = ReconstructorAssemblor.make(matcher, source,
+                                                                      new ReversePeekingReconstructor(fragments),
+                                                                      null);
+        assertTrue(result.isPresent());
+        assertEquals(6, source.loaded.size());
+        Set<String> loaded = new HashSet<>(source.loaded);
+        assertEquals(6, loaded.size());
+        // each fragment got its exactly matching tile
+        for (int i = 0; i < 6; i++) {
+            assertEquals("T" + i, source.loaded.get(i));
+        }
+    }
+}
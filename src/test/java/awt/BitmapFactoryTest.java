@@ -0,0 +1,221 @@
+package awt;
+
+import data.image.AbstractBitmap;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class BitmapFactoryTest {
+    private static final int RED = 0xFFFF0000;
+    private static final int GREEN = 0xFF00FF00;
+    private static final int BLUE = 0xFF0000FF;
+    private static final int WHITE = 0xFFFFFFFF;
+    // the colors of the top left, top right, bottom left and bottom right quarter after applying each orientation
+    // to an image that is red, green, blue and white like this
+    private static final int[][] ORIENTED_QUARTERS = {
+            {RED, GREEN, BLUE, WHITE}, // 1
+            {GREEN, RED, WHITE, BLUE}, // 2, mirrored horizontally
+            {WHITE, BLUE, GREEN, RED}, // 3, rotated by 180 degrees
+            {BLUE, WHITE, RED, GREEN}, // 4, mirrored vertically
+            {RED, BLUE, GREEN, WHITE}, // 5, transposed
+            {BLUE, RED, WHITE, GREEN}, // 6, rotated clockwise
+            {WHITE, GREEN, BLUE, RED}, // 7, transposed along the other diagonal
+            {GREEN, WHITE, RED, BLUE} // 8, rotated counterclockwise
+    };
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Returns the exif data of an APP1 segment with the given tags of type short in the first image file directory.
+     */
+    private static byte[] makeExif(ByteOrder order, int... tagsAndValues) {
+        ByteBuffer buffer = ByteBuffer.allocate(6 + 8 + 2 + tagsAndValues.length / 2 * 12 + 4).order(order);
+        buffer.put(new byte[] {'E', 'x', 'i', 'f', 0, 0});
+        buffer.put(order == ByteOrder.LITTLE_ENDIAN ? new byte[] {'I', 'I'} : new byte[] {'M', 'M'});
+        buffer.putShort((short) 42);
+        buffer.putInt(8); // the directory follows the header
+        buffer.putShort((short) (tagsAndValues.length / 2));
+        for (int i = 0; i < tagsAndValues.length; i += 2) {
+            buffer.putShort((short) tagsAndValues[i]);
+            buffer.putShort((short) 3); // short
+            buffer.putInt(1);
+            buffer.putShort((short) tagsAndValues[i + 1]);
+            buffer.putShort((short) 0);
+        }
+        buffer.putInt(0); // no next directory
+        return buffer.array();
+    }
+
+    private static byte[] makeOrientationExif(ByteOrder order, int orientation) {
+        // another tag first, so the orientation has to be searched
+        return makeExif(order, 0x0100, 32, 0x0112, orientation);
+    }
+
+    private static BufferedImage makeQuarters(int width, int height) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                boolean right = x >= width / 2;
+                boolean bottom = y >= height / 2;
+                image.setRGB(x, y, bottom ? (right ? WHITE : BLUE) : (right ? GREEN : RED));
+            }
+        }
+        return image;
+    }
+
+    /**
+     * Writes the image as a jpeg file with the given exif data in an APP1 segment. Cameras write it right after the
+     * start of image instead of the JFIF APP0 segment, else it follows the APP0 segment.
+     */
+    private File writeJpeg(BufferedImage image, byte[] exif, boolean camera) throws IOException {
+        ByteArrayOutputStream jpeg = new ByteArrayOutputStream();
+        assertTrue(ImageIO.write(image, "jpg", jpeg));
+        byte[] bytes = jpeg.toByteArray();
+        assertEquals(0xE0, bytes[3] & 0xFF); // APP0
+        int app0End = 4 + ((bytes[4] & 0xFF) << 8 | (bytes[5] & 0xFF));
+        ByteArrayOutputStream withExif = new ByteArrayOutputStream();
+        withExif.write(bytes, 0, camera ? 2 : app0End);
+        withExif.write(0xFF);
+        withExif.write(0xE1);
+        withExif.write((exif.length + 2) >> 8);
+        withExif.write((exif.length + 2) & 0xFF);
+        withExif.write(exif);
+        withExif.write(bytes, app0End, bytes.length - app0End);
+        File file = folder.newFile();
+        Files.write(file.toPath(), withExif.toByteArray());
+        return file;
+    }
+
+    private static void assertColor(int expected, int actual) {
+        for (int shift = 0; shift < 24; shift += 8) {
+            int difference = ((expected >> shift) & 0xFF) - ((actual >> shift) & 0xFF);
+            assertTrue(Integer.toHexString(expected) + " but was " + Integer.toHexString(actual),
+                       Math.abs(difference) < 20);
+        }
+    }
+
+    private static void assertQuarters(int[] expected, AbstractBitmap bitmap) {
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        assertColor(expected[0], bitmap.getPixel(width / 4, height / 4));
+        assertColor(expected[1], bitmap.getPixel(width * 3 / 4, height / 4));
+        assertColor(expected[2], bitmap.getPixel(width / 4, height * 3 / 4));
+        assertColor(expected[3], bitmap.getPixel(width * 3 / 4, height * 3 / 4));
+    }
+
+    @Test
+    public void testParseOrientation() {
+        for (ByteOrder order : new ByteOrder[] {ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN}) {
+            for (int orientation = 1; orientation <= 8; orientation++) {
+                assertEquals(orientation, BitmapFactory.parseExifOrientation(makeOrientationExif(order,
+                                                                                                  orientation)));
+            }
+        }
+    }
+
+    @Test
+    public void testParseMalformed() {
+        byte[] valid = makeOrientationExif(ByteOrder.BIG_ENDIAN, 6);
+        assertEquals(-1, BitmapFactory.parseExifOrientation(new byte[0]));
+        assertEquals(-1, BitmapFactory.parseExifOrientation(Arrays.copyOf(valid, 10)));
+        // no orientation tag or one out of range
+        assertEquals(-1, BitmapFactory.parseExifOrientation(makeExif(ByteOrder.BIG_ENDIAN, 0x0100, 32)));
+        assertEquals(-1, BitmapFactory.parseExifOrientation(makeOrientationExif(ByteOrder.LITTLE_ENDIAN, 0)));
+        assertEquals(-1, BitmapFactory.parseExifOrientation(makeOrientationExif(ByteOrder.BIG_ENDIAN, 9)));
+
+        byte[] notExif = valid.clone();
+        notExif[0] = 'X';
+        assertEquals(-1, BitmapFactory.parseExifOrientation(notExif));
+
+        // the directory offset points behind the data or before the header
+        byte[] farDirectory = valid.clone();
+        ByteBuffer.wrap(farDirectory).putInt(10, 1000);
+        assertEquals(-1, BitmapFactory.parseExifOrientation(farDirectory));
+        byte[] negativeDirectory = valid.clone();
+        ByteBuffer.wrap(negativeDirectory).putInt(10, Integer.MIN_VALUE);
+        assertEquals(-1, BitmapFactory.parseExifOrientation(negativeDirectory));
+
+        // the orientation entry is cut off, the directory claims more entries than there are
+        assertEquals(-1, BitmapFactory.parseExifOrientation(Arrays.copyOf(valid, valid.length - 10)));
+        byte[] manyEntries = makeExif(ByteOrder.BIG_ENDIAN, 0x0100, 32);
+        ByteBuffer.wrap(manyEntries).putShort(14, (short) 0xFFFF);
+        assertEquals(-1, BitmapFactory.parseExifOrientation(manyEntries));
+    }
+
+    @Test
+    public void testDecodeOriented() throws IOException {
+        BufferedImage image = makeQuarters(32, 16);
+        for (ByteOrder order : new ByteOrder[] {ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN}) {
+            for (int orientation = 1; orientation <= 8; orientation++) {
+                File file = writeJpeg(image, makeOrientationExif(order, orientation),
+                                      order == ByteOrder.BIG_ENDIAN);
+                AbstractBitmap bitmap = new BitmapFactory(file).createBitmap(16, 16);
+                boolean transposed = orientation >= 5;
+                assertEquals(transposed ? 16 : 32, bitmap.getWidth());
+                assertEquals(transposed ? 32 : 16, bitmap.getHeight());
+                assertQuarters(ORIENTED_QUARTERS[orientation - 1], bitmap);
+
+                // subsampled while stored unrotated, the wanted size is swapped for it, only the fast path subsamples
+                bitmap = new BitmapFactory(file).createBitmap(transposed ? 4 : 8, transposed ? 8 : 4);
+                assertEquals(transposed ? 4 : 8, bitmap.getWidth());
+                assertEquals(transposed ? 8 : 4, bitmap.getHeight());
+            }
+        }
+    }
+
+    @Test
+    public void testDecodeMalformedExif() throws IOException {
+        byte[] exif = makeOrientationExif(ByteOrder.BIG_ENDIAN, 6);
+        ByteBuffer.wrap(exif).putInt(10, 1000);
+        AbstractBitmap bitmap = new BitmapFactory(writeJpeg(makeQuarters(32, 16), exif, true)).createBitmap(8, 4);
+        assertEquals(8, bitmap.getWidth());
+        assertQuarters(ORIENTED_QUARTERS[0], bitmap);
+
+        bitmap = new BitmapFactory(writeJpeg(makeQuarters(32, 16), new byte[] {'E', 'x'}, false))
+                .createBitmap(8, 4);
+        assertEquals(8, bitmap.getWidth());
+        assertQuarters(ORIENTED_QUARTERS[0], bitmap);
+    }
+
+    @Test
+    public void testOrientExactly() {
+        Random rnd = new Random(3);
+        BufferedImage image = new BufferedImage(5, 3, BufferedImage.TYPE_INT_ARGB);
+        for (int y = 0; y < 3; y++) {
+            for (int x = 0; x < 5; x++) {
+                image.setRGB(x, y, rnd.nextInt());
+            }
+        }
+        // each orientation undone by its inverse
+        int[] inverses = {1, 2, 3, 4, 5, 8, 7, 6};
+        for (int orientation = 1; orientation <= 8; orientation++) {
+            BufferedImage oriented = BitmapFactory.orient(image, orientation, BufferedImage.TYPE_INT_ARGB);
+            BufferedImage back = BitmapFactory.orient(oriented, inverses[orientation - 1],
+                                                      BufferedImage.TYPE_INT_ARGB);
+            assertArrayEquals(image.getRGB(0, 0, 5, 3, null, 0, 5), back.getRGB(0, 0, 5, 3, null, 0, 5));
+        }
+        // rotated clockwise the left column becomes the top row
+        BufferedImage rotated = BitmapFactory.orient(image, 6, BufferedImage.TYPE_INT_ARGB);
+        for (int y = 0; y < 3; y++) {
+            assertEquals(image.getRGB(0, y), rotated.getRGB(2 - y, 0));
+        }
+        // into a type that does not store ints, written through the color model
+        BufferedImage converted = BitmapFactory.orient(image, 3, BufferedImage.TYPE_4BYTE_ABGR);
+        assertEquals(BufferedImage.TYPE_4BYTE_ABGR, converted.getType());
+        assertEquals(image.getRGB(4, 2), converted.getRGB(0, 0));
+    }
+}
@@ -0,0 +1,183 @@
+package awt;
+
+import data.image.AbstractBitmap;
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class DirectDataBufferTest {
+
+    private static Bitmap makeRandomBitmap(Random rnd, int width, int height, boolean opaque) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int argb = rnd.nextInt();
+                image.setRGB(x, y, opaque ? argb | 0xFF000000 : argb);
+            }
+        }
+        return new Bitmap(image);
+    }
+
+    private static void assertSamePixels(AbstractBitmap expected, AbstractBitmap actual) {
+        assertEquals(expected.getWidth(), actual.getWidth());
+        assertEquals(expected.getHeight(), actual.getHeight());
+        for (int y = 0; y < expected.getHeight(); y++) {
+            for (int x = 0; x < expected.getWidth(); x++) {
+                assertEquals(expected.getPixel(x, y), actual.getPixel(x, y));
+            }
+        }
+    }
+
+    @Test
+    public void testRoundTrip() {
+        Bitmap heap = makeRandomBitmap(new Random(1), 31, 17, false);
+        Bitmap offHeap = (Bitmap) heap.obtainOffHeapCopy();
+        assertTrue(offHeap.isOffHeap());
+        assertFalse(heap.isOffHeap());
+        assertSamePixels(heap, offHeap);
+
+        int[] pixels = new int[31 * 17];
+        offHeap.getPixels(pixels);
+        assertEquals(heap.getPixel(30, 16), pixels[pixels.length - 1]);
+        assertEquals(heap.getPixel(3, 2), pixels[2 * 31 + 3]);
+
+        offHeap.setPixel(5, 5, 0x80112233);
+        assertEquals(0x80112233, offHeap.getPixel(5, 5));
+
+        // resizing keeps the pixels off the heap
+        AbstractBitmap resized = offHeap.obtainResized(10, 20);
+        offHeap.resize(10, 20);
+        assertTrue(offHeap.isOffHeap());
+        assertSamePixels(resized, offHeap);
+        offHeap.release();
+    }
+
+    @Test
+    public void testEnlargeOffHeap() {
+        // enlarging is done by Java2D, which has to read the off-heap pixels through the buffer
+        Bitmap heap = makeRandomBitmap(new Random(4), 12, 9, true);
+        Bitmap offHeap = (Bitmap) heap.obtainOffHeapCopy();
+        assertSamePixels(heap.obtainResized(36, 20), offHeap.obtainResized(36, 20));
+        offHeap.resize(36, 20);
+        assertTrue(offHeap.isOffHeap());
+        assertSamePixels(heap.obtainResized(36, 20), offHeap);
+        offHeap.release();
+    }
+
+    @Test
+    public void testReleaseRejectsAccess() {
+        Bitmap offHeap = (Bitmap) makeRandomBitmap(new Random(2), 13, 7, true).obtainOffHeapCopy();
+        offHeap.release();
+        try {
+            offHeap.getPixel(0, 0);
+            fail("Read released pixels.");
+        } catch (IllegalStateException expected) {
+            // expected
+        }
+        try {
+            offHeap.getPixels(new int[13 * 7]);
+            fail("Copied released pixels.");
+        } catch (IllegalStateException expected) {
+            // expected
+        }
+        // releasing twice does not give the buffer to the pool twice
+        long pooled = DirectDataBuffer.getPooledBytes();
+        offHeap.release();
+        assertEquals(pooled, DirectDataBuffer.getPooledBytes());
+
+        // releasing a heap bitmap does nothing
+        Bitmap heap = makeRandomBitmap(new Random(2), 13, 7, true);
+        heap.release();
+        assertEquals(pooled, DirectDataBuffer.getPooledBytes());
+        assertEquals(0xFF, heap.getPixel(0, 0) >>> 24);
+    }
+
+    @Test
+    public void testReleasedBufferIsReusedTransparent() {
+        // an unusual size, so no other test pooled a buffer of it
+        int width = 29;
+        int height = 19;
+        Bitmap offHeap = (Bitmap) makeRandomBitmap(new Random(3), width, height, true).obtainOffHeapCopy();
+        long pooled = DirectDataBuffer.getPooledBytes();
+        offHeap.release();
+        assertEquals(pooled + 4L * width * height, DirectDataBuffer.getPooledBytes());
+
+        BufferedImage reused = DirectDataBuffer.makeImage(width, height);
+        assertEquals(pooled, DirectDataBuffer.getPooledBytes());
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                assertEquals(0, reused.getRGB(x, y));
+            }
+        }
+        // another size does not take the pooled buffers
+        Bitmap other = new Bitmap(DirectDataBuffer.makeImage(width + 1, height));
+        other.release();
+        assertEquals(pooled + 4L * (width + 1) * height, DirectDataBuffer.getPooledBytes());
+        DirectDataBuffer.makeImage(width + 1, height);
+        assertEquals(pooled, DirectDataBuffer.getPooledBytes());
+    }
+
+    @Test
+    public void testDrawOntoCanvas() {
+        Random rnd = new Random(4);
+        for (boolean opaque : new boolean[] {true, false}) {
+            Bitmap drawn = makeRandomBitmap(rnd, 23, 11, opaque);
+            drawn.setPixel(0, 0, 0x00FFFFFF); // fully transparent
+            Bitmap offHeap = (Bitmap) drawn.obtainOffHeapCopy();
+            // inside, clipped at the top left and clipped at the bottom right
+            int[][] positions = {{3, 4}, {-5, -2}, {30, 25}};
+            for (int[] position : positions) {
+                Bitmap base = makeRandomBitmap(new Random(5), 40, 30, false);
+                Bitmap expected = makeRandomBitmap(new Random(5), 40, 30, false);
+                drawSourceOver(drawn, 0, 0, 23, 11, expected, position[0], position[1]);
+                drawSourceOver(drawn, 2, 3, 20, 9, expected, position[1], position[0]);
+                Canvas canvas = new Canvas(base);
+                canvas.drawBitmap(offHeap, position[0], position[1]);
+                canvas.drawBitmap(offHeap, position[1], position[0], 2, 3, 20, 9);
+                assertSimilarPixels(expected, canvas.obtainImage());
+            }
+            offHeap.release();
+        }
+    }
+
+    private static void drawSourceOver(AbstractBitmap source, int fromX, int fromY, int toX, int toY,
+                                       AbstractBitmap target, int x, int y) {
+        for (int sourceY = fromY; sourceY < toY; sourceY++) {
+            for (int sourceX = fromX; sourceX < toX; sourceX++) {
+                int targetX = x + sourceX - fromX;
+                int targetY = y + sourceY - fromY;
+                if (targetX < 0 || targetY < 0 || targetX >= target.getWidth() || targetY >= target.getHeight()) {
+                    continue;
+                }
+                int sourceArgb = source.getPixel(sourceX, sourceY);
+                int targetArgb = target.getPixel(targetX, targetY);
+                double sourceAlpha = (sourceArgb >>> 24) / 255.;
+                double targetAlpha = (targetArgb >>> 24) / 255. * (1. - sourceAlpha);
+                double alpha = sourceAlpha + targetAlpha;
+                int result = (int) Math.round(alpha * 255.) << 24;
+                for (int shift = 0; shift <= 16; shift += 8) {
+                    double channel = alpha == 0. ? 0. : (((sourceArgb >> shift) & 0xFF) * sourceAlpha
+                            + ((targetArgb >> shift) & 0xFF) * targetAlpha) / alpha;
+                    result |= (int) Math.round(channel) << shift;
+                }
+                target.setPixel(targetX, targetY, sourceAlpha == 0. ? targetArgb : result);
+            }
+        }
+    }
+
+    private static void assertSimilarPixels(AbstractBitmap expected, AbstractBitmap actual) {
+        for (int y = 0; y < expected.getHeight(); y++) {
+            for (int x = 0; x < expected.getWidth(); x++) {
+                int expectedArgb = expected.getPixel(x, y);
+                int actualArgb = actual.getPixel(x, y);
+                for (int shift = 0; shift <= 24; shift += 8) {
+                    assertEquals("At " + x + "/" + y, (expectedArgb >>> shift) & 0xFF, (actualArgb >>> shift) & 0xFF,
+                                 1);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package data;
+
+import data.image.AbstractBitmap;
+import data.image.AbstractBitmapFactory;
+import data.image.BitmapSource;
+import data.image.ConcurrentBitmapSource;
+import data.storage.MosaicTile;
+import matching.MockTile;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class ConcurrentBitmapSourceTest {
+
+    private static class SlowSource implements BitmapSource<String> {
+        private final AtomicInteger loadsCount = new AtomicInteger();
+        private final CountDownLatch release = new CountDownLatch(1);
+        private final String failing;
+        private final AtomicInteger errorsLeft = new AtomicInteger(); // thrown for the failing tile first
+        private boolean caching;
+        private int releasesCount;
+
+        private SlowSource(String failing) {
+            this.failing = failing;
+        }
+
+        @Override
+        public AbstractBitmap getBitmap(MosaicTile<String> forTile, int requiredWidth, int requiredHeight) {
+            loadsCount.incrementAndGet();
+            try {
+                release.await(10L, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (forTile.getSource().equals(failing)) {
+                if (errorsLeft.getAndDecrement() > 0) {
+                    throw new OutOfMemoryError("Test");
+                }
+                return null;
+            }
+            return AbstractBitmapFactory.makeInstance(requiredWidth, requiredHeight).createBitmap();
+        }
+
+        @Override
+        public void releaseCache() {
+            releasesCount++;
+        }
+
+        @Override
+        public boolean isCaching() {
+            return caching;
+        }
+    }
+
+    @Test
+    public void testSameBitmapLoadedOnce() throws Exception {
+        SlowSource slow = new SlowSource(null);
+        ConcurrentBitmapSource<String> source = new ConcurrentBitmapSource<>(slow);
+        MockTile tile = new MockTile("T", 0xFF00FF00, 10, 10);
+        ExecutorService threads = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<AbstractBitmap>> results = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                results.add(threads.submit(() -> source.getBitmap(tile, 6, 4)));
+            }
+            Thread.sleep(50L);
+            slow.release.countDown();
+            AbstractBitmap first = results.get(0).get();
+            assertNotNull(first);
+            for (Future<AbstractBitmap> result : results) {
+                assertSame(first, result.get());
+            }
+        } finally {
+            threads.shutdown();
+        }
+        assertEquals(1, slow.loadsCount.get());
+        assertEquals(1, source.getLoadsCount());
+        assertEquals(7, source.getSharedCount());
+        assertEquals(6 * 4 * 4, source.getResidentBytes());
+
+        // another size is another bitmap
+        assertEquals(3, source.getBitmap(tile, 3, 3).getWidth());
+        assertEquals(2, slow.loadsCount.get());
+    }
+
+    @Test
+    public void testFailureNotRetried() {
+        SlowSource slow = new SlowSource("F");
+        slow.release.countDown();
+        ConcurrentBitmapSource<String> source = new ConcurrentBitmapSource<>(slow);
+        MockTile tile = new MockTile("F", 0xFF00FF00, 10, 10);
+        assertNull(source.getBitmap(tile, 5, 5));
+        assertNull(source.getBitmap(tile, 5, 5));
+        assertNull(source.getBitmap(tile, 7, 7));
+        assertEquals(1, slow.loadsCount.get());
+        source.clearFailures();
+        assertNull(source.getBitmap(tile, 5, 5));
+        assertEquals(2, slow.loadsCount.get());
+    }
+
+    @Test
+    public void testCacheBounded() {
+        SlowSource slow = new SlowSource(null);
+        slow.release.countDown();
+        long bytes = 4L * 10 * 10;
+        ConcurrentBitmapSource<String> source = new ConcurrentBitmapSource<>(slow, 3 * bytes);
+        MockTile last = null;
+        for (int i = 0; i < 10; i++) {
+            last = new MockTile("T" + i, 0xFF00FF00, 10, 10);
+            assertNotNull(source.getBitmap(last, 10, 10));
+            assertTrue(source.getResidentBytes() <= 3 * bytes);
+        }
+        assertEquals(10, slow.loadsCount.get());
+        // the last one is still cached
+        assertNotNull(source.getBitmap(last, 10, 10));
+        assertEquals(10, slow.loadsCount.get());
+    }
+
+    @Test
+    public void testReleaseCacheClearsFirst() {
+        SlowSource slow = new SlowSource(null);
+        slow.release.countDown();
+        ConcurrentBitmapSource<String> source = new ConcurrentBitmapSource<>(slow);
+        MockTile tile = new MockTile("T", 0xFF00FF00, 10, 10);
+        assertNotNull(source.getBitmap(tile, 5, 5));
+        source.releaseCache();
+        assertEquals(1, slow.releasesCount);
+        assertEquals(0, source.getResidentBytes());
+        // not handed out again after it was released
+        assertNotNull(source.getBitmap(tile, 5, 5));
+        assertEquals(2, slow.loadsCount.get());
+    }
+
+    @Test
+    public void testErrorNotRememberedAsFailure() throws Exception {
+        SlowSource slow = new SlowSource("E");
+        slow.errorsLeft.set(1);
+        ConcurrentBitmapSource<String> source = new ConcurrentBitmapSource<>(slow);
+        MockTile tile = new MockTile("E", 0xFF00FF00, 10, 10);
+        ExecutorService threads = Executors.newFixedThreadPool(2);
+        try {
+            Future<AbstractBitmap> loading = threads.submit(() -> source.getBitmap(tile, 5, 5));
+            Thread.sleep(50L);
+            Future<AbstractBitmap> waiting = threads.submit(() -> source.getBitmap(tile, 5, 5));
+            Thread.sleep(50L);
+            slow.release.countDown();
+            for (Future<AbstractBitmap> result : Arrays.asList(loading, waiting)) {
+                try {
+                    result.get();
+                    fail("Error not thrown.");
+                } catch (ExecutionException e) {
+                    assertTrue(e.getCause() instanceof OutOfMemoryError);
+                }
+            }
+        } finally {
+            threads.shutdown();
+        }
+        assertEquals(1, slow.loadsCount.get());
+        // loaded again, now it fails and that is remembered
+        assertNull(source.getBitmap(tile, 5, 5));
+        assertNull(source.getBitmap(tile, 5, 5));
+        assertEquals(2, slow.loadsCount.get());
+    }
+
+    @Test
+    public void testCaching() {
+        SlowSource slow = new SlowSource(null);
+        assertFalse(new ConcurrentBitmapSource<>(slow, 0L).isCaching());
+        assertTrue(new ConcurrentBitmapSource<>(slow).isCaching());
+        slow.caching = true;
+        assertTrue(new ConcurrentBitmapSource<>(slow, 0L).isCaching());
+    }
+}
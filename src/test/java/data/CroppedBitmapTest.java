@@ -0,0 +1,65 @@
+package data;
+
+import data.image.AbstractBitmap;
+import data.image.AbstractBitmapFactory;
+import data.image.ImageResolution;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class CroppedBitmapTest {
+    private static final int BORDER = 0xFFFF0000;
+    private static final int CENTER = 0xFF0000FF;
+
+    // a wide image whose left and right quarters are red and whose centered square is blue
+    private static AbstractBitmap makeWideImage() {
+        AbstractBitmap bitmap = AbstractBitmapFactory.makeInstance(80, 40).createBitmap();
+        for (int y = 0; y < bitmap.getHeight(); y++) {
+            for (int x = 0; x < bitmap.getWidth(); x++) {
+                bitmap.setPixel(x, y, x < 20 || x >= 60 ? BORDER : CENTER);
+            }
+        }
+        return bitmap;
+    }
+
+    private static void assertOnlyCenter(AbstractBitmap bitmap) {
+        for (int y = 0; y < bitmap.getHeight(); y++) {
+            for (int x = 0; x < bitmap.getWidth(); x++) {
+                assertEquals(CENTER, bitmap.getPixel(x, y));
+            }
+        }
+    }
+
+    @Test
+    public void testCroppedToFit() {
+        AbstractBitmap image = makeWideImage();
+        AbstractBitmap cropped = image.obtainCroppedToFit(ImageResolution.SQUARE);
+        assertEquals(40, cropped.getWidth());
+        assertEquals(40, cropped.getHeight());
+        assertOnlyCenter(cropped);
+        assertSame(image, image.obtainCroppedToFit(new ImageResolution(2, 1)));
+    }
+
+    @Test
+    public void testDecodesOnlyRegion() throws IOException {
+        File file = File.createTempFile("cropped", ".png");
+        try {
+            assertTrue(makeWideImage().saveToFile(file));
+            AbstractBitmap cropped = AbstractBitmapFactory.makeInstance(file).createCroppedBitmap(10, 10);
+            // subsampled by 4 from the 40x40 region
+            assertEquals(10, cropped.getWidth());
+            assertEquals(10, cropped.getHeight());
+            assertOnlyCenter(cropped);
+
+            cropped = AbstractBitmapFactory.makeInstance(file).createCroppedBitmap(100, 100);
+            assertEquals(40, cropped.getWidth());
+            assertEquals(40, cropped.getHeight());
+            assertOnlyCenter(cropped);
+        } finally {
+            assertTrue(file.delete());
+        }
+    }
+}
@@ -20,4 +20,16 @@ public class ImageResolutionTest {
     void test16To9Resolution() {
         assertEquals(new ImageResolution(16, 9), new ImageResolution(96, 54));
     }
+
+    @Test
+    void testFittingRegion() {
+        ImageResolution square = ImageResolution.SQUARE;
+        assertEquals(30, square.getFittingWidth(40, 30));
+        assertEquals(30, square.getFittingHeight(40, 30));
+        ImageResolution wide = new ImageResolution(16, 9);
+        assertEquals(160, wide.getFittingWidth(160, 120));
+        assertEquals(90, wide.getFittingHeight(160, 120));
+        assertEquals(96, wide.getFittingWidth(96, 54));
+        assertEquals(54, wide.getFittingHeight(96, 54));
+    }
 }
@@ -0,0 +1,112 @@
+package data;
+
+import data.image.AbstractBitmap;
+import data.image.AbstractBitmapFactory;
+import data.image.BitmapSource;
+import data.image.PrefetchingBitmapSource;
+import data.storage.MosaicTile;
+import matching.MockTile;
+import org.junit.Test;
+import util.ProgressCallback;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class PrefetchingBitmapSourceTest {
+
+    private static class CountingSource implements BitmapSource<String> {
+        private final AtomicInteger loadsCount = new AtomicInteger();
+
+        @Override
+        public AbstractBitmap getBitmap(MosaicTile<String> forTile, int requiredWidth, int requiredHeight) {
+            loadsCount.incrementAndGet();
+            return AbstractBitmapFactory.makeInstance(requiredWidth, requiredHeight).createBitmap();
+        }
+    }
+
+    private static ProgressCallback makeCallback(AtomicBoolean cancelled) {
+        return new ProgressCallback() {
+            @Override
+            public boolean isCancelled() {
+                return cancelled.get();
+            }
+
+            @Override
+            public void onProgressUpdate(int progress) {
+            }
+        };
+    }
+
+    @Test
+    public void testPrefetchedBitmapIsLoadedOnce() {
+        CountingSource counting = new CountingSource();
+        PrefetchingBitmapSource<String> source = new PrefetchingBitmapSource<>(counting, 4, 2, null);
+        assertEquals(4, source.getPrefetchDepth());
+        MockTile tile = new MockTile("T", 0xFF00FF00, 10, 10);
+        source.prefetch(tile, 6, 4);
+        source.prefetch(tile, 6, 4);
+        AbstractBitmap bitmap = source.getBitmap(tile, 6, 4);
+        assertEquals(6, bitmap.getWidth());
+        assertEquals(4, bitmap.getHeight());
+        assertEquals(1, counting.loadsCount.get());
+
+        // not announced in this size, so loaded directly
+        bitmap = source.getBitmap(tile, 3, 3);
+        assertEquals(3, bitmap.getWidth());
+        assertEquals(2, counting.loadsCount.get());
+    }
+
+    @Test
+    public void testDepthDropsEldest() {
+        CountingSource counting = new CountingSource();
+        PrefetchingBitmapSource<String> source = new PrefetchingBitmapSource<>(counting, 2, 1, null);
+        for (int i = 0; i < 10; i++) {
+            source.prefetch(new MockTile("T" + i, 0xFF00FF00, 10, 10), 5, 5);
+        }
+        for (int i = 0; i < 10; i++) {
+            assertNotNull(source.getBitmap(new MockTile("T" + i, 0xFF00FF00, 10, 10), 5, 5));
+        }
+        // each tile is loaded at most twice: once ahead before it was dropped and once when requested
+        assertTrue(counting.loadsCount.get() >= 10);
+        assertTrue(counting.loadsCount.get() <= 20);
+    }
+
+    @Test
+    public void testCancelledLoadsDirectly() {
+        CountingSource counting = new CountingSource();
+        AtomicBoolean cancelled = new AtomicBoolean(true);
+        PrefetchingBitmapSource<String> source = new PrefetchingBitmapSource<>(counting, 4, 2,
+                                                                               makeCallback(cancelled));
+        MockTile tile = new MockTile("T", 0xFF00FF00, 10, 10);
+        source.prefetch(tile, 5, 5);
+        assertEquals(0, counting.loadsCount.get());
+        assertNotNull(source.getBitmap(tile, 5, 5));
+        assertEquals(1, counting.loadsCount.get());
+    }
+
+    @Test
+    public void testSharedLoaders() throws InterruptedException {
+        ExecutorService loaders = PrefetchingBitmapSource.makeLoaders(2);
+        CountingSource counting = new CountingSource();
+        PrefetchingBitmapSource<String> first = new PrefetchingBitmapSource<>(counting, 4, loaders, null);
+        PrefetchingBitmapSource<String> second = new PrefetchingBitmapSource<>(counting, 4, loaders, null);
+        MockTile tile = new MockTile("T", 0xFF00FF00, 10, 10);
+        first.prefetch(tile, 5, 5);
+        second.prefetch(tile, 6, 6);
+        assertNotNull(first.getBitmap(tile, 5, 5));
+        assertNotNull(second.getBitmap(tile, 6, 6));
+        assertEquals(2, counting.loadsCount.get());
+
+        // shut down by their owner, the sources load when requested
+        loaders.shutdown();
+        assertTrue(loaders.awaitTermination(10L, TimeUnit.SECONDS));
+        first.prefetch(tile, 7, 7);
+        assertEquals(2, counting.loadsCount.get());
+        assertNotNull(first.getBitmap(tile, 7, 7));
+        assertEquals(3, counting.loadsCount.get());
+    }
+}
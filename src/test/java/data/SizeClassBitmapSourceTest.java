@@ -0,0 +1,62 @@
+package data;
+
+import data.image.AbstractBitmap;
+import data.image.AbstractBitmapFactory;
+import data.image.BitmapSource;
+import data.image.SizeClassBitmapSource;
+import data.storage.MosaicTile;
+import matching.MockTile;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class SizeClassBitmapSourceTest {
+
+    private static class RecordingSource implements BitmapSource<String> {
+        private final Set<String> requestedSizes = new HashSet<>();
+
+        @Override
+        public AbstractBitmap getBitmap(MosaicTile<String> forTile, int requiredWidth, int requiredHeight) {
+            requestedSizes.add(requiredWidth + "x" + requiredHeight);
+            AbstractBitmap bitmap = AbstractBitmapFactory.makeInstance(requiredWidth, requiredHeight).createBitmap();
+            // marks the pixel left of the center, to check the cropped region is centered
+            bitmap.setPixel((requiredWidth - 1) / 2, requiredHeight / 2, 0xFFFF0000);
+            return bitmap;
+        }
+    }
+
+    @Test
+    public void testSizeClasses() {
+        for (int size = 1; size <= 16; size++) {
+            assertEquals(size, SizeClassBitmapSource.getSizeClass(size));
+        }
+        assertEquals(18, SizeClassBitmapSource.getSizeClass(17));
+        assertEquals(32, SizeClassBitmapSource.getSizeClass(32));
+        assertEquals(104, SizeClassBitmapSource.getSizeClass(97));
+        for (int size = 1; size < 5000; size++) {
+            int sizeClass = SizeClassBitmapSource.getSizeClass(size);
+            assertTrue(sizeClass >= size);
+            assertTrue(sizeClass - size <= size / 8);
+        }
+    }
+
+    @Test
+    public void testSizesShareClass() {
+        RecordingSource recording = new RecordingSource();
+        SizeClassBitmapSource<String> source = new SizeClassBitmapSource<>(recording);
+        MockTile tile = new MockTile("T", 0xFF00FF00, 10, 10);
+        for (int width = 97; width <= 104; width++) {
+            AbstractBitmap bitmap = source.getBitmap(tile, width, 51);
+            assertEquals(width, bitmap.getWidth());
+            assertEquals(51, bitmap.getHeight());
+        }
+        assertEquals(1, recording.requestedSizes.size());
+        assertTrue(recording.requestedSizes.contains("104x52"));
+
+        AbstractBitmap cropped = source.getBitmap(tile, 102, 52);
+        assertEquals(0xFFFF0000, cropped.getPixel(50, 26));
+    }
+}
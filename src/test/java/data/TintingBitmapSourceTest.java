@@ -0,0 +1,67 @@
+package data;
+
+import data.image.AbstractBitmap;
+import data.image.AbstractBitmapFactory;
+import data.image.BitmapSource;
+import data.image.TintingBitmapSource;
+import data.storage.MosaicTile;
+import matching.MockTile;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class TintingBitmapSourceTest {
+
+    private static class UniformSource implements BitmapSource<String> {
+        private final AtomicInteger loadsCount = new AtomicInteger();
+
+        @Override
+        public AbstractBitmap getBitmap(MosaicTile<String> forTile, int requiredWidth, int requiredHeight) {
+            loadsCount.incrementAndGet();
+            AbstractBitmap bitmap = AbstractBitmapFactory.makeInstance(requiredWidth, requiredHeight).createBitmap();
+            for (int y = 0; y < requiredHeight; y++) {
+                for (int x = 0; x < requiredWidth; x++) {
+                    bitmap.setPixel(x, y, forTile.getAverageARGB());
+                }
+            }
+            return bitmap;
+        }
+    }
+
+    @Test
+    public void testBlendsTowardFragment() {
+        UniformSource uniform = new UniformSource();
+        TintingBitmapSource<String> source = new TintingBitmapSource<>(uniform, 0.5);
+        MockTile tile = new MockTile("T", 0x80000000, 10, 10);
+        AbstractBitmap tinted = source.getBitmap(tile, 4, 3, 0xFFFFFFFF);
+        assertEquals(4, tinted.getWidth());
+        assertEquals(3, tinted.getHeight());
+        // halfway to the quantized tint 252, the alpha is kept
+        assertEquals(0x807E7E7E, tinted.getPixel(2, 1));
+
+        // without the fragment's color it is not tinted
+        assertEquals(0x80000000, source.getBitmap(tile, 4, 3).getPixel(0, 0));
+    }
+
+    @Test
+    public void testSimilarTintsCached() {
+        UniformSource uniform = new UniformSource();
+        TintingBitmapSource<String> source = new TintingBitmapSource<>(uniform, 0.3);
+        MockTile tile = new MockTile("T", 0xFF102030, 10, 10);
+        AbstractBitmap tinted = source.getBitmap(tile, 5, 5, 0xFFA0B0C0);
+        assertSame(tinted, source.getBitmap(tile, 5, 5, 0xFFA1B2C3));
+        assertEquals(1, uniform.loadsCount.get());
+        assertEquals(1, source.getCacheHitsCount());
+        assertNotSame(tinted, source.getBitmap(tile, 5, 5, 0xFF00B0C0));
+        assertEquals(2, uniform.loadsCount.get());
+    }
+
+    @Test
+    public void testZeroStrengthUntinted() {
+        TintingBitmapSource<String> source = new TintingBitmapSource<>(new UniformSource(), 0.);
+        MockTile tile = new MockTile("T", 0xFF102030, 10, 10);
+        assertEquals(0xFF102030, source.getBitmap(tile, 2, 2, 0xFFFFFFFF).getPixel(1, 1));
+    }
+}
@@ -0,0 +1,97 @@
+package matching;
+
+import data.storage.MosaicTile;
+import matching.workers.FastMatcher;
+import matching.workers.SimpleLinearTileMatcher;
+import org.junit.Test;
+import reconstruction.MosaicFragment;
+import util.image.Color;
+import util.image.ColorSpace;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class ConcurrentTileMatcherTest {
+    private static final int THREADS = 4;
+
+    private static List<MosaicTile<String>> makeTiles(Random rnd, int count) {
+        List<MosaicTile<String>> tiles = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            tiles.add(new MockTile("S" + i, Color.rgb(rnd.nextInt(256), rnd.nextInt(256), rnd.nextInt(256)), 5, 5));
+        }
+        return tiles;
+    }
+
+    private static void runInThreads(Runnable task) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < THREADS; i++) {
+                futures.add(executor.submit(task));
+            }
+            for (Future<?> future : futures) {
+                future.get(); // rethrows assertion errors of the task
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testSharedMatcherEqualsLinear() throws Exception {
+        ColorSpace space = ColorSpace.RgbEuclid.INSTANCE_WITHOUT_ALPHA;
+        List<MosaicTile<String>> tiles = makeTiles(new Random(1337), 1000);
+        TileMatcher<String> shared = new FastMatcher<>(tiles, space);
+        TileMatcher<String> linear = new SimpleLinearTileMatcher<>(tiles, space);
+        AtomicInteger seed = new AtomicInteger();
+        runInThreads(() -> {
+            Random rnd = new Random(seed.incrementAndGet());
+            for (int i = 0; i < 2000; i++) {
+                int color = Color.rgb(rnd.nextInt(64) * 4, rnd.nextInt(64) * 4, rnd.nextInt(64) * 4);
+                MosaicFragment fragment = new MosaicFragment(5, 5, color);
+                Optional<? extends MosaicTile<String>> match = shared.getBestMatch(fragment);
+                Optional<? extends MosaicTile<String>> expected;
+                synchronized (linear) {
+                    expected = linear.calculateBestMatch(fragment);
+                }
+                assertTrue(match.isPresent());
+                assertEquals(space.getDistance(expected.get().getAverageARGB(), color),
+                             space.getDistance(match.get().getAverageARGB(), color), 1E-6);
+            }
+        });
+        assertEquals(1000, shared.getUsedTilesCount());
+    }
+
+    @Test
+    public void testReuseLimitHoldsForAllThreads() throws Exception {
+        final int reuseLimit = 2;
+        List<MosaicTile<String>> tiles = makeTiles(new Random(42), 200);
+        TileMatcher<String> shared = new FastMatcher<>(tiles, ColorSpace.RgbEuclid.INSTANCE_WITHOUT_ALPHA);
+        shared.setTileReuseLimit(reuseLimit);
+        Map<String, AtomicInteger> uses = new ConcurrentHashMap<>();
+        AtomicInteger seed = new AtomicInteger();
+        runInThreads(() -> {
+            Random rnd = new Random(seed.incrementAndGet());
+            for (int i = 0; i < 100; i++) {
+                int color = Color.rgb(rnd.nextInt(8) * 32, rnd.nextInt(8) * 32, rnd.nextInt(8) * 32);
+                Optional<? extends MosaicTile<String>> match = shared.getBestMatch(new MosaicFragment(5, 5, color));
+                assertTrue(match.isPresent());
+                uses.computeIfAbsent(match.get().getSource(), key -> new AtomicInteger()).incrementAndGet();
+            }
+        });
+        assertEquals(THREADS * 100, uses.values().stream().mapToInt(AtomicInteger::get).sum());
+        for (AtomicInteger count : uses.values()) {
+            assertTrue(count.get() <= reuseLimit + 1);
+        }
+    }
+}
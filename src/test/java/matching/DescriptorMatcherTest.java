@@ -0,0 +1,97 @@
+package matching;
+
+import data.storage.MosaicTile;
+import matching.workers.DescriptorMatcher;
+import org.junit.Test;
+import reconstruction.DescribedFragment;
+import reconstruction.MosaicFragment;
+import util.image.Color;
+import util.image.ColorSpace;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class DescriptorMatcherTest {
+    private static final int GRID_SIZE = 2;
+
+    private static int[] randomCells(Random rnd) {
+        int[] cells = new int[GRID_SIZE * GRID_SIZE];
+        int base = rnd.nextInt(200);
+        for (int i = 0; i < cells.length; i++) {
+            // correlated cells as in real images
+            cells[i] = Color.rgb(base + rnd.nextInt(56), base + rnd.nextInt(56), rnd.nextInt(256));
+        }
+        return cells;
+    }
+
+    private static double descriptorDistance(ColorSpace space, int[] cells1, int[] cells2) {
+        double distance = 0.;
+        for (int i = 0; i < cells1.length; i++) {
+            distance += space.getDistance(cells1[i], cells2[i]);
+        }
+        return distance;
+    }
+
+    @Test
+    public void testStructureBeatsUniformTile() {
+        int dark = Color.rgb(20, 20, 20);
+        int bright = Color.rgb(220, 220, 220);
+        int grey = Color.rgb(120, 120, 120);
+        MosaicTile<String> uniform = new MockTile("uniform", grey, 5, 5);
+        MosaicTile<String> split = new MockTile("split", grey, 5, 5);
+        Map<MosaicTile<String>, int[]> descriptors = new HashMap<>();
+        descriptors.put(split, new int[] {dark, bright, dark, bright});
+        List<MosaicTile<String>> tiles = Arrays.asList(uniform, split);
+
+        DescriptorMatcher<String> matcher = new DescriptorMatcher<>(tiles, ColorSpace.RgbEuclid.INSTANCE_WITHOUT_ALPHA,
+                                                                    GRID_SIZE, descriptors::get);
+        assertEquals(2, matcher.getUsedTilesCount());
+        MosaicFragment leftDark = new DescribedFragment(5, 5, grey, GRID_SIZE, new int[] {dark, bright, dark, bright});
+        assertSame(split, matcher.getBestMatch(leftDark).get());
+        // without a descriptor the fragment is uniform
+        assertSame(uniform, matcher.getBestMatch(new MosaicFragment(5, 5, grey)).get());
+
+        assertTrue(matcher.removeTile(split));
+        assertFalse(matcher.removeTile(split));
+        assertSame(uniform, matcher.getBestMatch(leftDark).get());
+        assertTrue(matcher.removeTile(uniform));
+        assertFalse(matcher.getBestMatch(leftDark).isPresent());
+    }
+
+    @Test
+    public void testExactForSeparableMetrics() {
+        Random rnd = new Random(1337);
+        List<MosaicTile<String>> tiles = new ArrayList<>();
+        Map<MosaicTile<String>, int[]> descriptors = new HashMap<>();
+        for (int i = 0; i < 3000; i++) {
+            int[] cells = randomCells(rnd);
+            MosaicTile<String> tile = new MockTile("S" + i, cells[0], 5, 5);
+            tiles.add(tile);
+            descriptors.put(tile, cells);
+        }
+        for (ColorSpace space : Arrays.asList(ColorSpace.RgbEuclid.INSTANCE_WITHOUT_ALPHA,
+                                              ColorSpace.RgbAbsolute.INSTANCE_WITHOUT_ALPHA,
+                                              ColorSpace.Oklab.INSTANCE_WITHOUT_ALPHA)) {
+            DescriptorMatcher<String> matcher = new DescriptorMatcher<>(tiles, space, GRID_SIZE, descriptors::get);
+            assertTrue(matcher.getReducedDimension() <= DescriptorMatcher.MAX_REDUCED_DIMENSION);
+            for (int i = 0; i < 200; i++) {
+                int[] cells = randomCells(rnd);
+                double expected = tiles.stream()
+                                       .mapToDouble(tile -> descriptorDistance(space, descriptors.get(tile), cells))
+                                       .min().getAsDouble();
+                Optional<? extends MosaicTile<String>> match
+                        = matcher.calculateBestMatch(new DescribedFragment(5, 5, cells[0], GRID_SIZE, cells));
+                assertTrue(match.isPresent());
+                assertEquals(space.toString(), expected, descriptorDistance(space, descriptors.get(match.get()), cells),
+                             1E-9);
+            }
+        }
+    }
+}
@@ -5,12 +5,14 @@ import matching.workers.FastMatcher;
 import org.junit.Before;
 import org.junit.Test;
 import reconstruction.MosaicFragment;
+import util.image.Color;
 import util.image.ColorSpace;
 
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
+import java.util.Random;
 
 import static org.junit.Assert.*;
 
@@ -37,8 +39,9 @@ public class FastMatcherTest {
         TileMatcher<String> matcher = new FastMatcher<>(Collections.emptyList(), space);
         assertEquals(0, matcher.getUsedTilesCount());
         assertEquals(1., matcher.getAccuracy(), 1E-10);
-        matcher.setAccuracy(0.3);
-        assertEquals(1., matcher.getAccuracy(), 1E-10);
+        assertTrue(matcher.setAccuracy(0.3));
+        assertEquals(0.3, matcher.getAccuracy(), 1E-10);
+        matcher.setAccuracy(1.);
         assertTrue(matcher.usesAlpha());
         matcher.setUseAlpha(false);
         assertFalse(matcher.usesAlpha());
@@ -80,6 +83,34 @@ public class FastMatcherTest {
         assertEquals(5, tiles.size());
     }
 
+    @Test
+    public void testApproximateMatch() {
+        ColorSpace space = ColorSpace.RgbEuclid.INSTANCE_WITHOUT_ALPHA;
+        Random rnd = new Random(1337);
+        List<MosaicTile<String>> manyTiles = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            manyTiles.add(new MockTile("S" + i, Color.rgb(rnd.nextInt(256), rnd.nextInt(256), rnd.nextInt(256)), 0, 0));
+        }
+        FastMatcher<String> exact = new FastMatcher<>(manyTiles, space);
+        FastMatcher<String> approximate = new FastMatcher<>(manyTiles, space);
+        for (double accuracy : new double[] {0.9, 0.5, 0.}) {
+            assertTrue(approximate.setAccuracy(accuracy));
+            for (int i = 0; i < 500; i++) {
+                int color = Color.rgb(rnd.nextInt(256), rnd.nextInt(256), rnd.nextInt(256));
+                Optional<? extends MosaicTile<String>> exactMatch = exact.getBestMatch(getFragmentForColor(color));
+                Optional<? extends MosaicTile<String>> approximateMatch = approximate.getBestMatch(getFragmentForColor(color));
+                assertTrue(exactMatch.isPresent());
+                assertTrue(approximateMatch.isPresent());
+                double exactDistance = space.getDistance(exactMatch.get().getAverageARGB(), color);
+                double approximateDistance = space.getDistance(approximateMatch.get().getAverageARGB(), color);
+                assertTrue(exactDistance <= approximateDistance);
+                if (accuracy > 0.) {
+                    assertTrue(approximateDistance <= exactDistance / accuracy + 1E-10);
+                }
+            }
+        }
+    }
+
     @Test
     public void testInexactMatch() {
         ColorSpace space = ColorSpace.RgbEuclid.INSTANCE_WITH_ALPHA;
@@ -99,4 +130,66 @@ public class FastMatcherTest {
         assertTrue(bestMatch.isPresent());
         assertEquals("S4", bestMatch.get().getSource());
     }
+
+    @Test
+    public void testAddTile() {
+        ColorSpace space = ColorSpace.RgbEuclid.INSTANCE_WITH_ALPHA;
+        FastMatcher<String> matcher = new FastMatcher<>(tiles, space);
+        MosaicFragment fragment = getFragmentForColor(0xFF00FF00);
+        assertFalse("S6".equals(matcher.getBestMatch(fragment).get().getSource()));
+        matcher.addTile(new MockTile("S6", 0xFF00FF00, 0, 0));
+        assertEquals(6, matcher.getUsedTilesCount());
+        assertEquals("S6", matcher.getBestMatch(fragment).get().getSource());
+        assertEquals("S1", matcher.getBestMatch(getFragmentForColor(0xFFFF0000)).get().getSource());
+    }
+
+    private static void assertBestMatches(ColorSpace space, TileMatcher<String> matcher,
+                                          List<MosaicTile<String>> tiles, Random rnd) {
+        for (int i = 0; i < 20; i++) {
+            int color = Color.rgb(rnd.nextInt(256), rnd.nextInt(256), rnd.nextInt(256));
+            Optional<? extends MosaicTile<String>> match = matcher.getBestMatch(new MosaicFragment(5, 5, color));
+            assertTrue(match.isPresent());
+            double best = tiles.stream().mapToDouble(tile -> space.getDistance(tile.getAverageARGB(), color))
+                    .min().getAsDouble();
+            assertEquals(best, space.getDistance(match.get().getAverageARGB(), color), 1E-9);
+        }
+    }
+
+    @Test
+    public void testSnapshotKeepsOwnRemovals() {
+        Random rnd = new Random(1337);
+        ColorSpace space = ColorSpace.RgbEuclid.INSTANCE_WITHOUT_ALPHA;
+        List<MosaicTile<String>> manyTiles = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            manyTiles.add(new MockTile("S" + i, Color.rgb(rnd.nextInt(256), rnd.nextInt(256), rnd.nextInt(256)), 5, 5));
+        }
+        FastMatcher<String> original = new FastMatcher<>(manyTiles, space);
+        original.setTileReuseLimit(10);
+        FastMatcher<String> snapshot = original.snapshot();
+        assertEquals(10, snapshot.getTileReuseLimit());
+        snapshot.setTileReuseLimit(TileMatcher.REUSE_UNLIMITED);
+
+        // removing more than half of the tiles makes the snapshot rebuild its own tree
+        List<MosaicTile<String>> remaining = new ArrayList<>(manyTiles);
+        for (int i = 0; i < 300; i++) {
+            MosaicTile<String> tile = remaining.remove(rnd.nextInt(remaining.size()));
+            assertTrue(snapshot.removeTile(tile));
+            assertFalse(snapshot.removeTile(tile));
+            if (i % 50 == 0) {
+                assertBestMatches(space, snapshot, remaining, rnd);
+            }
+        }
+        assertEquals(200, snapshot.getUsedTilesCount());
+        assertBestMatches(space, snapshot, remaining, rnd);
+        assertEquals(500, original.getUsedTilesCount());
+        assertBestMatches(space, original, manyTiles, rnd);
+
+        assertTrue(original.removeTile(manyTiles.get(0)));
+        FastMatcher<String> secondSnapshot = original.snapshot();
+        assertEquals(499, secondSnapshot.getUsedTilesCount());
+        assertFalse(secondSnapshot.removeTile(manyTiles.get(0)));
+        assertTrue(secondSnapshot.removeTile(manyTiles.get(1)));
+        assertEquals(499, original.getUsedTilesCount());
+        assertEquals(200, snapshot.getUsedTilesCount());
+    }
 }
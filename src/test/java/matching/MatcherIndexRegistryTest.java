@@ -0,0 +1,179 @@
+package matching;
+
+import data.storage.MosaicTile;
+import matching.workers.SharedIndexMatcher;
+import matching.workers.SimpleLinearTileMatcher;
+import org.junit.Test;
+import reconstruction.MosaicFragment;
+import util.image.Color;
+import util.image.ColorSpace;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class MatcherIndexRegistryTest {
+
+    private static List<MosaicTile<String>> makeTiles(Random rnd, int count) {
+        List<MosaicTile<String>> tiles = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            tiles.add(new MockTile("S" + i, Color.rgb(rnd.nextInt(256), rnd.nextInt(256), rnd.nextInt(256)), 5, 5));
+        }
+        return tiles;
+    }
+
+    @Test
+    public void testViewsShareIndex() {
+        MatcherIndexRegistry<String> registry = new MatcherIndexRegistry<>(0);
+        List<MosaicTile<String>> tiles = makeTiles(new Random(1337), 100);
+        List<MosaicTile<String>> otherTiles = new ArrayList<>(tiles);
+        SharedIndexMatcher<String> matcher1 = registry.acquire(tiles, ColorSpace.RgbEuclid.INSTANCE_WITHOUT_ALPHA);
+        SharedIndexMatcher<String> matcher2 = registry.acquire(tiles, ColorSpace.RgbEuclid.INSTANCE_WITHOUT_ALPHA);
+        assertEquals(1, registry.getIndicesCount());
+        SharedIndexMatcher<String> matcher3 = registry.acquire(otherTiles, ColorSpace.RgbEuclid.INSTANCE_WITHOUT_ALPHA);
+        assertEquals(2, registry.getIndicesCount());
+
+        matcher2.setColorSpace(ColorSpace.Oklab.INSTANCE_WITHOUT_ALPHA);
+        assertEquals(3, registry.getIndicesCount());
+        matcher1.setColorSpace(ColorSpace.Oklab.INSTANCE_WITHOUT_ALPHA);
+        assertEquals(2, registry.getIndicesCount()); // rgb index of tiles no longer used
+
+        matcher3.release();
+        matcher3.release();
+        assertEquals(1, registry.getIndicesCount());
+        matcher1.release();
+        assertEquals(1, registry.getIndicesCount());
+        matcher2.release();
+        assertEquals(0, registry.getIndicesCount());
+    }
+
+    @Test
+    public void testUnusedIndexKept() {
+        MatcherIndexRegistry<String> registry = new MatcherIndexRegistry<>(1);
+        List<MosaicTile<String>> tiles = makeTiles(new Random(42), 10);
+        registry.acquire(tiles, ColorSpace.RgbEuclid.INSTANCE_WITHOUT_ALPHA).release();
+        assertEquals(1, registry.getIndicesCount());
+        MatcherIndexRegistry.SharedIndex<String> index = registry.acquireIndex(tiles,
+                                                                   ColorSpace.RgbEuclid.INSTANCE_WITHOUT_ALPHA);
+        registry.acquire(tiles, ColorSpace.Brightness.INSTANCE_WITHOUT_ALPHA).release();
+        assertEquals(2, registry.getIndicesCount());
+        registry.releaseIndex(index);
+        assertEquals(1, registry.getIndicesCount());
+        registry.evictUnused();
+        assertEquals(0, registry.getIndicesCount());
+    }
+
+    @Test
+    public void testRemovalOnlyHidesTileInView() {
+        ColorSpace space = ColorSpace.RgbEuclid.INSTANCE_WITHOUT_ALPHA;
+        MatcherIndexRegistry<String> registry = new MatcherIndexRegistry<>();
+        Random rnd = new Random(7);
+        List<MosaicTile<String>> tiles = makeTiles(rnd, 500);
+        SharedIndexMatcher<String> view = registry.acquire(tiles, space);
+        SharedIndexMatcher<String> otherView = registry.acquire(tiles, space);
+        SimpleLinearTileMatcher<String> linear = new SimpleLinearTileMatcher<>(tiles, space);
+        for (int i = 0; i < 300; i++) {
+            MosaicTile<String> toRemove = tiles.get(rnd.nextInt(tiles.size()));
+            assertEquals(linear.removeTile(toRemove), view.removeTile(toRemove));
+        }
+        assertEquals(linear.getUsedTilesCount(), view.getUsedTilesCount());
+        assertEquals(500, otherView.getUsedTilesCount());
+        for (int i = 0; i < 1000; i++) {
+            int color = Color.rgb(rnd.nextInt(256), rnd.nextInt(256), rnd.nextInt(256));
+            MosaicFragment fragment = new MosaicFragment(5, 5, color);
+            Optional<? extends MosaicTile<String>> expected = linear.calculateBestMatch(fragment);
+            Optional<? extends MosaicTile<String>> match = view.getBestMatch(fragment);
+            assertTrue(match.isPresent());
+            assertEquals(space.getDistance(expected.get().getAverageARGB(), color),
+                         space.getDistance(match.get().getAverageARGB(), color), 1E-6);
+        }
+        view.release();
+        otherView.release();
+    }
+
+    private static class BlockingTile extends MockTile {
+        private final CountDownLatch read = new CountDownLatch(1);
+        private final CountDownLatch unblock = new CountDownLatch(1);
+
+        private BlockingTile() {
+            super("blocking", 0xFF000000, 5, 5);
+        }
+
+        @Override
+        public int getAverageARGB() {
+            read.countDown();
+            try {
+                unblock.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return super.getAverageARGB();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testBuildOnlyBlocksSameIndex() throws Exception {
+        MatcherIndexRegistry<String> registry = new MatcherIndexRegistry<>();
+        ColorSpace space = ColorSpace.RgbEuclid.INSTANCE_WITHOUT_ALPHA;
+        List<MosaicTile<String>> slowTiles = makeTiles(new Random(3), 50);
+        BlockingTile blocking = new BlockingTile();
+        slowTiles.add(blocking);
+        CompletableFuture<SharedIndexMatcher<String>> builder
+                = CompletableFuture.supplyAsync(() -> registry.acquire(slowTiles, space));
+        assertTrue(blocking.read.await(5, TimeUnit.SECONDS));
+
+        // another index is built while the first build is running
+        SharedIndexMatcher<String> other = registry.acquire(makeTiles(new Random(4), 50), space);
+        assertEquals(50, other.getUsedTilesCount());
+        assertEquals(2, registry.getIndicesCount());
+
+        // the same index is waited for instead of built twice
+        CompletableFuture<SharedIndexMatcher<String>> waiter = new CompletableFuture<>();
+        Thread waiterThread = new Thread(() -> waiter.complete(registry.acquire(slowTiles, space)));
+        waiterThread.start();
+        Thread.sleep(100);
+        assertFalse(waiter.isDone());
+        blocking.unblock.countDown();
+        assertEquals(51, builder.get().getUsedTilesCount());
+        assertEquals(51, waiter.get().getUsedTilesCount());
+        assertEquals(2, registry.getIndicesCount());
+        builder.get().release();
+        waiter.get().release();
+        other.release();
+    }
+
+    @Test
+    public void testFailedBuildIsRetried() {
+        MatcherIndexRegistry<String> registry = new MatcherIndexRegistry<>();
+        ColorSpace space = ColorSpace.RgbEuclid.INSTANCE_WITHOUT_ALPHA;
+        List<MosaicTile<String>> tiles = makeTiles(new Random(5), 10);
+        tiles.add(new MockTile("broken", 0, 5, 5) {
+            private boolean failed;
+
+            @Override
+            public int getAverageARGB() {
+                if (!failed) {
+                    failed = true;
+                    throw new IllegalStateException("Broken tile.");
+                }
+                return super.getAverageARGB();
+            }
+        });
+        try {
+            registry.acquire(tiles, space);
+            fail("Built with a broken tile.");
+        } catch (IllegalStateException expected) {
+            // expected
+        }
+        assertEquals(0, registry.getIndicesCount());
+        SharedIndexMatcher<String> matcher = registry.acquire(tiles, space);
+        assertEquals(11, matcher.getUsedTilesCount());
+        matcher.release();
+    }
+}
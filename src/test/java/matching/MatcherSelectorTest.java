@@ -0,0 +1,75 @@
+package matching;
+
+import data.storage.MosaicTile;
+import matching.workers.PackedLinearMatcher;
+import org.junit.Test;
+import reconstruction.MosaicFragment;
+import util.image.Color;
+import util.image.ColorSpace;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class MatcherSelectorTest {
+    // a scan costs 1ns per tile, a lookup in the tree about 20 tiles
+    private static final MatcherSelector.Calibration CALIBRATION
+            = new MatcherSelector.Calibration(5., 1., 0.5, 20., 240., 5000.);
+
+    @Test
+    public void testFewFragmentsUseLinear() {
+        MatcherSelector.Choice choice = MatcherSelector.choose(100000, 10, TileMatcher.REUSE_UNLIMITED, CALIBRATION);
+        assertEquals(MatcherSelector.MatcherType.PACKED_LINEAR, choice.type);
+        assertEquals(TileMatcher.CACHE_EXACT_COLORS, choice.cacheMaxColorError);
+    }
+
+    @Test
+    public void testManyFragmentsUseTree() {
+        MatcherSelector.Choice choice = MatcherSelector.choose(20000, 10000, TileMatcher.REUSE_UNLIMITED, CALIBRATION);
+        assertEquals(MatcherSelector.MatcherType.KD_TREE, choice.type);
+        assertTrue(choice.treeEstimateNanos < choice.linearEstimateNanos);
+    }
+
+    @Test
+    public void testSmallTileSetUsesLinear() {
+        MatcherSelector.Choice choice = MatcherSelector.choose(100, 100000, TileMatcher.REUSE_UNLIMITED, CALIBRATION);
+        assertEquals(MatcherSelector.MatcherType.PACKED_LINEAR, choice.type);
+    }
+
+    @Test
+    public void testRemovalsPunishTree() {
+        MatcherSelector.Choice unlimited = MatcherSelector.choose(3000, 3000, TileMatcher.REUSE_UNLIMITED, CALIBRATION);
+        assertEquals(MatcherSelector.MatcherType.KD_TREE, unlimited.type);
+        MatcherSelector.Choice noReuse = MatcherSelector.choose(3000, 3000, TileMatcher.REUSE_NONE, CALIBRATION);
+        assertEquals(MatcherSelector.MatcherType.PACKED_LINEAR, noReuse.type);
+    }
+
+    @Test
+    public void testSlowLookupsQuantizeCache() {
+        MatcherSelector.Choice choice = MatcherSelector.choose(1000000, 10000000, TileMatcher.REUSE_UNLIMITED,
+                                                               CALIBRATION);
+        assertTrue(choice.cacheMaxColorError > TileMatcher.CACHE_EXACT_COLORS);
+        choice = MatcherSelector.choose(1000000, 10000000, 5, CALIBRATION);
+        assertEquals(TileMatcher.CACHE_EXACT_COLORS, choice.cacheMaxColorError);
+    }
+
+    @Test
+    public void testSelectWithMeasuredCalibration() {
+        Random rnd = new Random(1337);
+        List<MosaicTile<String>> tiles = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            tiles.add(new MockTile("S" + i, Color.rgb(rnd.nextInt(256), rnd.nextInt(256), rnd.nextInt(256)), 5, 5));
+        }
+        ColorSpace space = ColorSpace.RgbEuclid.INSTANCE_WITHOUT_ALPHA;
+        MatcherSelector.Calibration calibration = MatcherSelector.getCalibration(space);
+        assertSame(calibration, MatcherSelector.getCalibration(space));
+        assertTrue(calibration.linearScanNanosPerTile > 0.);
+        assertTrue(calibration.treeQueryNanos > 0.);
+
+        TileMatcher<String> matcher = MatcherSelector.select(tiles, space, 1, TileMatcher.REUSE_NONE, null);
+        assertTrue(matcher instanceof PackedLinearMatcher);
+        assertTrue(matcher.getBestMatch(new MosaicFragment(5, 5, 0xFF000000)).isPresent());
+    }
+}
@@ -0,0 +1,95 @@
+package matching;
+
+import data.storage.MosaicTile;
+import matching.workers.PackedLinearMatcher;
+import matching.workers.SimpleLinearTileMatcher;
+import org.junit.Test;
+import reconstruction.MosaicFragment;
+import util.image.ColorSpace;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class PackedLinearMatcherTest {
+    private static final List<ColorSpace> SPACES = Arrays.asList(ColorSpace.RgbEuclid.INSTANCE_WITH_ALPHA,
+            ColorSpace.RgbEuclid.INSTANCE_WITHOUT_ALPHA, ColorSpace.RgbAbsolute.INSTANCE_WITH_ALPHA,
+            ColorSpace.RgbAbsolute.INSTANCE_WITHOUT_ALPHA, ColorSpace.Brightness.INSTANCE_WITH_ALPHA,
+            ColorSpace.Oklab.INSTANCE_WITHOUT_ALPHA);
+
+    private static List<MosaicTile<String>> makeTiles(Random rnd, int count) {
+        List<MosaicTile<String>> tiles = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            tiles.add(new MockTile("S" + i, rnd.nextInt(), 5, 5));
+        }
+        return tiles;
+    }
+
+    private static void assertSameDistance(ColorSpace space, TileMatcher<String> expectedMatcher,
+                                           TileMatcher<String> matcher, int color) {
+        MosaicFragment fragment = new MosaicFragment(5, 5, color);
+        Optional<? extends MosaicTile<String>> expected = expectedMatcher.calculateBestMatch(fragment);
+        Optional<? extends MosaicTile<String>> actual = matcher.calculateBestMatch(fragment);
+        assertEquals(expected.isPresent(), actual.isPresent());
+        if (expected.isPresent()) {
+            assertEquals(space.getDistance(expected.get().getAverageARGB(), color),
+                         space.getDistance(actual.get().getAverageARGB(), color), 1E-9);
+        }
+    }
+
+    @Test
+    public void testEmptyMatch() {
+        TileMatcher<String> matcher = new PackedLinearMatcher<>(Collections.emptyList(),
+                                                                ColorSpace.RgbEuclid.INSTANCE_WITH_ALPHA);
+        assertEquals(0, matcher.getUsedTilesCount());
+        assertEquals(1., matcher.getAccuracy(), 1E-10);
+        assertFalse(matcher.setAccuracy(0.5));
+        assertFalse(matcher.getBestMatch(new MosaicFragment(5, 5, 0xFFFF0000)).isPresent());
+    }
+
+    @Test
+    public void testCompareWithLinearMatcher() {
+        Random rnd = new Random(1337);
+        List<MosaicTile<String>> tiles = makeTiles(rnd, 5000);
+        for (ColorSpace space : SPACES) {
+            TileMatcher<String> linear = new SimpleLinearTileMatcher<>(tiles, space);
+            TileMatcher<String> packed = new PackedLinearMatcher<>(tiles, space);
+            for (int i = 0; i < 300; i++) {
+                assertSameDistance(space, linear, packed, rnd.nextInt());
+            }
+            for (int i = 0; i < 1000; i++) {
+                MosaicTile<String> toRemove = tiles.get(rnd.nextInt(tiles.size()));
+                assertEquals(linear.removeTile(toRemove), packed.removeTile(toRemove));
+            }
+            assertEquals(linear.getUsedTilesCount(), packed.getUsedTilesCount());
+            for (int i = 0; i < 300; i++) {
+                assertSameDistance(space, linear, packed, rnd.nextInt());
+            }
+        }
+    }
+
+    @Test
+    public void testParallelScanEqualsSequential() {
+        Random rnd = new Random(42);
+        ColorSpace space = ColorSpace.RgbEuclid.INSTANCE_WITHOUT_ALPHA;
+        List<MosaicTile<String>> tiles = makeTiles(rnd, PackedLinearMatcher.PARALLEL_THRESHOLD + 5000);
+        PackedLinearMatcher<String> parallel = new PackedLinearMatcher<>(tiles, space);
+        PackedLinearMatcher<String> sequential = new PackedLinearMatcher<>(tiles, space);
+        sequential.setParallelScan(false);
+        for (int i = 0; i < 200; i++) {
+            MosaicFragment fragment = new MosaicFragment(5, 5, rnd.nextInt());
+            assertSame(sequential.calculateBestMatch(fragment).get(), parallel.calculateBestMatch(fragment).get());
+        }
+        parallel.setColorSpace(ColorSpace.Oklab.INSTANCE_WITHOUT_ALPHA);
+        sequential.setColorSpace(ColorSpace.Oklab.INSTANCE_WITHOUT_ALPHA);
+        for (int i = 0; i < 50; i++) {
+            MosaicFragment fragment = new MosaicFragment(5, 5, rnd.nextInt());
+            assertSame(sequential.calculateBestMatch(fragment).get(), parallel.calculateBestMatch(fragment).get());
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package matching;
+
+import data.storage.MosaicTile;
+import matching.workers.SimpleLinearTileMatcher;
+import matching.workers.SortedValueMatcher;
+import org.junit.Test;
+import reconstruction.MosaicFragment;
+import util.image.ColorSpace;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class SortedValueMatcherTest {
+
+    private static void assertSameDistance(ColorSpace space, TileMatcher<String> expectedMatcher,
+                                           TileMatcher<String> matcher, int color) {
+        MosaicFragment fragment = new MosaicFragment(5, 5, color);
+        Optional<? extends MosaicTile<String>> expected = expectedMatcher.calculateBestMatch(fragment);
+        Optional<? extends MosaicTile<String>> actual = matcher.calculateBestMatch(fragment);
+        assertEquals(expected.isPresent(), actual.isPresent());
+        if (expected.isPresent()) {
+            assertEquals(space.getDistance(expected.get().getAverageARGB(), color),
+                         space.getDistance(actual.get().getAverageARGB(), color), 1E-9);
+        }
+    }
+
+    @Test
+    public void testEmptyMatch() {
+        TileMatcher<String> matcher = new SortedValueMatcher<>(Collections.emptyList(),
+                                                               ColorSpace.Brightness.INSTANCE_WITHOUT_ALPHA);
+        assertEquals(0, matcher.getUsedTilesCount());
+        assertFalse(matcher.setAccuracy(0.5));
+        assertFalse(matcher.getBestMatch(new MosaicFragment(5, 5, 0xFFFF0000)).isPresent());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRequiresOneDimension() {
+        new SortedValueMatcher<String>(Collections.emptyList(), ColorSpace.RgbEuclid.INSTANCE_WITHOUT_ALPHA);
+    }
+
+    @Test
+    public void testUnsupportedSpaceKeepsIndex() {
+        List<MosaicTile<String>> tiles = new ArrayList<>();
+        tiles.add(new MockTile("Dark", 0xFF101010, 5, 5));
+        tiles.add(new MockTile("Bright", 0xFFF0F0F0, 5, 5));
+        TileMatcher<String> matcher = new SortedValueMatcher<>(tiles, ColorSpace.Brightness.INSTANCE_WITHOUT_ALPHA);
+        try {
+            matcher.setColorSpace(ColorSpace.RgbEuclid.INSTANCE_WITHOUT_ALPHA);
+            fail("Set a three dimensional space.");
+        } catch (IllegalArgumentException expected) {
+            // the matcher is unchanged
+        }
+        assertTrue(matcher.getBestMatch(new MosaicFragment(5, 5, 0xFFFFFFFF)).isPresent());
+        assertEquals("Bright", matcher.getBestMatch(new MosaicFragment(5, 5, 0xFFFFFFFF)).get().getSource());
+        assertEquals(2, matcher.getUsedTilesCount());
+    }
+
+    @Test
+    public void testCompareWithLinearMatcher() {
+        Random rnd = new Random(1337);
+        List<MosaicTile<String>> tiles = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            tiles.add(new MockTile("S" + i, rnd.nextInt(), 5, 5));
+        }
+        tiles.add(tiles.get(0)); // twice
+        for (ColorSpace space : new ColorSpace[] {ColorSpace.Brightness.INSTANCE_WITH_ALPHA,
+                ColorSpace.Brightness.INSTANCE_WITHOUT_ALPHA}) {
+            TileMatcher<String> linear = new SimpleLinearTileMatcher<>(tiles, space);
+            TileMatcher<String> sorted = new SortedValueMatcher<>(tiles, space);
+            List<MosaicTile<String>> remaining = new ArrayList<>(tiles);
+            while (!remaining.isEmpty()) {
+                for (int i = 0; i < 10; i++) {
+                    assertSameDistance(space, linear, sorted, rnd.nextInt());
+                }
+                for (int i = 0; i < 50 && !remaining.isEmpty(); i++) {
+                    MosaicTile<String> tile = remaining.remove(rnd.nextInt(remaining.size()));
+                    assertTrue(linear.removeTile(tile));
+                    assertTrue(sorted.removeTile(tile));
+                }
+                assertEquals(remaining.size(), sorted.getUsedTilesCount());
+            }
+            assertFalse(sorted.removeTile(tiles.get(0)));
+            assertFalse(sorted.getBestMatch(new MosaicFragment(5, 5, 0xFF00FF00)).isPresent());
+        }
+    }
+
+    @Test
+    public void testColorSpaceChangeKeepsRemovals() {
+        List<MosaicTile<String>> tiles = new ArrayList<>();
+        tiles.add(new MockTile("S1", 0xFFFFFFFF, 5, 5));
+        tiles.add(new MockTile("S2", 0xFF000000, 5, 5));
+        tiles.add(new MockTile("S3", 0xFF808080, 5, 5));
+        TileMatcher<String> matcher = new SortedValueMatcher<>(tiles, ColorSpace.Brightness.INSTANCE_WITHOUT_ALPHA);
+        assertEquals("S1", matcher.getBestMatch(new MosaicFragment(5, 5, 0xFFF0F0F0)).get().getSource());
+        assertTrue(matcher.removeTile(tiles.get(0)));
+        matcher.setUseAlpha(true);
+        assertEquals(2, matcher.getUsedTilesCount());
+        assertEquals("S3", matcher.getBestMatch(new MosaicFragment(5, 5, 0xFFF0F0F0)).get().getSource());
+    }
+}
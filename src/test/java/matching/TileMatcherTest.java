@@ -8,13 +8,16 @@ import matching.workers.SimpleLinearTileMatcher;
 import org.junit.Before;
 import org.junit.Test;
 import reconstruction.MosaicFragment;
+import util.image.Color;
 import util.image.ColorSpace;
 
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
+import java.util.Random;
 import java.util.stream.Collectors;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
@@ -100,4 +103,54 @@ public class TileMatcherTest {
             assertFalse(first.get(i).equals(fourth.get(i)));
         }
     }
+
+    private static int quantize(int value, int maxError) {
+        return value - value % (2 * maxError + 1) + maxError;
+    }
+
+    @Test
+    public void testQuantizedCache() {
+        Random rnd = new Random(1337);
+        ColorSpace space = ColorSpace.RgbEuclid.INSTANCE_WITHOUT_ALPHA;
+        List<MosaicTile<String>> manyTiles = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            manyTiles.add(new MockTile("S" + i, Color.rgb(rnd.nextInt(256), rnd.nextInt(256), rnd.nextInt(256)), 1, 1));
+        }
+        TileMatcher<String> matcher = new FastMatcher<>(manyTiles, space);
+        SimpleLinearTileMatcher<String> linear = new SimpleLinearTileMatcher<>(manyTiles, space);
+        final int maxError = 4;
+        matcher.setCacheMaxColorError(maxError);
+        assertEquals(maxError, matcher.getCacheMaxColorError());
+        for (int i = 0; i < 5000; i++) {
+            int color = Color.rgb(100 + rnd.nextInt(20), 50 + rnd.nextInt(20), 200 + rnd.nextInt(20));
+            Optional<? extends MosaicTile<String>> match = matcher.getBestMatch(new MosaicFragment(1, 1, color));
+            assertTrue(match.isPresent());
+            // the match is the best one for the center of the color's bucket
+            int center = Color.rgb(quantize(Color.red(color), maxError), quantize(Color.green(color), maxError),
+                                   quantize(Color.blue(color), maxError));
+            MosaicTile<String> best = linear.calculateBestMatch(new MosaicFragment(1, 1, center)).get();
+            assertEquals(space.getDistance(best.getAverageARGB(), center),
+                         space.getDistance(match.get().getAverageARGB(), center), 1E-6);
+            assertTrue(Math.abs(Color.red(center) - Color.red(color)) <= maxError);
+        }
+        TileMatcher.CacheStatistics statistics = matcher.getCacheStatistics();
+        assertEquals(5000, statistics.hits + statistics.misses);
+        assertTrue(statistics.misses <= 5 * 5 * 5); // at most 20/9 rounded up buckets per channel
+        assertTrue(statistics.getHitRate() > 0.9);
+
+        matcher.setCacheMaxColorError(TileMatcher.CACHE_EXACT_COLORS);
+        for (int i = 0; i < 3000; i++) {
+            matcher.getBestMatch(new MosaicFragment(1, 1, Color.rgb(rnd.nextInt(256), rnd.nextInt(256), rnd.nextInt(256))));
+        }
+        assertEquals(64, matcher.getCacheStatistics().cacheSize);
+        matcher.setCacheMaxColorError(1);
+        for (int i = 0; i < 3000; i++) {
+            matcher.getBestMatch(new MosaicFragment(1, 1, Color.rgb(rnd.nextInt(256), rnd.nextInt(256), rnd.nextInt(256))));
+        }
+        int grownSize = matcher.getCacheStatistics().cacheSize;
+        assertTrue(grownSize > 64); // grew as nearly every miss evicted
+        matcher.setCacheMaxColorError(2);
+        assertEquals(2, matcher.getCacheMaxColorError());
+        assertEquals(grownSize, matcher.getCacheStatistics().cacheSize);
+    }
 }
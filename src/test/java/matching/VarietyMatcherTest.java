@@ -0,0 +1,72 @@
+package matching;
+
+import data.storage.MosaicTile;
+import matching.workers.VarietyMatcher;
+import org.junit.Before;
+import org.junit.Test;
+import reconstruction.MosaicFragment;
+import util.image.ColorSpace;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class VarietyMatcherTest {
+    private List<MosaicTile<String>> tiles;
+
+    @Before
+    public void initTiles() {
+        tiles = new ArrayList<>();
+        tiles.add(new MockTile("S1", 0xFFFF0000, 0, 0));
+        tiles.add(new MockTile("S2", 0xFFFE0101, 0, 0));
+        tiles.add(new MockTile("S3", 0xFFFD0000, 0, 0));
+        tiles.add(new MockTile("S4", 0xFF00FF00, 0, 0));
+        tiles.add(new MockTile("S5", 0xFF0000FF, 0, 0));
+    }
+
+    private MosaicFragment getFragmentForColor(int color) {
+        return new MosaicFragment(0, 0, color);
+    }
+
+    @Test
+    public void testEmptyMatch() {
+        ColorSpace space = ColorSpace.RgbEuclid.INSTANCE_WITH_ALPHA;
+        TileMatcher<String> matcher = new VarietyMatcher<>(Collections.emptyList(), space);
+        assertEquals(0, matcher.getUsedTilesCount());
+        assertFalse(matcher.getBestMatch(getFragmentForColor(0xFFFF0000)).isPresent());
+        assertFalse(matcher.cacheEnabled());
+    }
+
+    @Test
+    public void testNoPenaltyIsExact() {
+        ColorSpace space = ColorSpace.RgbEuclid.INSTANCE_WITHOUT_ALPHA;
+        TileMatcher<String> matcher = new VarietyMatcher<>(tiles, space, 3, 10, 0.);
+        for (int i = 0; i < 5; i++) {
+            Optional<? extends MosaicTile<String>> bestMatch = matcher.getBestMatch(getFragmentForColor(0xFFFF0000));
+            assertTrue(bestMatch.isPresent());
+            assertEquals("S1", bestMatch.get().getSource());
+        }
+    }
+
+    @Test
+    public void testAvoidsRepetition() {
+        ColorSpace space = ColorSpace.RgbEuclid.INSTANCE_WITHOUT_ALPHA;
+        TileMatcher<String> matcher = new VarietyMatcher<>(tiles, space);
+        Set<String> sources = new HashSet<>();
+        for (int i = 0; i < 3; i++) {
+            Optional<? extends MosaicTile<String>> bestMatch = matcher.getBestMatch(getFragmentForColor(0xFFFF0000));
+            assertTrue(bestMatch.isPresent());
+            sources.add(bestMatch.get().getSource());
+        }
+        // the three reds are all close enough to be preferred over repeating one of them
+        assertEquals(3, sources.size());
+        assertFalse(sources.contains("S4"));
+        assertFalse(sources.contains("S5"));
+        assertEquals(5, matcher.getUsedTilesCount());
+    }
+}
@@ -0,0 +1,147 @@
+package ui;
+
+import data.image.AbstractBitmap;
+import matching.MockTile;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class FileBitmapSourceTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private MockTile makeTileFile(String name, int width, int height) throws IOException {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                image.setRGB(x, y, 0xFF000000 | x * 5 << 16 | y * 5 << 8);
+            }
+        }
+        File file = new File(folder.getRoot(), name + ".png");
+        assertTrue(ImageIO.write(image, "png", file));
+        return new MockTile(file.getAbsolutePath(), 0xFF808000, width, height);
+    }
+
+    private static void deleteFile(MockTile tile) {
+        assertTrue(new File(tile.getSource()).delete());
+    }
+
+    private static void assertNeedsFile(FileBitmapSource source, MockTile tile, int width, int height) {
+        try {
+            source.getBitmap(tile, width, height);
+            fail("Loaded without file: " + tile.getSource());
+        } catch (IllegalArgumentException expected) {
+            // not cached, so the deleted file was decoded
+        }
+    }
+
+    private static long bytes(int width, int height) {
+        return 4L * width * height;
+    }
+
+    @Test
+    public void testExactSizeCachedOnce() throws IOException {
+        FileBitmapSource source = new FileBitmapSource();
+        MockTile tile = makeTileFile("exact", 40, 30);
+        AbstractBitmap bitmap = source.getBitmap(tile, 40, 30);
+        assertEquals(bytes(40, 30), source.getResidentBytes());
+        assertSame(bitmap, source.getBitmap(tile, 40, 30));
+        assertEquals(bytes(40, 30), source.getResidentBytes());
+        source.releaseCache();
+
+        // the decoded image is cached for the smaller variant and then also returned for its own size
+        AbstractBitmap smaller = source.getBitmap(tile, 30, 20);
+        assertEquals(bytes(40, 30) + bytes(30, 20), source.getResidentBytes());
+        bitmap = source.getBitmap(tile, 40, 30);
+        assertEquals(bytes(40, 30) + bytes(30, 20), source.getResidentBytes());
+        deleteFile(tile);
+        assertSame(bitmap, source.getBitmap(tile, 40, 30));
+        assertSame(smaller, source.getBitmap(tile, 30, 20));
+    }
+
+    @Test
+    public void testExactSizeOffHeapCachedOnce() throws IOException {
+        FileBitmapSource source = new FileBitmapSource();
+        source.setOffHeapVariants(true);
+        MockTile tile = makeTileFile("exact", 40, 30);
+        AbstractBitmap bitmap = source.getBitmap(tile, 40, 30);
+        assertEquals(bytes(40, 30), source.getResidentBytes());
+        assertSame(bitmap, source.getBitmap(tile, 40, 30));
+        source.releaseCache();
+        assertEquals(0L, source.getResidentBytes());
+
+        // the decoded image is cached for the smaller variant, the off heap copy of it then replaces it
+        AbstractBitmap smaller = source.getBitmap(tile, 30, 20);
+        assertEquals(bytes(40, 30) + bytes(30, 20), source.getResidentBytes());
+        bitmap = source.getBitmap(tile, 40, 30);
+        assertEquals(bytes(40, 30) + bytes(30, 20), source.getResidentBytes());
+        assertSame(bitmap, source.getBitmap(tile, 40, 30));
+        deleteFile(tile);
+        assertSame(smaller, source.getBitmap(tile, 30, 20));
+        source.releaseCache();
+    }
+
+    @Test
+    public void testVariantsTakePrecedence() throws IOException {
+        // room for one decoded image and one variant
+        FileBitmapSource source = new FileBitmapSource(bytes(40, 30) + bytes(30, 20));
+        MockTile first = makeTileFile("first", 40, 30);
+        MockTile second = makeTileFile("second", 40, 30);
+        AbstractBitmap firstVariant = source.getBitmap(first, 30, 20);
+        assertEquals(bytes(40, 30) + bytes(30, 20), source.getResidentBytes());
+        AbstractBitmap secondVariant = source.getBitmap(second, 30, 20);
+        // both decoded images gave way to the variants
+        assertEquals(2 * bytes(30, 20), source.getResidentBytes());
+        assertTrue(source.getEvictionsCount() >= 2);
+
+        deleteFile(first);
+        deleteFile(second);
+        assertSame(firstVariant, source.getBitmap(first, 30, 20));
+        assertSame(secondVariant, source.getBitmap(second, 30, 20));
+        // another size needs the decoded image, which is gone with its file
+        assertNeedsFile(source, first, 20, 10);
+    }
+
+    @Test
+    public void testDecodedImageServesOtherSizes() throws IOException {
+        FileBitmapSource source = new FileBitmapSource();
+        MockTile tile = makeTileFile("tile", 40, 30);
+        assertNotNull(source.getBitmap(tile, 30, 20));
+        deleteFile(tile);
+        AbstractBitmap smaller = source.getBitmap(tile, 20, 10);
+        assertNotNull(smaller);
+        assertEquals(20, smaller.getWidth());
+        assertEquals(10, smaller.getHeight());
+        // bigger than the decoded image, so the file is needed
+        assertNeedsFile(source, tile, 50, 40);
+    }
+
+    @Test
+    public void testVariantsEvictedLeastRecentlyUsed() throws IOException {
+        // exact sizes, so only variants are cached, room for two
+        FileBitmapSource source = new FileBitmapSource(2 * bytes(10, 10));
+        MockTile first = makeTileFile("first", 10, 10);
+        MockTile second = makeTileFile("second", 10, 10);
+        MockTile third = makeTileFile("third", 10, 10);
+        AbstractBitmap firstVariant = source.getBitmap(first, 10, 10);
+        source.getBitmap(second, 10, 10);
+        assertSame(firstVariant, source.getBitmap(first, 10, 10));
+        AbstractBitmap thirdVariant = source.getBitmap(third, 10, 10);
+        assertEquals(2 * bytes(10, 10), source.getResidentBytes());
+
+        deleteFile(first);
+        deleteFile(second);
+        deleteFile(third);
+        assertSame(firstVariant, source.getBitmap(first, 10, 10));
+        assertSame(thirdVariant, source.getBitmap(third, 10, 10));
+        assertNeedsFile(source, second, 10, 10);
+    }
+}
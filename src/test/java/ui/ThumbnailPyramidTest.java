@@ -0,0 +1,239 @@
+package ui;
+
+import data.image.AbstractBitmap;
+import data.image.AbstractBitmapFactory;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ThumbnailPyramidTest {
+    private static final int[] LEVELS = {4, 8};
+    // a 16x12 image gets thumbnails of 5x4 and 11x8 pixels
+    private static final long IMAGE_BYTES = 4L * (5 * 4 + 11 * 8);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    private final Random rnd = new Random(7);
+
+    private File makeImageFile(String name) throws IOException {
+        File file = folder.newFile(name);
+        Files.write(file.toPath(), new byte[] {1, 2, 3});
+        return file;
+    }
+
+    private static void changeFile(File file) throws IOException {
+        Files.write(file.toPath(), new byte[] {4, 5, 6, 7});
+        assertTrue(file.setLastModified(file.lastModified() + 10000L));
+    }
+
+    private AbstractBitmap makeImage(int width, int height) {
+        int[] pixels = new int[width * height];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = 0xFF000000 | rnd.nextInt(0x1000000);
+        }
+        AbstractBitmap bitmap = AbstractBitmapFactory.makeInstance(width, height).createBitmap();
+        bitmap.setPixels(pixels);
+        return bitmap;
+    }
+
+    private static int[] getPixels(AbstractBitmap bitmap) {
+        int[] pixels = new int[bitmap.getWidth() * bitmap.getHeight()];
+        bitmap.getPixels(pixels);
+        return pixels;
+    }
+
+    private ThumbnailPyramid open(long maxBytes) throws IOException {
+        return new ThumbnailPyramid(new File(folder.getRoot(), "pyramid"), LEVELS, maxBytes);
+    }
+
+    private File getSegmentFile() {
+        return new File(new File(folder.getRoot(), "pyramid"), "segment0");
+    }
+
+    private File getIndexFile() {
+        return new File(new File(folder.getRoot(), "pyramid"), "index");
+    }
+
+    private static void truncate(File file, long length) throws IOException {
+        try (RandomAccessFile access = new RandomAccessFile(file, "rw")) {
+            access.setLength(length);
+        }
+    }
+
+    private static void assertThumbnail(ThumbnailPyramid pyramid, File file, int[] expected, int width,
+                                        int height) {
+        AbstractBitmap thumbnail = pyramid.getThumbnail(file, width, height);
+        assertNotNull(thumbnail);
+        assertEquals(width, thumbnail.getWidth());
+        assertEquals(height, thumbnail.getHeight());
+        assertArrayEquals(expected, getPixels(thumbnail));
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        File first = makeImageFile("first.jpg");
+        File second = makeImageFile("second.jpg");
+        File small = makeImageFile("small.jpg");
+        int[] firstSmall;
+        int[] firstBig;
+        int[] secondBig;
+        try (ThumbnailPyramid pyramid = open(ThumbnailPyramid.DEFAULT_MAX_BYTES)) {
+            assertFalse(pyramid.contains(first));
+            assertNull(pyramid.getThumbnail(first, 1, 1));
+            assertTrue(pyramid.addThumbnails(first, makeImage(16, 12)));
+            assertTrue(pyramid.contains(first));
+            firstSmall = getPixels(pyramid.getThumbnail(first, 5, 4));
+            firstBig = getPixels(pyramid.getThumbnail(first, 6, 4));
+            assertEquals(11 * 8, firstBig.length);
+            assertNull(pyramid.getThumbnail(first, 12, 8));
+
+            // appended behind the chunk that was mapped for the first file
+            assertTrue(pyramid.addThumbnails(second, makeImage(16, 12)));
+            secondBig = getPixels(pyramid.getThumbnail(second, 11, 8));
+            assertTrue(pyramid.addThumbnails(small, makeImage(6, 6)));
+            assertNull(pyramid.getThumbnail(small, 5, 5));
+        }
+        assertEquals(2 * IMAGE_BYTES + 4 * 4 * 4, getSegmentFile().length());
+
+        try (ThumbnailPyramid pyramid = open(ThumbnailPyramid.DEFAULT_MAX_BYTES)) {
+            assertThumbnail(pyramid, first, firstSmall, 5, 4);
+            assertThumbnail(pyramid, first, firstBig, 11, 8);
+            assertThumbnail(pyramid, second, secondBig, 11, 8);
+            assertTrue(pyramid.contains(small));
+            assertEquals(4, pyramid.getThumbnail(small, 1, 1).getWidth());
+        }
+    }
+
+    @Test
+    public void testReopenAfterTruncatedIndex() throws IOException {
+        File first = makeImageFile("first.jpg");
+        File second = makeImageFile("second.jpg");
+        int[] firstBig;
+        try (ThumbnailPyramid pyramid = open(ThumbnailPyramid.DEFAULT_MAX_BYTES)) {
+            pyramid.addThumbnails(first, makeImage(16, 12));
+            pyramid.addThumbnails(second, makeImage(16, 12));
+            firstBig = getPixels(pyramid.getThumbnail(first, 11, 8));
+        }
+        // as if writing the last record was interrupted
+        truncate(getIndexFile(), getIndexFile().length() - 3);
+
+        int[] secondBig;
+        try (ThumbnailPyramid pyramid = open(ThumbnailPyramid.DEFAULT_MAX_BYTES)) {
+            assertThumbnail(pyramid, first, firstBig, 11, 8);
+            assertFalse(pyramid.contains(second));
+            assertTrue(pyramid.addThumbnails(second, makeImage(16, 12)));
+            secondBig = getPixels(pyramid.getThumbnail(second, 11, 8));
+        }
+        // the incomplete record was cut off, so the record appended after it is read again
+        try (ThumbnailPyramid pyramid = open(ThumbnailPyramid.DEFAULT_MAX_BYTES)) {
+            assertThumbnail(pyramid, first, firstBig, 11, 8);
+            assertThumbnail(pyramid, second, secondBig, 11, 8);
+        }
+    }
+
+    @Test
+    public void testReopenAfterTruncatedSegment() throws IOException {
+        File first = makeImageFile("first.jpg");
+        File second = makeImageFile("second.jpg");
+        int[] firstBig;
+        try (ThumbnailPyramid pyramid = open(ThumbnailPyramid.DEFAULT_MAX_BYTES)) {
+            pyramid.addThumbnails(first, makeImage(16, 12));
+            pyramid.addThumbnails(second, makeImage(16, 12));
+            firstBig = getPixels(pyramid.getThumbnail(first, 11, 8));
+        }
+        // the thumbnails of the second file point behind the end of the segment now
+        truncate(getSegmentFile(), IMAGE_BYTES + 100L);
+
+        try (ThumbnailPyramid pyramid = open(ThumbnailPyramid.DEFAULT_MAX_BYTES)) {
+            assertThumbnail(pyramid, first, firstBig, 11, 8);
+            assertFalse(pyramid.contains(second));
+            assertNull(pyramid.getThumbnail(second, 1, 1));
+        }
+    }
+
+    @Test
+    public void testReopenAfterFileChanged() throws IOException {
+        File file = makeImageFile("changing.jpg");
+        try (ThumbnailPyramid pyramid = open(ThumbnailPyramid.DEFAULT_MAX_BYTES)) {
+            pyramid.addThumbnails(file, makeImage(16, 12));
+            changeFile(file);
+            assertFalse(pyramid.contains(file));
+            assertNull(pyramid.getThumbnail(file, 1, 1));
+        }
+        assertEquals(IMAGE_BYTES, getSegmentFile().length());
+
+        // only outdated pixels were stored, they are compacted away
+        int[] big;
+        try (ThumbnailPyramid pyramid = open(ThumbnailPyramid.DEFAULT_MAX_BYTES)) {
+            assertFalse(pyramid.contains(file));
+            assertFalse(getSegmentFile().exists());
+            assertTrue(pyramid.addThumbnails(file, makeImage(16, 12)));
+            big = getPixels(pyramid.getThumbnail(file, 11, 8));
+        }
+        try (ThumbnailPyramid pyramid = open(ThumbnailPyramid.DEFAULT_MAX_BYTES)) {
+            assertThumbnail(pyramid, file, big, 11, 8);
+        }
+    }
+
+    @Test
+    public void testCompactionKeepsCurrentThumbnails() throws IOException {
+        File changing = makeImageFile("changing.jpg");
+        File unchanged = makeImageFile("unchanged.jpg");
+        int[] changingBig = null;
+        int[] unchangedSmall;
+        try (ThumbnailPyramid pyramid = open(ThumbnailPyramid.DEFAULT_MAX_BYTES)) {
+            pyramid.addThumbnails(unchanged, makeImage(16, 12));
+            unchangedSmall = getPixels(pyramid.getThumbnail(unchanged, 5, 4));
+            for (int i = 0; i < 4; i++) {
+                changeFile(changing);
+                assertTrue(pyramid.addThumbnails(changing, makeImage(16, 12)));
+                changingBig = getPixels(pyramid.getThumbnail(changing, 11, 8));
+            }
+        }
+        assertEquals(5 * IMAGE_BYTES, getSegmentFile().length());
+
+        try (ThumbnailPyramid pyramid = open(ThumbnailPyramid.DEFAULT_MAX_BYTES)) {
+            assertEquals(2 * IMAGE_BYTES, getSegmentFile().length());
+            assertThumbnail(pyramid, changing, changingBig, 11, 8);
+            assertThumbnail(pyramid, unchanged, unchangedSmall, 5, 4);
+        }
+        try (ThumbnailPyramid pyramid = open(ThumbnailPyramid.DEFAULT_MAX_BYTES)) {
+            assertEquals(2 * IMAGE_BYTES, getSegmentFile().length());
+            assertThumbnail(pyramid, changing, changingBig, 11, 8);
+            assertThumbnail(pyramid, unchanged, unchangedSmall, 5, 4);
+        }
+    }
+
+    @Test
+    public void testMaxBytes() throws IOException {
+        long maxBytes = 2 * IMAGE_BYTES + 100L;
+        File first = makeImageFile("first.jpg");
+        File second = makeImageFile("second.jpg");
+        File third = makeImageFile("third.jpg");
+        int[] secondBig;
+        try (ThumbnailPyramid pyramid = open(maxBytes)) {
+            assertTrue(pyramid.addThumbnails(first, makeImage(16, 12)));
+            assertTrue(pyramid.addThumbnails(second, makeImage(16, 12)));
+            secondBig = getPixels(pyramid.getThumbnail(second, 11, 8));
+            assertFalse(pyramid.addThumbnails(third, makeImage(16, 12)));
+            assertFalse(pyramid.contains(third));
+        }
+        assertEquals(2 * IMAGE_BYTES, getSegmentFile().length());
+
+        // too full, the thumbnails added first are dropped to make room
+        try (ThumbnailPyramid pyramid = open(maxBytes)) {
+            assertEquals(IMAGE_BYTES, getSegmentFile().length());
+            assertFalse(pyramid.contains(first));
+            assertThumbnail(pyramid, second, secondBig, 11, 8);
+            assertTrue(pyramid.addThumbnails(third, makeImage(16, 12)));
+        }
+    }
+}
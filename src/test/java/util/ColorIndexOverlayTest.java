@@ -0,0 +1,101 @@
+package util;
+
+import data.storage.MosaicTile;
+import matching.MockTile;
+import org.junit.Test;
+import util.image.Color;
+import util.image.ColorIndexOverlay;
+import util.image.ColorSpace;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ColorIndexOverlayTest {
+
+    private static MosaicTile<String> makeTile(Random rnd, int index) {
+        return new MockTile("S" + index, Color.rgb(rnd.nextInt(256), rnd.nextInt(256), rnd.nextInt(256)), 5, 5);
+    }
+
+    private static void assertNearest(ColorSpace space, ColorIndexOverlay<MosaicTile<String>> overlay,
+                                      List<MosaicTile<String>> tiles, Random rnd) {
+        assertEquals(tiles.size(), overlay.size());
+        for (int i = 0; i < 50; i++) {
+            int color = Color.rgb(rnd.nextInt(256), rnd.nextInt(256), rnd.nextInt(256));
+            Optional<MosaicTile<String>> nearest = overlay.getNearestNeighbor(space.getCoordinates(color), 0.);
+            assertEquals(!tiles.isEmpty(), nearest.isPresent());
+            if (nearest.isPresent()) {
+                double best = tiles.stream().mapToDouble(tile -> space.getDistance(tile.getAverageARGB(), color))
+                        .min().getAsDouble();
+                assertEquals(best, space.getDistance(nearest.get().getAverageARGB(), color), 1E-9);
+            }
+        }
+    }
+
+    @Test
+    public void testInsertAndHide() {
+        Random rnd = new Random(1337);
+        ColorSpace space = ColorSpace.RgbEuclid.INSTANCE_WITHOUT_ALPHA;
+        List<MosaicTile<String>> tiles = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            tiles.add(makeTile(rnd, i));
+        }
+        ColorIndexOverlay<MosaicTile<String>> overlay = ColorIndexOverlay.make(rnd, tiles, space);
+        for (int i = 100; i < 1000; i++) {
+            MosaicTile<String> tile = makeTile(rnd, i);
+            tiles.add(tile);
+            overlay.insert(tile);
+            if (i % 3 == 0) {
+                MosaicTile<String> hidden = tiles.remove(rnd.nextInt(tiles.size()));
+                assertTrue(overlay.hide(hidden));
+                assertFalse(overlay.contains(hidden));
+            }
+            if (i % 100 == 0) {
+                assertNearest(space, overlay, tiles, rnd);
+            }
+        }
+        assertNearest(space, overlay, tiles, rnd);
+        List<MosaicTile<String>> visible = overlay.getVisibleData();
+        assertEquals(tiles.size(), visible.size());
+        assertTrue(visible.containsAll(tiles));
+
+        while (!tiles.isEmpty()) {
+            assertTrue(overlay.hide(tiles.remove(rnd.nextInt(tiles.size()))));
+        }
+        assertNearest(space, overlay, tiles, rnd);
+        overlay.insert(makeTile(rnd, 0));
+        assertEquals(1, overlay.size());
+    }
+
+    @Test
+    public void testCopyIsIndependent() {
+        Random rnd = new Random(42);
+        ColorSpace space = ColorSpace.Oklab.INSTANCE_WITHOUT_ALPHA;
+        List<MosaicTile<String>> tiles = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            tiles.add(makeTile(rnd, i));
+        }
+        MosaicTile<String> twice = tiles.get(0);
+        tiles.add(twice);
+        ColorIndexOverlay<MosaicTile<String>> overlay = ColorIndexOverlay.make(rnd, tiles, space);
+        ColorIndexOverlay<MosaicTile<String>> copy = overlay.copy();
+
+        assertTrue(copy.hide(twice));
+        assertTrue(copy.contains(twice));
+        assertTrue(copy.hide(twice));
+        assertFalse(copy.hide(twice));
+        MosaicTile<String> inserted = makeTile(rnd, 300);
+        copy.insert(inserted);
+        List<MosaicTile<String>> copyTiles = new ArrayList<>(tiles);
+        copyTiles.removeAll(Collections.singleton(twice));
+        copyTiles.add(inserted);
+        assertNearest(space, copy, copyTiles, rnd);
+
+        assertFalse(overlay.contains(inserted));
+        assertNearest(space, overlay, tiles, rnd);
+    }
+}
@@ -0,0 +1,117 @@
+package util;
+
+import data.storage.MosaicTile;
+import matching.MockTile;
+import matching.workers.SimpleLinearTileMatcher;
+import org.junit.Test;
+import reconstruction.MosaicFragment;
+import util.image.Color;
+import util.image.ColorDistanceKernel;
+import util.image.ColorSpace;
+import util.image.KDColorTree;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ColorSpaceTest {
+    private static final List<ColorSpace> SPACES = Arrays.asList(ColorSpace.RgbEuclid.INSTANCE_WITH_ALPHA,
+            ColorSpace.RgbEuclid.INSTANCE_WITHOUT_ALPHA, ColorSpace.RgbAbsolute.INSTANCE_WITH_ALPHA,
+            ColorSpace.RgbAbsolute.INSTANCE_WITHOUT_ALPHA, ColorSpace.Brightness.INSTANCE_WITH_ALPHA,
+            ColorSpace.Brightness.INSTANCE_WITHOUT_ALPHA, ColorSpace.Oklab.INSTANCE_WITH_ALPHA,
+            ColorSpace.Oklab.INSTANCE_WITHOUT_ALPHA);
+
+    @Test
+    public void testOklabReferenceColors() {
+        ColorSpace space = ColorSpace.Oklab.INSTANCE_WITHOUT_ALPHA;
+        double[] white = space.getCoordinates(0xFFFFFFFF);
+        assertEquals(1., white[0], 1E-4);
+        assertEquals(0., white[1], 1E-4);
+        assertEquals(0., white[2], 1E-4);
+        double[] black = space.getCoordinates(0xFF000000);
+        assertEquals(0., black[0], 1E-4);
+        double[] red = space.getCoordinates(0xFFFF0000);
+        assertEquals(0.628, red[0], 1E-3);
+        assertEquals(0.225, red[1], 1E-3);
+        assertEquals(0.126, red[2], 1E-3);
+        assertEquals(1., space.getDistance(0xFF000000, 0xFFFFFFFF), 1E-4);
+    }
+
+    @Test
+    public void testOklabRoundTrip() {
+        Random rnd = new Random(1337);
+        ColorSpace space = ColorSpace.Oklab.INSTANCE_WITH_ALPHA;
+        for (int i = 0; i < 1000; i++) {
+            int color = rnd.nextInt();
+            int result = space.valuesToArgb(space.getCoordinates(color));
+            assertTrue(Math.abs(Color.alpha(color) - Color.alpha(result)) <= 1);
+            assertTrue(Math.abs(Color.red(color) - Color.red(result)) <= 1);
+            assertTrue(Math.abs(Color.green(color) - Color.green(result)) <= 1);
+            assertTrue(Math.abs(Color.blue(color) - Color.blue(result)) <= 1);
+        }
+    }
+
+    @Test
+    public void testCoordinateDistanceEqualsDistance() {
+        Random rnd = new Random(42);
+        for (ColorSpace space : SPACES) {
+            for (int i = 0; i < 1000; i++) {
+                int color1 = rnd.nextInt();
+                int color2 = rnd.nextInt();
+                double expected = space.getDistance(color1, color2);
+                double actual = space.getCoordinateDistance(space.getCoordinates(color1), space.getCoordinates(color2));
+                assertEquals(space.toString(), expected, actual, 1E-5 * space.getMaxDistance());
+            }
+        }
+    }
+
+    @Test
+    public void testDistanceKernelEqualsSpace() {
+        Random rnd = new Random(7);
+        for (ColorSpace space : SPACES) {
+            ColorDistanceKernel kernel = space.getDistanceKernel();
+            for (int i = 0; i < 1000; i++) {
+                int color1 = rnd.nextInt();
+                int color2 = rnd.nextInt();
+                assertEquals(space.toString(), space.getDistance(color1, color2), kernel.getDistance(color1, color2),
+                             1E-9 * space.getMaxDistance());
+                double[] coordinates1 = space.getCoordinates(color1);
+                double[] coordinates2 = space.getCoordinates(color2);
+                double distance = kernel.getCoordinateDistance(coordinates1, coordinates2);
+                assertEquals(space.getCoordinateDistance(coordinates1, coordinates2), distance, 1E-9);
+                for (int axis = 0; axis < space.getDimension(); axis++) {
+                    double bound = kernel.getAxisLowerBound(coordinates1[axis], coordinates2[axis], axis);
+                    assertTrue(bound >= 0.);
+                    assertTrue(bound <= distance + 1E-9);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testTreeMatchesLinearInOklab() {
+        ColorSpace space = ColorSpace.Oklab.INSTANCE_WITHOUT_ALPHA;
+        Random rnd = new Random(1337);
+        List<MosaicTile<String>> tiles = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            tiles.add(new MockTile("S" + i, Color.rgb(rnd.nextInt(256), rnd.nextInt(256), rnd.nextInt(256)), 5, 5));
+        }
+        KDColorTree<MosaicTile<String>> tree = KDColorTree.make(rnd, tiles, space);
+        SimpleLinearTileMatcher<String> matcher = new SimpleLinearTileMatcher<>(tiles, space);
+        for (int i = 0; i < 1000; i++) {
+            int color = Color.rgb(rnd.nextInt(256), rnd.nextInt(256), rnd.nextInt(256));
+            Optional<MosaicTile<String>> tile1 = matcher.calculateBestMatch(new MosaicFragment(5, 5, color));
+            Optional<MosaicTile<String>> tile2 = tree.getNearestNeighbor(color);
+            assertTrue(tile1.isPresent());
+            assertTrue(tile2.isPresent());
+            double dist1 = space.getDistance(tile1.get().getAverageARGB(), color);
+            double dist2 = space.getDistance(tile2.get().getAverageARGB(), color);
+            assertEquals(dist1, dist2, 1E-6);
+        }
+    }
+}
@@ -90,6 +90,23 @@ public class KDColorTreeTest {
         }
     }
 
+    @Test
+    public void testNearestNeighborsCompareWithSorting() {
+        Random rnd = new Random(42);
+        int count = 7;
+        for (int i = 0; i < 200; i++) {
+            int color = Color.rgb(rnd.nextInt(256), rnd.nextInt(256), rnd.nextInt(256));
+            List<MosaicTile<String>> neighbors = tree.getNearestNeighbors(color, count);
+            assertEquals(count, neighbors.size());
+            double[] expected = tiles.stream().mapToDouble(tile -> space.getDistance(tile.getAverageARGB(), color))
+                                     .sorted().limit(count).toArray();
+            for (int j = 0; j < count; j++) {
+                assertEquals(expected[j], space.getDistance(neighbors.get(j).getAverageARGB(), color), 1E-10);
+            }
+        }
+        assertEquals(amount, tree.getNearestNeighbors(0xFF000000, amount + 5).size());
+    }
+
     @Test
     public void testCompareWithLinearMatcher() {
         SimpleLinearTileMatcher<String> matcher = new SimpleLinearTileMatcher<>(tiles, space);
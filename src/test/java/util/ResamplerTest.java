@@ -0,0 +1,82 @@
+package util;
+
+import org.junit.Test;
+import util.image.Color;
+import util.image.Resampler;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class ResamplerTest {
+
+    private static int[] makeUniform(int width, int height, int argb) {
+        int[] pixels = new int[width * height];
+        Arrays.fill(pixels, argb);
+        return pixels;
+    }
+
+    @Test
+    public void testUniformStaysUniform() {
+        int argb = Color.argb(200, 10, 120, 250);
+        int[][] sizes = {{100, 80, 7, 9}, {7, 9, 100, 80}, {1000, 900, 10, 10}, {30, 30, 30, 30}, {5, 1, 1, 5}};
+        for (Resampler.Filter filter : Resampler.Filter.values()) {
+            for (int[] size : sizes) {
+                int[] resampled = Resampler.resample(makeUniform(size[0], size[1], argb), size[0], size[1], size[2],
+                                                     size[3], filter);
+                assertEquals(size[2] * size[3], resampled.length);
+                for (int pixel : resampled) {
+                    assertEquals(filter + " " + Arrays.toString(size), argb, pixel);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testBoxAveragesBlocks() {
+        int[] pixels = {0xFF000000, 0xFF0000FF, 0xFF000000, 0xFF0000FF,
+                        0xFF0000FF, 0xFF000000, 0xFF0000FF, 0xFF000000};
+        int[] resampled = Resampler.resample(pixels, 4, 2, 2, 1, Resampler.Filter.BOX);
+        assertArrayEquals(new int[] {0xFF000080, 0xFF000080}, resampled);
+    }
+
+    @Test
+    public void testTransparentDoesNotDarken() {
+        int[] pixels = new int[20 * 20];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = (i % 20) < 10 ? 0x00000000 : 0xFFFF0000;
+        }
+        for (Resampler.Filter filter : Resampler.Filter.values()) {
+            int[] resampled = Resampler.resample(pixels, 20, 20, 1, 1, filter);
+            assertEquals(filter.toString(), 255, Color.red(resampled[0]));
+            assertEquals(filter.toString(), 0, Color.green(resampled[0]));
+            assertEquals(filter.toString(), 128., Color.alpha(resampled[0]), 2.);
+        }
+        // shrunk enough to be averaged in blocks first
+        pixels = new int[200 * 200];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = (i % 2) == 0 ? 0x00000000 : 0xFFFF0000;
+        }
+        int[] resampled = Resampler.resample(pixels, 200, 200, 3, 3);
+        for (int pixel : resampled) {
+            assertEquals(255, Color.red(pixel));
+            assertEquals(128., Color.alpha(pixel), 2.);
+        }
+    }
+
+    @Test
+    public void testBilinearInterpolates() {
+        int[] pixels = {0xFF000000, 0xFFC8C8C8};
+        int[] resampled = Resampler.resample(pixels, 2, 1, 4, 1, Resampler.Filter.BILINEAR);
+        // the outer pixels keep the edge colors, the inner ones are a quarter of the way
+        assertEquals(0, Color.red(resampled[0]));
+        assertEquals(50, Color.red(resampled[1]));
+        assertEquals(150, Color.red(resampled[2]));
+        assertEquals(200, Color.red(resampled[3]));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testIllegalSize() {
+        Resampler.resample(new int[4], 2, 2, 0, 2);
+    }
+}
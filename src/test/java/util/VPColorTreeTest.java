@@ -0,0 +1,193 @@
+package util;
+
+import data.storage.MosaicTile;
+import matching.MockTile;
+import matching.workers.FastMatcher;
+import matching.workers.VarietyMatcher;
+import org.junit.Test;
+import reconstruction.MosaicFragment;
+import util.image.Color;
+import util.image.ColorIndex;
+import util.image.ColorMetric;
+import util.image.ColorSpace;
+import util.image.KDColorTree;
+import util.image.VPColorTree;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class VPColorTreeTest {
+
+    /**
+     * Rgb with the chebyshev distance, the greatest difference of a channel. Not a sum over the axes.
+     */
+    private static class ChebyshevSpace extends ColorSpace {
+        @Override
+        public double getValue(int argb, int axis) {
+            return ColorSpace.RgbEuclid.INSTANCE_WITHOUT_ALPHA.getValue(argb, axis);
+        }
+
+        @Override
+        public double getMinimum(int axis) {
+            return 0.;
+        }
+
+        @Override
+        public double getMaximum(int axis) {
+            return 255.;
+        }
+
+        @Override
+        public boolean usesAlpha() {
+            return false;
+        }
+
+        @Override
+        public int getDimension() {
+            return 3;
+        }
+
+        @Override
+        public ColorMetric getMetric() {
+            return ColorMetric.Absolute.INSTANCE;
+        }
+
+        @Override
+        public double getDistance(int color1, int color2) {
+            return getCoordinateDistance(getCoordinates(color1), getCoordinates(color2));
+        }
+
+        @Override
+        public double getCoordinateDistance(double[] coordinates1, double[] coordinates2) {
+            double max = 0.;
+            for (int axis = 0; axis < coordinates1.length; axis++) {
+                max = Math.max(max, Math.abs(coordinates1[axis] - coordinates2[axis]));
+            }
+            return max;
+        }
+
+        @Override
+        public double getMaxDistance() {
+            return 255.;
+        }
+
+        @Override
+        public ColorSpace getInstanceByAlpha(boolean useAlpha) {
+            return this;
+        }
+
+        @Override
+        public int valuesToArgb(double[] values) {
+            return Color.rgb((int) values[0], (int) values[1], (int) values[2]);
+        }
+    }
+
+    private static List<MosaicTile<String>> makeTiles(Random rnd, int count) {
+        List<MosaicTile<String>> tiles = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            tiles.add(new MockTile("S" + i, Color.rgb(rnd.nextInt(256), rnd.nextInt(256), rnd.nextInt(256)), 5, 5));
+        }
+        return tiles;
+    }
+
+    private static double bestDistance(ColorSpace space, List<MosaicTile<String>> tiles, int color) {
+        return tiles.stream().mapToDouble(tile -> space.getDistance(tile.getAverageARGB(), color)).min().getAsDouble();
+    }
+
+    private static void assertNearest(ColorSpace space, ColorIndex<MosaicTile<String>> index,
+                                      List<MosaicTile<String>> tiles, Random rnd) {
+        for (int i = 0; i < 300; i++) {
+            int color = Color.rgb(rnd.nextInt(256), rnd.nextInt(256), rnd.nextInt(256));
+            Optional<MosaicTile<String>> nearest = index.getNearestNeighbor(space.getCoordinates(color), 0.);
+            assertTrue(nearest.isPresent());
+            assertEquals(bestDistance(space, tiles, color), space.getDistance(nearest.get().getAverageARGB(), color),
+                         1E-9);
+        }
+    }
+
+    @Test
+    public void testIndexChoice() {
+        List<MosaicTile<String>> tiles = makeTiles(new Random(1), 10);
+        assertTrue(ColorIndex.make(new Random(), tiles, ColorSpace.RgbEuclid.INSTANCE_WITH_ALPHA)
+                           instanceof KDColorTree);
+        assertTrue(ColorIndex.make(new Random(), tiles, new ChebyshevSpace()) instanceof VPColorTree);
+    }
+
+    @Test
+    public void testNearestWithRemovals() {
+        Random rnd = new Random(1337);
+        for (ColorSpace space : new ColorSpace[] {new ChebyshevSpace(), ColorSpace.RgbEuclid.INSTANCE_WITHOUT_ALPHA,
+                ColorSpace.Oklab.INSTANCE_WITHOUT_ALPHA}) {
+            List<MosaicTile<String>> tiles = makeTiles(rnd, 3000);
+            VPColorTree<MosaicTile<String>> tree = VPColorTree.make(rnd, tiles, space);
+            assertEquals(tiles.size(), tree.size());
+            assertNearest(space, tree, tiles, rnd);
+
+            // removing more than half rebuilds the tree
+            for (int i = 0; i < 2000; i++) {
+                MosaicTile<String> tile = tiles.remove(rnd.nextInt(tiles.size()));
+                assertTrue(tree.removeNode(tile));
+                assertFalse(tree.removeNode(tile));
+            }
+            assertEquals(tiles.size(), tree.size());
+            assertNearest(space, tree, tiles, rnd);
+        }
+    }
+
+    @Test
+    public void testNearestNeighborsCompareWithSorting() {
+        Random rnd = new Random(7);
+        ColorSpace space = new ChebyshevSpace();
+        List<MosaicTile<String>> tiles = makeTiles(rnd, 2000);
+        VPColorTree<MosaicTile<String>> tree = VPColorTree.make(rnd, tiles, space);
+        for (int i = 0; i < 1500; i++) {
+            assertTrue(tree.removeNode(tiles.remove(rnd.nextInt(tiles.size()))));
+        }
+        int count = 7;
+        for (int i = 0; i < 200; i++) {
+            int color = Color.rgb(rnd.nextInt(256), rnd.nextInt(256), rnd.nextInt(256));
+            List<MosaicTile<String>> neighbors = tree.getNearestNeighbors(space.getCoordinates(color), count);
+            assertEquals(count, neighbors.size());
+            double[] expected = tiles.stream().mapToDouble(tile -> space.getDistance(tile.getAverageARGB(), color))
+                                     .sorted().limit(count).toArray();
+            for (int j = 0; j < count; j++) {
+                assertEquals(expected[j], space.getDistance(neighbors.get(j).getAverageARGB(), color), 1E-9);
+            }
+        }
+        assertEquals(tiles.size(), tree.getNearestNeighbors(space.getCoordinates(0xFF000000), 1000).size());
+    }
+
+    @Test
+    public void testVarietyMatcherUsesMetricIndex() {
+        Random rnd = new Random(3);
+        ColorSpace space = new ChebyshevSpace();
+        List<MosaicTile<String>> tiles = makeTiles(rnd, 2000);
+        VarietyMatcher<String> matcher = new VarietyMatcher<>(tiles, space, 4, 0, 0.);
+        for (int i = 0; i < 200; i++) {
+            int color = Color.rgb(rnd.nextInt(256), rnd.nextInt(256), rnd.nextInt(256));
+            Optional<? extends MosaicTile<String>> match = matcher.getBestMatch(new MosaicFragment(5, 5, color));
+            assertTrue(match.isPresent());
+            assertEquals(bestDistance(space, tiles, color), space.getDistance(match.get().getAverageARGB(), color),
+                         1E-9);
+        }
+    }
+
+    @Test
+    public void testMatcherUsesMetricIndex() {
+        Random rnd = new Random(42);
+        ColorSpace space = new ChebyshevSpace();
+        List<MosaicTile<String>> tiles = makeTiles(rnd, 2000);
+        FastMatcher<String> matcher = new FastMatcher<>(tiles, space);
+        for (int i = 0; i < 200; i++) {
+            int color = Color.rgb(rnd.nextInt(256), rnd.nextInt(256), rnd.nextInt(256));
+            Optional<? extends MosaicTile<String>> match = matcher.getBestMatch(new MosaicFragment(5, 5, color));
+            assertTrue(match.isPresent());
+            assertEquals(bestDistance(space, tiles, color), space.getDistance(match.get().getAverageARGB(), color),
+                         1E-9);
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package util;
+
+import org.junit.Test;
+import util.caching.LruCache;
+import util.caching.WeightedLruCache;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class WeightedLruCacheTest {
+
+    @Test
+    public void testWeightBound() {
+        WeightedLruCache<Integer, String> cache = new WeightedLruCache<>(10L, value -> (long) value.length());
+        cache.addToCache(1, "aaaa");
+        cache.addToCache(2, "bbbb");
+        assertEquals(8L, cache.getWeight());
+        assertTrue(cache.getFromCache(1).isPresent()); // 2 is now the least recently used
+        cache.addToCache(3, "cc");
+        assertEquals(10L, cache.getWeight());
+        assertEquals(0L, cache.getEvictionsCount());
+        cache.addToCache(4, "d");
+        assertFalse(cache.getFromCache(2).isPresent());
+        assertTrue(cache.getFromCache(1).isPresent());
+        assertEquals(1L, cache.getEvictionsCount());
+        assertEquals(7L, cache.getWeight());
+
+        // too heavy to be kept at all
+        cache.addToCache(5, "eeeeeeeeeee");
+        assertFalse(cache.getFromCache(5).isPresent());
+        assertEquals(0L, cache.getWeight());
+        assertEquals(0, cache.size());
+
+        assertEquals(2L, cache.getHitsCount());
+        assertEquals(2L, cache.getMissesCount());
+    }
+
+    @Test
+    public void testEntriesBound() {
+        WeightedLruCache<Integer, Integer> cache = new WeightedLruCache<>(3);
+        for (int i = 0; i < 3; i++) {
+            cache.addToCache(i, i);
+        }
+        assertEquals(3, cache.size());
+        cache.addToCache(3, 3);
+        assertEquals(3, cache.size());
+        assertFalse(cache.getFromCache(0).isPresent());
+        cache.setCacheSize(1);
+        assertEquals(1, cache.size());
+        assertTrue(cache.getFromCache(3).isPresent());
+    }
+
+    @Test
+    public void testRemoveValue() {
+        WeightedLruCache<Integer, String> cache = new WeightedLruCache<>(100);
+        cache.addToCache(1, "a");
+        cache.addToCache(2, "b");
+        cache.addToCache(3, "a");
+        cache.addToCache(3, "c"); // replaces the value of 3
+        cache.removeValueFromCache("a");
+        assertFalse(cache.getFromCache(1).isPresent());
+        assertTrue(cache.getFromCache(2).isPresent());
+        assertEquals("c", cache.getFromCache(3).get());
+        assertEquals(2, cache.size());
+        cache.removeFromCache(2);
+        cache.removeValueFromCache("c");
+        assertEquals(0, cache.size());
+        assertEquals(0L, cache.getWeight());
+    }
+
+    @Test
+    public void testConcurrentAccess() throws InterruptedException {
+        WeightedLruCache<Integer, Integer> cache = new WeightedLruCache<>(64);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            final int offset = t;
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < 10000; i++) {
+                    int key = (i * 7 + offset) % 100;
+                    if (!cache.getFromCache(key).isPresent()) {
+                        cache.addToCache(key, key);
+                    }
+                    if (i % 10 == 0) {
+                        cache.removeValueFromCache(key);
+                    }
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertTrue(cache.size() <= 64);
+        assertEquals(cache.size(), cache.getWeight());
+        assertEquals(40000L, cache.getHitsCount() + cache.getMissesCount());
+    }
+
+    @Test
+    public void testLruCacheHoldsConfiguredSize() {
+        LruCache<Integer, Integer> cache = new LruCache<>(3);
+        for (int i = 0; i < 3; i++) {
+            cache.addToCache(i, i);
+        }
+        assertEquals(3, cache.size());
+        assertEquals(0L, cache.getEvictionsCount());
+        cache.addToCache(3, 3);
+        assertEquals(3, cache.size());
+        assertEquals(1L, cache.getEvictionsCount());
+        cache.removeValueFromCache(3);
+        assertEquals(2, cache.size());
+    }
+}